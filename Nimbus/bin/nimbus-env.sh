@@ -28,3 +28,4 @@ JAVA=`which java`
 
 NIMBUS_EXEC="${JAVA} ${NIMBUS_JAVA_OPTS} -Djava.library.path=${NIMBUS_HOME}/bin/native -classpath ${NIMBUS_CLASSPATH} -jar ${NIMBUS_JAR_FILE} -start"
 NIMBUS_KILL="${JAVA} ${NIMBUS_JAVA_OPTS} -Djava.library.path=${NIMBUS_HOME}/bin/native -classpath ${NIMBUS_CLASSPATH} -jar ${NIMBUS_JAR_FILE} -kill"
+NIMBUS_DAEMON="${JAVA} ${NIMBUS_JAVA_OPTS} -Djava.library.path=${NIMBUS_HOME}/bin/native -classpath ${NIMBUS_CLASSPATH} -jar ${NIMBUS_JAR_FILE} --daemon"
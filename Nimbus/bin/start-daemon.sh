@@ -0,0 +1,23 @@
+#!/bin/bash
+bin=`dirname "$0"`
+bin=`cd "$bin"; pwd`
+
+. "${bin}/nimbus-env.sh"
+
+if [ -z ${HADOOP_HOME} ]; then
+	echo "JAVA_HOME variable is not set in ./bin/nimbus-env.sh"
+	exit 1
+fi
+
+if [ -z ${JAVA_HOME} ]; then
+	echo "JAVA_HOME variable is not set in ./bin/nimbus-env.sh"
+	exit 1
+fi
+
+LOG_FILE=${LOG_DIR}/nimbus-daemon-${USER}.log
+{
+echo "Starting Cachelet daemon"
+${NIMBUS_DAEMON} &
+} > ${LOG_FILE} 2>&1
+mkdir -p ${NIMBUS_HOME}/pids
+echo $! > ${NIMBUS_HOME}/pids/`hostname`-daemon.pid
@@ -0,0 +1,13 @@
+#!/bin/bash
+bin=`dirname "$0"`
+bin=`cd "$bin"; pwd`
+
+. "${bin}/nimbus-env.sh"
+
+echo "starting Cachelet daemons using ${CONFIG_FILE}"
+
+for server in `cat "${HOSTLIST}"| sed "s/#.*$//;/^$/d"`
+do
+    echo "starting Cachelet daemon at $server"
+	ssh $server "sh ${NIMBUS_HOME}/bin/start-daemon.sh"
+done
@@ -37,6 +37,7 @@ public class BaseNimbusClient implements Runnable {
 
 	protected NimbusOutputStream out = null;
 	protected NimbusInputStream in = null;
+	protected CacheletPipeline pipeline = null;
 
 	protected String host = null;
 	protected int port = 0;
@@ -120,7 +121,9 @@ public class BaseNimbusClient implements Runnable {
 		}
 
 		out = new NimbusOutputStream(socket.getOutputStream());
+		out.setProtocolVersion(NimbusConf.getConf().getProtocolVersion());
 		in = new NimbusInputStream(socket.getInputStream());
+		pipeline = null;
 
 		LOG.debug("Connected to " + host + " on port " + port);
 	}
@@ -137,6 +140,7 @@ public class BaseNimbusClient implements Runnable {
 	 */
 	public void disconnect() throws IOException {
 		connected = false;
+		pipeline = null;
 		if (out != null) {
 			out.close();
 			out = null;
@@ -153,6 +157,7 @@ public class BaseNimbusClient implements Runnable {
 
 	public void write(int cmd) throws IOException {
 		if (connected) {
+			drainPipeline();
 			out.write(cmd);
 		} else {
 			throw new CacheletNotConnectedException(host);
@@ -162,6 +167,7 @@ public class BaseNimbusClient implements Runnable {
 	public void write(int cmd, String... args) throws IOException,
 			CacheletNotConnectedException {
 		if (connected) {
+			drainPipeline();
 			out.write(cmd, args);
 		} else {
 			throw new CacheletNotConnectedException(host);
@@ -171,6 +177,7 @@ public class BaseNimbusClient implements Runnable {
 	public void write(int cmd, byte[]... args) throws IOException,
 			CacheletNotConnectedException {
 		if (connected) {
+			drainPipeline();
 			out.write(cmd, args);
 		} else {
 			throw new CacheletNotConnectedException(host);
@@ -189,6 +196,7 @@ public class BaseNimbusClient implements Runnable {
 	public void write(int cmd, Collection<? extends String> args)
 			throws IOException {
 		if (connected) {
+			drainPipeline();
 			out.write(cmd, args);
 		} else {
 			throw new CacheletNotConnectedException(host);
@@ -198,12 +206,44 @@ public class BaseNimbusClient implements Runnable {
 	public void write(int cmd, Map<? extends String, ? extends String> values)
 			throws IOException {
 		if (connected) {
+			drainPipeline();
 			out.write(cmd, values);
 		} else {
 			throw new CacheletNotConnectedException(host);
 		}
 	}
 
+	/**
+	 * Gets the pipeline used to keep many requests outstanding on this
+	 * connection, creating it on first use.
+	 * 
+	 * @return The pipeline.
+	 * @throws CacheletNotConnectedException
+	 *             If this client is not connected.
+	 */
+	protected CacheletPipeline getPipeline()
+			throws CacheletNotConnectedException {
+		if (!connected) {
+			throw new CacheletNotConnectedException(host);
+		}
+
+		if (pipeline == null) {
+			pipeline = new CacheletPipeline(out, in, NimbusConf.getConf()
+					.getClientPipelineWindow());
+		}
+		return pipeline;
+	}
+
+	/**
+	 * Reads the replies to any outstanding pipelined requests so the next reply
+	 * on the stream belongs to the next request written without an ID.
+	 */
+	protected void drainPipeline() throws IOException {
+		if (pipeline != null) {
+			pipeline.drain();
+		}
+	}
+
 	/**
 	 * Gets a value indicating if this client is currently connected.
 	 * 
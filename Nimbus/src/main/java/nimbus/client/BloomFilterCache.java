@@ -0,0 +1,130 @@
+package nimbus.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import nimbus.main.NimbusConf;
+import nimbus.utils.IBloomFilter;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps a copy of each Cachelet's Bloom filter on the local disk, so the filter
+ * is downloaded from HDFS once per machine rather than once per client. The
+ * copy is memory mapped read-only with {@link IBloomFilter#map(File)}, so
+ * every client on the machine, such as the tasks of a MapReduce job, shares
+ * one copy in the page cache and is ready without parsing the filter.<br>
+ * <br>
+ * Copies live in {@link NimbusConf#getBloomFilterCacheDir(String, String)} and
+ * are named after the modification time and length of the filter in HDFS, so
+ * a filter written again when the Cache is reloaded is downloaded again. A
+ * copy is written to a temporary file, checked with
+ * {@link IBloomFilter#verify(File)}, and renamed into place, so clients never
+ * see a partial or corrupt copy, and clients racing to download the same
+ * filter each rename a complete one. Older copies are deleted once a new one
+ * is in place; clients that still have one mapped keep reading it until they
+ * close.
+ */
+public class BloomFilterCache {
+
+	private static final Logger LOG = Logger.getLogger(BloomFilterCache.class);
+	private static final String SUFFIX = ".bloom";
+
+	private BloomFilterCache() {
+	}
+
+	/**
+	 * Gets the given Cachelet's Bloom filter, downloading it to the local cache
+	 * first if needed.
+	 * 
+	 * @param cacheName
+	 *            The Cache the filter belongs to.
+	 * @param cacheletName
+	 *            The Cachelet the filter belongs to.
+	 * @param p
+	 *            The filter in HDFS.
+	 * @return The filter, memory mapped from the local copy.
+	 * @throws IOException
+	 *             If the filter cannot be downloaded or mapped.
+	 */
+	public static IBloomFilter get(String cacheName, String cacheletName,
+			Path p) throws IOException {
+		File dir = NimbusConf.getConf().getBloomFilterCacheDir(cacheName,
+				cacheletName);
+		FileSystem fs = FileSystem.get(NimbusConf.getConf());
+		FileStatus status = fs.getFileStatus(p);
+
+		File local = new File(dir, status.getModificationTime() + "-"
+				+ status.getLen() + SUFFIX);
+		if (local.exists() && local.length() == status.getLen()) {
+			LOG.info("Using cached Bloom filter " + local);
+		} else {
+			download(fs, p, status.getLen(), dir, local);
+			deleteStale(dir, local);
+		}
+
+		return IBloomFilter.map(local);
+	}
+
+	private static void download(FileSystem fs, Path p, long length,
+			File dir, File local) throws IOException {
+		if (!dir.exists() && !dir.mkdirs() && !dir.exists()) {
+			throw new IOException("Failed to create " + dir);
+		}
+
+		long start = System.currentTimeMillis();
+		File tmp = File.createTempFile(local.getName(), ".tmp", dir);
+		try {
+			InputStream in = fs.open(p);
+			OutputStream out = new FileOutputStream(tmp);
+			try {
+				byte[] buffer = new byte[64 * 1024];
+				int n;
+				while ((n = in.read(buffer)) != -1) {
+					out.write(buffer, 0, n);
+				}
+			} finally {
+				out.close();
+				in.close();
+			}
+
+			if (tmp.length() != length) {
+				throw new IOException("Downloaded " + tmp.length()
+						+ " bytes of " + p + ", expected " + length);
+			}
+			IBloomFilter.verify(tmp);
+
+			// another client may have renamed its copy first, which is just as
+			// good
+			if (!tmp.renameTo(local) && !local.exists()) {
+				throw new IOException("Failed to rename " + tmp + " to "
+						+ local);
+			}
+		} finally {
+			tmp.delete();
+		}
+
+		LOG.info("Downloaded " + p + " to " + local + " in "
+				+ (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	private static void deleteStale(File dir, File local) {
+		File[] files = dir.listFiles();
+		if (files == null) {
+			return;
+		}
+
+		for (File file : files) {
+			if (file.getName().endsWith(SUFFIX) && !file.equals(local)) {
+				LOG.info("Deleting stale Bloom filter " + file);
+				file.delete();
+			}
+		}
+	}
+}
@@ -0,0 +1,271 @@
+package nimbus.client;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import nimbus.utils.NimbusInputStream;
+import nimbus.utils.NimbusOutputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Keeps many requests outstanding on a single Cachelet connection. Every
+ * request is written with a unique request ID, which the Cachelet echoes on its
+ * reply, and the reply is matched back to the {@link Response} that was handed
+ * out when the request was sent.<br>
+ * <br>
+ * There is no background thread. Replies are read by whichever caller needs
+ * one, either when {@link Response#get()} is called or when the number of
+ * outstanding requests reaches the window size and room must be made for a
+ * new request. Any replies read along the way complete their own responses.
+ * Like the connections that use it, a pipeline is not thread safe.<br>
+ * <br>
+ * A reply that its response fails to parse is skipped over, so the replies
+ * after it can still be read. Any other error reading a reply leaves the
+ * connection at an unknown point in the stream, so every outstanding response
+ * fails with it and the pipeline is broken: it refuses to send or read
+ * anything more, and the connection must be reopened.
+ */
+public class CacheletPipeline {
+
+	private static final Logger LOG = Logger.getLogger(CacheletPipeline.class);
+
+	private NimbusOutputStream out = null;
+	private NimbusInputStream in = null;
+	private int window = 0;
+	private long nextRequestId = 0;
+	private Map<Long, Response<?>> pending = new HashMap<Long, Response<?>>();
+	private IOException broken = null;
+
+	/**
+	 * Initializes a new instance of the {@link CacheletPipeline} class.
+	 *
+	 * @param out
+	 *            The stream requests are written to.
+	 * @param in
+	 *            The stream replies are read from.
+	 * @param window
+	 *            The maximum number of outstanding requests.
+	 */
+	public CacheletPipeline(NimbusOutputStream out, NimbusInputStream in,
+			int window) {
+		this.out = out;
+		this.in = in;
+		this.window = Math.max(1, window);
+	}
+
+	/**
+	 * Sends a request without waiting for the reply.
+	 *
+	 * @param response
+	 *            The response that will be completed by the reply.
+	 * @param cmd
+	 *            The command to send.
+	 * @param args
+	 *            The arguments of the command.
+	 * @return The given response.
+	 * @throws IOException
+	 *             If an error occurs writing the request or reading the replies
+	 *             needed to make room for it, or the pipeline is broken.
+	 */
+	public <T> Response<T> send(Response<T> response, int cmd, String... args)
+			throws IOException {
+		checkBroken();
+		while (pending.size() >= window) {
+			readReply();
+		}
+
+		long requestId = nextRequestId++;
+		response.pipeline = this;
+		pending.put(requestId, response);
+
+		out.setRequestId(requestId);
+		try {
+			out.write(cmd, args);
+		} finally {
+			out.setRequestId(NimbusOutputStream.NO_REQUEST_ID);
+		}
+
+		return response;
+	}
+
+	/**
+	 * Reads replies until every outstanding request has been answered. Must be
+	 * called before reading from the connection in any other way.
+	 *
+	 * @throws IOException
+	 *             If an error occurs reading the replies, or the pipeline is
+	 *             broken.
+	 */
+	public void drain() throws IOException {
+		checkBroken();
+		while (!pending.isEmpty()) {
+			readReply();
+		}
+	}
+
+	/**
+	 * Gets the number of requests that have not been answered yet.
+	 *
+	 * @return The number of outstanding requests.
+	 */
+	public int getNumPending() {
+		return pending.size();
+	}
+
+	private void await(Response<?> response) throws IOException {
+		while (!response.isDone()) {
+			readReply();
+		}
+	}
+
+	/**
+	 * Gets whether an error reading a reply has broken the pipeline.
+	 *
+	 * @return True if the pipeline is broken.
+	 */
+	public boolean isBroken() {
+		return broken != null;
+	}
+
+	private void checkBroken() throws IOException {
+		if (broken != null) {
+			throw new IOException("Pipeline is broken: " + broken.getMessage(),
+					broken);
+		}
+	}
+
+	private void readReply() throws IOException {
+		checkBroken();
+		try {
+			int cmd = in.readCmd();
+			long requestId = in.getRequestId();
+			long numArgs = in.readNumArgs();
+
+			Response<?> response = pending.remove(requestId);
+			if (response == null) {
+				throw new IOException("Received reply for unknown request "
+						+ requestId);
+			}
+
+			LOG.debug("Received reply for request " + requestId);
+			response.complete(cmd, numArgs, in);
+
+			// skip whatever a failed parse left unread
+			for (long i = in.getNumArgsRead(); i < numArgs; ++i) {
+				in.skipArg();
+			}
+			in.verifyEndOfMessage();
+		} catch (IOException e) {
+			LOG.error("Failing " + pending.size()
+					+ " outstanding requests after reply error: "
+					+ e.getMessage());
+			broken = e;
+			for (Response<?> response : pending.values()) {
+				response.fail(e);
+			}
+			pending.clear();
+			throw e;
+		}
+	}
+
+	/**
+	 * The pending result of a request sent through a {@link CacheletPipeline}.
+	 * Subclasses turn the reply into a value.
+	 *
+	 * @param <T>
+	 *            The type of the value.
+	 */
+	public static abstract class Response<T> implements Future<T> {
+
+		private CacheletPipeline pipeline = null;
+		private boolean done = false;
+		private T value = null;
+		private IOException error = null;
+
+		/**
+		 * Turns the reply to the request into a value. Should read every
+		 * argument of the reply from the stream, and must read nothing more.
+		 * Any arguments left unread, such as after an error, are skipped.
+		 *
+		 * @param cmd
+		 *            The command of the reply.
+		 * @param numArgs
+		 *            The number of arguments of the reply.
+		 * @param in
+		 *            The stream to read the arguments from.
+		 * @return The value.
+		 * @throws IOException
+		 *             If the reply is not what was expected.
+		 */
+		protected abstract T parse(int cmd, long numArgs, NimbusInputStream in)
+				throws IOException;
+
+		private void complete(int cmd, long numArgs, NimbusInputStream in) {
+			try {
+				value = parse(cmd, numArgs, in);
+			} catch (IOException e) {
+				error = e;
+			}
+			done = true;
+		}
+
+		private void fail(IOException e) {
+			error = e;
+			done = true;
+		}
+
+		/**
+		 * Reads replies from the connection until this one arrives.
+		 */
+		@Override
+		public T get() throws ExecutionException {
+			if (!done) {
+				try {
+					pipeline.await(this);
+				} catch (IOException e) {
+					throw new ExecutionException(e);
+				}
+			}
+
+			if (error != null) {
+				throw new ExecutionException(error);
+			}
+
+			return value;
+		}
+
+		/**
+		 * Same as {@link Response#get()}. Replies are read with blocking I/O,
+		 * so the timeout is not enforced.
+		 */
+		@Override
+		public T get(long timeout, TimeUnit unit) throws ExecutionException {
+			return get();
+		}
+
+		/**
+		 * Requests that have been written cannot be cancelled.
+		 *
+		 * @return False
+		 */
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return false;
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return false;
+		}
+
+		@Override
+		public boolean isDone() {
+			return done;
+		}
+	}
+}
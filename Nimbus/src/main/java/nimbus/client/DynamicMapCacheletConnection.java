@@ -1,6 +1,7 @@
 package nimbus.client;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -11,7 +12,7 @@ import nimbus.master.CacheDoesNotExistException;
 import nimbus.master.NimbusMaster;
 import nimbus.nativestructs.CMapEntry;
 import nimbus.server.DynamicMapCacheletServer;
-import nimbus.utils.BytesUtil;
+import nimbus.utils.NimbusInputStream;
 
 public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 		Iterable<Entry<String, String>> {
@@ -34,7 +35,7 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 		String response = null;
 		if (super.in.readCmd() == DynamicMapCacheletServer.ACK_CMD) {
 			super.in.readNumArgs();
-			response = BytesUtil.toString(super.in.readArg());
+			response = super.in.readArgString();
 		} else {
 			super.in.readNumArgs();
 		}
@@ -63,17 +64,11 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
-			throw new IOException("Did not receive a true or false response.");
-		}
+		return response;
 	}
 
 	public boolean containsValue(String value) throws IOException,
@@ -86,17 +81,11 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
-			throw new IOException("Did not receive a true or false response.");
-		}
+		return response;
 	}
 
 	public String get(String key) throws IOException {
@@ -106,7 +95,7 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 		String response = null;
 		if (super.in.readCmd() == DynamicMapCacheletServer.ACK_CMD) {
 			super.in.readNumArgs();
-			response = BytesUtil.toString(super.in.readArg());
+			response = super.in.readArgString();
 		} else {
 			super.in.readNumArgs();
 		}
@@ -116,6 +105,63 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 		return response;
 	}
 
+	/**
+	 * Gets the values of all the given keys with a single request.
+	 * 
+	 * @param keys
+	 *            The keys to get.
+	 * @param values
+	 *            A map to put every key that exists into, along with its value.
+	 */
+	public void getAll(Collection<String> keys, Map<String, String> values)
+			throws IOException {
+		sendGetAll(keys);
+		readGetAll(keys, values);
+	}
+
+	/**
+	 * Sends a multi-get request without reading the reply, which must be read
+	 * with {@link #readGetAll(Collection, Map)} before anything else is read
+	 * from this connection. Lets a client send requests to many Cachelets
+	 * before waiting on any of them.
+	 * 
+	 * @param keys
+	 *            The keys to get.
+	 */
+	public void sendGetAll(Collection<String> keys) throws IOException {
+		super.write(DynamicMapCacheletServer.MGET_CMD, keys);
+	}
+
+	/**
+	 * Reads the reply to a request sent with {@link #sendGetAll(Collection)}.
+	 * 
+	 * @param keys
+	 *            The keys that were sent, in the same order.
+	 * @param values
+	 *            A map to put every key that exists into, along with its value.
+	 */
+	public void readGetAll(Collection<String> keys, Map<String, String> values)
+			throws IOException {
+		if (super.in.readCmd() != DynamicMapCacheletServer.ACK_CMD) {
+			throw new IOException("Did not receive ACK_CMD");
+		}
+
+		long numArgs = super.in.readNumArgs();
+		if (numArgs != keys.size()) {
+			throw new IOException("Expected " + keys.size()
+					+ " values, received " + numArgs);
+		}
+
+		for (String key : keys) {
+			String value = super.in.readArgString();
+			if (value != null) {
+				values.put(key, value);
+			}
+		}
+
+		in.verifyEndOfMessage();
+	}
+
 	public boolean isEmpty() throws IOException {
 		super.write(DynamicMapCacheletServer.ISEMPTY_CMD);
 
@@ -125,17 +171,11 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
-			throw new IOException("Did not receive a true or false response.");
-		}
+		return response;
 	}
 
 	public String remove(String key) throws IOException {
@@ -144,7 +184,7 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 		String response = null;
 		if (super.in.readCmd() == DynamicMapCacheletServer.ACK_CMD) {
 			super.in.readNumArgs();
-			response = BytesUtil.toString(super.in.readArg());
+			response = super.in.readArgString();
 		} else {
 			super.in.readNumArgs();
 		}
@@ -154,6 +194,62 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 		return response;
 	}
 
+	/**
+	 * Sends a get request without waiting for the reply. Many requests can be
+	 * outstanding at once on this connection, up to the
+	 * nimbus.client.pipeline.window setting.
+	 * 
+	 * @param key
+	 *            The key to get.
+	 * @return The pending value, which is null if the key does not exist.
+	 */
+	public CacheletPipeline.Response<String> getAsync(String key)
+			throws IOException {
+		return getPipeline().send(new ValueResponse(),
+				DynamicMapCacheletServer.GET_CMD, key);
+	}
+
+	/**
+	 * Sends a put request without waiting for the reply.
+	 * 
+	 * @param key
+	 *            The key to put.
+	 * @param value
+	 *            The value to put.
+	 * @return The pending previous value, which is null if there was none.
+	 */
+	public CacheletPipeline.Response<String> putAsync(String key, String value)
+			throws IOException {
+		return getPipeline().send(new ValueResponse(),
+				DynamicMapCacheletServer.PUT_CMD, key, value);
+	}
+
+	/**
+	 * Sends a contains key request without waiting for the reply.
+	 * 
+	 * @param key
+	 *            The key to check.
+	 * @return Whether or not the key exists, pending.
+	 */
+	public CacheletPipeline.Response<Boolean> containsKeyAsync(String key)
+			throws IOException {
+		return getPipeline().send(new BooleanResponse(),
+				DynamicMapCacheletServer.CONTAINS_KEY_CMD, key);
+	}
+
+	/**
+	 * Sends a remove request without waiting for the reply.
+	 * 
+	 * @param key
+	 *            The key to remove.
+	 * @return The pending removed value.
+	 */
+	public CacheletPipeline.Response<String> removeAsync(String key)
+			throws IOException {
+		return getPipeline().send(new ValueResponse(),
+				DynamicMapCacheletServer.REMOVE_CMD, key);
+	}
+
 	public int size() throws IOException {
 		super.write(DynamicMapCacheletServer.SIZE_CMD);
 
@@ -163,12 +259,38 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		int retval = Integer.valueOf(BytesUtil.toString(super.in.readArg()));
+		int retval = super.in.readArgInt();
 
 		in.verifyEndOfMessage();
 		return retval;
 	}
 
+	private static class ValueResponse extends
+			CacheletPipeline.Response<String> {
+		@Override
+		protected String parse(int cmd, long numArgs, NimbusInputStream in)
+				throws IOException {
+			if (cmd == DynamicMapCacheletServer.ACK_CMD && numArgs == 1) {
+				return in.readArgString();
+			} else {
+				return null;
+			}
+		}
+	}
+
+	private static class BooleanResponse extends
+			CacheletPipeline.Response<Boolean> {
+		@Override
+		protected Boolean parse(int cmd, long numArgs, NimbusInputStream in)
+				throws IOException {
+			if (cmd != DynamicMapCacheletServer.ACK_CMD || numArgs != 1) {
+				throw new IOException("Did not receive ACK_CMD");
+			}
+
+			return in.readArgBoolean();
+		}
+	}
+
 	public class DynamicMapCacheletIterator implements
 			Iterator<Entry<String, String>> {
 
@@ -211,8 +333,8 @@ public class DynamicMapCacheletConnection extends BaseNimbusClient implements
 			} else {
 				++entriesRead;
 				try {
-					currEntry = new CMapEntry(BytesUtil.toString(in.readArg()),
-							BytesUtil.toString(in.readArg()));
+					currEntry = new CMapEntry(in.readArgString(),
+							in.readArgString());
 					return currEntry;
 				} catch (IOException e) {
 					e.printStackTrace();
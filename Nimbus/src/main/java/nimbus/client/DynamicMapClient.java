@@ -5,11 +5,15 @@ import java.lang.management.ManagementFactory;
 import java.lang.management.MemoryMXBean;
 import java.lang.management.MemoryPoolMXBean;
 import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 
 import javax.management.Notification;
 import javax.management.NotificationEmitter;
@@ -26,6 +30,11 @@ public class DynamicMapClient implements NotificationListener, Iterable<Entry<St
 
 	private static final Logger LOG = Logger.getLogger(DynamicMapClient.class);
 
+	/**
+	 * The most keys sent to a single Cachelet in one multi-get request.
+	 */
+	public static final int MGET_BATCH_SIZE = 4096;
+
 	private HashMap<Integer, DynamicMapCacheletConnection> list = new HashMap<Integer, DynamicMapCacheletConnection>();
 	private int numServers = -1;
 
@@ -184,6 +193,155 @@ public class DynamicMapClient implements NotificationListener, Iterable<Entry<St
 		return retval;
 	}
 
+	/**
+	 * Gets the values of many keys at once. Keys are grouped by the Cachelet
+	 * that stores them and each Cachelet is sent a single multi-get request
+	 * for its keys, in batches of {@link #MGET_BATCH_SIZE}. Every Cachelet is
+	 * sent its request before any reply is read, so the Cachelets look up
+	 * their keys concurrently.<br>
+	 * <br>
+	 * Like {@link #get(String)}, keys are first asked of the first Cachelet
+	 * that stores them. Any key a Cachelet does not return, such as one it
+	 * lost in a restart, is asked of the key's next Cachelet, in the same
+	 * order {@link #get(String)} tries them, until every Cachelet has been
+	 * asked.
+	 * 
+	 * @param keys
+	 *            The keys to get.
+	 * @return A map of every key that exists to its value.
+	 * @throws CacheletNotConnectedException
+	 *             If a Cachelet cannot be reached.
+	 */
+	public synchronized Map<String, String> getAll(Collection<String> keys)
+			throws CacheletNotConnectedException {
+
+		// the Cachelets that store each key, in the order get tries them
+		Map<String, List<Integer>> cacheletsByKey = new HashMap<String, List<Integer>>();
+		for (String key : keys) {
+			tempConnectionMap.clear();
+			cacheletHash.getCacheletsFromKey(key, tempConnectionMap,
+					numServers, replication);
+			cacheletsByKey.put(key, new ArrayList<Integer>(tempConnectionMap));
+		}
+
+		Map<String, String> values = new HashMap<String, String>();
+		Collection<String> missing = cacheletsByKey.keySet();
+		for (int replica = 0; !missing.isEmpty(); ++replica) {
+
+			// group the missing keys by their next Cachelet
+			Map<Integer, List<String>> keysByCachelet = new HashMap<Integer, List<String>>();
+			for (String key : missing) {
+				List<Integer> cachelets = cacheletsByKey.get(key);
+				if (replica >= cachelets.size()) {
+					continue;
+				}
+
+				Integer cacheletID = cachelets.get(replica);
+				List<String> cacheletKeys = keysByCachelet.get(cacheletID);
+				if (cacheletKeys == null) {
+					cacheletKeys = new ArrayList<String>();
+					keysByCachelet.put(cacheletID, cacheletKeys);
+				}
+				cacheletKeys.add(key);
+			}
+
+			if (keysByCachelet.isEmpty()) {
+				break;
+			}
+
+			getAll(keysByCachelet, values);
+
+			List<String> stillMissing = new ArrayList<String>();
+			for (String key : missing) {
+				if (!values.containsKey(key)) {
+					stillMissing.add(key);
+				}
+			}
+			missing = stillMissing;
+		}
+
+		return values;
+	}
+
+	/**
+	 * Sends each Cachelet multi-get requests for the given keys, in batches
+	 * of {@link #MGET_BATCH_SIZE}.
+	 * 
+	 * @param keysByCachelet
+	 *            The keys to ask each Cachelet for. Emptied as the keys are
+	 *            sent.
+	 * @param values
+	 *            A map to put every key that exists into, along with its
+	 *            value.
+	 * @throws CacheletNotConnectedException
+	 *             If a Cachelet cannot be reached.
+	 */
+	private void getAll(Map<Integer, List<String>> keysByCachelet,
+			Map<String, String> values) throws CacheletNotConnectedException {
+		Map<Integer, List<String>> batches = new HashMap<Integer, List<String>>();
+		for (int offset = 0; !keysByCachelet.isEmpty(); offset += MGET_BATCH_SIZE) {
+
+			// only one batch is outstanding per Cachelet at a time, so a
+			// Cachelet never blocks writing a reply we aren't reading yet
+			batches.clear();
+			Iterator<Entry<Integer, List<String>>> iter = keysByCachelet
+					.entrySet().iterator();
+			while (iter.hasNext()) {
+				Entry<Integer, List<String>> entry = iter.next();
+				List<String> cacheletKeys = entry.getValue();
+				int end = Math.min(offset + MGET_BATCH_SIZE,
+						cacheletKeys.size());
+				batches.put(entry.getKey(), cacheletKeys.subList(offset, end));
+				if (end == cacheletKeys.size()) {
+					iter.remove();
+				}
+			}
+
+			Set<Integer> failed = new HashSet<Integer>();
+			for (Entry<Integer, List<String>> entry : batches.entrySet()) {
+				try {
+					list.get(entry.getKey()).sendGetAll(entry.getValue());
+				} catch (IOException e) {
+					LOG.error("Caught exception for ID " + entry.getKey()
+							+ ": " + e.getMessage());
+					failed.add(entry.getKey());
+				}
+			}
+
+			for (Entry<Integer, List<String>> entry : batches.entrySet()) {
+				if (failed.contains(entry.getKey())) {
+					continue;
+				}
+
+				try {
+					list.get(entry.getKey()).readGetAll(entry.getValue(),
+							values);
+				} catch (IOException e) {
+					LOG.error("Caught exception for ID " + entry.getKey()
+							+ ": " + e.getMessage());
+					failed.add(entry.getKey());
+				}
+			}
+
+			for (Integer cacheletID : failed) {
+				tempConnection = list.get(cacheletID);
+				try {
+					LOG.error("Attempting reconnect to ID " + cacheletID
+							+ "...");
+					tempConnection.disconnect();
+					tempConnection.connect();
+					LOG.info("Successfully reconnected to ID " + cacheletID);
+
+					// retry now that we have reconnected
+					tempConnection.getAll(batches.get(cacheletID), values);
+				} catch (IOException e1) {
+					LOG.error("Failed to reconnect.  Throwing exception:");
+					throw new CacheletNotConnectedException(cacheletID, e1);
+				}
+			}
+		}
+	}
+
 	public synchronized void putAll(Map<? extends String, ? extends String> map)
 			throws CacheletNotConnectedException {
 
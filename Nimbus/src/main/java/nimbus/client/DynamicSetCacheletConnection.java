@@ -9,7 +9,7 @@ import org.apache.log4j.Logger;
 import nimbus.master.CacheDoesNotExistException;
 import nimbus.master.NimbusMaster;
 import nimbus.server.DynamicSetCacheletServer;
-import nimbus.utils.BytesUtil;
+import nimbus.utils.BloomFilterReplica;
 
 public class DynamicSetCacheletConnection extends BaseNimbusClient implements
 		Iterable<String> {
@@ -35,17 +35,11 @@ public class DynamicSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
-			throw new IOException("Did not receive a true or false response.");
-		}
+		return response;
 	}
 
 	public void addAll(Collection<? extends String> value) throws IOException {
@@ -66,17 +60,11 @@ public class DynamicSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
-			throw new IOException("Did not receive a true or false response.");
-		}
+		return response;
 	}
 
 	public boolean isEmpty() throws IOException {
@@ -88,17 +76,11 @@ public class DynamicSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
-			throw new IOException("Did not receive a true or false response.");
-		}
+		return response;
 	}
 
 	public boolean remove(String element) throws IOException {
@@ -110,17 +92,11 @@ public class DynamicSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
-			throw new IOException("Did not receive a true or false response.");
-		}
+		return response;
 	}
 
 	public boolean retainAll(Collection<? extends String> c) throws IOException {
@@ -132,18 +108,36 @@ public class DynamicSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
+		return response;
+	}
+
+	/**
+	 * Gets the update that brings the given copy of this Cachelet's filter up
+	 * to date.
+	 * 
+	 * @return The update, or null if the Cachelet keeps no filter.
+	 */
+	public byte[] getFilterUpdate(BloomFilterReplica replica)
+			throws IOException {
+		super.write(DynamicSetCacheletServer.FILTER_UPDATE_CMD,
+				Long.toString(replica.getEpoch()),
+				Long.toString(replica.getVersion()));
 
-			throw new IOException("Did not receive a true or false response.");
+		if (super.in.readCmd() != DynamicSetCacheletServer.ACK_CMD) {
+			throw new IOException("Did not receive ACK_CMD");
 		}
+
+		super.in.readNumArgs();
+
+		byte[] update = super.in.readArg();
+
+		in.verifyEndOfMessage();
+
+		return update;
 	}
 
 	public int size() throws IOException {
@@ -155,7 +149,7 @@ public class DynamicSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		int retval = Integer.valueOf(BytesUtil.toString(super.in.readArg()));
+		int retval = super.in.readArgInt();
 
 		in.verifyEndOfMessage();
 		return retval;
@@ -198,7 +192,7 @@ public class DynamicSetCacheletConnection extends BaseNimbusClient implements
 		public String next() {
 			++entriesRead;
 			try {
-				return BytesUtil.toString(in.readArg());
+				return in.readArgString();
 			} catch (IOException e) {
 				e.printStackTrace();
 				throw new RuntimeException(e);
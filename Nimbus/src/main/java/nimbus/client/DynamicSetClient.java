@@ -22,6 +22,8 @@ import nimbus.main.NimbusConf;
 import org.apache.log4j.Logger;
 
 import nimbus.master.CacheDoesNotExistException;
+import nimbus.utils.BloomFilterReplica;
+import nimbus.utils.BytesUtil;
 import nimbus.utils.ICacheletHash;
 
 public class DynamicSetClient implements Iterable<String>, NotificationListener {
@@ -37,6 +39,17 @@ public class DynamicSetClient implements Iterable<String>, NotificationListener
 	private DynamicSetCacheletConnection contains_connect_tmp;
 	private Map<Integer, Set<String>> bufferedElements = new HashMap<Integer, Set<String>>();
 
+	/*
+	 * Copies of each Cachelet's filter, which answer lookups of elements the
+	 * Cachelet does not have. A copy is brought up to date before a lookup
+	 * once it is older than the sync interval, so it can miss elements other
+	 * clients added within the interval. Elements added through this client
+	 * are trained into the copies once sent, so it always finds them.
+	 */
+	private long filterSyncInterval = 0;
+	private Map<Integer, BloomFilterReplica> replicas = new HashMap<Integer, BloomFilterReplica>();
+	private Map<Integer, Long> replicaUpdateTimes = new HashMap<Integer, Long>();
+
 	public DynamicSetClient(String cacheName)
 			throws CacheDoesNotExistException, IOException {
 		this.replication = NimbusConf.getConf().getReplicationFactor();
@@ -53,6 +66,15 @@ public class DynamicSetClient implements Iterable<String>, NotificationListener
 			bufferedElements.put(i, new HashSet<String>());
 		}
 
+		filterSyncInterval = NimbusConf.getConf()
+				.getDynamicSetFilterSyncInterval();
+		if (filterSyncInterval > 0) {
+			for (int i = 0; i < numServers; ++i) {
+				replicas.put(i, new BloomFilterReplica());
+				replicaUpdateTimes.put(i, 0L);
+			}
+		}
+
 		// heuristic to find the tenured pool (largest heap) as seen on
 		// http://www.javaspecialists.eu/archive/Issue092.html
 		MemoryPoolMXBean tenuredGenPool = null;
@@ -127,6 +149,7 @@ public class DynamicSetClient implements Iterable<String>, NotificationListener
 					throw new CacheletNotConnectedException(cacheletID, e1);
 				}
 			}
+			trainReplica(cacheletID, element);
 		}
 
 		return retval;
@@ -190,6 +213,10 @@ public class DynamicSetClient implements Iterable<String>, NotificationListener
 								e1);
 					}
 				}
+
+				for (String element : entry.getValue()) {
+					trainReplica(entry.getKey(), element);
+				}
 			}
 
 			// clear the buffered elements
@@ -229,7 +256,13 @@ public class DynamicSetClient implements Iterable<String>, NotificationListener
 		cacheletHash.getCacheletsFromKey(element, tempConnectionSet,
 				numServers, replication);
 
+		byte[] bytes = filterSyncInterval > 0 ? BytesUtil.toBytes(element)
+				: null;
 		for (Integer cacheletID : tempConnectionSet) {
+			if (bytes != null && !mayContain(cacheletID, bytes)) {
+				continue;
+			}
+
 			contains_connect_tmp = list.get(cacheletID);
 			try {
 				if (contains_connect_tmp.contains(element)) {
@@ -257,6 +290,39 @@ public class DynamicSetClient implements Iterable<String>, NotificationListener
 		return false;
 	}
 
+	/**
+	 * Tests the given Cachelet's filter for an element, first bringing the
+	 * client's copy up to date if it is older than the sync interval. A copy
+	 * that cannot be brought up to date is dropped, so the Cachelet is asked.
+	 * 
+	 * @return False if the Cachelet does not have the element.
+	 */
+	private boolean mayContain(int cacheletID, byte[] element) {
+		BloomFilterReplica replica = replicas.get(cacheletID);
+		long now = System.currentTimeMillis();
+		if (now - replicaUpdateTimes.get(cacheletID) >= filterSyncInterval) {
+			try {
+				byte[] update = list.get(cacheletID).getFilterUpdate(replica);
+				if (update != null) {
+					replica.apply(update);
+				}
+			} catch (IOException e) {
+				LOG.warn("Failed to update filter of Cachelet " + cacheletID
+						+ ": " + e.getMessage());
+				replica = new BloomFilterReplica();
+				replicas.put(cacheletID, replica);
+			}
+			replicaUpdateTimes.put(cacheletID, now);
+		}
+		return replica.membershipTest(element);
+	}
+
+	private void trainReplica(int cacheletID, String element) {
+		if (filterSyncInterval > 0) {
+			replicas.get(cacheletID).train(BytesUtil.toBytes(element));
+		}
+	}
+
 	public synchronized boolean containsAll(Collection<String> c)
 			throws CacheletNotConnectedException {
 		for (String o : c) {
@@ -9,7 +9,6 @@ import org.apache.log4j.Logger;
 import nimbus.master.CacheDoesNotExistException;
 import nimbus.master.NimbusMaster;
 import nimbus.server.MapSetCacheletWorker;
-import nimbus.utils.BytesUtil;
 
 public class MapSetCacheletConnection extends BaseNimbusClient implements
 		Iterable<Entry<String, String>> {
@@ -58,14 +57,11 @@ public class MapSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		}
+		boolean response = super.in.readArgBoolean();
+
+		in.verifyEndOfMessage();
 
-		throw new IOException("Did not receive a true or false response.");
+		return response;
 	}
 
 	public boolean contains(String key, String value) throws IOException {
@@ -77,17 +73,11 @@ public class MapSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
-			throw new IOException("Did not receive a true or false response.");
-		}
+		return response;
 	}
 
 	public boolean isEmpty() throws IOException {
@@ -99,17 +89,11 @@ public class MapSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
+		boolean response = super.in.readArgBoolean();
 
 		in.verifyEndOfMessage();
 
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		} else {
-			throw new IOException("Did not receive a true or false response.");
-		}
+		return response;
 	}
 
 	public void clear() throws IOException {
@@ -126,7 +110,7 @@ public class MapSetCacheletConnection extends BaseNimbusClient implements
 
 		super.in.readNumArgs();
 
-		long retval = Long.valueOf(BytesUtil.toString(super.in.readArg()));
+		long retval = super.in.readArgLong();
 		in.verifyEndOfMessage();
 		return retval;
 	}
@@ -184,7 +168,7 @@ public class MapSetCacheletConnection extends BaseNimbusClient implements
 				}
 
 				++read;
-				return BytesUtil.toString(in.readArg());
+				return in.readArgString();
 			} catch (IOException e) {
 				e.printStackTrace();
 				read = size;
@@ -240,8 +224,7 @@ public class MapSetCacheletConnection extends BaseNimbusClient implements
 				}
 
 				++read;
-				return new MapSetEntry(BytesUtil.toString(in.readArg()), BytesUtil.toString(
-						in.readArg()));
+				return new MapSetEntry(in.readArgString(), in.readArgString());
 			} catch (IOException e) {
 				e.printStackTrace();
 				read = size;
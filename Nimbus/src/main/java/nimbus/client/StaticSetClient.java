@@ -1,11 +1,20 @@
 package nimbus.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import nimbus.main.Nimbus;
 import nimbus.main.NimbusConf;
@@ -16,8 +25,7 @@ import org.apache.log4j.Logger;
 import nimbus.server.StaticSetCacheletServer;
 import nimbus.server.StaticSetCacheletWorker;
 import nimbus.utils.BigBitArray;
-import nimbus.utils.BloomFilter;
-import nimbus.utils.BytesUtil;
+import nimbus.utils.IBloomFilter;
 import nimbus.utils.DataZNodeWatcher;
 import nimbus.master.CacheDoesNotExistException;
 import nimbus.master.CacheInfo;
@@ -28,8 +36,13 @@ public class StaticSetClient implements Iterable<String> {
 
 	private static final Logger LOG = Logger.getLogger(StaticSetClient.class);
 
+	/**
+	 * The most elements sent to a single Cachelet in one MCONTAINS request.
+	 */
+	public static final int MCONTAINS_BATCH_SIZE = 4096;
+
 	private HashMap<Integer, StaticSetCacheletConnection> list = new HashMap<Integer, StaticSetCacheletConnection>();
-	private HashMap<Integer, BloomFilter> filters = new HashMap<Integer, BloomFilter>();
+	private HashMap<Integer, IBloomFilter> filters = new HashMap<Integer, IBloomFilter>();
 	private int numServers = -1;
 
 	private HashSet<Integer> contains_set = new HashSet<Integer>();
@@ -85,13 +98,13 @@ public class StaticSetClient implements Iterable<String> {
 
 		numServers = cachelets.length;
 
-		if (download) {
-			downloadBFilters();
-		}
-
 		CacheInfo info = new CacheInfo(Nimbus.getZooKeeper().getDataVariable(
 				cacheName, watcher, null));
 		availabilityArray = new BigBitArray(info.getAvailabilityArray());
+
+		if (download) {
+			downloadBFilters();
+		}
 	}
 
 	/**
@@ -182,27 +195,7 @@ public class StaticSetClient implements Iterable<String> {
 	public boolean contains(String element)
 			throws CacheletsUnavailableException {
 
-		if (watcher.isTriggered()) {
-			try {
-				watcher.reset();
-
-				CacheInfo info = new CacheInfo(Nimbus.getZooKeeper()
-						.getDataVariable(cacheName, watcher, null));
-
-				availabilityArray = new BigBitArray(info.getAvailabilityArray());
-
-				for (int i = 0; i < list.values().size(); ++i) {
-					if (!availabilityArray.isBitOn(i)
-							&& list.get(i).isConnected()) {
-						list.get(i).disconnect();
-						LOG.info("Disconnecting " + i
-								+ " due to Watch triggered.");
-					}
-				}
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+		refreshAvailability();
 
 		contains_set.clear();
 		cacheletHash.getCacheletsFromKey(element, contains_set, numServers,
@@ -213,7 +206,7 @@ public class StaticSetClient implements Iterable<String> {
 			if (availabilityArray.isBitOn(cacheletID)) {
 				tempConnection = list.get(cacheletID);
 				try {
-					if (filters.get(cacheletID).membershipTest(element)) {
+					if (mayContain(cacheletID, element)) {
 						if (tempConnection.contains(element)) {
 							return true;
 						}
@@ -260,6 +253,147 @@ public class StaticSetClient implements Iterable<String> {
 		return false;
 	}
 
+	/**
+	 * Determines which of the given elements are members of the set.<br>
+	 * <br>
+	 * Each element is first tested against the Bloom filter of the first
+	 * available Cachelet that would store it. Replicas hold the same elements,
+	 * so a 'no' from that filter is final. The elements that get a 'maybe' are
+	 * grouped by Cachelet, and each Cachelet is sent a single MCONTAINS request
+	 * for its elements, in batches of {@link #MCONTAINS_BATCH_SIZE}. Every
+	 * Cachelet is sent its request before any reply is read. If a Cachelet
+	 * fails, its elements are checked one at a time using
+	 * {@link StaticSetClient#contains(String)}, which tries the replicas.
+	 * 
+	 * @param elements
+	 *            The elements to test.
+	 * @return A bit array with bit i on if the i-th element is a member of the
+	 *         set. Its size is the number of elements rounded up to a multiple
+	 *         of eight.
+	 * @throws CacheletsUnavailableException
+	 *             If all the Cachelets that would store one of the elements are
+	 *             unavailable.
+	 */
+	public BigBitArray containsEach(List<String> elements)
+			throws CacheletsUnavailableException {
+
+		refreshAvailability();
+
+		BigBitArray results = new BigBitArray(
+				BigBitArray.makeMultipleOfEight(elements.size()));
+
+		// group the indices of the 'maybe' elements by Cachelet
+		Map<Integer, List<Integer>> indicesByCachelet = new HashMap<Integer, List<Integer>>();
+		for (int i = 0; i < elements.size(); ++i) {
+			String element = elements.get(i);
+
+			contains_set.clear();
+			cacheletHash.getCacheletsFromKey(element, contains_set,
+					numServers, replication);
+
+			Integer target = null;
+			contains_numdown = 0;
+			for (Integer cacheletID : contains_set) {
+				if (availabilityArray.isBitOn(cacheletID)) {
+					if (mayContain(cacheletID, element)) {
+						target = cacheletID;
+					}
+					break;
+				} else if (++contains_numdown == replication) {
+					throw new CacheletsUnavailableException();
+				}
+			}
+
+			if (target != null) {
+				List<Integer> indices = indicesByCachelet.get(target);
+				if (indices == null) {
+					indices = new ArrayList<Integer>();
+					indicesByCachelet.put(target, indices);
+				}
+				indices.add(i);
+			}
+		}
+
+		Map<Integer, List<Integer>> batches = new HashMap<Integer, List<Integer>>();
+		for (int offset = 0; !indicesByCachelet.isEmpty(); offset += MCONTAINS_BATCH_SIZE) {
+
+			// only one batch is outstanding per Cachelet at a time, so a
+			// Cachelet never blocks writing a reply we aren't reading yet
+			batches.clear();
+			Iterator<Entry<Integer, List<Integer>>> iter = indicesByCachelet
+					.entrySet().iterator();
+			while (iter.hasNext()) {
+				Entry<Integer, List<Integer>> entry = iter.next();
+				List<Integer> indices = entry.getValue();
+				int end = Math.min(offset + MCONTAINS_BATCH_SIZE,
+						indices.size());
+				batches.put(entry.getKey(), indices.subList(offset, end));
+				if (end == indices.size()) {
+					iter.remove();
+				}
+			}
+
+			Set<Integer> failed = new HashSet<Integer>();
+			List<String> batchElements = new ArrayList<String>();
+			for (Entry<Integer, List<Integer>> entry : batches.entrySet()) {
+				batchElements.clear();
+				for (Integer index : entry.getValue()) {
+					batchElements.add(elements.get(index));
+				}
+
+				try {
+					list.get(entry.getKey()).sendContainsAll(batchElements);
+				} catch (IOException e) {
+					LOG.error("Received error from Cachelet ID "
+							+ entry.getKey() + ": " + e.getMessage());
+					failed.add(entry.getKey());
+				}
+			}
+
+			for (Entry<Integer, List<Integer>> entry : batches.entrySet()) {
+				if (failed.contains(entry.getKey())) {
+					continue;
+				}
+
+				List<Integer> indices = entry.getValue();
+				try {
+					BigBitArray reply = list.get(entry.getKey())
+							.readContainsAll(indices.size());
+					for (int i = 0; i < indices.size(); ++i) {
+						if (reply.isBitOn(i)) {
+							results.turnBitOn(indices.get(i));
+						}
+					}
+				} catch (IOException e) {
+					LOG.error("Received error from Cachelet ID "
+							+ entry.getKey() + ": " + e.getMessage());
+					failed.add(entry.getKey());
+				}
+			}
+
+			for (Integer cacheletID : failed) {
+				LOG.error("Disconnecting from Cachelet ID " + cacheletID
+						+ " and checking its elements one at a time.");
+
+				try {
+					list.get(cacheletID).disconnect();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+
+				availabilityArray.set(cacheletID, false);
+
+				for (Integer index : batches.get(cacheletID)) {
+					if (contains(elements.get(index))) {
+						results.turnBitOn(index);
+					}
+				}
+			}
+		}
+
+		return results;
+	}
+
 	/**
 	 * Determines if a collection of strings are all elements of this set.
 	 * 
@@ -269,8 +403,9 @@ public class StaticSetClient implements Iterable<String> {
 	 * @throws IOException
 	 */
 	public boolean containsAll(Collection<String> c) throws IOException {
-		for (String o : c) {
-			if (!contains(o)) {
+		BigBitArray results = containsEach(new ArrayList<String>(c));
+		for (int i = 0; i < c.size(); ++i) {
+			if (!results.isBitOn(i)) {
 				return false;
 			}
 		}
@@ -312,25 +447,117 @@ public class StaticSetClient implements Iterable<String> {
 		tempConnection = null;
 	}
 
+	/**
+	 * Re-reads the availability of the Cachelets if it has changed, and
+	 * disconnects from any Cachelets that are no longer available.
+	 */
+	private void refreshAvailability() {
+		if (watcher.isTriggered()) {
+			try {
+				watcher.reset();
+
+				CacheInfo info = new CacheInfo(Nimbus.getZooKeeper()
+						.getDataVariable(cacheName, watcher, null));
+
+				availabilityArray = new BigBitArray(info.getAvailabilityArray());
+
+				for (int i = 0; i < list.values().size(); ++i) {
+					if (!availabilityArray.isBitOn(i)
+							&& list.get(i).isConnected()) {
+						list.get(i).disconnect();
+						LOG.info("Disconnecting " + i
+								+ " due to Watch triggered.");
+					}
+				}
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Tests the given Cachelet's Bloom filter. A Cachelet without a filter,
+	 * skipped by {@link #downloadBFilters()}, may contain any element.
+	 */
+	private boolean mayContain(Integer cacheletID, String element) {
+		IBloomFilter filter = filters.get(cacheletID);
+		return filter == null || filter.membershipTest(element);
+	}
+
 	/**
 	 * Downloads the Bloom filters off of HDFS and stores them in memory for
-	 * this Client.
+	 * this Client. Up to {@link NimbusConf#getBloomFilterDownloadThreads()}
+	 * filters are downloaded at once, and each is checked against its length
+	 * and checksum as it is read.<br>
+	 * <br>
+	 * If {@link NimbusConf#isBloomFilterPartialEnabled()}, the filters of
+	 * unavailable Cachelets, and any that fail to download, are skipped rather
+	 * than failing the client. Elements on those Cachelets are sent straight
+	 * to them, as if their filter said 'maybe'.
 	 * 
 	 * @throws IOException
+	 *             If a filter fails to download and partial mode is off.
 	 */
 	private void downloadBFilters() throws IOException {
+		filters.clear();
+		boolean partial = NimbusConf.getConf().isBloomFilterPartialEnabled();
+		int numThreads = Math.max(1, Math.min(list.size(), NimbusConf
+				.getConf().getBloomFilterDownloadThreads()));
+		ExecutorService downloaders = Executors.newFixedThreadPool(numThreads);
+		Map<Integer, Future<IBloomFilter>> downloads = new HashMap<Integer, Future<IBloomFilter>>();
+
+		long start = System.currentTimeMillis();
 		try {
-			filters.clear();
-			long start = System.currentTimeMillis();
 			for (Entry<Integer, StaticSetCacheletConnection> e : list
 					.entrySet()) {
-				filters.put(e.getKey(), e.getValue().getBloomFilter());
+				if (partial && !availabilityArray.isBitOn(e.getKey())) {
+					LOG.warn("Skipping Bloom filter of unavailable Cachelet ID "
+							+ e.getKey());
+					continue;
+				}
+
+				final StaticSetCacheletConnection connection = e.getValue();
+				downloads.put(e.getKey(),
+						downloaders.submit(new Callable<IBloomFilter>() {
+							@Override
+							public IBloomFilter call() throws IOException {
+								return connection.getBloomFilter();
+							}
+						}));
 			}
-			LOG.info("Done downloading Bloom filters... Took "
-					+ (System.currentTimeMillis() - start) + " ms.");
-		} catch (IOException e) {
-			LOG.error(e.getMessage());
-			throw new IOException("Failed to download Bloom filter.");
+
+			for (Entry<Integer, Future<IBloomFilter>> e : downloads
+					.entrySet()) {
+				try {
+					filters.put(e.getKey(), getDownloaded(e.getValue()));
+				} catch (IOException ex) {
+					LOG.error("Failed to download Bloom filter of Cachelet ID "
+							+ e.getKey() + ": " + ex.getMessage());
+					if (!partial) {
+						throw new IOException("Failed to download Bloom filter.");
+					}
+				}
+			}
+		} finally {
+			downloaders.shutdownNow();
+		}
+
+		LOG.info("Done downloading " + filters.size() + " of " + list.size()
+				+ " Bloom filters... Took "
+				+ (System.currentTimeMillis() - start) + " ms.");
+	}
+
+	private IBloomFilter getDownloaded(Future<IBloomFilter> future)
+			throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while downloading", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to download", e.getCause());
 		}
 	}
 
@@ -423,14 +650,55 @@ public class StaticSetClient implements Iterable<String> {
 
 			super.in.readNumArgs();
 
-			String response = BytesUtil.toString(super.in.readArg());
-			if (response.equals("true")) {
-				return true;
-			} else if (response.equals("false")) {
-				return false;
+			boolean response = super.in.readArgBoolean();
+
+			in.verifyEndOfMessage();
+
+			return response;
+		}
+
+		/**
+		 * Sends a request to the Cachelet to determine which of the given
+		 * elements are members of the set, without reading the reply. The
+		 * reply must be read with
+		 * {@link StaticSetCacheletConnection#readContainsAll(int)}.
+		 * 
+		 * @param elements
+		 *            The elements to request.
+		 * @throws IOException
+		 *             If an error occurs when sending the request.
+		 */
+		public void sendContainsAll(List<String> elements) throws IOException {
+			super.write(StaticSetCacheletWorker.MCONTAINS_CMD, elements);
+		}
+
+		/**
+		 * Reads the reply to a request sent by
+		 * {@link StaticSetCacheletConnection#sendContainsAll(List)}.
+		 * 
+		 * @param numElements
+		 *            The number of elements that were sent.
+		 * @return A bit array with bit i on if the i-th element is a member.
+		 * @throws IOException
+		 *             If an error occurs when reading the reply.
+		 */
+		public BigBitArray readContainsAll(int numElements) throws IOException {
+			if (super.in.readCmd() != StaticSetCacheletWorker.ACK_CMD) {
+				throw new IOException("Did not receive ACK_CMD");
 			}
 
-			throw new IOException("Did not receive a true or false response.");
+			super.in.readNumArgs();
+
+			byte[] bitmap = super.in.readArg();
+
+			in.verifyEndOfMessage();
+
+			if (bitmap == null || (long) bitmap.length * 8 < numElements) {
+				throw new IOException("Bitmap is too small for " + numElements
+						+ " elements");
+			}
+
+			return new BigBitArray(bitmap);
 		}
 
 		/**
@@ -450,29 +718,32 @@ public class StaticSetClient implements Iterable<String> {
 
 			super.in.readNumArgs();
 
-			String response = BytesUtil.toString(super.in.readArg());
-			if (response.equals("true")) {
-				return true;
-			} else if (response.equals("false")) {
-				return false;
-			}
+			boolean response = super.in.readArgBoolean();
 
-			throw new IOException("Did not receive a true or false response.");
+			in.verifyEndOfMessage();
+
+			return response;
 		}
 
 		/**
-		 * Deserializes the Bloom filter from the given Path and returns it.
+		 * Gets this Cachelet's Bloom filter. If a local filter cache is
+		 * configured, the filter is memory mapped from a local copy, see
+		 * {@link BloomFilterCache}. Otherwise it is deserialized from HDFS.
+		 * Filters of either format are read, see {@link IBloomFilter}.
 		 * 
-		 * @param p
-		 *            The path to get the file from.
-		 * @return The deserialized Bloom filter object.
+		 * @return The Bloom filter object.
 		 * @throws IOException
 		 *             If the Path is not a file or an error occurs when
 		 *             deserializing the filter.
 		 */
-		public BloomFilter getBloomFilter() throws IOException {
-			return new BloomFilter(StaticSetCacheletServer.getBloomFilterPath(
-					cacheName, cacheletName));
+		public IBloomFilter getBloomFilter() throws IOException {
+			Path p = StaticSetCacheletServer.getBloomFilterPath(cacheName,
+					cacheletName);
+			if (NimbusConf.getConf().getBloomFilterCacheDir(cacheName,
+					cacheletName) != null) {
+				return BloomFilterCache.get(cacheName, cacheletName, p);
+			}
+			return IBloomFilter.load(p);
 		}
 
 		@Override
@@ -510,7 +781,7 @@ public class StaticSetClient implements Iterable<String> {
 				} else {
 					++entriesRead;
 					try {
-						return BytesUtil.toString(in.readArg());
+						return in.readArgString();
 					} catch (IOException e) {
 						e.printStackTrace();
 						return null;
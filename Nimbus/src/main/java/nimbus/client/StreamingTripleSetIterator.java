@@ -5,7 +5,6 @@ import java.util.Iterator;
 import java.util.List;
 
 import nimbus.nativestructs.Triple;
-import nimbus.utils.BytesUtil;
 
 public class StreamingTripleSetIterator implements Iterator<Triple> {
 
@@ -56,12 +55,12 @@ public class StreamingTripleSetIterator implements Iterator<Triple> {
 					return;
 				}
 				
-				numEntries += Integer.parseInt(BytesUtil.toString(client.in.readArg()));
+				numEntries += client.in.readArgInt();
 			}
 
-			currentTriple.setFirst(BytesUtil.toString(client.in.readArg()));
-			currentTriple.setSecond(BytesUtil.toString(client.in.readArg()));
-			currentTriple.setThird(BytesUtil.toString(client.in.readArg()));
+			currentTriple.setFirst(client.in.readArgString());
+			currentTriple.setSecond(client.in.readArgString());
+			currentTriple.setThird(client.in.readArgString());
 			numRead += 3;
 		} catch (NumberFormatException e) {
 			e.printStackTrace();
@@ -6,7 +6,6 @@ import nimbus.master.CacheDoesNotExistException;
 import nimbus.master.NimbusMaster;
 import nimbus.nativestructs.Triple;
 import nimbus.server.TripleSetCacheletWorker;
-import nimbus.utils.BytesUtil;
 
 /**
  * Helper class to handle connections to each Cachelet. Used by the
@@ -57,14 +56,11 @@ public class TripleSetCacheletConnection extends BaseNimbusClient {
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		}
+		boolean response = super.in.readArgBoolean();
+
+		in.verifyEndOfMessage();
 
-		throw new IOException("Did not receive a true or false response.");
+		return response;
 	}
 
 	public void getAll() throws IOException {
@@ -97,14 +93,11 @@ public class TripleSetCacheletConnection extends BaseNimbusClient {
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		}
+		boolean response = super.in.readArgBoolean();
 
-		throw new IOException("Did not receive a true or false response.");
+		in.verifyEndOfMessage();
+
+		return response;
 	}
 
 	/**
@@ -123,13 +116,10 @@ public class TripleSetCacheletConnection extends BaseNimbusClient {
 
 		super.in.readNumArgs();
 
-		String response = BytesUtil.toString(super.in.readArg());
-		if (response.equals("true")) {
-			return true;
-		} else if (response.equals("false")) {
-			return false;
-		}
+		boolean response = super.in.readArgBoolean();
+
+		in.verifyEndOfMessage();
 
-		throw new IOException("Did not receive a true or false response.");
+		return response;
 	}
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package nimbus.main;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import nimbus.master.CacheInfo;
+import nimbus.master.NimbusMaster;
+import nimbus.server.CacheType;
+import nimbus.server.ICacheletServer;
+import nimbus.server.SelectorServer;
+import nimbus.utils.ChildZNodeWatcher;
+import nimbus.zk.ZKAssistantException;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The CacheletDaemon hosts every Cache on this machine in one process, rather
+ * than a process per Cache. The Caches share one ZooKeeper session, one
+ * heartbeat thread, and one {@link SelectorServer}, whose selector thread and
+ * pool of worker threads serve the connections of every Cache. Each Cache
+ * still listens on its own port, so clients reach it exactly as they would a
+ * Cache in its own process.<br>
+ * <br>
+ * The daemon watches the root ZNode and starts hosting each new Cache on its
+ * next heartbeat. A Cache that is killed stops without affecting the others.
+ * The heartbeat of each Cachelet carries the memory used by its stores, see
+ * {@link NimbusMaster#getCacheletMemoryUsed(String, String)}.<br>
+ * <br>
+ * The Master Cache is never hosted by a daemon, and is started on its own.
+ */
+public class CacheletDaemon implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(CacheletDaemon.class);
+
+	private String cacheletName = null;
+	private SelectorServer selector = null;
+	private ChildZNodeWatcher rootWatcher = new ChildZNodeWatcher();
+
+	// every Cache this daemon has hosted, including those that have stopped,
+	// so a killed Cache is not hosted again while its ZNode remains
+	private Map<String, ICacheletServer> hosted = new HashMap<String, ICacheletServer>();
+
+	/**
+	 * Initializes a new instance of the CacheletDaemon. Does not host any
+	 * Caches until {@link CacheletDaemon#run()} is called.
+	 * 
+	 * @param cacheletName
+	 *            The name of this Cachelet.
+	 * @throws IOException
+	 *             If the selector cannot be opened.
+	 */
+	public CacheletDaemon(String cacheletName) throws IOException {
+		this.cacheletName = cacheletName;
+		this.selector = new SelectorServer(NimbusConf.getConf()
+				.getCacheletWorkerThreads());
+	}
+
+	/**
+	 * Hosts Caches and sends their heartbeats until the process is shut down.
+	 */
+	@Override
+	public void run() {
+		Thread t = new Thread(selector);
+		t.start();
+
+		Nimbus.getZooKeeper().ensurePaths(Nimbus.ROOT_ZNODE);
+		updateCaches(Nimbus.getZooKeeper().getChildren(Nimbus.ROOT_ZNODE,
+				rootWatcher));
+
+		boolean heartbeat = NimbusConf.getConf().isSafetyNetEnabled();
+		if (!heartbeat) {
+			LOG.info("Safety net is disabled... not sending heartbeats.");
+		}
+
+		long hbInterval = NimbusConf.getConf().getCacheletHeartbeatInterval();
+		while (true) {
+			if (rootWatcher.isTriggered()) {
+				rootWatcher.reset();
+				updateCaches(Nimbus.getZooKeeper().getChildren(
+						Nimbus.ROOT_ZNODE, rootWatcher));
+			}
+
+			if (heartbeat) {
+				sendHeartbeats();
+			}
+
+			try {
+				Thread.sleep(hbInterval);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+	}
+
+	/**
+	 * Hosts each of the given Caches that is not already hosted, and forgets
+	 * stopped Caches whose ZNode is gone.
+	 */
+	private void updateCaches(List<String> caches) {
+		for (String name : caches) {
+			if (!hosted.containsKey(name)) {
+				CacheInfo info = NimbusMaster.getInstance().getCacheInfo(name);
+				if (info != null && info.getType() != CacheType.MASTER) {
+					host(info);
+				}
+			}
+		}
+
+		Iterator<Entry<String, ICacheletServer>> iter = hosted.entrySet()
+				.iterator();
+		while (iter.hasNext()) {
+			Entry<String, ICacheletServer> entry = iter.next();
+			if (entry.getValue().isStopped()
+					&& !caches.contains(entry.getKey())) {
+				iter.remove();
+			}
+		}
+	}
+
+	private void host(CacheInfo info) {
+		ICacheletServer cachelet = Nimbus.createCachelet(info, cacheletName);
+		if (cachelet == null) {
+			LOG.error("Unknown type " + info.getType() + " for Cache "
+					+ info.getName() + ". Not hosting it.");
+			return;
+		}
+
+		LOG.info("Hosting Cache " + info.getName() + " on port "
+				+ info.getPort());
+		cachelet.setHost(selector);
+		hosted.put(info.getName(), cachelet);
+
+		// recovers the Cachelet, then returns once it accepts connections
+		Thread t = new Thread(cachelet);
+		t.start();
+
+		Nimbus.getZooKeeper().ensurePaths(cachelet.getCacheletZNode());
+	}
+
+	private void sendHeartbeats() {
+		for (ICacheletServer cachelet : hosted.values()) {
+			if (cachelet.isStopped()) {
+				continue;
+			}
+
+			try {
+				Nimbus.getZooKeeper().setDataVariable(
+						cachelet.getCacheletZNode(),
+						Nimbus.getHeartbeat(cachelet));
+			} catch (ZKAssistantException e) {
+				// the Cachelet may have stopped and deleted its ZNode
+				LOG.warn("Failed to send heartbeat for "
+						+ cachelet.getCacheName() + ": " + e.getMessage());
+			}
+		}
+	}
+}
@@ -1,6 +1,7 @@
 package nimbus.main;
 
 import java.net.InetAddress;
+import java.nio.ByteBuffer;
 import java.security.InvalidParameterException;
 import java.util.HashMap;
 import java.util.Map;
@@ -32,7 +33,6 @@ import nimbus.server.MapSetCacheletServer;
 import nimbus.server.StaticSetCacheletServer;
 import nimbus.server.MasterCacheletServer;
 import nimbus.utils.BigBitArray;
-import nimbus.utils.BytesUtil;
 import nimbus.utils.NimbusException;
 import nimbus.zk.ZooKeeperAssistant;
 
@@ -75,6 +75,8 @@ public class Nimbus extends Configured implements Tool {
 
 		if (line.hasOption("start")) {
 			startCache();
+		} else if (line.hasOption("daemon")) {
+			startDaemon();
 		} else if (line.hasOption("kill")) {
 			NimbusMaster.getInstance().destroy(line.getOptionValue("kill"));
 		} else {
@@ -114,29 +116,8 @@ public class Nimbus extends Configured implements Tool {
 		}
 
 		// create my Cachelet
-		switch (info.getType()) {
-		case STATIC_SET:
-			cachelet = new StaticSetCacheletServer(info.getName(),
-					cacheletName, info.getPort(), info.getType());
-			break;
-		case DYNAMIC_SET:
-			cachelet = new DynamicSetCacheletServer(info.getName(),
-					cacheletName, info.getPort(), info.getType());
-			break;
-		case MASTER:
-			cachelet = new MasterCacheletServer(info.getName(), cacheletName,
-					info.getPort(), info.getType());
-			break;
-		case MAPSET:
-			cachelet = new MapSetCacheletServer(info.getName(), cacheletName,
-					info.getPort(), info.getType());
-			break;
-			
-		case DYNAMIC_MAP:
-			cachelet = new DynamicMapCacheletServer(info.getName(), cacheletName,
-					info.getPort(), info.getType());
-			break;
-		default:
+		cachelet = createCachelet(info, cacheletName);
+		if (cachelet == null) {
 			LOG.error("Unkown type " + info.getType().toString()
 					+ ". Shutting down");
 			System.exit(0);
@@ -157,11 +138,11 @@ public class Nimbus extends Configured implements Tool {
 			long hbInterval = NimbusConf.getConf()
 					.getCacheletHeartbeatInterval();
 			getZooKeeper().setDataVariable(CACHELET_ZNODE,
-					BytesUtil.EMPTY_BYTES);
+					getHeartbeat(cachelet));
 			while (!false) {
 				Thread.sleep(hbInterval);
 				getZooKeeper().setDataVariable(CACHELET_ZNODE,
-						BytesUtil.EMPTY_BYTES);
+						getHeartbeat(cachelet));
 			}
 		} else {
 			LOG.info("Safety net is disabled... simply sleeping this thread.");
@@ -171,6 +152,59 @@ public class Nimbus extends Configured implements Tool {
 		}
 	}
 
+	private void startDaemon() throws Exception {
+		LOG.info("Starting Cachelet daemon");
+		NimbusShutdownHook.createInstance(null);
+		new CacheletDaemon(InetAddress.getLocalHost().getHostName()).run();
+	}
+
+	/**
+	 * Creates the Cachelet server for the given Cache. The server does not
+	 * listen for connections until it is run.
+	 * 
+	 * @param info
+	 *            The information of the Cache.
+	 * @param cacheletName
+	 *            The name of this Cachelet.
+	 * @return The Cachelet server, or null if the Cache type is not supported.
+	 */
+	public static ICacheletServer createCachelet(CacheInfo info,
+			String cacheletName) {
+		switch (info.getType()) {
+		case STATIC_SET:
+			return new StaticSetCacheletServer(info.getName(), cacheletName,
+					info.getPort(), info.getType());
+		case DYNAMIC_SET:
+			return new DynamicSetCacheletServer(info.getName(), cacheletName,
+					info.getPort(), info.getType());
+		case MASTER:
+			return new MasterCacheletServer(info.getName(), cacheletName,
+					info.getPort(), info.getType());
+		case MAPSET:
+			return new MapSetCacheletServer(info.getName(), cacheletName,
+					info.getPort(), info.getType());
+		case DYNAMIC_MAP:
+			return new DynamicMapCacheletServer(info.getName(), cacheletName,
+					info.getPort(), info.getType());
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Gets the data a Cachelet sends with its heartbeat, which is the number
+	 * of bytes its stores use as a long, or -1 if it cannot tell. See
+	 * {@link NimbusMaster#getCacheletMemoryUsed(String, String)}.
+	 * 
+	 * @param cachelet
+	 *            The Cachelet.
+	 * @return The heartbeat data.
+	 */
+	public static byte[] getHeartbeat(ICacheletServer cachelet) {
+		return ByteBuffer.allocate(8).putLong(cachelet.getMemoryUsed())
+				.array();
+	}
+
 	private void createMasterCacheInfo() {
 
 		LOG.info("creating master cache info");
@@ -267,6 +301,11 @@ public class Nimbus extends Configured implements Tool {
 			options.addOption(OptionBuilder.withLongOpt("kill").hasArg()
 					.withDescription("Kill a cache").create('s'));
 
+			options.addOption(OptionBuilder.withLongOpt("daemon")
+					.withDescription(
+							"Host every Cache on this machine in one process")
+					.create());
+
 			options.addOption(OptionBuilder.withLongOpt("port").hasArg()
 					.withDescription("Port to initialize Nimbus with.")
 					.create('p'));
@@ -296,6 +335,12 @@ public class Nimbus extends Configured implements Tool {
 						"Cannot simultaneously start and kill a cache");
 			}
 
+			if (line.hasOption("daemon")
+					&& (line.hasOption("start") || line.hasOption("kill"))) {
+				throw new ParseException(
+						"Cannot start or kill a cache from the daemon");
+			}
+
 			// verify all required options are there
 			if (line.hasOption("start")
 					&& (!line.hasOption("port") || !line.hasOption("name") || !line
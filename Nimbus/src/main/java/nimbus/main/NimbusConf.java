@@ -6,7 +6,9 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
@@ -14,7 +16,12 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
 
+import nimbus.server.CacheletServerMode;
+import nimbus.storage.StorageEngineType;
+import nimbus.utils.BloomFilterType;
 import nimbus.utils.CacheletHashType;
+import nimbus.utils.WriteAheadLogAckMode;
+import nimbus.utils.WriteAheadLogBackend;
 
 /**
  * This class is designed to handle all Nimbus configuration parameters. The
@@ -38,13 +45,37 @@ public class NimbusConf extends Configuration {
 	public static final String NIMBUS_NUM_SERVERS_CONF_VAR = "nimbus.num.servers";
 	public static final String NIMBUS_JAVA_OPTS = "nimbus.java.opts";
 	public static final String SERVER_HASH_TYPE = "nimbus.server.hash";
+	public static final String BLOOM_FILTER_TYPE = "nimbus.bloom.filter.type";
+	public static final String BLOOM_FILTER_CACHE_DIR = "nimbus.bloom.filter.cache.dir";
+	public static final String BLOOM_FILTER_DOWNLOAD_THREADS = "nimbus.bloom.filter.download.threads";
+	public static final String BLOOM_FILTER_PARTIAL = "nimbus.bloom.filter.partial";
+	public static final String DYNAMIC_SET_FILTER_RECORDS = "nimbus.dynamic.set.filter.records";
+	public static final String DYNAMIC_SET_FILTER_FALSE_POS_RATE = "nimbus.dynamic.set.filter.false.pos.rate";
+	public static final String DYNAMIC_SET_FILTER_SYNC_INTERVAL = "nimbus.dynamic.set.filter.sync.interval.ms";
 	public static final String NIMBUS_SAFETY_NET_TIMEOUT = "nimbus.safety.net.timeout";
 	public static final String NIMBUS_SAFETY_NET_ENABLED = "nimbus.safety.net.enabled";
 	public static final String NIMBUS_CACHELET_HEARTBEAT = "nimbus.cachelet.heartbeat";
 	public static final String NIMBUS_REPLICATION_FACTOR = "nimbus.replication.factor";
 	public static final String WRITE_AHEAD_LOG_DIR = "write.ahead.log.dir";
+	public static final String WAL_ACK_MODE = "nimbus.wal.ack.mode";
+	public static final String WAL_QUEUE_SIZE = "nimbus.wal.queue.size";
+	public static final String WAL_BATCH_SIZE = "nimbus.wal.batch.size";
+	public static final String WAL_FLUSH_INTERVAL = "nimbus.wal.flush.interval.ms";
+	public static final String WAL_BACKEND = "nimbus.wal.backend";
+	public static final String WAL_LOCAL_DIR = "nimbus.wal.local.dir";
+	public static final String WAL_SEGMENT_SIZE = "nimbus.wal.segment.size";
+	public static final String SNAPSHOT_DIR = "nimbus.snapshot.dir";
+	public static final String SNAPSHOT_INTERVAL = "nimbus.snapshot.interval.ms";
+	public static final String RECOVERY_THREADS = "nimbus.recovery.threads";
 	public static final String ZK_ASSISTANT_ROOT_PATH = "zk.assistant.root.path";
 	public static final String ZK_SESSION_TIMEOUT = "zk.session.timeout";
+	public static final String CACHELET_SERVER_MODE = "nimbus.cachelet.server.mode";
+	public static final String CACHELET_WORKER_THREADS = "nimbus.cachelet.worker.threads";
+	public static final String CACHELET_DAEMON = "nimbus.cachelet.daemon";
+	public static final String CACHELET_LOCK_STRIPES = "nimbus.cachelet.lock.stripes";
+	public static final String CLIENT_PIPELINE_WINDOW = "nimbus.client.pipeline.window";
+	public static final String PROTOCOL_VERSION = "nimbus.protocol.version";
+	public static final String STORAGE_ENGINE = "nimbus.storage.engine";
 
 	private static NimbusConf s_instance = null;
 
@@ -115,6 +146,84 @@ public class NimbusConf extends Configuration {
 		return CacheletHashType.valueOf(s_instance.get(SERVER_HASH_TYPE));
 	}
 
+	/**
+	 * Gets the kind of Bloom filter Static Set Cachelets build for their
+	 * clients.
+	 * 
+	 * @return The Bloom filter type.
+	 */
+	public BloomFilterType getBloomFilterType() {
+		return BloomFilterType.valueOf(s_instance.get(BLOOM_FILTER_TYPE,
+				BloomFilterType.BLOCKED.toString()).toUpperCase());
+	}
+
+	/**
+	 * Gets the local directory clients keep a Cachelet's Bloom filters in.
+	 * 
+	 * @param cacheName
+	 *            The Cache the filter belongs to.
+	 * @param cacheletName
+	 *            The Cachelet the filter belongs to.
+	 * @return The directory, or null if clients read filters straight from
+	 *         HDFS.
+	 */
+	public File getBloomFilterCacheDir(String cacheName, String cacheletName) {
+		String dir = s_instance.get(BLOOM_FILTER_CACHE_DIR);
+		if (dir == null || dir.trim().isEmpty()) {
+			return null;
+		}
+		return new File(dir.trim() + "/" + cacheName + "/" + cacheletName);
+	}
+
+	/**
+	 * Gets the number of Bloom filters a client downloads at once.
+	 * 
+	 * @return The number of download threads.
+	 */
+	public int getBloomFilterDownloadThreads() {
+		return Integer.parseInt(s_instance.get(BLOOM_FILTER_DOWNLOAD_THREADS,
+				"8"));
+	}
+
+	/**
+	 * Gets whether a client starts without the Bloom filters of unavailable
+	 * Cachelets, or of those whose filter fails to download, rather than
+	 * failing.
+	 * 
+	 * @return True if partial filter downloads are allowed.
+	 */
+	public boolean isBloomFilterPartialEnabled() {
+		return Boolean.parseBoolean(s_instance.get(BLOOM_FILTER_PARTIAL,
+				"false"));
+	}
+
+	/**
+	 * Gets the number of elements each Dynamic Set Cachelet sizes its counting
+	 * Bloom filter for.
+	 * 
+	 * @return The number of elements, or 0 if Cachelets keep no filter.
+	 */
+	public int getDynamicSetFilterRecords() {
+		return Integer.parseInt(s_instance.get(DYNAMIC_SET_FILTER_RECORDS, "0"));
+	}
+
+	public float getDynamicSetFilterFalsePosRate() {
+		return Float.parseFloat(s_instance.get(
+				DYNAMIC_SET_FILTER_FALSE_POS_RATE, "0.01"));
+	}
+
+	/**
+	 * Gets how long a Dynamic Set client answers lookups from its copy of a
+	 * Cachelet's filter before fetching the changes to it.
+	 * 
+	 * @return The interval in milliseconds, or 0 if clients send every lookup
+	 *         to the Cachelets.
+	 */
+	public long getDynamicSetFilterSyncInterval() {
+		return Long.parseLong(s_instance.get(DYNAMIC_SET_FILTER_SYNC_INTERVAL,
+				"0"));
+	}
+
 	public long getSafetyNetTimeout() {
 		return Long.parseLong(s_instance.get(NIMBUS_SAFETY_NET_TIMEOUT));
 	}
@@ -131,6 +240,73 @@ public class NimbusConf extends Configuration {
 		return Integer.parseInt(s_instance.get(NIMBUS_REPLICATION_FACTOR));
 	}
 
+	/**
+	 * Gets how the Cachelets of the given Cache handle client connections. A
+	 * value set for nimbus.cachelet.server.mode.&lt;cacheName&gt; takes
+	 * precedence over nimbus.cachelet.server.mode.
+	 * 
+	 * @param cacheName
+	 *            The Cache name.
+	 * @return The server mode.
+	 */
+	public CacheletServerMode getCacheletServerMode(String cacheName) {
+		return CacheletServerMode.valueOf(s_instance.get(
+				CACHELET_SERVER_MODE + "." + cacheName,
+				s_instance.get(CACHELET_SERVER_MODE)).toUpperCase());
+	}
+
+	/**
+	 * Gets where the Cachelets of the given Cache store their data. A value
+	 * set for nimbus.storage.engine.&lt;cacheName&gt; takes precedence over
+	 * nimbus.storage.engine.
+	 * 
+	 * @param cacheName
+	 *            The Cache name.
+	 * @return The storage engine.
+	 */
+	public StorageEngineType getStorageEngineType(String cacheName) {
+		return StorageEngineType.valueOf(s_instance.get(
+				STORAGE_ENGINE + "." + cacheName,
+				s_instance.get(STORAGE_ENGINE)).toUpperCase());
+	}
+
+	public int getCacheletWorkerThreads() {
+		return Integer.parseInt(s_instance.get(CACHELET_WORKER_THREADS));
+	}
+
+	/**
+	 * Gets whether Caches are hosted by the {@link CacheletDaemon} running on
+	 * each Cachelet machine, rather than by a process per Cache.
+	 * 
+	 * @return True if Cachelet daemons host the Caches.
+	 */
+	public boolean isCacheletDaemonEnabled() {
+		return Boolean.parseBoolean(s_instance.get(CACHELET_DAEMON, "false"));
+	}
+
+	/**
+	 * Gets the number of independently locked stripes a Cachelet splits its
+	 * set into.
+	 * 
+	 * @return The number of stripes.
+	 */
+	public int getCacheletLockStripes() {
+		return Integer.parseInt(s_instance.get(CACHELET_LOCK_STRIPES));
+	}
+
+	public int getClientPipelineWindow() {
+		return Integer.parseInt(s_instance.get(CLIENT_PIPELINE_WINDOW));
+	}
+
+	/**
+	 * Gets the framing clients use to talk to Cachelets.
+	 * 
+	 * @return 1 or 2, see {@link nimbus.utils.NimbusOutputStream}.
+	 */
+	public int getProtocolVersion() {
+		return Integer.parseInt(s_instance.get(PROTOCOL_VERSION, "1"));
+	}
+
 	private static void loadConfiguration() {
 		try {
 
@@ -217,6 +393,101 @@ public class NimbusConf extends Configuration {
 				+ "/" + cacheletName + "/" + System.currentTimeMillis());
 	}
 
+	public WriteAheadLogAckMode getWriteAheadLogAckMode() {
+		return WriteAheadLogAckMode.valueOf(s_instance.get(WAL_ACK_MODE)
+				.toUpperCase());
+	}
+
+	/**
+	 * Gets the number of records that can wait to be written to the write
+	 * ahead log before writers block.
+	 * 
+	 * @return The capacity of the queue.
+	 */
+	public int getWriteAheadLogQueueSize() {
+		return Integer.parseInt(s_instance.get(WAL_QUEUE_SIZE));
+	}
+
+	/**
+	 * Gets the most records written to the write ahead log in one group.
+	 * 
+	 * @return The batch size.
+	 */
+	public int getWriteAheadLogBatchSize() {
+		return Integer.parseInt(s_instance.get(WAL_BATCH_SIZE));
+	}
+
+	/**
+	 * Gets how long the write ahead log waits for more records after the
+	 * first record of a group arrives.
+	 * 
+	 * @return The interval in milliseconds.
+	 */
+	public long getWriteAheadLogFlushInterval() {
+		return Long.parseLong(s_instance.get(WAL_FLUSH_INTERVAL));
+	}
+
+	public WriteAheadLogBackend getWriteAheadLogBackend() {
+		return WriteAheadLogBackend.valueOf(s_instance.get(WAL_BACKEND)
+				.toUpperCase());
+	}
+
+	/**
+	 * Gets the size each local write ahead log file is preallocated to.
+	 * 
+	 * @return The size in bytes.
+	 */
+	public int getWriteAheadLogSegmentSize() {
+		return Integer.parseInt(s_instance.get(WAL_SEGMENT_SIZE));
+	}
+
+	/**
+	 * Gets a new local write ahead log file for the given Cachelet, named the
+	 * same way as {@link NimbusConf#getWriteAheadLog(String, String)}.
+	 * 
+	 * @param cacheName
+	 *            The Cache.
+	 * @param cacheletName
+	 *            The Cachelet.
+	 * @return The local file.
+	 */
+	public File getLocalWriteAheadLog(String cacheName, String cacheletName) {
+		return new File(getLocalWriteAheadLogDir(cacheName, cacheletName),
+				Long.toString(System.currentTimeMillis()));
+	}
+
+	/**
+	 * Gets all the local write ahead log files of the given Cachelet, oldest
+	 * first.
+	 * 
+	 * @param cacheName
+	 *            The Cache.
+	 * @param cacheletName
+	 *            The Cachelet.
+	 * @return The files, as local paths.
+	 */
+	public Path[] getPastLocalWriteAheadLogs(String cacheName,
+			String cacheletName) {
+		File[] files = getLocalWriteAheadLogDir(cacheName, cacheletName)
+				.listFiles();
+		if (files == null) {
+			return new Path[0];
+		}
+
+		Arrays.sort(files);
+
+		Path[] retval = new Path[files.length];
+		for (int i = 0; i < files.length; ++i) {
+			retval[i] = new Path(files[i].toURI());
+		}
+		return retval;
+	}
+
+	private File getLocalWriteAheadLogDir(String cacheName, String cacheletName) {
+		return new File(s_instance.get(WAL_LOCAL_DIR) + "/" + cacheName + "/"
+				+ cacheletName);
+	}
+
 	public Path[] getPastWriteAheadLogs(String cacheName, String cacheletName)
 			throws IOException {
 
@@ -234,4 +505,78 @@ public class NimbusConf extends Configuration {
 
 		return retval;
 	}
+
+	/**
+	 * Gets the path of a new snapshot for the given Cachelet. Snapshots are
+	 * named after the first write ahead log that is not covered by them.
+	 * 
+	 * @param cacheName
+	 *            The Cache.
+	 * @param cacheletName
+	 *            The Cachelet.
+	 * @param logName
+	 *            The name of the first write ahead log to replay after
+	 *            loading the snapshot.
+	 * @return The path of the snapshot.
+	 */
+	public Path getSnapshot(String cacheName, String cacheletName,
+			String logName) {
+		return new Path(s_instance.get(SNAPSHOT_DIR) + "/" + cacheName + "/"
+				+ cacheletName + "/" + logName);
+	}
+
+	/**
+	 * Gets all the complete snapshots of the given Cachelet, oldest first.
+	 * 
+	 * @param cacheName
+	 *            The Cache.
+	 * @param cacheletName
+	 *            The Cachelet.
+	 * @return The snapshots.
+	 * @throws IOException
+	 *             If an error occurs listing the snapshots.
+	 */
+	public Path[] getPastSnapshots(String cacheName, String cacheletName)
+			throws IOException {
+
+		FileStatus[] files = FileSystem.get(this).globStatus(
+				new Path(s_instance.get(SNAPSHOT_DIR) + "/" + cacheName + "/"
+						+ cacheletName + "/*"));
+
+		if (files == null) {
+			return new Path[0];
+		}
+
+		// skip snapshots that are still being written
+		List<Path> retval = new ArrayList<Path>();
+		for (FileStatus file : files) {
+			if (!file.getPath().getName().endsWith(".tmp")) {
+				retval.add(file.getPath());
+			}
+		}
+
+		Path[] sorted = retval.toArray(new Path[retval.size()]);
+		Arrays.sort(sorted);
+
+		return sorted;
+	}
+
+	/**
+	 * Gets the number of write ahead logs a Cachelet decodes at once while
+	 * recovering.
+	 * 
+	 * @return The number of threads.
+	 */
+	public int getRecoveryThreads() {
+		return Integer.parseInt(s_instance.get(RECOVERY_THREADS));
+	}
+
+	/**
+	 * Gets how often a Cachelet snapshots its contents.
+	 * 
+	 * @return The interval in milliseconds, or zero if snapshots are disabled.
+	 */
+	public long getSnapshotInterval() {
+		return Long.parseLong(s_instance.get(SNAPSHOT_INTERVAL));
+	}
 }
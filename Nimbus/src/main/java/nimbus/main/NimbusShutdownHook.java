@@ -36,6 +36,26 @@ public class NimbusShutdownHook extends Thread {
 		return s_instance;
 	}
 
+	/**
+	 * Deletes a Cachelet's ZNode, and its Cache's ZNode if no more Cachelets
+	 * are left in it.
+	 * 
+	 * @param cacheZNode
+	 *            The path of the Cache.
+	 * @param cacheletZNode
+	 *            The path of the Cachelet.
+	 */
+	public static void deleteZNodes(String cacheZNode, String cacheletZNode) {
+		Nimbus.getZooKeeper().deletePaths(cacheletZNode, true);
+
+		List<String> children = Nimbus.getZooKeeper().getChildren(cacheZNode);
+		if (children.size() == 0) {
+			LOG.info("No more children left.  Deleting Cache node: "
+					+ cacheZNode);
+			Nimbus.getZooKeeper().deletePaths(cacheZNode, true);
+		}
+	}
+
 	private NimbusShutdownHook(CacheType type) {
 		this.type = type;
 	}
@@ -52,22 +72,14 @@ public class NimbusShutdownHook extends Thread {
 	public void run() {
 		LOG.info("Shutting down server.  You stay classy Sandy Eggo.");
 
-		if (type.equals(CacheType.MASTER)) {
+		if (CacheType.MASTER.equals(type)) {
 			LOG.info("Stopping safety net...");
 			NimbusSafetyNet.getInstance().stop();
 		}
 
 		if (clean) {
 			LOG.info("Clean shutdown of this cache");
-			Nimbus.getZooKeeper().deletePaths(Nimbus.CACHELET_ZNODE, true);
-
-			List<String> children = Nimbus.getZooKeeper().getChildren(
-					Nimbus.CACHE_ZNODE);
-			if (children.size() == 0) {
-				LOG.info("No more children left.  Deleting Cache node: "
-						+ Nimbus.CACHE_ZNODE);
-				Nimbus.getZooKeeper().deletePaths(Nimbus.CACHE_ZNODE, true);
-			}
+			deleteZNodes(Nimbus.CACHE_ZNODE, Nimbus.CACHELET_ZNODE);
 		} else {
 			LOG.info("Not a clean shutdown.  Leaving ZNodes");
 		}
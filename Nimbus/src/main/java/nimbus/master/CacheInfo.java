@@ -7,6 +7,7 @@ import java.io.DataOutputStream;
 import java.io.IOException;
 
 import nimbus.server.CacheType;
+import nimbus.storage.StorageEngineType;
 
 /**
  * This class stores information about each individual class that will
@@ -21,6 +22,7 @@ public class CacheInfo {
 	private int approxNumRecords = 0;
 	private float falsePosRate = 0f;
 	private byte[] availability = null;
+	private StorageEngineType storageEngine = null;
 
 	/**
 	 * Initializes a new instance of CacheInfo.<br>
@@ -54,6 +56,11 @@ public class CacheInfo {
 		availability = new byte[len];
 		strm.read(availability, 0, len);
 
+		// written after the others, and only when set
+		if (strm.available() > 0) {
+			storageEngine = StorageEngineType.valueOf(strm.readUTF());
+		}
+
 		strm.close();
 	}
 
@@ -82,6 +89,10 @@ public class CacheInfo {
 			strm.writeInt(availability.length);
 			strm.write(availability);
 
+			if (storageEngine != null) {
+				strm.writeUTF(storageEngine.name());
+			}
+
 			strm.flush();
 			strm.close();
 			return bytestream.toByteArray();
@@ -202,4 +213,23 @@ public class CacheInfo {
 	public float getFalsePosRate() {
 		return falsePosRate;
 	}
+
+	/**
+	 * Sets the storage engine this Cache's Cachelets store their data in.
+	 * 
+	 * @param storageEngine
+	 *            The storage engine, or null to use the configured one.
+	 */
+	public void setStorageEngine(StorageEngineType storageEngine) {
+		this.storageEngine = storageEngine;
+	}
+
+	/**
+	 * Gets the storage engine this Cache's Cachelets store their data in.
+	 * 
+	 * @return The storage engine, or null if not set.
+	 */
+	public StorageEngineType getStorageEngine() {
+		return storageEngine;
+	}
 }
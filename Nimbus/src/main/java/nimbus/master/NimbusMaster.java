@@ -4,6 +4,7 @@ import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.net.ServerSocket;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Random;
@@ -16,6 +17,7 @@ import org.apache.zookeeper.CreateMode;
 
 import nimbus.client.BaseNimbusClient;
 import nimbus.server.CacheType;
+import nimbus.storage.StorageEngineType;
 import nimbus.utils.BigBitArray;
 
 /**
@@ -195,7 +197,9 @@ public class NimbusMaster implements ISafetyNetListener {
 
 	/**
 	 * Used by the Master service to create a Cache. Selects a random port based
-	 * on the range from {@link NimbusConf#getNimbusCacheletPortRange()}. <br>
+	 * on the range from {@link NimbusConf#getNimbusCacheletPortRange()}. If
+	 * {@link NimbusConf#isCacheletDaemonEnabled()}, the Cache is started by the
+	 * Cachelet daemons rather than a process of its own.<br>
 	 * <br>
 	 * <b>Applications should not call this function explicitly. Use the
 	 * {@link MasterClient} to create/destroy Caches.</b>
@@ -211,6 +215,27 @@ public class NimbusMaster implements ISafetyNetListener {
 	 */
 	public void create(String name, CacheType type)
 			throws FailedToCreateCacheException {
+		create(name, type, null);
+	}
+
+	/**
+	 * Used by the Master service to create a Cache stored in the given storage
+	 * engine. See {@link #create(String, CacheType)}.
+	 * 
+	 * @param name
+	 *            The Cache to create.
+	 * @param type
+	 *            The type of Cache to create.
+	 * @param storageEngine
+	 *            The storage engine, or null to use the one configured by
+	 *            {@link NimbusConf#getStorageEngineType(String)}.
+	 * @throws FailedToCreateCacheException
+	 *             If an error occurs when creating the Cache, such as the Cache
+	 *             already existing.
+	 */
+	public void create(String name, CacheType type,
+			StorageEngineType storageEngine)
+			throws FailedToCreateCacheException {
 		if (exists(name)) {
 			throw new FailedToCreateCacheException(name);
 		}
@@ -229,6 +254,7 @@ public class NimbusMaster implements ISafetyNetListener {
 		info.setName(name);
 		info.setType(type);
 		info.setPort(port);
+		info.setStorageEngine(storageEngine);
 
 		BigBitArray array = new BigBitArray(
 				BigBitArray.makeMultipleOfEight(NimbusConf.getConf()
@@ -248,6 +274,13 @@ public class NimbusMaster implements ISafetyNetListener {
 			throw new FailedToCreateCacheException(e.getMessage());
 		}
 
+		if (NimbusConf.getConf().isCacheletDaemonEnabled()) {
+			// the daemon on each machine starts hosting it on its next heartbeat
+			LOG.info("Created Cache " + name + " on port " + port
+					+ " for the Cachelet daemons");
+			return;
+		}
+
 		List<String> cmds = new ArrayList<String>();
 		cmds.add(NimbusConf.getConf().getNimbusHomeDir() + "/bin/start.sh");
 		cmds.add(name);
@@ -344,6 +377,26 @@ public class NimbusMaster implements ISafetyNetListener {
 		return -1;
 	}
 
+	/**
+	 * Gets the memory used by the stores of the given Cachelet, as sent with
+	 * its last heartbeat.
+	 * 
+	 * @param cacheName
+	 *            The name of the Cache.
+	 * @param cacheletName
+	 *            The name of the Cachelet.
+	 * @return The number of bytes, or -1 if the Cachelet cannot tell or has
+	 *         not sent a heartbeat.
+	 */
+	public long getCacheletMemoryUsed(String cacheName, String cacheletName) {
+		byte[] data = Nimbus.getZooKeeper().getDataVariable(
+				Nimbus.ROOT_ZNODE + "/" + cacheName + "/" + cacheletName);
+		if (data == null || data.length != 8) {
+			return -1;
+		}
+		return ByteBuffer.wrap(data).getLong();
+	}
+
 	/**
 	 * Sets the given Cachelet's availability in ZooKeeper. This method
 	 * inherently calls {@link NimbusMaster#getCacheInfoLock()} and releases the
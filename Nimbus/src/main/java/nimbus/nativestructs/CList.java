@@ -1,10 +1,13 @@
 package nimbus.nativestructs;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ListIterator;
 
+import nimbus.utils.BigBitArray;
+
 import org.apache.log4j.Logger;
 
 /**
@@ -14,14 +17,14 @@ import org.apache.log4j.Logger;
  * <br>
  * Note that not all methods are supported due to interop issues. <br>
  * <br>
- * The CList is a Singleton object, due to there being no distinction of the
- * std::list. Multiple instances of a CList would all communicate with the same
- * std::list.
+ * Each CList holds a handle to its own std::list, which is deleted by
+ * {@link #release()} or when the CList is garbage collected.
  */
 public class CList implements List<String> {
 
 	private static final Logger LOG = Logger.getLogger(CList.class);
 	private static CList s_instance = null;
+	private long li;
 
 	static {
 		LOG.info("Loading native libraries from: "
@@ -33,11 +36,11 @@ public class CList implements List<String> {
 
 		private int index = 0;
 
-		private final CList list = CList.getInstance();
+		private final CList list = CList.this;
 
 		@Override
 		public boolean hasNext() {
-			return index < list.c_size();
+			return index < list.size();
 		}
 
 		@Override
@@ -56,7 +59,13 @@ public class CList implements List<String> {
 		}
 	}
 
-	public static CList getInstance() {
+	/**
+	 * Gets a list shared by every caller in the process.
+	 * 
+	 * @deprecated Create a list with {@link #CList()} instead.
+	 */
+	@Deprecated
+	public static synchronized CList getInstance() {
 		if (s_instance == null) {
 			s_instance = new CList();
 		}
@@ -64,18 +73,40 @@ public class CList implements List<String> {
 	}
 
 	/**
-	 * Initializes a new instance of the CSet
+	 * Initializes a new instance of the CList
+	 */
+	public CList() {
+		this.li = newList();
+	}
+
+	private native long newList();
+
+	@Override
+	protected void finalize() throws Throwable {
+		release();
+		super.finalize();
+	}
+
+	/**
+	 * Deletes the native list. Only the first call deletes it, and the list
+	 * must not be used afterwards.
 	 */
-	private CList() {
+	public synchronized void release() {
+		if (li != 0) {
+			delete(li);
+			li = 0;
+		}
 	}
 
+	private native void delete(long li);
+
 	@Override
 	public boolean add(String value) {
-		c_add(value);
+		c_add(li, value);
 		return true;
 	}
 
-	private native void c_add(String value);
+	private native void c_add(long li, String value);
 
 	@Override
 	public void add(int index, String value) {
@@ -85,20 +116,34 @@ public class CList implements List<String> {
 					+ size());
 		}
 
-		c_add(index, value);
+		c_add(li, index, value);
 	}
 
-	private native void c_add(int index, String value);
+	private native void c_add(long li, int index, String value);
 
+	/**
+	 * Appends all the given values, many at a time per native call.
+	 */
 	@Override
 	public boolean addAll(Collection<? extends String> values) {
+		ElementPacker packer = ElementPacker.get();
 		for (String s : values) {
-			c_add(s);
+			packer.add(s);
+			if (packer.isFull()) {
+				c_addAll(li, packer.getBuffer(), packer.getCount());
+				packer.clear();
+			}
+		}
+
+		if (packer.getCount() > 0) {
+			c_addAll(li, packer.getBuffer(), packer.getCount());
 		}
 
 		return true;
 	}
 
+	private native void c_addAll(long li, ByteBuffer packed, int count);
+
 	@Override
 	public boolean addAll(int index, Collection<? extends String> values) {
 		if (index < 0 || index > size()) {
@@ -108,7 +153,7 @@ public class CList implements List<String> {
 
 		int i = index;
 		for (String s : values) {
-			c_add(i, s);
+			c_add(li, i, s);
 			++i;
 		}
 
@@ -117,32 +162,51 @@ public class CList implements List<String> {
 
 	@Override
 	public void clear() {
-		c_clear();
+		c_clear(li);
 	}
 
-	private native void c_clear();
+	private native void c_clear(long li);
 
 	@Override
 	public boolean contains(Object value) {
-		return c_contains(value);
+		return c_contains(li, value);
 	}
 
-	private native boolean c_contains(Object value);
+	private native boolean c_contains(long li, Object value);
 
+	/**
+	 * Tests all the given values, many at a time per native call.
+	 */
 	@Override
 	public boolean containsAll(Collection<?> values) {
-		boolean retval = true;
+		return ElementPacker.allOn(containsEachBits(values), values.size());
+	}
 
-		for (Object o : values) {
-			if (!c_contains(o)) {
-				retval = false;
-				break;
-			}
-		}
+	/**
+	 * Tests all the given values, many at a time per native call.
+	 * 
+	 * @param values
+	 *            The values to test.
+	 * @return A bitmap with a bit for each value, in iteration order, which is
+	 *         on if the value is in the list.
+	 */
+	public BigBitArray containsEach(Collection<?> values) {
+		return new BigBitArray(containsEachBits(values));
+	}
 
-		return retval;
+	private byte[] containsEachBits(Collection<?> values) {
+		return ElementPacker.forEach(values, new ElementPacker.BulkCall() {
+			@Override
+			public void call(ByteBuffer packed, int count, byte[] bits,
+					int offset) {
+				c_containsAll(li, packed, count, bits, offset);
+			}
+		});
 	}
 
+	private native void c_containsAll(long li, ByteBuffer packed, int count,
+			byte[] bits, int offset);
+
 	@Override
 	public String get(int index) {
 		if (index < 0 || index >= size()) {
@@ -150,24 +214,24 @@ public class CList implements List<String> {
 					+ size());
 		}
 
-		return c_get(index);
+		return c_get(li, index);
 	}
 
-	private native String c_get(int index);
+	private native String c_get(long li, int index);
 
 	@Override
 	public int indexOf(Object obj) {
-		return c_indexOf(obj);
+		return c_indexOf(li, obj);
 	}
 
-	private native int c_indexOf(Object obj);
+	private native int c_indexOf(long li, Object obj);
 
 	@Override
 	public boolean isEmpty() {
-		return c_isEmpty();
+		return c_isEmpty(li);
 	}
 
-	private native boolean c_isEmpty();
+	private native boolean c_isEmpty(long li);
 
 	/**
 	 * <b>This method is not supported and throws a RuntimeException</b>
@@ -180,10 +244,10 @@ public class CList implements List<String> {
 
 	@Override
 	public int lastIndexOf(Object obj) {
-		return c_lastIndexOf(obj);
+		return c_lastIndexOf(li, obj);
 	}
 
-	private native int c_lastIndexOf(Object obj);
+	private native int c_lastIndexOf(long li, Object obj);
 
 	/**
 	 * <b>This method is not supported and throws a RuntimeException</b>
@@ -209,17 +273,17 @@ public class CList implements List<String> {
 
 	@Override
 	public boolean remove(Object obj) {
-		return c_remove(obj);
+		return c_remove(li, obj);
 	}
 
-	private native boolean c_remove(Object obj);
+	private native boolean c_remove(long li, Object obj);
 
 	@Override
 	public String remove(int index) {
-		return c_remove(index);
+		return c_remove(li, index);
 	}
 
-	private native String c_remove(int index);
+	private native String c_remove(long li, int index);
 
 	@Override
 	public boolean removeAll(Collection<?> objects) {
@@ -258,17 +322,17 @@ public class CList implements List<String> {
 					+ size());
 		}
 		
-		return c_set(index, value);
+		return c_set(li, index, value);
 	}
 
-	private native String c_set(int index, String value);
+	private native String c_set(long li, int index, String value);
 
 	@Override
 	public int size() {
-		return c_size();
+		return c_size(li);
 	}
 
-	private native int c_size();
+	private native int c_size(long li);
 
 	/**
 	 * <b>This method is not supported and throws a RuntimeException</b>
@@ -1,11 +1,15 @@
 package nimbus.nativestructs;
 
+import java.nio.ByteBuffer;
+import java.util.AbstractMap;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import nimbus.storage.IMapStore;
+
 import org.apache.log4j.Logger;
 
 /**
@@ -15,15 +19,14 @@ import org.apache.log4j.Logger;
  * <br>
  * Note that not all methods are supported due to interop issues. <br>
  * <br>
- * The CMap is a Singleton object, due to there being no distinction of the
- * std::map. Multiple instances of a CMap would all communicate with the same
- * std::map.
+ * Each CMap holds a handle to its own std::map, which is deleted by
+ * {@link #release()} or when the CMap is garbage collected.
  */
-public class CMap implements Map<String, String>,
-		Iterable<Entry<String, String>> {
+public class CMap extends IMapStore {
 
 	private static final Logger LOG = Logger.getLogger(CMap.class);
 	private static CMap s_instance = null;
+	private long mi;
 
 	static {
 		LOG.info("Loading native libraries from: "
@@ -31,7 +34,13 @@ public class CMap implements Map<String, String>,
 		System.loadLibrary("NativeNimbus");
 	}
 
-	public static CMap getInstance() {
+	/**
+	 * Gets a map shared by every caller in the process.
+	 * 
+	 * @deprecated Create a map with {@link #CMap()} instead.
+	 */
+	@Deprecated
+	public static synchronized CMap getInstance() {
 		if (s_instance == null) {
 			s_instance = new CMap();
 		}
@@ -39,31 +48,69 @@ public class CMap implements Map<String, String>,
 	}
 
 	/**
-	 * Initializes a new instance of the CSet
+	 * Initializes a new instance of the CMap
 	 */
-	private CMap() {
+	public CMap() {
+		this.mi = newMap();
 	}
 
+	private native long newMap();
+
+	@Override
+	protected void finalize() throws Throwable {
+		release();
+		super.finalize();
+	}
+
+	/**
+	 * Deletes the native map. Only the first call deletes it, and the map must
+	 * not be used afterwards.
+	 */
+	@Override
+	public synchronized void release() {
+		if (mi != 0) {
+			delete(mi);
+			mi = 0;
+		}
+	}
+
+	private native void delete(long mi);
+
 	@Override
 	public void clear() {
-		c_clear();
+		c_clear(mi);
 	}
 
-	private native void c_clear();
+	private native void c_clear(long mi);
 
 	@Override
 	public boolean containsKey(Object key) {
-		return c_containsKey(key);
+		return c_containsKey(mi, key);
+	}
+
+	private native boolean c_containsKey(long mi, Object key);
+
+	/**
+	 * Tests for the key given as UTF-8 bytes, such as an argument read off the
+	 * wire, without decoding it to a String.
+	 * 
+	 * @param key
+	 *            The UTF-8 bytes of the key.
+	 * @return True if the key is in the map.
+	 */
+	public boolean containsKey(byte[] key) {
+		return c_containsKeyBytes(mi, key, 0, key.length);
 	}
 
-	private native boolean c_containsKey(Object key);
+	private native boolean c_containsKeyBytes(long mi, byte[] key,
+			int offset, int length);
 
 	@Override
 	public boolean containsValue(Object value) {
-		return c_containsValue(value);
+		return c_containsValue(mi, value);
 	}
 
-	private native boolean c_containsValue(Object key);
+	private native boolean c_containsValue(long mi, Object key);
 
 	/**
 	 * <b>This method is not supported and throws a RuntimeException</b>
@@ -78,17 +125,33 @@ public class CMap implements Map<String, String>,
 
 	@Override
 	public String get(Object key) {
-		return c_get(key);
+		return c_get(mi, key);
 	}
 
-	private native String c_get(Object key);
+	private native String c_get(long mi, Object key);
+
+	/**
+	 * Gets the value of the key given as UTF-8 bytes, without decoding or
+	 * encoding a String.
+	 * 
+	 * @param key
+	 *            The UTF-8 bytes of the key.
+	 * @return The UTF-8 bytes of the value, or null if the key is not in the
+	 *         map.
+	 */
+	public byte[] get(byte[] key) {
+		return c_getBytes(mi, key, 0, key.length);
+	}
+
+	private native byte[] c_getBytes(long mi, byte[] key, int offset,
+			int length);
 
 	@Override
 	public boolean isEmpty() {
-		return c_isEmpty();
+		return c_isEmpty(mi);
 	}
 
-	private native boolean c_isEmpty();
+	private native boolean c_isEmpty(long mi);
 
 	/**
 	 * <b>This method is not supported and throws a RuntimeException</b>
@@ -102,31 +165,78 @@ public class CMap implements Map<String, String>,
 
 	@Override
 	public String put(String key, String value) {
-		return c_put(key, value);
+		return c_put(mi, key, value);
 	}
 
-	private native String c_put(String key, String value);
+	private native String c_put(long mi, String key, String value);
 
+	/**
+	 * Puts the key and value given as UTF-8 bytes, without decoding them to
+	 * Strings. They are stored the same as if they were put as Strings.
+	 * 
+	 * @param key
+	 *            The UTF-8 bytes of the key.
+	 * @param value
+	 *            The UTF-8 bytes of the value.
+	 * @return The UTF-8 bytes of the old value, or null if there was none.
+	 */
+	public byte[] put(byte[] key, byte[] value) {
+		return c_putBytes(mi, key, 0, key.length, value, 0, value.length);
+	}
+
+	private native byte[] c_putBytes(long mi, byte[] key, int keyOffset,
+			int keyLength, byte[] value, int valueOffset, int valueLength);
+
+	/**
+	 * Puts all the given entries, many at a time per native call.
+	 */
 	@Override
 	public void putAll(Map<? extends String, ? extends String> m) {
+		ElementPacker packer = ElementPacker.get();
 		for (Entry<? extends String, ? extends String> e : m.entrySet()) {
-			c_put(e.getKey(), e.getValue());
+			// keys and values alternate, so a full packer never splits a pair
+			packer.add(e.getKey());
+			packer.add(e.getValue());
+			if (packer.isFull()) {
+				c_putAll(mi, packer.getBuffer(), packer.getCount() / 2);
+				packer.clear();
+			}
+		}
+
+		if (packer.getCount() > 0) {
+			c_putAll(mi, packer.getBuffer(), packer.getCount() / 2);
 		}
 	}
 
+	private native void c_putAll(long mi, ByteBuffer packed, int count);
+
 	@Override
 	public String remove(Object key) {
-		return c_remove(key);
+		return c_remove(mi, key);
+	}
+
+	private native String c_remove(long mi, Object key);
+
+	/**
+	 * Removes the key given as UTF-8 bytes, without decoding it to a String.
+	 * 
+	 * @param key
+	 *            The UTF-8 bytes of the key.
+	 * @return The UTF-8 bytes of the old value, or null if there was none.
+	 */
+	public byte[] remove(byte[] key) {
+		return c_removeBytes(mi, key, 0, key.length);
 	}
 
-	private native String c_remove(Object key);
+	private native byte[] c_removeBytes(long mi, byte[] key, int offset,
+			int length);
 
 	@Override
 	public int size() {
-		return c_size();
+		return c_size(mi);
 	}
 
-	private native int c_size();
+	private native int c_size(long mi);
 
 	/**
 	 * <b>This method is not supported and throws a RuntimeException</b>
@@ -149,35 +259,79 @@ public class CMap implements Map<String, String>,
 		return new CMapIterator(this);
 	}
 
-	private native int c_iterInit();
+	/**
+	 * Iterates over the entries as UTF-8 bytes, ready to be written to the
+	 * wire without encoding each one from a String.
+	 * 
+	 * @return An iterator over the UTF-8 bytes of each key and value.
+	 */
+	public Iterator<Entry<byte[], byte[]>> bytesIterator() {
+		return new CMapBytesIterator(this);
+	}
 
-	private native boolean c_iterHasNext(int index);
+	/*
+	 * Each iterator has its own native iterator, freed once it reaches the end
+	 * of the map or is garbage collected.
+	 */
+	private native long c_iterInit(long mi);
 
-	private native String c_iterNext(int index);
+	private native boolean c_iterHasNext(long it);
 
-	private native String c_getIterValue(int index);
+	private native String c_iterNext(long it);
 
-	public static class CMapIterator implements Iterator<Entry<String, String>> {
+	private native String c_getIterValue(long it);
 
-		private CMap map = null;
-		private int index;
-		private CMapEntry currEntry = new CMapEntry();
+	private native byte[] c_iterNextBytes(long it);
 
-		public CMapIterator(CMap map) {
+	private native byte[] c_getIterValueBytes(long it);
+
+	private native void c_iterFree(long it);
+
+	private abstract static class NativeIterator {
+
+		protected CMap map = null;
+		protected long it;
+
+		protected NativeIterator(CMap map) {
 			this.map = map;
-			index = map.c_iterInit();
+			this.it = map.c_iterInit(map.mi);
+		}
+
+		public synchronized boolean hasNext() {
+			if (it != 0 && !map.c_iterHasNext(it)) {
+				free();
+			}
+			return it != 0;
+		}
+
+		private synchronized void free() {
+			if (it != 0) {
+				map.c_iterFree(it);
+				it = 0;
+			}
 		}
 
 		@Override
-		public boolean hasNext() {
-			return map.c_iterHasNext(index);
+		protected void finalize() throws Throwable {
+			free();
+			super.finalize();
+		}
+	}
+
+	public static class CMapIterator extends NativeIterator implements
+			Iterator<Entry<String, String>> {
+
+		private CMapEntry currEntry = new CMapEntry();
+
+		public CMapIterator(CMap map) {
+			super(map);
 		}
 
 		@Override
 		public Entry<String, String> next() {
-			if (map.c_iterHasNext(index)) {
-				currEntry.setKey(map.c_iterNext(index));
-				currEntry.setValue(map.c_getIterValue(index));
+			if (hasNext()) {
+				currEntry.setKey(map.c_iterNext(it));
+				currEntry.setValue(map.c_getIterValue(it));
 				return currEntry;
 			} else {
 				return null;
@@ -189,4 +343,29 @@ public class CMap implements Map<String, String>,
 			throw new RuntimeException("CMapIterator::remove is not supported");
 		}
 	}
+
+	public static class CMapBytesIterator extends NativeIterator implements
+			Iterator<Entry<byte[], byte[]>> {
+
+		public CMapBytesIterator(CMap map) {
+			super(map);
+		}
+
+		@Override
+		public Entry<byte[], byte[]> next() {
+			if (hasNext()) {
+				byte[] key = map.c_iterNextBytes(it);
+				return new AbstractMap.SimpleImmutableEntry<byte[], byte[]>(
+						key, map.c_getIterValueBytes(it));
+			} else {
+				return null;
+			}
+		}
+
+		@Override
+		public void remove() {
+			throw new RuntimeException(
+					"CMapBytesIterator::remove is not supported");
+		}
+	}
 }
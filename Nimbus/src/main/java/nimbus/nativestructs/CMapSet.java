@@ -69,11 +69,11 @@ public class CMapSet implements Map<String, CSet> {
 
 	@Override
 	public CSet get(Object key) {
-		int index = c_get((String)key);
-		return new CSet(index);
+		long handle = c_get((String)key);
+		return new CSet(handle);
 	}
 
-	private native int c_get(String key);
+	private native long c_get(String key);
 
 	@Override
 	public boolean isEmpty() {
@@ -1,8 +1,11 @@
 package nimbus.nativestructs;
 
+import java.nio.ByteBuffer;
 import java.util.Collection;
 import java.util.Iterator;
-import java.util.Set;
+
+import nimbus.storage.ISetStore;
+import nimbus.utils.BigBitArray;
 
 import org.apache.log4j.Logger;
 
@@ -13,15 +16,13 @@ import org.apache.log4j.Logger;
  * <br>
  * Note that not all methods are supported due to interop issues. <br>
  * <br>
- * The CSet is a Singleton object, due to there being no distinction of the
- * std::set. Multiple instances of a CSet would all communicate with the same
- * std::set.
+ * Each CSet holds a handle to its own std::set, which is deleted by
+ * {@link #release()} or when the CSet is garbage collected.
  */
-public class CSet implements Set<String> {
+public class CSet extends ISetStore {
 
 	private static final Logger LOG = Logger.getLogger(CSet.class);
-	private static CSet s_instance = null;
-	private int si;
+	private long si;
 
 	static {
 		LOG.info("Loading native libraries from: "
@@ -38,80 +39,201 @@ public class CSet implements Set<String> {
 	}
 	
 	/**
-	 * Creates a pointer to the CSet identified by the index
+	 * Creates a pointer to the CSet identified by the handle
 	 */
-	public CSet(int index) {
-		this.si = index;
+	public CSet(long handle) {
+		this.si = handle;
 	}
 	
 	@Override
 	protected void finalize() throws Throwable {
-		this.delete(si);
+		release();
 		super.finalize();
 	}
 	
 	public void deleteCSet() {
-		this.delete(si);
+		release();
+	}
+
+	/**
+	 * Deletes the native set. Only the first call deletes it, and the set must
+	 * not be used afterwards.
+	 */
+	@Override
+	public synchronized void release() {
+		if (si != 0) {
+			this.delete(si);
+			si = 0;
+		}
 	}
 	
-	private native void delete(int index);
+	private native void delete(long si);
 
-	private native int newSet();
+	private native long newSet();
 
 	@Override
 	public boolean add(String e) {
 		return c_add(si, e);
 	}
 
-	private native boolean c_add(int si, String e);
+	private native boolean c_add(long si, String e);
 
+	/**
+	 * Adds the element given as UTF-8 bytes, such as an argument read off the
+	 * wire, without decoding it to a String. The element is stored the same as
+	 * if it were added as a String.
+	 * 
+	 * @param e
+	 *            The UTF-8 bytes of the element.
+	 * @return True if the element was not already in the set.
+	 */
+	public boolean add(byte[] e) {
+		return c_addBytes(si, e, 0, e.length);
+	}
+
+	public boolean add(byte[] e, int offset, int length) {
+		return c_addBytes(si, e, offset, length);
+	}
+
+	private native boolean c_addBytes(long si, byte[] e, int offset,
+			int length);
+
+	/**
+	 * Adds all the given elements, many at a time per native call.
+	 */
 	@Override
 	public boolean addAll(Collection<? extends String> c) {
-		boolean retval = false;
-		for (String s : c) {
-			retval = add(s.toString()) ? true : retval;
+		for (byte b : addEachBits(c)) {
+			if (b != 0) {
+				return true;
+			}
 		}
+		return false;
+	}
 
-		return retval;
+	/**
+	 * Adds all the given elements, many at a time per native call.
+	 * 
+	 * @param c
+	 *            The elements to add.
+	 * @return A bitmap with a bit for each element, in iteration order, which
+	 *         is on if the element was not already in the set.
+	 */
+	public BigBitArray addEach(Collection<? extends String> c) {
+		return new BigBitArray(addEachBits(c));
+	}
+
+	private byte[] addEachBits(Collection<?> c) {
+		return ElementPacker.forEach(c, new ElementPacker.BulkCall() {
+			@Override
+			public void call(ByteBuffer packed, int count, byte[] bits,
+					int offset) {
+				c_addAll(si, packed, count, bits, offset);
+			}
+		});
 	}
 
+	private native void c_addAll(long si, ByteBuffer packed, int count,
+			byte[] bits, int offset);
+
 	@Override
 	public void clear() {
 		c_clear(si);
 	}
 
-	private native void c_clear(int si);
+	private native void c_clear(long si);
 
 	@Override
 	public boolean contains(Object o) {
 		return c_contains(si, o.toString());
 	}
 
-	private native boolean c_contains(int si, String o);
+	private native boolean c_contains(long si, String o);
 
+	/**
+	 * Tests for the element given as UTF-8 bytes, without decoding it to a
+	 * String.
+	 * 
+	 * @param o
+	 *            The UTF-8 bytes of the element.
+	 * @return True if the element is in the set.
+	 */
+	public boolean contains(byte[] o) {
+		return c_containsBytes(si, o, 0, o.length);
+	}
+
+	public boolean contains(byte[] o, int offset, int length) {
+		return c_containsBytes(si, o, offset, length);
+	}
+
+	private native boolean c_containsBytes(long si, byte[] o, int offset,
+			int length);
+
+	/**
+	 * Tests all the given elements, many at a time per native call.
+	 */
 	@Override
 	public boolean containsAll(Collection<?> c) {
-		for (Object o : c) {
-			if (!contains(o)) {
-				return false;
+		return ElementPacker.allOn(containsEachBits(c), c.size());
+	}
+
+	/**
+	 * Tests all the given elements, many at a time per native call.
+	 * 
+	 * @param c
+	 *            The elements to test.
+	 * @return A bitmap with a bit for each element, in iteration order, which
+	 *         is on if the element is in the set.
+	 */
+	public BigBitArray containsEach(Collection<?> c) {
+		return new BigBitArray(containsEachBits(c));
+	}
+
+	private byte[] containsEachBits(Collection<?> c) {
+		return ElementPacker.forEach(c, new ElementPacker.BulkCall() {
+			@Override
+			public void call(ByteBuffer packed, int count, byte[] bits,
+					int offset) {
+				c_containsAll(si, packed, count, bits, offset);
 			}
-		}
-		return true;
+		});
 	}
 
+	private native void c_containsAll(long si, ByteBuffer packed, int count,
+			byte[] bits, int offset);
+
 	@Override
 	public boolean isEmpty() {
 		return c_isEmpty(si);
 	}
 
-	private native boolean c_isEmpty(int si);
+	private native boolean c_isEmpty(long si);
 
 	@Override
 	public boolean remove(Object o) {
 		return c_remove(si, o.toString());
 	}
 
-	private native boolean c_remove(int si, String o);
+	private native boolean c_remove(long si, String o);
+
+	/**
+	 * Removes the element given as UTF-8 bytes, without decoding it to a
+	 * String.
+	 * 
+	 * @param o
+	 *            The UTF-8 bytes of the element.
+	 * @return True if the element was in the set.
+	 */
+	public boolean remove(byte[] o) {
+		return c_removeBytes(si, o, 0, o.length);
+	}
+
+	public boolean remove(byte[] o, int offset, int length) {
+		return c_removeBytes(si, o, offset, length);
+	}
+
+	private native boolean c_removeBytes(long si, byte[] o, int offset,
+			int length);
 
 	@Override
 	public boolean removeAll(Collection<?> c) {
@@ -128,7 +250,7 @@ public class CSet implements Set<String> {
 		return c_size(si);
 	}
 
-	private native int c_size(int si);
+	private native int c_size(long si);
 
 	/**
 	 * <b>This method is not supported and throws a RuntimeException</b>
@@ -137,7 +259,17 @@ public class CSet implements Set<String> {
 	 */
 	@Override
 	public Iterator<String> iterator() {
-		return new CSetIterator(si, this);
+		return new CSetIterator(this);
+	}
+
+	/**
+	 * Iterates over the elements as UTF-8 bytes, ready to be written to the
+	 * wire without encoding each one from a String.
+	 * 
+	 * @return An iterator over the UTF-8 bytes of each element.
+	 */
+	public Iterator<byte[]> bytesIterator() {
+		return new CSetBytesIterator(this);
 	}
 
 	/**
@@ -171,32 +303,61 @@ public class CSet implements Set<String> {
 		throw new RuntimeException("Not yet implemented");
 	}
 
-	private native int c_iterInit(int si);
+	/*
+	 * Each iterator has its own native iterator, freed once it reaches the end
+	 * of the set or is garbage collected.
+	 */
+	private native long c_iterInit(long si);
+
+	private native boolean c_iterHasNext(long it);
+
+	private native String c_iterNext(long it);
 
-	private native boolean c_iterHasNext(int si, int index);
+	private native byte[] c_iterNextBytes(long it);
 
-	private native String c_iterNext(int si, int index);
+	private native void c_iterFree(long it);
 
-	public static class CSetIterator implements Iterator<String> {
+	private abstract static class NativeIterator {
 
-		private CSet set = null;
-		private int si;
-		private int index;
+		protected CSet set = null;
+		protected long it;
 
-		public CSetIterator(int si, CSet set) {
-			this.si = si;
+		protected NativeIterator(CSet set) {
 			this.set = set;
-			index = set.c_iterInit(si);
+			this.it = set.c_iterInit(set.si);
+		}
+
+		public synchronized boolean hasNext() {
+			if (it != 0 && !set.c_iterHasNext(it)) {
+				free();
+			}
+			return it != 0;
+		}
+
+		private synchronized void free() {
+			if (it != 0) {
+				set.c_iterFree(it);
+				it = 0;
+			}
 		}
 
 		@Override
-		public boolean hasNext() {
-			return set.c_iterHasNext(si, index);
+		protected void finalize() throws Throwable {
+			free();
+			super.finalize();
+		}
+	}
+
+	public static class CSetIterator extends NativeIterator implements
+			Iterator<String> {
+
+		public CSetIterator(CSet set) {
+			super(set);
 		}
 
 		@Override
 		public String next() {
-			return set.c_iterNext(si, index);
+			return hasNext() ? set.c_iterNext(it) : null;
 		}
 
 		@Override
@@ -204,4 +365,23 @@ public class CSet implements Set<String> {
 			throw new RuntimeException("CSetIterator::remove is not supported");
 		}
 	}
+
+	public static class CSetBytesIterator extends NativeIterator implements
+			Iterator<byte[]> {
+
+		public CSetBytesIterator(CSet set) {
+			super(set);
+		}
+
+		@Override
+		public byte[] next() {
+			return hasNext() ? set.c_iterNextBytes(it) : null;
+		}
+
+		@Override
+		public void remove() {
+			throw new RuntimeException(
+					"CSetBytesIterator::remove is not supported");
+		}
+	}
 }
@@ -99,6 +99,15 @@ public class CTripleSet {
 
 	private native boolean c_add(String s1, String s2, String s3);
 
+	/**
+	 * Adds the triple given as UTF-8 bytes, without decoding it to Strings.
+	 */
+	public boolean add(byte[] s1, byte[] s2, byte[] s3) {
+		return c_addBytes(s1, s2, s3);
+	}
+
+	private native boolean c_addBytes(byte[] s1, byte[] s2, byte[] s3);
+
 	public Iterator<Triple> iterator() {
 		return null;
 	}
@@ -133,6 +142,16 @@ public class CTripleSet {
 
 	private native boolean c_contains(String s1, String s2, String s3);
 
+	/**
+	 * Tests for the triple given as UTF-8 bytes, without decoding it to
+	 * Strings.
+	 */
+	public boolean contains(byte[] s1, byte[] s2, byte[] s3) {
+		return c_containsBytes(s1, s2, s3);
+	}
+
+	private native boolean c_containsBytes(byte[] s1, byte[] s2, byte[] s3);
+
 	public boolean containsAll(Collection<Triple> c) {
 		for (Triple t : c) {
 			if (!contains(t)) {
@@ -167,6 +186,15 @@ public class CTripleSet {
 
 	private native boolean c_remove(String s1, String s2, String s3);
 
+	/**
+	 * Removes the triple given as UTF-8 bytes, without decoding it to Strings.
+	 */
+	public boolean remove(byte[] s1, byte[] s2, byte[] s3) {
+		return c_removeBytes(s1, s2, s3);
+	}
+
+	private native boolean c_removeBytes(byte[] s1, byte[] s2, byte[] s3);
+
 	public int size() {
 		return c_size();
 	}
@@ -0,0 +1,171 @@
+package nimbus.nativestructs;
+
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+/**
+ * Packs strings into a direct buffer so the native structures can add or look
+ * up many elements in one JNI call, instead of one call and one string
+ * conversion per element.<br>
+ * <br>
+ * Each element is a four byte big endian length followed by the element in
+ * the modified UTF-8 JNI uses, so a packed element is stored exactly as if it
+ * were passed as a String. Each thread has its own packer, which keeps its
+ * buffer between calls.
+ */
+class ElementPacker {
+
+	/**
+	 * The most elements sent in one native call. A multiple of eight, so each
+	 * call's results start on a byte of the bitmap.
+	 */
+	static final int MAX_ELEMENTS = 8192;
+
+	private static final ThreadLocal<ElementPacker> PACKERS = new ThreadLocal<ElementPacker>() {
+		@Override
+		protected ElementPacker initialValue() {
+			return new ElementPacker();
+		}
+	};
+
+	private ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+	private byte[] scratch = new byte[256];
+	private int count = 0;
+
+	private ElementPacker() {
+	}
+
+	/**
+	 * Gets the calling thread's packer, cleared.
+	 */
+	static ElementPacker get() {
+		ElementPacker packer = PACKERS.get();
+		packer.clear();
+		return packer;
+	}
+
+	void clear() {
+		buffer.clear();
+		count = 0;
+	}
+
+	ByteBuffer getBuffer() {
+		return buffer;
+	}
+
+	int getCount() {
+		return count;
+	}
+
+	boolean isFull() {
+		return count == MAX_ELEMENTS;
+	}
+
+	/**
+	 * Adds an element to the end of the buffer, growing it if needed.
+	 */
+	void add(String element) {
+		int length = encode(element);
+		if (buffer.remaining() < length + 4) {
+			ByteBuffer bigger = ByteBuffer.allocateDirect(Math.max(
+					buffer.capacity() * 2, buffer.position() + length + 4));
+			buffer.flip();
+			bigger.put(buffer);
+			buffer = bigger;
+		}
+
+		buffer.putInt(length);
+		buffer.put(scratch, 0, length);
+		++count;
+	}
+
+	/**
+	 * Encodes the element into the scratch array, as JNI's
+	 * GetStringUTFRegion would.
+	 */
+	private int encode(String element) {
+		int length = element.length() * 3;
+		if (scratch.length < length) {
+			scratch = new byte[length];
+		}
+
+		int i = 0;
+		for (int j = 0; j < element.length(); ++j) {
+			char c = element.charAt(j);
+			if (c >= 0x01 && c <= 0x7F) {
+				scratch[i++] = (byte) c;
+			} else if (c <= 0x7FF) {
+				scratch[i++] = (byte) (0xC0 | (c >> 6));
+				scratch[i++] = (byte) (0x80 | (c & 0x3F));
+			} else {
+				scratch[i++] = (byte) (0xE0 | (c >> 12));
+				scratch[i++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				scratch[i++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return i;
+	}
+
+	/**
+	 * A bulk native call, given up to {@link ElementPacker#MAX_ELEMENTS}
+	 * packed elements.
+	 */
+	interface BulkCall {
+		/**
+		 * @param packed
+		 *            The packed elements.
+		 * @param count
+		 *            The number of elements.
+		 * @param bits
+		 *            The bitmap to write each element's result to.
+		 * @param offset
+		 *            The byte of the bitmap holding the first element's
+		 *            result.
+		 */
+		void call(ByteBuffer packed, int count, byte[] bits, int offset);
+	}
+
+	/**
+	 * Packs the given elements and passes them to the given call, as many at
+	 * a time as fit in one call.
+	 *
+	 * @param elements
+	 *            The elements, which are converted with toString.
+	 * @param call
+	 *            The native call.
+	 * @return The bitmap of results, one bit per element in iteration order,
+	 *         laid out like a {@link nimbus.utils.BigBitArray}.
+	 */
+	static byte[] forEach(Collection<?> elements, BulkCall call) {
+		byte[] bits = new byte[(elements.size() + 7) / 8];
+		ElementPacker packer = get();
+		int offset = 0;
+		for (Object element : elements) {
+			packer.add(element.toString());
+			if (packer.isFull()) {
+				call.call(packer.getBuffer(), packer.getCount(), bits, offset);
+				offset += packer.getCount() / 8;
+				packer.clear();
+			}
+		}
+
+		if (packer.getCount() > 0) {
+			call.call(packer.getBuffer(), packer.getCount(), bits, offset);
+		}
+		return bits;
+	}
+
+	/**
+	 * Gets whether the first count bits of the given bitmap are all on.
+	 */
+	static boolean allOn(byte[] bits, int count) {
+		for (int i = 0; i < count / 8; ++i) {
+			if (bits[i] != (byte) 0xFF) {
+				return false;
+			}
+		}
+
+		int mask = (1 << (count % 8)) - 1;
+		return mask == 0 || (bits[count / 8] & mask) == mask;
+	}
+}
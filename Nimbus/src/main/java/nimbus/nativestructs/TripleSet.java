@@ -8,9 +8,10 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import nimbus.storage.ITripleStore;
 import nimbus.utils.NullIterator;
 
-public class TripleSet {
+public class TripleSet extends ITripleStore {
 
 	private Map<String, Map<String, Set<String>>> triples = new HashMap<String, Map<String, Set<String>>>();
 	private long size = 0;
@@ -0,0 +1,19 @@
+package nimbus.server;
+
+/**
+ * An enumeration for how a Cachelet handles client connections.
+ */
+public enum CacheletServerMode {
+	/**
+	 * Each client connection is handled by its own thread, which blocks while
+	 * waiting for the next command.
+	 */
+	THREADED,
+
+	/**
+	 * All client connections are multiplexed by a single selector thread, and
+	 * complete commands are handed to a fixed pool of worker threads. See
+	 * {@link SelectorServer}
+	 */
+	NIO
+}
@@ -1,11 +1,15 @@
 package nimbus.server;
 
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 
-import nimbus.nativestructs.CMap;
+import nimbus.storage.IMapStore;
 
 public class DynamicMapCacheletServer extends ICacheletServer implements
 		Iterable<Entry<String, String>> {
@@ -22,14 +26,25 @@ public class DynamicMapCacheletServer extends ICacheletServer implements
 	public static final int ITER_CMD = 10;
 	public static final int ACK_CMD = 11;
 	public static final int DNE_CMD = 12;
+	public static final int MGET_CMD = 13;
 
-	private CMap map = CMap.getInstance();
+	/*
+	 * The map store is safe to read from many threads at once but not while
+	 * it is being written. Lookups share the
+	 * read lock and only updates take the write lock.
+	 */
+	private IMapStore map = null;
+	private ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+	private AtomicInteger size = null;
 	private static final Logger LOG = Logger
 			.getLogger(DynamicMapCacheletServer.class);
 
 	public DynamicMapCacheletServer(String cacheName, String cacheletName,
 			int port, CacheType type) {
 		super(cacheName, cacheletName, port, type);
+
+		map = getStorageEngine().newMapStore();
+		size = new AtomicInteger(map.size());
 	}
 
 	@Override
@@ -48,7 +63,7 @@ public class DynamicMapCacheletServer extends ICacheletServer implements
 		@Override
 		public void run() {
 			while (true) {
-				LOG.info("Set size\t" + map.size());
+				LOG.info("Set size\t" + size.get());
 				try {
 					Thread.sleep(5000);
 				} catch (InterruptedException e) {
@@ -58,28 +73,128 @@ public class DynamicMapCacheletServer extends ICacheletServer implements
 		}
 	}
 
-	public synchronized String put(String key, String value) {
-		return map.put(key, value);
+	public String put(String key, String value) {
+		lock.writeLock().lock();
+		try {
+			String previous = map.put(key, value);
+			if (previous == null) {
+				size.incrementAndGet();
+			}
+			return previous;
+		} finally {
+			lock.writeLock().unlock();
+		}
 	}
 
-	public synchronized void clear() {
-		map.clear();
+	/**
+	 * Puts the key and value given as UTF-8 bytes, which go straight into the
+	 * map store.
+	 * 
+	 * @param key
+	 *            The UTF-8 bytes of the key.
+	 * @param value
+	 *            The UTF-8 bytes of the value.
+	 * @return The UTF-8 bytes of the old value, or null if there was none.
+	 */
+	public byte[] put(byte[] key, byte[] value) {
+		lock.writeLock().lock();
+		try {
+			byte[] previous = map.put(key, value);
+			if (previous == null) {
+				size.incrementAndGet();
+			}
+			return previous;
+		} finally {
+			lock.writeLock().unlock();
+		}
 	}
 
-	public synchronized boolean containsKey(String key) {
-		return map.containsKey(key);
+	public void clear() {
+		lock.writeLock().lock();
+		try {
+			map.clear();
+			size.set(0);
+		} finally {
+			lock.writeLock().unlock();
+		}
 	}
 
-	public synchronized boolean containsValue(String key) {
-		return map.containsValue(key);
+	public boolean containsKey(String key) {
+		lock.readLock().lock();
+		try {
+			return map.containsKey(key);
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
-	public synchronized String get(String key) {
-		return map.get(key);
+	public boolean containsKey(byte[] key) {
+		lock.readLock().lock();
+		try {
+			return map.containsKey(key);
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 
-	public synchronized boolean isEmpty() {
-		return map.isEmpty();
+	public boolean containsValue(String key) {
+		lock.readLock().lock();
+		try {
+			return map.containsValue(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	public String get(String key) {
+		lock.readLock().lock();
+		try {
+			return map.get(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the value of the key given as UTF-8 bytes, without decoding or
+	 * encoding a String.
+	 * 
+	 * @param key
+	 *            The UTF-8 bytes of the key.
+	 * @return The UTF-8 bytes of the value, or null if the key does not exist.
+	 */
+	public byte[] get(byte[] key) {
+		lock.readLock().lock();
+		try {
+			return map.get(key);
+		} finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	/**
+	 * Gets the values of all the given keys under a single read lock.
+	 * 
+	 * @param keys
+	 *            The UTF-8 bytes of the keys to look up.
+	 * @return The UTF-8 bytes of the values, in the same order as the keys,
+	 *         with null for keys that do not exist.
+	 */
+	public List<byte[]> getAll(List<byte[]> keys) {
+		List<byte[]> values = new ArrayList<byte[]>(keys.size());
+		lock.readLock().lock();
+		try {
+			for (byte[] key : keys) {
+				values.add(map.get(key));
+			}
+		} finally {
+			lock.readLock().unlock();
+		}
+		return values;
+	}
+
+	public boolean isEmpty() {
+		return size.get() == 0;
 	}
 
 	@Override
@@ -87,11 +202,61 @@ public class DynamicMapCacheletServer extends ICacheletServer implements
 		return map.iterator();
 	}
 
+	/**
+	 * Iterates over the UTF-8 bytes of each key and value, as they are
+	 * stored.
+	 * 
+	 * @return An iterator over the entries' UTF-8 bytes.
+	 */
+	public Iterator<Entry<byte[], byte[]>> bytesIterator() {
+		return map.bytesIterator();
+	}
+
 	public String remove(String key) {
-		return map.remove(key);
+		lock.writeLock().lock();
+		try {
+			String previous = map.remove(key);
+			if (previous != null) {
+				size.decrementAndGet();
+			}
+			return previous;
+		} finally {
+			lock.writeLock().unlock();
+		}
 	}
 
-	public synchronized int size() {
-		return map.size();
+	/**
+	 * Removes the key given as UTF-8 bytes, which go straight to the map
+	 * store.
+	 * 
+	 * @param key
+	 *            The UTF-8 bytes of the key.
+	 * @return The UTF-8 bytes of the old value, or null if there was none.
+	 */
+	public byte[] remove(byte[] key) {
+		lock.writeLock().lock();
+		try {
+			byte[] previous = map.remove(key);
+			if (previous != null) {
+				size.decrementAndGet();
+			}
+			return previous;
+		} finally {
+			lock.writeLock().unlock();
+		}
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	@Override
+	public long getMemoryUsed() {
+		lock.readLock().lock();
+		try {
+			return map.memoryUsed();
+		} finally {
+			lock.readLock().unlock();
+		}
 	}
 }
\ No newline at end of file
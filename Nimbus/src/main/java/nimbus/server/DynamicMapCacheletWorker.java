@@ -1,10 +1,11 @@
 package nimbus.server;
 
 import java.io.IOException;
-
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map.Entry;
 
-import nimbus.utils.BytesUtil;
 import nimbus.utils.NimbusInputStream;
 
 import org.apache.log4j.Logger;
@@ -27,19 +28,37 @@ public class DynamicMapCacheletWorker extends ICacheletWorker {
 
 		switch (cmd) {
 		case DynamicMapCacheletServer.ISEMPTY_CMD:
-			out.write(DynamicMapCacheletServer.ACK_CMD, String.valueOf(server.isEmpty()));
+			out.writeBoolean(DynamicMapCacheletServer.ACK_CMD, server.isEmpty());
 			break;
 		case DynamicMapCacheletServer.GET_CMD:
-			String oldValue = server.get(BytesUtil.toString(rdr.readArg()));
+			byte[] oldValue = server.get(rdr.readArg());
 			if (oldValue != null) {
 				out.write(DynamicMapCacheletServer.ACK_CMD, oldValue);
 			} else {
 				out.write(DynamicMapCacheletServer.DNE_CMD);
 			}
 
+			break;
+		case DynamicMapCacheletServer.MGET_CMD:
+			// read every key before replying so a large request can't block
+			// on a client that is still writing it
+			List<byte[]> keys = new ArrayList<byte[]>((int) numArgs);
+			for (int i = 0; i < numArgs; ++i) {
+				keys.add(rdr.readArg());
+			}
+
+			out.prepStreamingWrite(DynamicMapCacheletServer.ACK_CMD, numArgs);
+			for (byte[] value : server.getAll(keys)) {
+				if (value != null) {
+					out.streamingWrite(value);
+				} else {
+					out.streamingWriteNull();
+				}
+			}
+			out.endStreamingWrite();
 			break;
 		case DynamicMapCacheletServer.SIZE_CMD:
-			out.write(DynamicMapCacheletServer.ACK_CMD, String.valueOf(server.size()));
+			out.writeInt(DynamicMapCacheletServer.ACK_CMD, server.size());
 			break;
 		case DynamicMapCacheletServer.CLEAR_CMD:
 			server.clear();
@@ -48,7 +67,9 @@ public class DynamicMapCacheletWorker extends ICacheletWorker {
 						
 			out.prepStreamingWrite(DynamicMapCacheletServer.ACK_CMD, server.size());
 
-			for (Entry<String, String> entry : server) {
+			Iterator<Entry<byte[], byte[]>> iter = server.bytesIterator();
+			while (iter.hasNext()) {
+				Entry<byte[], byte[]> entry = iter.next();
 				out.streamingWrite(entry.getKey());
 				out.streamingWrite(entry.getValue());
 			}
@@ -58,16 +79,15 @@ public class DynamicMapCacheletWorker extends ICacheletWorker {
 			
 			break;
 		case DynamicMapCacheletServer.CONTAINS_KEY_CMD:
-			out.write(DynamicMapCacheletServer.ACK_CMD, String.valueOf(server.containsKey(BytesUtil
-					.toString(rdr.readArg()))));
+			out.writeBoolean(DynamicMapCacheletServer.ACK_CMD,
+					server.containsKey(rdr.readArg()));
 			break;
 		case DynamicMapCacheletServer.CONTAINS_VALUE_CMD:
-			out.write(DynamicMapCacheletServer.ACK_CMD, String.valueOf(server.containsValue(BytesUtil
-					.toString(rdr.readArg()))));
+			out.writeBoolean(DynamicMapCacheletServer.ACK_CMD,
+					server.containsValue(rdr.readArgString()));
 			break;
 		case DynamicMapCacheletServer.PUT_CMD:
-			oldValue = server.put(BytesUtil.toString(rdr.readArg()),
-					BytesUtil.toString(rdr.readArg()));
+			oldValue = server.put(rdr.readArg(), rdr.readArg());
 			if (oldValue != null) {
 				out.write(DynamicMapCacheletServer.ACK_CMD, oldValue);
 			} else {
@@ -75,13 +95,17 @@ public class DynamicMapCacheletWorker extends ICacheletWorker {
 			}
 			break;
 		case DynamicMapCacheletServer.PUT_ALL_CMD:
-			for (int i = 0; i < numArgs; ++i) {
-				server.put(BytesUtil.toString(rdr.readArg()),
-						BytesUtil.toString(rdr.readArg()));
+			for (int i = 0; i < numArgs; i += 2) {
+				server.put(rdr.readArg(), rdr.readArg());
 			}
 			break;
 		case DynamicMapCacheletServer.REMOVE_CMD:
-			out.write(DynamicMapCacheletServer.ACK_CMD, server.remove(BytesUtil.toString(rdr.readArg())));
+			oldValue = server.remove(rdr.readArg());
+			if (oldValue != null) {
+				out.write(DynamicMapCacheletServer.ACK_CMD, oldValue);
+			} else {
+				out.writeNull(DynamicMapCacheletServer.ACK_CMD);
+			}
 			break;
 		default:
 			printHelpMessage(cmd, numArgs, rdr);
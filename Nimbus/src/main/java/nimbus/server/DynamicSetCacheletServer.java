@@ -1,11 +1,21 @@
 package nimbus.server;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.apache.log4j.Logger;
 
-import nimbus.nativestructs.CSet;
+import nimbus.main.NimbusConf;
+import nimbus.storage.ISetStore;
+import nimbus.storage.IStorageEngine;
+import nimbus.utils.BytesUtil;
+import nimbus.utils.CountingBloomFilter;
+import nimbus.utils.LogRecord;
 
 public class DynamicSetCacheletServer extends ICacheletServer implements
 		Iterable<String> {
@@ -20,14 +30,49 @@ public class DynamicSetCacheletServer extends ICacheletServer implements
 	public static final int RETAIN_ALL_CMD = 8;
 	public static final int SIZE_CMD = 9;
 	public static final int ACK_CMD = 10;
+	public static final int FILTER_UPDATE_CMD = 11;
 
-	private CSet set = new CSet();
 	private static final Logger LOG = Logger
 			.getLogger(DynamicSetCacheletServer.class);
 
+	/*
+	 * Elements are split across stripes by hash. Each stripe is a separate
+	 * set store guarded by its own read/write lock, so lookups never block
+	 * each other and updates only block operations on the same stripe.
+	 * Updates wait for room in the write ahead log before taking a stripe lock
+	 * and wait for the log to acknowledge them after releasing it, so no lock
+	 * is ever held during log I/O. A lookup can see an update before it is
+	 * acknowledged, but its writer is not answered until it is.
+	 */
+	private ISetStore[] stripes = null;
+	private ReentrantReadWriteLock[] locks = null;
+	private AtomicInteger size = new AtomicInteger(0);
+
+	/*
+	 * Updated under the same stripe lock as the element, so the filter sees
+	 * updates to an element in the same order as the set. Null if disabled.
+	 */
+	private CountingBloomFilter filter = null;
+
 	public DynamicSetCacheletServer(String cacheName, String cacheletName,
 			int port, CacheType type) {
 		super(cacheName, cacheletName, port, type);
+
+		int numStripes = Math.max(1, NimbusConf.getConf()
+				.getCacheletLockStripes());
+		IStorageEngine engine = getStorageEngine();
+		stripes = new ISetStore[numStripes];
+		locks = new ReentrantReadWriteLock[numStripes];
+		for (int i = 0; i < numStripes; ++i) {
+			stripes[i] = engine.newSetStore();
+			locks[i] = new ReentrantReadWriteLock();
+		}
+
+		int filterRecords = NimbusConf.getConf().getDynamicSetFilterRecords();
+		if (filterRecords > 0) {
+			filter = new CountingBloomFilter(filterRecords, NimbusConf
+					.getConf().getDynamicSetFilterFalsePosRate());
+		}
 	}
 
 	@Override
@@ -41,101 +86,345 @@ public class DynamicSetCacheletServer extends ICacheletServer implements
 		t.start();
 	}
 
-	public synchronized boolean add(String element) {
+	/**
+	 * Picks the stripe by the element's UTF-8 bytes, so an element read off
+	 * the wire lands on the same stripe as the same element given as a
+	 * String.
+	 */
+	private int getStripe(byte[] element, int offset, int length) {
+		int h = 1;
+		for (int i = offset; i < offset + length; ++i) {
+			h = 31 * h + element[i];
+		}
+		h ^= (h >>> 16);
+		return (h & Integer.MAX_VALUE) % stripes.length;
+	}
+
+	private int getStripe(byte[] element) {
+		return getStripe(element, 0, element.length);
+	}
+
+	public boolean add(String element) {
+		return add(BytesUtil.toBytes(element));
+	}
+
+	/**
+	 * Adds the element given as UTF-8 bytes, which go straight into the
+	 * set store and the write ahead log. The array is kept, so it must not be
+	 * changed afterwards.
+	 * 
+	 * @param element
+	 *            The UTF-8 bytes of the element.
+	 * @return True if the element was not already in the set.
+	 */
+	public boolean add(byte[] element) {
+		int i = getStripe(element);
+		boolean added = false;
+		long seq = 0;
+
+		super.reserveWriteAhead();
+		locks[i].writeLock().lock();
 		try {
-			super.getWriteAheadFile().write(ADD_CMD, element);
+			// queued under the stripe lock so the log and the set agree on
+			// the order of updates to the same element
+			seq = super.appendReservedWriteAhead(ADD_CMD, element);
 
-		} catch (IOException e) {
-			boolean error = true;
-			e.printStackTrace();
-			while (error) {
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e2) {
-					e2.printStackTrace();
+			if (stripes[i].add(element)) {
+				size.incrementAndGet();
+				added = true;
+				if (filter != null) {
+					filter.add(element);
 				}
+			}
+		} finally {
+			locks[i].writeLock().unlock();
+		}
 
-				try {
-					super.newWriteAheadFile();
-					super.getWriteAheadFile().write(ADD_CMD, element);
-					error = false;
-				} catch (IOException e1) {
-					e1.printStackTrace();
+		super.awaitWriteAhead(seq);
+		return added;
+	}
+
+	/**
+	 * Adds all the given elements. Each element is logged and added in turn,
+	 * but the write ahead log is only waited on once, after the last element.
+	 * 
+	 * @param elements
+	 *            The UTF-8 bytes of the elements to add.
+	 */
+	public void addAll(List<byte[]> elements) {
+		long seq = 0;
+		for (byte[] element : elements) {
+			int i = getStripe(element);
+			super.reserveWriteAhead();
+			locks[i].writeLock().lock();
+			try {
+				seq = super.appendReservedWriteAhead(ADD_CMD, element);
+
+				if (stripes[i].add(element)) {
+					size.incrementAndGet();
+					if (filter != null) {
+						filter.add(element);
+					}
 				}
+			} finally {
+				locks[i].writeLock().unlock();
 			}
 		}
 
-		return set.add(element);
+		super.awaitWriteAhead(seq);
 	}
 
-	public synchronized void clear() {
-		try {
-			super.getWriteAheadFile().write(CLEAR_CMD);
+	public void clear() {
+		long seq = 0;
 
-		} catch (IOException e) {
-			boolean error = true;
-			e.printStackTrace();
-			while (error) {
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e2) {
-					e2.printStackTrace();
-				}
+		super.reserveWriteAhead();
+		for (ReentrantReadWriteLock lock : locks) {
+			lock.writeLock().lock();
+		}
 
-				try {
-					super.newWriteAheadFile();
-					super.getWriteAheadFile().write(CLEAR_CMD);
-					error = false;
-				} catch (IOException e1) {
-					e1.printStackTrace();
-				}
+		try {
+			seq = super.appendReservedWriteAhead(CLEAR_CMD);
+
+			for (ISetStore stripe : stripes) {
+				stripe.clear();
+			}
+			size.set(0);
+			if (filter != null) {
+				filter.clear();
+			}
+		} finally {
+			for (ReentrantReadWriteLock lock : locks) {
+				lock.writeLock().unlock();
 			}
 		}
-		set.clear();
+
+		super.awaitWriteAhead(seq);
+	}
+
+	public boolean contains(String element) {
+		return contains(BytesUtil.toBytes(element));
 	}
 
-	public synchronized boolean contains(String element) {
-		return set.contains(element);
+	/**
+	 * Tests for the element given as UTF-8 bytes, which go straight to the
+	 * set store.
+	 * 
+	 * @param element
+	 *            The UTF-8 bytes of the element.
+	 * @return True if the element is in the set.
+	 */
+	public boolean contains(byte[] element) {
+		int i = getStripe(element);
+		locks[i].readLock().lock();
+		try {
+			return stripes[i].contains(element);
+		} finally {
+			locks[i].readLock().unlock();
+		}
 	}
 
-	public synchronized boolean isEmpty() {
-		return set.isEmpty();
+	public boolean isEmpty() {
+		return size.get() == 0;
 	}
 
+	/**
+	 * Iterates over each stripe in turn. Like the store iterators it is built
+	 * on, the iterator does not lock the stripes, so it must not be used while
+	 * elements are being removed, or, unless the stores are native, added.
+	 */
 	@Override
 	public Iterator<String> iterator() {
-		return set.iterator();
+		return new StripeIterator<String>() {
+			@Override
+			protected Iterator<String> open(ISetStore stripe) {
+				return stripe.iterator();
+			}
+		};
+	}
+
+	/**
+	 * Iterates over the UTF-8 bytes of each element, as they are stored, with
+	 * the same caveats as {@link #iterator()}.
+	 * 
+	 * @return An iterator over the UTF-8 bytes of each element.
+	 */
+	public Iterator<byte[]> bytesIterator() {
+		return new StripeIterator<byte[]>() {
+			@Override
+			protected Iterator<byte[]> open(ISetStore stripe) {
+				return stripe.bytesIterator();
+			}
+		};
 	}
 
 	public boolean remove(String element) {
+		return remove(BytesUtil.toBytes(element));
+	}
+
+	/**
+	 * Removes the element given as UTF-8 bytes, which go straight to the
+	 * set store and the write ahead log.
+	 * 
+	 * @param element
+	 *            The UTF-8 bytes of the element.
+	 * @return True if the element was in the set.
+	 */
+	public boolean remove(byte[] element) {
+		int i = getStripe(element);
+		boolean removed = false;
+		long seq = 0;
+
+		super.reserveWriteAhead();
+		locks[i].writeLock().lock();
 		try {
-			super.getWriteAheadFile().write(REMOVE_CMD, element);
+			seq = super.appendReservedWriteAhead(REMOVE_CMD, element);
 
-		} catch (IOException e) {
-			boolean error = true;
-			e.printStackTrace();
-			while (error) {
-				try {
-					Thread.sleep(1000);
-				} catch (InterruptedException e2) {
-					e2.printStackTrace();
+			if (stripes[i].remove(element)) {
+				size.decrementAndGet();
+				removed = true;
+				if (filter != null) {
+					filter.remove(element);
 				}
+			}
+		} finally {
+			locks[i].writeLock().unlock();
+		}
 
-				try {
-					super.newWriteAheadFile();
-					super.getWriteAheadFile().write(REMOVE_CMD, element);
-					error = false;
-				} catch (IOException e1) {
-					e1.printStackTrace();
+		super.awaitWriteAhead(seq);
+		return removed;
+	}
+
+	public int size() {
+		return size.get();
+	}
+
+	/**
+	 * Gets the update that brings a client's copy of this Cachelet's filter
+	 * up to date.
+	 * 
+	 * @param epoch
+	 *            The epoch of the client's copy.
+	 * @param version
+	 *            The version of the client's copy, or -1 if it has none.
+	 * @return The update, or null if this Cachelet keeps no filter.
+	 * @see CountingBloomFilter#writeUpdate(long, long)
+	 */
+	public byte[] getFilterUpdate(long epoch, long version) {
+		return filter == null ? null : filter.writeUpdate(epoch, version);
+	}
+
+	@Override
+	protected void replay(LogRecord record) throws IOException {
+		switch (record.getCmd()) {
+		case ADD_CMD:
+			add(record.getArgBytes()[0]);
+			break;
+		case REMOVE_CMD:
+			remove(record.getArgBytes()[0]);
+			break;
+		case CLEAR_CMD:
+			clear();
+			break;
+		default:
+			super.replay(record);
+			break;
+		}
+	}
+
+	@Override
+	protected boolean supportsSnapshots() {
+		return true;
+	}
+
+	/**
+	 * Writes each stripe in turn as length-prefixed elements, ending with a
+	 * length of -1. A stripe's read lock is held while it is written, so only
+	 * updates to that stripe wait on the snapshot.
+	 */
+	@Override
+	protected void writeSnapshot(DataOutputStream out) throws IOException {
+		for (int i = 0; i < stripes.length; ++i) {
+			locks[i].readLock().lock();
+			try {
+				Iterator<byte[]> iter = stripes[i].bytesIterator();
+				while (iter.hasNext()) {
+					byte[] bytes = iter.next();
+					out.writeInt(bytes.length);
+					out.write(bytes);
 				}
+			} finally {
+				locks[i].readLock().unlock();
 			}
 		}
+		out.writeInt(-1);
+	}
 
-		return set.remove(element);
+	@Override
+	protected void readSnapshot(DataInputStream in) throws IOException {
+		byte[] buffer = new byte[256];
+		int length;
+		while ((length = in.readInt()) != -1) {
+			if (length > buffer.length) {
+				buffer = new byte[Math.max(length, buffer.length * 2)];
+			}
+			in.readFully(buffer, 0, length);
+
+			int i = getStripe(buffer, 0, length);
+			if (stripes[i].add(buffer, 0, length)) {
+				size.incrementAndGet();
+				if (filter != null) {
+					filter.add(buffer, 0, length);
+				}
+			}
+		}
+		LOG.info("Loaded " + size.get() + " elements from snapshot");
 	}
 
-	public synchronized int size() {
-		return set.size();
+	@Override
+	public long getMemoryUsed() {
+		long total = 0;
+		for (int i = 0; i < stripes.length; ++i) {
+			locks[i].readLock().lock();
+			try {
+				long used = stripes[i].memoryUsed();
+				if (used < 0) {
+					return -1;
+				}
+				total += used;
+			} finally {
+				locks[i].readLock().unlock();
+			}
+		}
+		return total;
+	}
+
+	private abstract class StripeIterator<T> implements Iterator<T> {
+
+		private int stripe = 0;
+		private Iterator<T> iter = open(stripes[0]);
+
+		protected abstract Iterator<T> open(ISetStore stripe);
+
+		@Override
+		public boolean hasNext() {
+			while (!iter.hasNext()) {
+				if (++stripe == stripes.length) {
+					return false;
+				}
+				iter = open(stripes[stripe]);
+			}
+			return true;
+		}
+
+		@Override
+		public T next() {
+			return hasNext() ? iter.next() : null;
+		}
+
+		@Override
+		public void remove() {
+			throw new RuntimeException("StripeIterator::remove is not supported");
+		}
 	}
 
 	private class StatusThread implements Runnable {
@@ -143,7 +432,7 @@ public class DynamicSetCacheletServer extends ICacheletServer implements
 		@Override
 		public void run() {
 			while (true) {
-				LOG.info("Set size\t" + set.size());
+				LOG.info("Set size\t" + size.get());
 				try {
 					Thread.sleep(5000);
 				} catch (InterruptedException e) {
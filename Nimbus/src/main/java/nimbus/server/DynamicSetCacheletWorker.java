@@ -1,8 +1,10 @@
 package nimbus.server;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
 
-import nimbus.utils.BytesUtil;
 import nimbus.utils.NimbusInputStream;
 
 import org.apache.log4j.Logger;
@@ -25,43 +27,53 @@ public class DynamicSetCacheletWorker extends ICacheletWorker {
 
 		switch (cmd) {
 		case DynamicSetCacheletServer.ISEMPTY_CMD:
-			out.write(DynamicSetCacheletServer.ACK_CMD,
-					String.valueOf(server.isEmpty()));
+			out.writeBoolean(DynamicSetCacheletServer.ACK_CMD, server.isEmpty());
 			break;
 		case DynamicSetCacheletServer.ITER_CMD:
 			out.prepStreamingWrite(DynamicSetCacheletServer.ACK_CMD,
 					server.size());
 
-			for (String key : server) {
-				out.streamingWrite(key);
+			Iterator<byte[]> iter = server.bytesIterator();
+			while (iter.hasNext()) {
+				out.streamingWrite(iter.next());
 			}
 
 			out.endStreamingWrite();
 
 			break;
 		case DynamicSetCacheletServer.SIZE_CMD:
-			out.write(DynamicSetCacheletServer.ACK_CMD,
-					String.valueOf(server.size()));
+			out.writeInt(DynamicSetCacheletServer.ACK_CMD, server.size());
 			break;
 		case DynamicSetCacheletServer.CLEAR_CMD:
 			server.clear();
 			break;
 		case DynamicSetCacheletServer.CONTAINS_CMD:
-			out.write(DynamicSetCacheletServer.ACK_CMD, String.valueOf(server
-					.contains(BytesUtil.toString(rdr.readArg()))));
+			out.writeBoolean(DynamicSetCacheletServer.ACK_CMD,
+					server.contains(rdr.readArg()));
 			break;
 		case DynamicSetCacheletServer.ADD_CMD:
-			out.write(DynamicSetCacheletServer.ACK_CMD, String.valueOf(server
-					.add(BytesUtil.toString(rdr.readArg()))));
+			out.writeBoolean(DynamicSetCacheletServer.ACK_CMD,
+					server.add(rdr.readArg()));
 			break;
 		case DynamicSetCacheletServer.ADD_ALL_CMD:
+			List<byte[]> elements = new ArrayList<byte[]>((int) numArgs);
 			for (int i = 0; i < numArgs; ++i) {
-				server.add(BytesUtil.toString(rdr.readArg()));
+				elements.add(rdr.readArg());
 			}
+			server.addAll(elements);
 			break;
 		case DynamicSetCacheletServer.REMOVE_CMD:
-			out.write(DynamicSetCacheletServer.ACK_CMD, String.valueOf(server
-					.remove(BytesUtil.toString(rdr.readArg()))));
+			out.writeBoolean(DynamicSetCacheletServer.ACK_CMD,
+					server.remove(rdr.readArg()));
+			break;
+		case DynamicSetCacheletServer.FILTER_UPDATE_CMD:
+			long epoch = rdr.readArgLong();
+			byte[] update = server.getFilterUpdate(epoch, rdr.readArgLong());
+			if (update == null) {
+				out.writeNull(DynamicSetCacheletServer.ACK_CMD);
+			} else {
+				out.write(DynamicSetCacheletServer.ACK_CMD, update);
+			}
 			break;
 		default:
 			printHelpMessage(cmd, numArgs, rdr);
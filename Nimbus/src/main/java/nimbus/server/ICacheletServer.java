@@ -1,15 +1,36 @@
 package nimbus.server;
 
-import java.io.EOFException;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
+import java.nio.channels.ServerSocketChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import nimbus.main.Nimbus;
 import nimbus.main.NimbusConf;
-import nimbus.nativestructs.CSet;
+import nimbus.main.NimbusShutdownHook;
+import nimbus.master.CacheInfo;
+import nimbus.master.NimbusMaster;
+import nimbus.storage.ISetStore;
+import nimbus.storage.IStorageEngine;
+import nimbus.storage.StorageEngineRegistry;
+import nimbus.utils.IWriteAheadFile;
+import nimbus.utils.LogRecord;
 import nimbus.utils.NimbusInputStream;
-import nimbus.utils.WriteAheadFile;
+import nimbus.utils.NimbusOutputStream;
+import nimbus.utils.WriteAheadLog;
+import nimbus.utils.WriteAheadLogReader;
 
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
@@ -22,10 +43,14 @@ import org.apache.log4j.Logger;
  * <br>
  * A Cachelet is responsible for creating threads to handle each client
  * connection, as well as holding the object that represents (such as a
- * {@link CSet}). <br>
+ * {@link ISetStore}, created by the Cache's {@link IStorageEngine}). <br>
  * <br>
  * This class contains a private class to actually respond to messages sent by
- * clients.
+ * clients. <br>
+ * <br>
+ * A Cachelet normally runs in a process of its own, but can be hosted with the
+ * Cachelets of other Caches by a {@link nimbus.main.CacheletDaemon}. See
+ * {@link ICacheletServer#setHost(SelectorServer)}.
  */
 public abstract class ICacheletServer implements Runnable {
 
@@ -37,9 +62,18 @@ public abstract class ICacheletServer implements Runnable {
 	protected CacheType type = null;
 	protected String cacheName = null;
 	protected String cacheletName = null;
-	private WriteAheadFile waffle = null;
+	protected CacheletServerMode mode = null;
+	private static final int SNAPSHOT_MAGIC = 0x4e534e31;
+
+	private WriteAheadLog wal = null;
+	private ICacheletWorker replayWorker = null;
+	private volatile boolean recovering = false;
 
 	private ServerSocket serverSocket;
+	private ServerSocketChannel serverChannel;
+	private SelectorServer host = null;
+	private volatile boolean clean = false;
+	private volatile boolean stopped = false;
 
 	/**
 	 * Initializes a new instance of the {@link ICacheletServer} class. <br>
@@ -58,6 +92,76 @@ public abstract class ICacheletServer implements Runnable {
 		this.type = type;
 		this.cacheName = cacheName;
 		this.cacheletName = cacheletName;
+		this.mode = NimbusConf.getConf().getCacheletServerMode(cacheName);
+	}
+
+	/**
+	 * Hosts this Cachelet on the given selector, shared with the other Caches
+	 * of this process, rather than on a selector or threads of its own. The
+	 * Cachelet always uses {@link CacheletServerMode#NIO}, and shutting it down
+	 * stops only this Cachelet. Must be called before
+	 * {@link ICacheletServer#run()}, which then returns once the Cachelet is
+	 * accepting connections.
+	 * 
+	 * @param host
+	 *            The selector to accept connections on.
+	 */
+	public void setHost(SelectorServer host) {
+		this.host = host;
+		this.mode = CacheletServerMode.NIO;
+	}
+
+	public String getCacheName() {
+		return cacheName;
+	}
+
+	/**
+	 * Gets the path of this Cachelet's Cache in ZooKeeper.
+	 */
+	public String getCacheZNode() {
+		return Nimbus.ROOT_ZNODE + "/" + cacheName;
+	}
+
+	/**
+	 * Gets the path of this Cachelet in ZooKeeper, which it sends its
+	 * heartbeat to.
+	 */
+	public String getCacheletZNode() {
+		return getCacheZNode() + "/" + cacheletName;
+	}
+
+	/**
+	 * Gets whether a hosted Cachelet has been shut down.
+	 */
+	public boolean isStopped() {
+		return stopped;
+	}
+
+	/**
+	 * Gets the number of bytes the stores of this Cachelet hold their data in,
+	 * for accounting the memory used by each Cache.
+	 * 
+	 * @return The number of bytes, or -1 if this Cachelet or its storage engine
+	 *         cannot tell.
+	 */
+	public long getMemoryUsed() {
+		return -1;
+	}
+
+	/**
+	 * Gets the storage engine this Cachelet keeps its data in, chosen by its
+	 * Cache's {@link CacheInfo}, or by configuration if the Cache has no
+	 * information.
+	 * 
+	 * @return The storage engine.
+	 */
+	protected IStorageEngine getStorageEngine() {
+		CacheInfo info = NimbusMaster.getInstance().getCacheInfo(cacheName);
+		if (info == null) {
+			return StorageEngineRegistry.getEngine(NimbusConf.getConf()
+					.getStorageEngineType(cacheName));
+		}
+		return StorageEngineRegistry.getEngine(info);
 	}
 
 	/**
@@ -67,17 +171,28 @@ public abstract class ICacheletServer implements Runnable {
 	public void run() {
 		openServer();
 
-		newWriteAheadFile();
+		wal = new WriteAheadLog(cacheName, cacheletName);
 
 		try {
+			// replayed commands are already in the log
+			recovering = true;
 			recover();
-			waffle.open();
-			
+			recovering = false;
+
+			wal.open();
 		} catch (IOException e) {
 			e.printStackTrace();
 			shutdown();
+			return;
 		}
 
+		if (supportsSnapshots()
+				&& NimbusConf.getConf().getSnapshotInterval() > 0) {
+			Thread t = new Thread(new SnapshotThread(NimbusConf.getConf()
+					.getSnapshotInterval()));
+			t.setDaemon(true);
+			t.start();
+		}
 
 		startStatusThread();
 
@@ -90,54 +205,298 @@ public abstract class ICacheletServer implements Runnable {
 
 	protected void recover() throws IOException {
 
-		Path[] files = NimbusConf.getConf().getPastWriteAheadLogs(cacheName,
-				cacheletName);
+		// logs older than the latest snapshot are already in it
+		long firstLog = 0;
+		if (supportsSnapshots()) {
+			Path[] snapshots = NimbusConf.getConf().getPastSnapshots(
+					cacheName, cacheletName);
+			if (snapshots.length != 0) {
+				Path snapshot = snapshots[snapshots.length - 1];
+				loadSnapshot(snapshot);
+				firstLog = getLogId(snapshot);
+			}
+		}
 
-		for (Path log : files) {
-			ICacheletWorker worker = getNewWorker();
+		List<Path> logs = new ArrayList<Path>();
+		for (Path log : getPastLogs()) {
+			if (getLogId(log) < firstLog) {
+				LOG.info("Skipping " + log + ", it is covered by the snapshot");
+			} else {
+				logs.add(log);
+			}
+		}
 
-			worker.setOutputStream(new NullOutputStream());
+		if (logs.isEmpty()) {
+			return;
+		}
 
-			LOG.info("Recovering from " + log);
+		// logs are decoded in parallel, a few ahead of the one being applied,
+		// and their commands are applied one at a time in order
+		int numThreads = Math.max(1, NimbusConf.getConf().getRecoveryThreads());
+		ExecutorService decoders = Executors.newFixedThreadPool(numThreads);
+		List<Future<List<LogRecord>>> decoded = new ArrayList<Future<List<LogRecord>>>();
 
-			NimbusInputStream in = new NimbusInputStream(FileSystem.get(
-					NimbusConf.getConf()).open(log));
+		long start = System.currentTimeMillis();
+		long numCommands = 0;
+		try {
+			for (int i = 0; i < logs.size(); ++i) {
+				while (decoded.size() < logs.size()
+						&& decoded.size() <= i + numThreads) {
+					final Path log = logs.get(decoded.size());
+					decoded.add(decoders.submit(new Callable<List<LogRecord>>() {
+						@Override
+						public List<LogRecord> call() throws IOException {
+							return WriteAheadLogReader.read(log);
+						}
+					}));
+				}
 
-			waffle.setOutputStream(new NullOutputStream());
+				List<LogRecord> records = getDecoded(decoded.get(i), logs.get(i));
+				decoded.set(i, null);
 
-			int numCommands = 0, cmd = 0;
-			long numArgs = 0;
-			try {
-				while ((cmd = in.readCmd()) != NimbusInputStream.EOF) {
-					numArgs = in.readNumArgs();
+				for (LogRecord record : records) {
+					replay(record);
+				}
+				numCommands += records.size();
 
-					worker.processMessage(cmd, numArgs, in);
+				long elapsed = Math.max(1, System.currentTimeMillis() - start);
+				LOG.info("Recovered " + logs.get(i) + ".  " + (i + 1) + " of "
+						+ logs.size() + " logs, " + numCommands + " commands, "
+						+ (numCommands * 1000 / elapsed) + " commands/sec");
+			}
+		} finally {
+			decoders.shutdownNow();
+		}
+	}
 
-					in.verifyEndOfMessage();
-					++numCommands;
-				}
-			} catch (EOFException e) {
-				in.close();
-				LOG.info("Recovered.  Processed " + numCommands + " commands");
-			} catch (IOException e) {
-				LOG.info("IOException on recover.  Read " + numCommands
-						+ " commands.", e);
-				throw e;
+	private List<LogRecord> getDecoded(Future<List<LogRecord>> future, Path log)
+			throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			throw new IOException("Interrupted while decoding " + log, e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to decode " + log, e.getCause());
+		}
+	}
+
+	/**
+	 * Applies a single command read from the write ahead log during recovery.
+	 * By default, the command is handed to a worker whose replies are thrown
+	 * away. Cachelets can override this to apply commands directly.
+	 * 
+	 * @param record
+	 *            The command to apply.
+	 * @throws IOException
+	 *             If the command cannot be applied.
+	 */
+	protected void replay(LogRecord record) throws IOException {
+		if (replayWorker == null) {
+			replayWorker = getNewWorker();
+			replayWorker.setOutputStream(new NullOutputStream());
+		}
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		record.writeTo(new NimbusOutputStream(bytes));
+
+		NimbusInputStream in = new NimbusInputStream(bytes.toByteArray());
+		int cmd = in.readCmd();
+		replayWorker.processMessage(cmd, in.readNumArgs(), in);
+	}
+
+	/**
+	 * Gets whether this Cachelet can snapshot its contents. If so,
+	 * {@link ICacheletServer#writeSnapshot(DataOutputStream)} and
+	 * {@link ICacheletServer#readSnapshot(DataInputStream)} must be
+	 * overridden.
+	 * 
+	 * @return False by default.
+	 */
+	protected boolean supportsSnapshots() {
+		return false;
+	}
+
+	/**
+	 * Writes the contents of this Cachelet. Called while the Cachelet is
+	 * serving requests, so the snapshot may include some updates made after
+	 * it started. Those updates are replayed again on recovery, so they must
+	 * give the same result when applied twice.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @throws IOException
+	 *             If an error occurs writing the snapshot.
+	 */
+	protected void writeSnapshot(DataOutputStream out) throws IOException {
+		throw new UnsupportedOperationException(getClass().getSimpleName()
+				+ " does not support snapshots");
+	}
+
+	/**
+	 * Loads the contents written by
+	 * {@link ICacheletServer#writeSnapshot(DataOutputStream)}.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @throws IOException
+	 *             If an error occurs reading the snapshot.
+	 */
+	protected void readSnapshot(DataInputStream in) throws IOException {
+		throw new UnsupportedOperationException(getClass().getSimpleName()
+				+ " does not support snapshots");
+	}
+
+	/**
+	 * Snapshots the contents of this Cachelet and deletes the write ahead logs
+	 * and snapshots it replaces.<br>
+	 * <br>
+	 * The write ahead log is rolled first, and the snapshot is named after the
+	 * new log. Everything logged before the roll is in the snapshot, so on
+	 * recovery only the new log and those after it are replayed. The snapshot
+	 * is written to a temporary file and renamed once complete.
+	 * 
+	 * @throws IOException
+	 *             If an error occurs writing the snapshot.
+	 */
+	public void snapshot() throws IOException {
+		long start = System.currentTimeMillis();
+		Path firstLog = wal.roll();
+
+		FileSystem fs = FileSystem.get(NimbusConf.getConf());
+		Path snapshot = NimbusConf.getConf().getSnapshot(cacheName,
+				cacheletName, firstLog.getName());
+		Path tmp = snapshot.suffix(".tmp");
+
+		DataOutputStream out = fs.create(tmp);
+		try {
+			out.writeInt(SNAPSHOT_MAGIC);
+			writeSnapshot(out);
+		} finally {
+			out.close();
+		}
+
+		if (!fs.rename(tmp, snapshot)) {
+			throw new IOException("Failed to rename " + tmp + " to "
+					+ snapshot);
+		}
+
+		LOG.info("Wrote snapshot " + snapshot + " in "
+				+ (System.currentTimeMillis() - start) + " ms");
+
+		long firstLogId = getLogId(firstLog);
+		List<Path> logs = new ArrayList<Path>();
+		logs.addAll(Arrays.asList(NimbusConf.getConf().getPastWriteAheadLogs(
+				cacheName, cacheletName)));
+		logs.addAll(Arrays.asList(NimbusConf.getConf()
+				.getPastLocalWriteAheadLogs(cacheName, cacheletName)));
+		for (Path log : logs) {
+			if (getLogId(log) < firstLogId) {
+				LOG.info("Deleting " + log);
+				log.getFileSystem(NimbusConf.getConf()).delete(log, false);
+			}
+		}
+
+		for (Path old : NimbusConf.getConf().getPastSnapshots(cacheName,
+				cacheletName)) {
+			if (!old.equals(snapshot)) {
+				LOG.info("Deleting " + old);
+				fs.delete(old, false);
 			}
 		}
 	}
 
+	private void loadSnapshot(Path snapshot) throws IOException {
+		long start = System.currentTimeMillis();
+		LOG.info("Loading snapshot " + snapshot);
+
+		DataInputStream in = FileSystem.get(NimbusConf.getConf()).open(
+				snapshot);
+		try {
+			if (in.readInt() != SNAPSHOT_MAGIC) {
+				throw new IOException(snapshot + " is not a snapshot");
+			}
+			readSnapshot(in);
+		} finally {
+			in.close();
+		}
+
+		LOG.info("Loaded snapshot in " + (System.currentTimeMillis() - start)
+				+ " ms");
+	}
+
+	/**
+	 * Gets the write ahead logs of this Cachelet, oldest first. A log that was
+	 * written locally is read from the local disk if it is still there, rather
+	 * than from its copy on HDFS, which may not have finished shipping.
+	 */
+	private List<Path> getPastLogs() throws IOException {
+		TreeMap<String, Path> logs = new TreeMap<String, Path>();
+		for (Path log : NimbusConf.getConf().getPastWriteAheadLogs(cacheName,
+				cacheletName)) {
+			logs.put(log.getName(), log);
+		}
+
+		for (Path log : NimbusConf.getConf().getPastLocalWriteAheadLogs(
+				cacheName, cacheletName)) {
+			logs.put(log.getName(), log);
+		}
+
+		return new ArrayList<Path>(logs.values());
+	}
+
+	/**
+	 * Gets the time a write ahead log or snapshot was named after.
+	 */
+	private long getLogId(Path p) {
+		try {
+			return Long.parseLong(p.getName());
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+
 	protected void openServer() {
-		LOG.info("Opening up server on port " + port);
+		LOG.info("Opening up " + mode + " server on port " + port);
 		try {
-			serverSocket = new ServerSocket(port);
+			if (mode == CacheletServerMode.NIO) {
+				serverChannel = ServerSocketChannel.open();
+				serverChannel.socket().bind(new InetSocketAddress(port));
+			} else {
+				serverSocket = new ServerSocket(port);
+			}
 		} catch (IOException e) {
 			LOG.error("Could not listen on port " + port);
+			if (host != null) {
+				// leave the other Caches of this process running
+				stopped = true;
+				throw new RuntimeException("Could not listen on port " + port,
+						e);
+			}
 			System.exit(1);
 		}
 	}
 
 	protected void acceptConnections() {
+		if (host != null) {
+			host.addServer(this, serverChannel);
+			LOG.info("Hosting " + cacheName + " on port " + port);
+			return;
+		}
+
+		if (mode == CacheletServerMode.NIO) {
+			try {
+				new SelectorServer(this, serverChannel, NimbusConf.getConf()
+						.getCacheletWorkerThreads()).run();
+			} catch (IOException e) {
+				LOG.error("Failed to start selector: " + e.getMessage());
+				System.exit(1);
+			}
+			return;
+		}
+
 		while (true) {
 			ICacheletWorker w = null;
 			try {
@@ -155,40 +514,175 @@ public abstract class ICacheletServer implements Runnable {
 		}
 	}
 
-	public WriteAheadFile getWriteAheadFile() {
-		return waffle;
+	public IWriteAheadFile getWriteAheadFile() {
+		return wal == null ? null : wal.getWriteAheadFile();
+	}
+
+	/**
+	 * Writes the given command to the write ahead log and waits for it to be
+	 * acknowledged. Does nothing while recovering.
+	 * 
+	 * @param cmd
+	 *            The command to log.
+	 * @param args
+	 *            The arguments of the command.
+	 */
+	protected void writeAhead(int cmd, String... args) {
+		awaitWriteAhead(appendWriteAhead(cmd, args));
+	}
+
+	/**
+	 * Queues the given command for the write ahead log without waiting for it
+	 * to be acknowledged. Does nothing while recovering.
+	 * 
+	 * @param cmd
+	 *            The command to log.
+	 * @param args
+	 *            The arguments of the command.
+	 * @return The sequence number to pass to
+	 *         {@link ICacheletServer#awaitWriteAhead(long)}.
+	 */
+	protected long appendWriteAhead(int cmd, String... args) {
+		if (recovering) {
+			return 0;
+		}
+		return wal.append(cmd, args);
+	}
+
+	/**
+	 * Blocks until the write ahead log has room for one more command. Call
+	 * before taking any lock that readers also take, then queue the command
+	 * under the lock with
+	 * {@link ICacheletServer#appendReservedWriteAhead(int, String...)} and wait
+	 * for it after the lock is released. Does nothing while recovering.
+	 */
+	protected void reserveWriteAhead() {
+		if (!recovering) {
+			wal.reserve();
+		}
+	}
+
+	/**
+	 * Queues the given command in the room held by
+	 * {@link ICacheletServer#reserveWriteAhead()}. Never blocks on the write
+	 * ahead log. Does nothing while recovering.
+	 * 
+	 * @param cmd
+	 *            The command to log.
+	 * @param args
+	 *            The arguments of the command.
+	 * @return The sequence number to pass to
+	 *         {@link ICacheletServer#awaitWriteAhead(long)}.
+	 */
+	protected long appendReservedWriteAhead(int cmd, String... args) {
+		if (recovering) {
+			return 0;
+		}
+		return wal.appendReserved(cmd, args);
+	}
+
+	/**
+	 * Same as {@link ICacheletServer#appendReservedWriteAhead(int, String...)},
+	 * for arguments that are already UTF-8 bytes, such as those read off the
+	 * wire. The bytes are logged as they are, without being decoded.
+	 * 
+	 * @param cmd
+	 *            The command to log.
+	 * @param args
+	 *            The UTF-8 bytes of the arguments of the command.
+	 * @return The sequence number to pass to
+	 *         {@link ICacheletServer#awaitWriteAhead(long)}.
+	 */
+	protected long appendReservedWriteAhead(int cmd, byte[]... args) {
+		if (recovering) {
+			return 0;
+		}
+		return wal.appendReserved(cmd, args);
+	}
+
+	/**
+	 * Same as {@link ICacheletServer#appendReservedWriteAhead(int, String...)}
+	 * for a command with no arguments.
+	 */
+	protected long appendReservedWriteAhead(int cmd) {
+		return appendReservedWriteAhead(cmd, new String[0]);
+	}
+
+	/**
+	 * Waits for the command with the given sequence number, and every command
+	 * queued before it, to be acknowledged by the write ahead log.
+	 * 
+	 * @param seq
+	 *            The sequence number returned by
+	 *            {@link ICacheletServer#appendWriteAhead(int, String...)}.
+	 */
+	protected void awaitWriteAhead(long seq) {
+		if (seq > 0) {
+			wal.await(seq);
+		}
+	}
+
+	/**
+	 * Marks the coming {@link ICacheletServer#shutdown()} as clean, so the
+	 * ZNodes of this Cachelet are deleted.
+	 */
+	public void cleanShutdown() {
+		if (host == null) {
+			NimbusShutdownHook.getInstance().cleanShutdown();
+		} else {
+			clean = true;
+		}
 	}
 
+	/**
+	 * Shuts this Cachelet down. The process exits, unless the Cachelet is
+	 * hosted with other Caches, in which case only this Cachelet stops.
+	 */
 	public void shutdown() {
-		try {
-			if (waffle != null) {
-				LOG.info("Closing write ahead file");
-				waffle.flush();
-				waffle.close();
-			} else {
-				LOG.info("Write ahead file is null.");
+		if (wal != null) {
+			wal.close();
+		} else {
+			LOG.info("Write ahead log is null.");
+		}
+
+		if (host != null) {
+			LOG.info("Stopping " + cacheName);
+			stopped = true;
+			host.removeServer(this);
+			if (clean) {
+				NimbusShutdownHook.deleteZNodes(getCacheZNode(),
+						getCacheletZNode());
 			}
-		} catch (IOException e) {
-			e.printStackTrace();
+			return;
 		}
 
 		LOG.error("Shutting down");
 		System.exit(0);
 	}
 
-	public void newWriteAheadFile() {
-		try {
+	private class SnapshotThread implements Runnable {
 
-			if (waffle != null) {
-				LOG.info("Closing write ahead file");
-				waffle.flush();
-				waffle.close();
-			}
+		private long interval = 0;
 
-			waffle = new WriteAheadFile(NimbusConf.getConf().getWriteAheadLog(
-					cacheName, cacheletName));
-		} catch (IOException e) {
-			e.printStackTrace();
+		public SnapshotThread(long interval) {
+			this.interval = interval;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				try {
+					Thread.sleep(interval);
+				} catch (InterruptedException e) {
+					e.printStackTrace();
+				}
+
+				try {
+					snapshot();
+				} catch (IOException e) {
+					LOG.error("Failed to snapshot: " + e.getMessage());
+				}
+			}
 		}
 	}
-}
\ No newline at end of file
+}
@@ -7,9 +7,7 @@ import java.io.OutputStream;
 import java.net.Socket;
 import java.net.SocketException;
 
-import nimbus.main.Nimbus;
 import nimbus.main.NimbusConf;
-import nimbus.main.NimbusShutdownHook;
 import nimbus.master.NimbusMaster;
 import nimbus.utils.NimbusInputStream;
 import nimbus.utils.NimbusOutputStream;
@@ -50,6 +48,22 @@ public abstract class ICacheletWorker implements Runnable {
 		this.out = new NimbusOutputStream(outputStream);
 	}
 
+	/**
+	 * Prepares this worker to answer commands that are handed to it one frame
+	 * at a time, rather than read off of a socket owned by this worker. Used by
+	 * the {@link SelectorServer}, which writes replies back to the client
+	 * through the given stream.
+	 * 
+	 * @param server
+	 *            The server this worker belongs to.
+	 * @param outputStream
+	 *            The stream to write replies to.
+	 */
+	public void initialize(ICacheletServer server, OutputStream outputStream) {
+		this.server = server;
+		setOutputStream(outputStream);
+	}
+
 	/**
 	 * Processes requests from the client until the end of the stream is read or
 	 * the "kill" command is received.
@@ -61,25 +75,10 @@ public abstract class ICacheletWorker implements Runnable {
 			while (true) {
 				try {
 					LOG.debug("Waiting for command...");
-					int cmd = in.readCmd();
-					LOG.debug("Received command " + cmd);
-					long numArgs = in.readNumArgs();
-					if (cmd == NimbusMaster.KILL_CMD) {
-						LOG.info("Kill command received. Deleting Bloom filter from HDFS and exiting...");
-
-						FileSystem.get(NimbusConf.getConf()).delete(
-								new Path(Nimbus.CACHELET_ZNODE), false);
-
-						NimbusShutdownHook.getInstance().cleanShutdown();
-
+					if (!processNextCommand(in)) {
 						shutdown = true;
 						break;
 					}
-
-					processMessage(cmd, numArgs, in);
-
-					in.verifyEndOfMessage();
-
 				} catch (EOFException e) {
 					// ignore this error, the connection was likely closed
 					break;
@@ -106,6 +105,41 @@ public abstract class ICacheletWorker implements Runnable {
 		}
 	}
 
+	/**
+	 * Reads a single command off of the given stream and processes it.
+	 * 
+	 * @param in
+	 *            The stream to read the command from.
+	 * @return False if the "kill" command was received and the Cachelet should
+	 *         shut down, true otherwise.
+	 * @throws IOException
+	 *             If an error occurs reading the command or writing the reply.
+	 */
+	protected boolean processNextCommand(NimbusInputStream in)
+			throws IOException {
+		int cmd = in.readCmd();
+		LOG.debug("Received command " + cmd);
+
+		// reply in the client's framing, echoing the request ID if it sent one
+		out.setProtocolVersion(in.getProtocolVersion());
+		out.setRequestId(in.getRequestId());
+		long numArgs = in.readNumArgs();
+		if (cmd == NimbusMaster.KILL_CMD) {
+			LOG.info("Kill command received. Deleting Bloom filter from HDFS and exiting...");
+
+			FileSystem.get(NimbusConf.getConf()).delete(
+					new Path(server.getCacheletZNode()), false);
+
+			server.cleanShutdown();
+			return false;
+		}
+
+		processMessage(cmd, numArgs, in);
+
+		in.verifyEndOfMessage();
+		return true;
+	}
+
 	protected abstract void processMessage(int cmd, long numArgs,
 			NimbusInputStream in) throws IOException;
 
@@ -113,7 +147,7 @@ public abstract class ICacheletWorker implements Runnable {
 			throws IOException {
 
 		for (int i = 0; i < numArgs; ++i) {
-			rdr.readArg();
+			rdr.skipArg();
 		}
 
 		LOG.error("Received unknown command: " + cmd);
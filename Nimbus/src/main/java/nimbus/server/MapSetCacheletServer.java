@@ -1,17 +1,15 @@
 package nimbus.server;
 
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.Map;
 import java.util.Map.Entry;
 
-import nimbus.nativestructs.CSet;
+import nimbus.storage.IMapSetStore;
+import nimbus.storage.ISetStore;
 
 public class MapSetCacheletServer extends ICacheletServer implements
-		Iterable<Entry<String, CSet>> {
+		Iterable<Entry<String, ISetStore>> {
 
-	private Map<String, CSet> mapSet = new HashMap<String, CSet>();
-	private long size = 0;
+	private IMapSetStore mapSet = null;
 
 	@Override
 	protected ICacheletWorker getNewWorker() {
@@ -25,59 +23,31 @@ public class MapSetCacheletServer extends ICacheletServer implements
 	public MapSetCacheletServer(String cacheName, String cacheletName,
 			int port, CacheType type) {
 		super(cacheName, cacheletName, port, type);
+		mapSet = getStorageEngine().newMapSetStore();
 	}
 
 	public synchronized void add(String key, String value) {
-		CSet set = mapSet.get(key);
-
-		if (set == null) {
-			set = new CSet();
-			mapSet.put(key, set);
-		}
-
-		if (set.add(value)) {
-			++size;
-		}
+		mapSet.add(key, value);
 	}
 
 	public synchronized void remove(String key) {
-		CSet set = mapSet.remove(key);
-		if (set != null) {
-			size -= set.size();
-			set.deleteCSet();
-		}
+		mapSet.remove(key);
 	}
 
 	public synchronized void remove(String key, String value) {
-		CSet set = mapSet.get(key);
-		if (set != null) {
-			if (set.remove(value)) {
-				--size;
-			}
-		}
+		mapSet.remove(key, value);
 	}
 
 	public synchronized boolean contains(String key) {
-		return mapSet.containsKey(key);
+		return mapSet.contains(key);
 	}
 
 	public synchronized boolean contains(String key, String value) {
-		CSet set = mapSet.get(key);
-
-		if (set != null) {
-			return set.contains(value);
-		} else {
-			return false;
-		}
+		return mapSet.contains(key, value);
 	}
 
 	public synchronized void clear() {
-
-		for (Entry<String, CSet> entry : mapSet.entrySet()) {
-			entry.getValue().deleteCSet();
-		}
 		mapSet.clear();
-		size = 0;
 	}
 
 	public synchronized boolean isEmpty() {
@@ -85,15 +55,15 @@ public class MapSetCacheletServer extends ICacheletServer implements
 	}
 
 	public synchronized long size() {
-		return size;
+		return mapSet.size();
 	}
 
 	@Override
-	public Iterator<Entry<String, CSet>> iterator() {
-		return mapSet.entrySet().iterator();
+	public Iterator<Entry<String, ISetStore>> iterator() {
+		return mapSet.iterator();
 	}
 
-	public CSet get(String key) {
+	public ISetStore get(String key) {
 		return mapSet.get(key);
 	}
-}
\ No newline at end of file
+}
@@ -3,8 +3,7 @@ package nimbus.server;
 import java.io.IOException;
 import java.util.Map.Entry;
 
-import nimbus.nativestructs.CSet;
-import nimbus.utils.BytesUtil;
+import nimbus.storage.ISetStore;
 import nimbus.utils.NimbusInputStream;
 
 import org.apache.log4j.Logger;
@@ -39,35 +38,30 @@ public class MapSetCacheletWorker extends ICacheletWorker {
 
 		switch (cmd) {
 		case REMOVE_KEY_VALUE_CMD:
-			server.remove(BytesUtil.toString(rdr.readArg()),
-					BytesUtil.toString(rdr.readArg()));
+			server.remove(rdr.readArgString(), rdr.readArgString());
 			break;
 		case CONTAINS_KEY_VALUE_CMD:
-			out.write(
-					ACK_CMD,
-					String.valueOf(server.contains(
-							BytesUtil.toString(rdr.readArg()),
-							BytesUtil.toString(rdr.readArg()))));
+			out.writeBoolean(ACK_CMD,
+					server.contains(rdr.readArgString(), rdr.readArgString()));
 			break;
 		case ADD_CMD:
-			server.add(BytesUtil.toString(rdr.readArg()),
-					BytesUtil.toString(rdr.readArg()));
+			server.add(rdr.readArgString(), rdr.readArgString());
 			break;
 		case ISEMPTY_CMD:
-			out.write(ACK_CMD, String.valueOf(server.isEmpty()));
+			out.writeBoolean(ACK_CMD, server.isEmpty());
 			break;
 		case CLEAR_CMD:
 			server.clear();
 			break;
 		case SIZE_CMD:
-			out.write(ACK_CMD, String.valueOf(server.size()));
+			out.writeLong(ACK_CMD, server.size());
 			break;
 		case GET_ALL_CMD:
 			// synchronize on server instance (this), have a thread to push out
 			// all the values
 			out.prepStreamingWrite(ACK_CMD, server.size());
 			String[] kv = new String[2];
-			for (Entry<String, CSet> entry : server) {
+			for (Entry<String, ISetStore> entry : server) {
 				kv[0] = entry.getKey();
 				for (String value : entry.getValue()) {
 					kv[1] = value;
@@ -76,14 +70,13 @@ public class MapSetCacheletWorker extends ICacheletWorker {
 			}
 			break;
 		case CONTAINS_KEY_CMD:
-			out.write(ACK_CMD, String.valueOf(server.contains(BytesUtil
-					.toString(rdr.readArg()))));
+			out.writeBoolean(ACK_CMD, server.contains(rdr.readArgString()));
 			break;
 		case REMOVE_KEY_CMD:
-			server.remove(BytesUtil.toString(rdr.readArg()));
+			server.remove(rdr.readArgString());
 			break;
 		case GET_CMD:
-			CSet set = server.get(BytesUtil.toString(rdr.readArg()));
+			ISetStore set = server.get(rdr.readArgString());
 			if (set != null) {
 				out.prepStreamingWrite(ACK_CMD, set.size());
 				for (String value : set) {
@@ -5,7 +5,7 @@ import java.io.IOException;
 import org.apache.log4j.Logger;
 
 import nimbus.master.NimbusMaster;
-import nimbus.utils.BytesUtil;
+import nimbus.storage.StorageEngineType;
 import nimbus.utils.NimbusInputStream;
 
 public class MasterCacheletWorker extends ICacheletWorker {
@@ -24,21 +24,27 @@ public class MasterCacheletWorker extends ICacheletWorker {
 		case CREATE_CMD:
 			try {
 
-				NimbusMaster.getInstance().create(
-						BytesUtil.toString(rdr.readArg()),
-						CacheType.valueOf(BytesUtil.toString(rdr.readArg())
-								.toUpperCase()));
-				out.write(ACK_CMD, BytesUtil.TRUE_BYTES);
+				String name = rdr.readArgString();
+				CacheType type = CacheType.valueOf(rdr.readArgString()
+						.toUpperCase());
+
+				// the storage engine is an optional third argument
+				StorageEngineType engine = null;
+				if (numArgs > 2) {
+					engine = StorageEngineType.valueOf(rdr.readArgString()
+							.toUpperCase());
+				}
+
+				NimbusMaster.getInstance().create(name, type, engine);
+				out.writeBoolean(ACK_CMD, true);
 			} catch (IOException e) {
 				LOG.error(e.getMessage());
-				out.write(ACK_CMD, BytesUtil.FALSE_BYTES);
+				out.writeBoolean(ACK_CMD, false);
 			}
 			break;
 		case DESTROY_CMD:
-			out.write(
-					ACK_CMD,
-					String.valueOf(NimbusMaster.getInstance().destroy(
-							BytesUtil.toString(rdr.readArg()))));
+			out.writeBoolean(ACK_CMD,
+					NimbusMaster.getInstance().destroy(rdr.readArgString()));
 			break;
 		default:
 			printHelpMessage(cmd, numArgs, rdr);
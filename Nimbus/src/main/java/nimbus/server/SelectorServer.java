@@ -0,0 +1,569 @@
+package nimbus.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import nimbus.utils.FrameDecoder;
+import nimbus.utils.NimbusInputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * The SelectorServer is the non-blocking alternative to the thread per
+ * connection model of {@link ICacheletServer#acceptConnections()}. A single
+ * thread multiplexes all client connections, reading bytes as they arrive and
+ * using a {@link FrameDecoder} to find complete commands. Complete commands are
+ * handed to a fixed pool of threads that run them through the connection's
+ * {@link ICacheletWorker}.<br>
+ * <br>
+ * Commands from a single connection are always processed one at a time and in
+ * the order they were received, so workers do not need to be thread safe.
+ * Replies are queued by the worker threads and written to the client by the
+ * selector thread. A worker blocks if too many reply bytes for its connection
+ * are waiting to be written, and the selector thread stops reading from a
+ * connection that has too many commands waiting to be processed. Keys and
+ * channels are only ever cancelled and closed by the selector thread, so a
+ * connection closed by a worker thread is queued for it to close.<br>
+ * <br>
+ * A single SelectorServer can accept connections for many Cachelets, each on
+ * its own port, so that one process hosts many Caches with one selector thread
+ * and one pool. A connection is served by the Cachelet of the port it was
+ * accepted on. See {@link #addServer(ICacheletServer, ServerSocketChannel)}.
+ */
+public class SelectorServer implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(SelectorServer.class);
+
+	private static final int READ_BUFFER_SIZE = 64 * 1024;
+	private static final int WRITE_HANDOFF_SIZE = 64 * 1024;
+	private static final int MAX_QUEUED_FRAMES = 1024;
+	private static final long MAX_PENDING_WRITE_BYTES = 4 * 1024 * 1024;
+
+	private Selector selector = null;
+	private ExecutorService pool = null;
+	private Queue<Connection> interestChanges = new ConcurrentLinkedQueue<Connection>();
+	private Queue<Connection> closeRequests = new ConcurrentLinkedQueue<Connection>();
+	private Queue<Listener> listenerChanges = new ConcurrentLinkedQueue<Listener>();
+	private Map<ICacheletServer, Listener> listeners = new ConcurrentHashMap<ICacheletServer, Listener>();
+
+	/**
+	 * Initializes a new instance of the SelectorServer with no Cachelets. Does
+	 * not start accepting connections until {@link SelectorServer#run()} is
+	 * called.
+	 * 
+	 * @param numThreads
+	 *            The number of threads used to process commands.
+	 * @throws IOException
+	 *             If the selector cannot be opened.
+	 */
+	public SelectorServer(int numThreads) throws IOException {
+		this.selector = Selector.open();
+		this.pool = Executors.newFixedThreadPool(numThreads);
+	}
+
+	/**
+	 * Initializes a new instance of the SelectorServer for a single Cachelet.
+	 * Does not start accepting connections until {@link SelectorServer#run()}
+	 * is called.
+	 *
+	 * @param server
+	 *            The Cachelet to create workers from.
+	 * @param serverChannel
+	 *            A bound server channel to accept connections on.
+	 * @param numThreads
+	 *            The number of threads used to process commands.
+	 * @throws IOException
+	 *             If the selector cannot be opened.
+	 */
+	public SelectorServer(ICacheletServer server,
+			ServerSocketChannel serverChannel, int numThreads)
+			throws IOException {
+		this(numThreads);
+		addServer(server, serverChannel);
+	}
+
+	/**
+	 * Starts accepting connections for the given Cachelet. May be called from
+	 * any thread, before or after {@link SelectorServer#run()}.
+	 * 
+	 * @param server
+	 *            The Cachelet to create workers from.
+	 * @param serverChannel
+	 *            A bound server channel to accept connections on.
+	 */
+	public void addServer(ICacheletServer server,
+			ServerSocketChannel serverChannel) {
+		Listener listener = new Listener(server, serverChannel);
+		listeners.put(server, listener);
+		listenerChanges.add(listener);
+		selector.wakeup();
+	}
+
+	/**
+	 * Stops accepting connections for the given Cachelet, and closes its
+	 * server channel and every connection to it. May be called from any
+	 * thread, including a pool thread processing a command for the Cachelet.
+	 * 
+	 * @param server
+	 *            The Cachelet to remove.
+	 */
+	public void removeServer(ICacheletServer server) {
+		Listener listener = listeners.remove(server);
+		if (listener != null) {
+			listener.removed = true;
+			listenerChanges.add(listener);
+			selector.wakeup();
+		}
+	}
+
+	/**
+	 * Gets the number of Cachelets this server accepts connections for.
+	 */
+	public int getNumServers() {
+		return listeners.size();
+	}
+
+	/**
+	 * Accepts connections and reads and writes to them until the process is
+	 * shut down.
+	 */
+	@Override
+	public void run() {
+		while (true) {
+			Listener listener = null;
+			while ((listener = listenerChanges.poll()) != null) {
+				listener.update();
+			}
+
+			try {
+				selector.select();
+			} catch (IOException e) {
+				LOG.error("Select failed: " + e.getMessage());
+				System.exit(1);
+			}
+
+			Connection conn = null;
+			while ((conn = closeRequests.poll()) != null) {
+				conn.closeNow();
+			}
+
+			while ((conn = interestChanges.poll()) != null) {
+				conn.updateInterest();
+			}
+
+			Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+			while (keys.hasNext()) {
+				SelectionKey key = keys.next();
+				keys.remove();
+
+				if (!key.isValid()) {
+					continue;
+				}
+
+				if (key.isAcceptable()) {
+					try {
+						((Listener) key.attachment()).accept();
+					} catch (CancelledKeyException e) {
+						// the listener was closed since the key was selected
+					}
+					continue;
+				}
+
+				conn = (Connection) key.attachment();
+				try {
+					if (key.isReadable()) {
+						conn.read();
+					}
+
+					if (key.isValid() && key.isWritable()) {
+						conn.write();
+					}
+				} catch (CancelledKeyException e) {
+					conn.closeNow();
+				} catch (IOException e) {
+					LOG.error("Caught exception on connection: "
+							+ e.getMessage());
+					conn.closeNow();
+				}
+			}
+		}
+	}
+
+	/**
+	 * A server channel and the Cachelet that serves the connections accepted
+	 * on it. Only the selector thread registers, accepts and closes.
+	 */
+	private class Listener {
+
+		private ICacheletServer server = null;
+		private ServerSocketChannel serverChannel = null;
+		private SelectionKey key = null;
+		private Set<Connection> connections = Collections
+				.newSetFromMap(new ConcurrentHashMap<Connection, Boolean>());
+		private volatile boolean removed = false;
+
+		public Listener(ICacheletServer server,
+				ServerSocketChannel serverChannel) {
+			this.server = server;
+			this.serverChannel = serverChannel;
+		}
+
+		/**
+		 * Registers or closes the server channel, whichever was last asked
+		 * for.
+		 */
+		public void update() {
+			if (removed) {
+				close();
+				return;
+			}
+
+			if (key != null) {
+				return;
+			}
+
+			try {
+				serverChannel.configureBlocking(false);
+				key = serverChannel.register(selector, SelectionKey.OP_ACCEPT,
+						this);
+			} catch (IOException e) {
+				LOG.error("Failed to register server channel: "
+						+ e.getMessage());
+				listeners.remove(server);
+				close();
+			}
+		}
+
+		public void accept() {
+			try {
+				SocketChannel channel = serverChannel.accept();
+				if (channel == null) {
+					return;
+				}
+
+				channel.configureBlocking(false);
+				channel.socket().setTcpNoDelay(true);
+
+				Connection conn = new Connection(this, channel);
+				connections.add(conn);
+				conn.key = channel.register(selector, SelectionKey.OP_READ,
+						conn);
+				LOG.info("Accepted a new connection");
+			} catch (IOException e) {
+				LOG.error("Accept failed: " + e.getMessage());
+			}
+		}
+
+		private void close() {
+			if (key != null) {
+				key.cancel();
+			}
+
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				LOG.error("Failed to close server channel: " + e.getMessage());
+			}
+
+			for (Connection conn : connections) {
+				conn.closeNow();
+			}
+		}
+	}
+
+	/**
+	 * The state of a single client connection. Runs on the pool to process
+	 * the commands that the selector thread has queued for it.
+	 */
+	private class Connection implements Runnable {
+
+		private Listener listener = null;
+		private SocketChannel channel = null;
+		private SelectionKey key = null;
+		private ICacheletWorker worker = null;
+		private NimbusInputStream in = new NimbusInputStream(new byte[0]);
+
+		private ByteBuffer readBuf = ByteBuffer.allocate(READ_BUFFER_SIZE);
+		private FrameDecoder decoder = new FrameDecoder();
+		private Queue<byte[]> frames = new ConcurrentLinkedQueue<byte[]>();
+		private AtomicInteger numFrames = new AtomicInteger(0);
+		private AtomicBoolean scheduled = new AtomicBoolean(false);
+		private volatile boolean readPaused = false;
+
+		private Queue<ByteBuffer> writes = new ConcurrentLinkedQueue<ByteBuffer>();
+		private long pendingWriteBytes = 0;
+		private volatile boolean closed = false;
+		private boolean channelClosed = false;
+
+		public Connection(Listener listener, SocketChannel channel) {
+			this.listener = listener;
+			this.channel = channel;
+			this.worker = listener.server.getNewWorker();
+			this.worker.initialize(listener.server, new ChannelOutputStream());
+		}
+
+		/**
+		 * Called by the selector thread when the channel is readable.
+		 */
+		public void read() throws IOException {
+			if (channel.read(readBuf) == -1) {
+				closeNow();
+				return;
+			}
+
+			readBuf.flip();
+			int length;
+			while ((length = decoder.decode(readBuf)) != -1) {
+				byte[] frame = new byte[length];
+				readBuf.get(frame);
+				frames.add(frame);
+				numFrames.incrementAndGet();
+			}
+			readBuf.compact();
+
+			if (!readBuf.hasRemaining()) {
+				// a single command is larger than the buffer
+				ByteBuffer larger = ByteBuffer
+						.allocate(readBuf.capacity() * 2);
+				readBuf.flip();
+				larger.put(readBuf);
+				readBuf = larger;
+			}
+
+			if (numFrames.get() >= MAX_QUEUED_FRAMES) {
+				readPaused = true;
+				// a worker may have drained the queue before it could see
+				// the pause, in which case nothing else would resume reading
+				if (numFrames.get() < MAX_QUEUED_FRAMES / 2) {
+					readPaused = false;
+				}
+				updateInterest();
+			}
+
+			schedule();
+		}
+
+		/**
+		 * Called by the selector thread when the channel is writable.
+		 */
+		public void write() throws IOException {
+			ByteBuffer buf = null;
+			while ((buf = writes.peek()) != null) {
+				int written = channel.write(buf);
+				synchronized (this) {
+					pendingWriteBytes -= written;
+					notifyAll();
+				}
+
+				if (buf.hasRemaining()) {
+					// socket buffer is full, wait to be writable again
+					break;
+				}
+				writes.poll();
+			}
+
+			updateInterest();
+		}
+
+		/**
+		 * Sets the operations the selector waits for on this connection. Must
+		 * only be called by the selector thread.
+		 */
+		public void updateInterest() {
+			if (channelClosed || !key.isValid()) {
+				return;
+			}
+
+			int ops = 0;
+			if (!readPaused) {
+				ops |= SelectionKey.OP_READ;
+			}
+
+			if (!writes.isEmpty()) {
+				ops |= SelectionKey.OP_WRITE;
+			}
+
+			try {
+				key.interestOps(ops);
+			} catch (CancelledKeyException e) {
+				// the connection was closed since the key was checked
+			}
+		}
+
+		private void requestInterestUpdate() {
+			interestChanges.add(this);
+			selector.wakeup();
+		}
+
+		private void schedule() {
+			if (!frames.isEmpty() && scheduled.compareAndSet(false, true)) {
+				pool.execute(this);
+			}
+		}
+
+		/**
+		 * Processes queued commands until there are none left.
+		 */
+		@Override
+		public void run() {
+			do {
+				byte[] frame = null;
+				while ((frame = frames.poll()) != null) {
+					numFrames.decrementAndGet();
+					if (readPaused
+							&& numFrames.get() < MAX_QUEUED_FRAMES / 2) {
+						readPaused = false;
+						requestInterestUpdate();
+					}
+
+					if (!closed) {
+						process(frame);
+					}
+				}
+
+				scheduled.set(false);
+			} while (!frames.isEmpty() && scheduled.compareAndSet(false, true));
+		}
+
+		private void process(byte[] frame) {
+			try {
+				in.setFrame(frame);
+				if (!worker.processNextCommand(in)) {
+					close();
+					listener.server.shutdown();
+				}
+			} catch (IOException e) {
+				LOG.error("Caught exception while processing input");
+				e.printStackTrace();
+				close();
+			}
+		}
+
+		/**
+		 * Queues bytes to be written to the client by the selector thread.
+		 * Blocks if too many bytes are already waiting to be written.
+		 */
+		private void enqueue(ByteBuffer buf) throws IOException {
+			synchronized (this) {
+				while (pendingWriteBytes > MAX_PENDING_WRITE_BYTES && !closed) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						throw new InterruptedIOException(e.getMessage());
+					}
+				}
+
+				if (closed) {
+					throw new IOException("Connection is closed");
+				}
+
+				pendingWriteBytes += buf.remaining();
+			}
+
+			writes.add(buf);
+			requestInterestUpdate();
+		}
+
+		/**
+		 * Stops processing commands and queues the channel to be closed by
+		 * the selector thread. May be called from any thread.
+		 */
+		public void close() {
+			synchronized (this) {
+				if (closed) {
+					return;
+				}
+				closed = true;
+				notifyAll();
+			}
+
+			closeRequests.add(this);
+			selector.wakeup();
+		}
+
+		/**
+		 * Cancels the key and closes the channel. Must only be called by the
+		 * selector thread.
+		 */
+		public void closeNow() {
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+
+			if (channelClosed) {
+				return;
+			}
+
+			LOG.info("Closing worker");
+			channelClosed = true;
+			listener.connections.remove(this);
+			if (key != null) {
+				key.cancel();
+			}
+			try {
+				channel.close();
+			} catch (IOException e) {
+				LOG.error("Failed to close channel: " + e.getMessage());
+			}
+		}
+
+		/**
+		 * Collects the bytes written by the worker and hands them to the
+		 * selector thread whenever the worker flushes or enough bytes have
+		 * accumulated.
+		 */
+		private class ChannelOutputStream extends OutputStream {
+
+			private ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+
+			@Override
+			public void write(int b) throws IOException {
+				buffer.write(b);
+				if (buffer.size() >= WRITE_HANDOFF_SIZE) {
+					flush();
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) throws IOException {
+				buffer.write(b, off, len);
+				if (buffer.size() >= WRITE_HANDOFF_SIZE) {
+					flush();
+				}
+			}
+
+			@Override
+			public void flush() throws IOException {
+				if (buffer.size() != 0) {
+					enqueue(ByteBuffer.wrap(buffer.toByteArray()));
+					buffer.reset();
+				}
+			}
+
+			@Override
+			public void close() throws IOException {
+				flush();
+			}
+		}
+	}
+}
@@ -17,15 +17,15 @@ import org.apache.zookeeper.Watcher.Event.EventType;
 
 import nimbus.master.CacheInfo;
 import nimbus.master.NimbusMaster;
-import nimbus.nativestructs.CSet;
-import nimbus.utils.BloomFilter;
+import nimbus.storage.ISetStore;
+import nimbus.utils.IBloomFilter;
 import nimbus.utils.ICacheletHash;
 
 public class StaticSetCacheletServer extends ICacheletServer implements
 		Iterable<String> {
 
-	private CSet set = new CSet();
-	private static BloomFilter bfilter = null;
+	private ISetStore set = null;
+	private static IBloomFilter bfilter = null;
 	private static final Logger LOG = Logger.getLogger(StaticSetCacheletServer.class);
 
 	public static Path getBloomFilterPath(String cacheName, String cacheletName) {
@@ -36,6 +36,7 @@ public class StaticSetCacheletServer extends ICacheletServer implements
 	public StaticSetCacheletServer(String cacheName, String cacheletName, int port,
 			CacheType type) {
 		super(cacheName, cacheletName, port, type);
+		set = getStorageEngine().newSetStore();
 	}
 
 	@Override
@@ -85,7 +86,8 @@ public class StaticSetCacheletServer extends ICacheletServer implements
 		int replication = NimbusConf.getConf().getReplicationFactor();
 
 		approxNumRecords = approxNumRecords / numCachelets * replication;
-		bfilter = new BloomFilter(approxNumRecords, desiredFalsePosRate);
+		bfilter = IBloomFilter.newInstance(approxNumRecords,
+				desiredFalsePosRate);
 		try {
 			NimbusMaster.getInstance().setCacheletAvailability(cacheName,
 					cacheletName, false);
@@ -164,7 +166,7 @@ public class StaticSetCacheletServer extends ICacheletServer implements
 
 			CacheletDataWatcher watcher = new CacheletDataWatcher();
 			// leave watch on node for when it does change.
-			Nimbus.getZooKeeper().getDataVariable(Nimbus.CACHE_ZNODE, watcher,
+			Nimbus.getZooKeeper().getDataVariable(getCacheZNode(), watcher,
 					null);
 
 			while (watcher.info == null) {
@@ -205,4 +207,9 @@ public class StaticSetCacheletServer extends ICacheletServer implements
 	public int size() {
 		return set.size();
 	}
+
+	@Override
+	public long getMemoryUsed() {
+		return set.memoryUsed();
+	}
 }
\ No newline at end of file
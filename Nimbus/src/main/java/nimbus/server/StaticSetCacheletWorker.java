@@ -2,6 +2,7 @@ package nimbus.server;
 
 import java.io.IOException;
 
+import nimbus.utils.BigBitArray;
 import nimbus.utils.BytesUtil;
 import nimbus.utils.NimbusInputStream;
 
@@ -32,6 +33,13 @@ public class StaticSetCacheletWorker extends ICacheletWorker {
 
 	public static final int ACK_CMD = 4;
 
+	/**
+	 * The MCONTAINS command will determine if each of the given elements is a
+	 * member of this Cachelet's set. The reply is a single bitmap argument
+	 * with bit i set if the i-th element is a member.
+	 */
+	public static final int MCONTAINS_CMD = 5;
+
 	private StaticSetCacheletServer server = null;
 
 	public StaticSetCacheletWorker(StaticSetCacheletServer server) {
@@ -44,7 +52,7 @@ public class StaticSetCacheletWorker extends ICacheletWorker {
 	
 		switch (cmd) {
 		case ISEMPTY_CMD:
-			out.write(ACK_CMD, String.valueOf(server.isEmpty()));
+			out.writeBoolean(ACK_CMD, server.isEmpty());
 			break;
 		case GET_CMD:
 			out.prepStreamingWrite(ACK_CMD, server.size());
@@ -55,8 +63,18 @@ public class StaticSetCacheletWorker extends ICacheletWorker {
 
 			break;
 		case CONTAINS_CMD:
-			out.write(ACK_CMD,
-					String.valueOf(server.contains(BytesUtil.toString(in.readArg()))));
+			out.writeBoolean(ACK_CMD, server.contains(in.readArgString()));
+			break;
+		case MCONTAINS_CMD:
+			BigBitArray results = new BigBitArray(
+					BigBitArray.makeMultipleOfEight(numArgs));
+			for (int i = 0; i < numArgs; ++i) {
+				if (server.contains(in.readArgString())) {
+					results.turnBitOn(i);
+				}
+			}
+
+			out.write(ACK_CMD, results.getBytes());
 			break;
 		default:
 			printHelpMessage(cmd, numArgs, in);
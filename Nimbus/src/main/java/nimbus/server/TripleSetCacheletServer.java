@@ -18,18 +18,19 @@ import org.apache.zookeeper.Watcher.Event.EventType;
 import nimbus.master.CacheInfo;
 import nimbus.master.NimbusMaster;
 import nimbus.nativestructs.Triple;
-import nimbus.nativestructs.TripleSet;
+import nimbus.storage.ITripleStore;
 import nimbus.utils.ICacheletHash;
 
 public class TripleSetCacheletServer extends ICacheletServer {
 
-	private TripleSet set = new TripleSet();
+	private ITripleStore set = null;
 	private static final Logger LOG = Logger
 			.getLogger(TripleSetCacheletServer.class);
 
 	public TripleSetCacheletServer(String cacheName, String cacheletName,
 			int port, CacheType type) {
 		super(cacheName, cacheletName, port, type);
+		set = getStorageEngine().newTripleStore();
 	}
 
 	@Override
@@ -51,7 +52,7 @@ public class TripleSetCacheletServer extends ICacheletServer {
 			this.distributedLoadFromHDFS(new Path(info.getFilename()),
 					NimbusMaster.getInstance().getCacheletID(cacheletName));
 		} else { // leave watch on node for when it does change.
-			Nimbus.getZooKeeper().getDataVariable(Nimbus.CACHE_ZNODE,
+			Nimbus.getZooKeeper().getDataVariable(getCacheZNode(),
 					new CacheletDataWatcher(this), null);
 		}
 
@@ -4,7 +4,6 @@ import java.io.IOException;
 import java.util.Iterator;
 
 import nimbus.nativestructs.Triple;
-import nimbus.utils.BytesUtil;
 import nimbus.utils.NimbusInputStream;
 
 import org.apache.hadoop.fs.Path;
@@ -58,21 +57,15 @@ public class TripleSetCacheletWorker extends ICacheletWorker {
 
 		switch (cmd) {
 		case CONTAINS_CMD:
-			out.write(
-					ACK_CMD,
-					String.valueOf(server.contains(
-							BytesUtil.toString(rdr.readArg()),
-							BytesUtil.toString(rdr.readArg()),
-							BytesUtil.toString(rdr.readArg()))));
+			out.writeBoolean(ACK_CMD, server.contains(rdr.readArgString(),
+					rdr.readArgString(), rdr.readArgString()));
 			break;
 		case ADD_CMD:
-			out.write(ACK_CMD, String.valueOf(server.add(
-					BytesUtil.toString(rdr.readArg()),
-					BytesUtil.toString(rdr.readArg()),
-					BytesUtil.toString(rdr.readArg()))));
+			out.writeBoolean(ACK_CMD, server.add(rdr.readArgString(),
+					rdr.readArgString(), rdr.readArgString()));
 			break;
 		case ISEMPTY_CMD:
-			out.write(ACK_CMD, String.valueOf(server.isEmpty()));
+			out.writeBoolean(ACK_CMD, server.isEmpty());
 			break;
 		case GET_ALL_CMD:
 			out.prepStreamingWrite(ACK_CMD, server.size() * 3);
@@ -84,7 +77,7 @@ public class TripleSetCacheletWorker extends ICacheletWorker {
 			break;
 		case GET_WITH_ONE_CMD:
 
-			String s1 = BytesUtil.toString(rdr.readArg());
+			String s1 = rdr.readArgString();
 			out.prepStreamingWrite(ACK_CMD, server.sizeOf(s1) * 3);
 			iter = server.iterator(s1);
 			while (iter.hasNext()) {
@@ -93,8 +86,8 @@ public class TripleSetCacheletWorker extends ICacheletWorker {
 			break;
 
 		case GET_WITH_TWO_CMD:
-			s1 = BytesUtil.toString(rdr.readArg());
-			String s2 = BytesUtil.toString(rdr.readArg());
+			s1 = rdr.readArgString();
+			String s2 = rdr.readArgString();
 			out.prepStreamingWrite(ACK_CMD, server.sizeOf(s1, s2) * 3);
 			iter = server.iterator(s1, s2);
 			while (iter.hasNext()) {
@@ -102,9 +95,8 @@ public class TripleSetCacheletWorker extends ICacheletWorker {
 			}
 			break;
 		case DIS_READ_CMD:
-			out.write(ACK_CMD, String.valueOf(server.distributedLoadFromHDFS(
-					new Path(BytesUtil.toString(rdr.readArg())),
-					Integer.parseInt(BytesUtil.toString(rdr.readArg())))));
+			out.writeBoolean(ACK_CMD, server.distributedLoadFromHDFS(
+					new Path(rdr.readArgString()), rdr.readArgInt()));
 			break;
 		default:
 			printHelpMessage(cmd, numArgs, rdr);
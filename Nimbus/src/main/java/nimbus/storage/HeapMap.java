@@ -0,0 +1,138 @@
+package nimbus.storage;
+
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import nimbus.utils.BytesUtil;
+
+/**
+ * A map store backed by a java.util.HashMap. Keys and values given as UTF-8
+ * bytes are decoded to Strings.
+ */
+public class HeapMap extends IMapStore {
+
+	private Map<String, String> map = new HashMap<String, String>();
+
+	@Override
+	public void clear() {
+		map.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return map.containsKey(key);
+	}
+
+	@Override
+	public boolean containsKey(byte[] key) {
+		return map.containsKey(BytesUtil.toString(key));
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		return map.containsValue(value);
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		return map.entrySet();
+	}
+
+	@Override
+	public String get(Object key) {
+		return map.get(key);
+	}
+
+	@Override
+	public byte[] get(byte[] key) {
+		return toBytes(map.get(BytesUtil.toString(key)));
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return map.isEmpty();
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return map.keySet();
+	}
+
+	@Override
+	public String put(String key, String value) {
+		return map.put(key, value);
+	}
+
+	@Override
+	public byte[] put(byte[] key, byte[] value) {
+		return toBytes(map.put(BytesUtil.toString(key),
+				BytesUtil.toString(value)));
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends String> m) {
+		map.putAll(m);
+	}
+
+	@Override
+	public String remove(Object key) {
+		return map.remove(key);
+	}
+
+	@Override
+	public byte[] remove(byte[] key) {
+		return toBytes(map.remove(BytesUtil.toString(key)));
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@Override
+	public Collection<String> values() {
+		return map.values();
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		return map.entrySet().iterator();
+	}
+
+	@Override
+	public Iterator<Entry<byte[], byte[]>> bytesIterator() {
+		final Iterator<Entry<String, String>> iter = iterator();
+		return new Iterator<Entry<byte[], byte[]>>() {
+			@Override
+			public boolean hasNext() {
+				return iter.hasNext();
+			}
+
+			@Override
+			public Entry<byte[], byte[]> next() {
+				Entry<String, String> entry = iter.next();
+				return new SimpleImmutableEntry<byte[], byte[]>(
+						BytesUtil.toBytes(entry.getKey()),
+						BytesUtil.toBytes(entry.getValue()));
+			}
+
+			@Override
+			public void remove() {
+				iter.remove();
+			}
+		};
+	}
+
+	@Override
+	public void release() {
+		map = new HashMap<String, String>();
+	}
+
+	private static byte[] toBytes(String value) {
+		return value == null ? null : BytesUtil.toBytes(value);
+	}
+}
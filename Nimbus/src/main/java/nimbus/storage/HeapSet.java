@@ -0,0 +1,123 @@
+package nimbus.storage;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import nimbus.utils.BytesUtil;
+
+/**
+ * A set store backed by a java.util.HashSet. Elements given as UTF-8 bytes are
+ * decoded to Strings.
+ */
+public class HeapSet extends ISetStore {
+
+	private Set<String> set = new HashSet<String>();
+
+	@Override
+	public boolean add(String e) {
+		return set.add(e);
+	}
+
+	@Override
+	public boolean add(byte[] e, int offset, int length) {
+		return set.add(BytesUtil.toString(e, offset, length));
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends String> c) {
+		return set.addAll(c);
+	}
+
+	@Override
+	public void clear() {
+		set.clear();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return set.contains(o);
+	}
+
+	@Override
+	public boolean contains(byte[] o, int offset, int length) {
+		return set.contains(BytesUtil.toString(o, offset, length));
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		return set.containsAll(c);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return set.isEmpty();
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return set.iterator();
+	}
+
+	@Override
+	public Iterator<byte[]> bytesIterator() {
+		final Iterator<String> iter = set.iterator();
+		return new Iterator<byte[]>() {
+			@Override
+			public boolean hasNext() {
+				return iter.hasNext();
+			}
+
+			@Override
+			public byte[] next() {
+				return BytesUtil.toBytes(iter.next());
+			}
+
+			@Override
+			public void remove() {
+				iter.remove();
+			}
+		};
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return set.remove(o);
+	}
+
+	@Override
+	public boolean remove(byte[] o, int offset, int length) {
+		return set.remove(BytesUtil.toString(o, offset, length));
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		return set.removeAll(c);
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		return set.retainAll(c);
+	}
+
+	@Override
+	public int size() {
+		return set.size();
+	}
+
+	@Override
+	public Object[] toArray() {
+		return set.toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] a) {
+		return set.toArray(a);
+	}
+
+	@Override
+	public void release() {
+		set = new HashSet<String>();
+	}
+}
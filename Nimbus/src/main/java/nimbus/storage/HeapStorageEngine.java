@@ -0,0 +1,24 @@
+package nimbus.storage;
+
+/**
+ * Stores data in java.util collections on the Java heap. Simple and fast for
+ * small Caches, but every element is an object the garbage collector has to
+ * trace.
+ */
+public class HeapStorageEngine extends IStorageEngine {
+
+	@Override
+	public StorageEngineType getType() {
+		return StorageEngineType.ON_HEAP;
+	}
+
+	@Override
+	public ISetStore newSetStore() {
+		return new HeapSet();
+	}
+
+	@Override
+	public IMapStore newMapStore() {
+		return new HeapMap();
+	}
+}
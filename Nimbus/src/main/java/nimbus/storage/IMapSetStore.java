@@ -0,0 +1,65 @@
+package nimbus.storage;
+
+import java.util.Iterator;
+import java.util.Map.Entry;
+
+/**
+ * This abstract class is the storage behind a map set Cachelet, which maps
+ * each key to a set of values.<br>
+ * <br>
+ * Stores are created by an {@link IStorageEngine} and are not thread safe.
+ */
+public abstract class IMapSetStore implements
+		Iterable<Entry<String, ISetStore>> {
+
+	/**
+	 * Adds the value to the set of the given key, creating the set if needed.
+	 * 
+	 * @return True if the value was not already in the key's set.
+	 */
+	public abstract boolean add(String key, String value);
+
+	/**
+	 * Removes the key and its whole set.
+	 * 
+	 * @return The number of values removed.
+	 */
+	public abstract int remove(String key);
+
+	/**
+	 * Removes the value from the set of the given key.
+	 * 
+	 * @return True if the value was in the key's set.
+	 */
+	public abstract boolean remove(String key, String value);
+
+	public abstract boolean contains(String key);
+
+	public abstract boolean contains(String key, String value);
+
+	/**
+	 * Gets the set of the given key.
+	 * 
+	 * @return The set, or null if the key is not in the map.
+	 */
+	public abstract ISetStore get(String key);
+
+	public abstract void clear();
+
+	public abstract boolean isEmpty();
+
+	/**
+	 * Gets the number of values across all sets.
+	 */
+	public abstract long size();
+
+	@Override
+	public abstract Iterator<Entry<String, ISetStore>> iterator();
+
+	/**
+	 * Frees the memory held by this store. It must not be used afterwards.
+	 */
+	public void release() {
+		clear();
+	}
+}
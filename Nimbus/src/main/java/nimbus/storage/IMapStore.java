@@ -0,0 +1,65 @@
+package nimbus.storage;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * This abstract class is the storage behind a map Cachelet. Keys and values
+ * can be given as Strings or as their UTF-8 bytes, such as arguments read off
+ * the wire, and are the same either way.<br>
+ * <br>
+ * Stores are created by an {@link IStorageEngine} and are not thread safe.
+ * Lookups may run at once, but updates must not run alongside anything else.
+ */
+public abstract class IMapStore implements Map<String, String>,
+		Iterable<Entry<String, String>> {
+
+	/**
+	 * Puts the key and value given as UTF-8 bytes.
+	 * 
+	 * @return The UTF-8 bytes of the old value, or null if there was none.
+	 */
+	public abstract byte[] put(byte[] key, byte[] value);
+
+	/**
+	 * Gets the value of the key given as UTF-8 bytes.
+	 * 
+	 * @return The UTF-8 bytes of the value, or null if there is none.
+	 */
+	public abstract byte[] get(byte[] key);
+
+	/**
+	 * Tests for the key given as UTF-8 bytes.
+	 * 
+	 * @return True if the key is in the map.
+	 */
+	public abstract boolean containsKey(byte[] key);
+
+	/**
+	 * Removes the key given as UTF-8 bytes.
+	 * 
+	 * @return The UTF-8 bytes of the old value, or null if there was none.
+	 */
+	public abstract byte[] remove(byte[] key);
+
+	/**
+	 * Iterates over the UTF-8 bytes of each key and value.
+	 */
+	public abstract Iterator<Entry<byte[], byte[]>> bytesIterator();
+
+	/**
+	 * Gets the number of bytes this store holds its data in, for accounting
+	 * the memory used by each Cache.
+	 * 
+	 * @return The number of bytes, or -1 if the store cannot tell.
+	 */
+	public long memoryUsed() {
+		return -1;
+	}
+
+	/**
+	 * Frees the memory held by this store. It must not be used afterwards.
+	 */
+	public abstract void release();
+}
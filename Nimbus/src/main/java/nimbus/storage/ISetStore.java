@@ -0,0 +1,68 @@
+package nimbus.storage;
+
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * This abstract class is the storage behind a set Cachelet. Elements can be
+ * given as Strings or as their UTF-8 bytes, such as arguments read off the
+ * wire, and an element is the same either way.<br>
+ * <br>
+ * Stores are created by an {@link IStorageEngine} and are not thread safe.
+ * Lookups may run at once, but updates must not run alongside anything else.
+ */
+public abstract class ISetStore implements Set<String> {
+
+	/**
+	 * Adds the element given as UTF-8 bytes.
+	 * 
+	 * @return True if the element was not already in the set.
+	 */
+	public boolean add(byte[] e) {
+		return add(e, 0, e.length);
+	}
+
+	public abstract boolean add(byte[] e, int offset, int length);
+
+	/**
+	 * Tests for the element given as UTF-8 bytes.
+	 * 
+	 * @return True if the element is in the set.
+	 */
+	public boolean contains(byte[] o) {
+		return contains(o, 0, o.length);
+	}
+
+	public abstract boolean contains(byte[] o, int offset, int length);
+
+	/**
+	 * Removes the element given as UTF-8 bytes.
+	 * 
+	 * @return True if the element was in the set.
+	 */
+	public boolean remove(byte[] o) {
+		return remove(o, 0, o.length);
+	}
+
+	public abstract boolean remove(byte[] o, int offset, int length);
+
+	/**
+	 * Iterates over the UTF-8 bytes of each element.
+	 */
+	public abstract Iterator<byte[]> bytesIterator();
+
+	/**
+	 * Gets the number of bytes this store holds its data in, for accounting
+	 * the memory used by each Cache.
+	 * 
+	 * @return The number of bytes, or -1 if the store cannot tell.
+	 */
+	public long memoryUsed() {
+		return -1;
+	}
+
+	/**
+	 * Frees the memory held by this store. It must not be used afterwards.
+	 */
+	public abstract void release();
+}
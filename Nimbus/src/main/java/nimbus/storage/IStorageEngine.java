@@ -0,0 +1,55 @@
+package nimbus.storage;
+
+import nimbus.nativestructs.TripleSet;
+
+/**
+ * This abstract class creates the stores a Cachelet keeps its data in. Each
+ * {@link StorageEngineType} has one engine, registered with the
+ * {@link StorageEngineRegistry}, so a Cache can be moved from one engine to
+ * another without changing its server or workers.<br>
+ * <br>
+ * Engines without a map of sets or triple store of their own use
+ * {@link MapSetStore} over their set stores and the on-heap {@link TripleSet}.
+ */
+public abstract class IStorageEngine {
+
+	/**
+	 * Gets the type this engine is registered under.
+	 * 
+	 * @return The type.
+	 */
+	public abstract StorageEngineType getType();
+
+	/**
+	 * Creates a new, empty set store.
+	 * 
+	 * @return The set store.
+	 */
+	public abstract ISetStore newSetStore();
+
+	/**
+	 * Creates a new, empty map store.
+	 * 
+	 * @return The map store.
+	 */
+	public abstract IMapStore newMapStore();
+
+	/**
+	 * Creates a new, empty map of sets, with a set store from this engine for
+	 * each key.
+	 * 
+	 * @return The map of sets.
+	 */
+	public IMapSetStore newMapSetStore() {
+		return new MapSetStore(this);
+	}
+
+	/**
+	 * Creates a new, empty triple store.
+	 * 
+	 * @return The triple store.
+	 */
+	public ITripleStore newTripleStore() {
+		return new TripleSet();
+	}
+}
@@ -0,0 +1,67 @@
+package nimbus.storage;
+
+import java.util.Iterator;
+
+import nimbus.nativestructs.Triple;
+
+/**
+ * This abstract class is the storage behind a triple set Cachelet. Triples
+ * can be iterated in full, or by their first one or two parts.<br>
+ * <br>
+ * Stores are created by an {@link IStorageEngine} and are not thread safe.
+ */
+public abstract class ITripleStore implements Iterable<Triple> {
+
+	public abstract boolean add(String s1, String s2, String s3);
+
+	/**
+	 * Adds the triple made of the first three parts of the given array.
+	 */
+	public boolean add(String[] split) {
+		return add(split[0], split[1], split[2]);
+	}
+
+	public abstract boolean contains(String s1, String s2, String s3);
+
+	public boolean contains(Triple t) {
+		return contains(t.getFirst(), t.getSecond(), t.getThird());
+	}
+
+	public abstract boolean remove(String s1, String s2, String s3);
+
+	@Override
+	public abstract Iterator<Triple> iterator();
+
+	/**
+	 * Iterates over the triples starting with the given part.
+	 */
+	public abstract Iterator<Triple> iterator(String s1);
+
+	/**
+	 * Iterates over the triples starting with the given two parts.
+	 */
+	public abstract Iterator<Triple> iterator(String s1, String s2);
+
+	public abstract void clear();
+
+	public abstract boolean isEmpty();
+
+	public abstract long size();
+
+	/**
+	 * Gets the number of triples starting with the given part.
+	 */
+	public abstract long sizeOf(String s1);
+
+	/**
+	 * Gets the number of triples starting with the given two parts.
+	 */
+	public abstract long sizeOf(String s1, String s2);
+
+	/**
+	 * Frees the memory held by this store. It must not be used afterwards.
+	 */
+	public void release() {
+		clear();
+	}
+}
@@ -0,0 +1,100 @@
+package nimbus.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * A map of sets that keeps its keys in a java.util.HashMap and each key's
+ * values in a set store from the given engine. Sets are released when their
+ * key is removed.
+ */
+public class MapSetStore extends IMapSetStore {
+
+	private IStorageEngine engine = null;
+	private Map<String, ISetStore> mapSet = new HashMap<String, ISetStore>();
+	private long size = 0;
+
+	public MapSetStore(IStorageEngine engine) {
+		this.engine = engine;
+	}
+
+	@Override
+	public boolean add(String key, String value) {
+		ISetStore set = mapSet.get(key);
+		if (set == null) {
+			set = engine.newSetStore();
+			mapSet.put(key, set);
+		}
+
+		if (set.add(value)) {
+			++size;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public int remove(String key) {
+		ISetStore set = mapSet.remove(key);
+		if (set == null) {
+			return 0;
+		}
+
+		int removed = set.size();
+		size -= removed;
+		set.release();
+		return removed;
+	}
+
+	@Override
+	public boolean remove(String key, String value) {
+		ISetStore set = mapSet.get(key);
+		if (set != null && set.remove(value)) {
+			--size;
+			return true;
+		}
+		return false;
+	}
+
+	@Override
+	public boolean contains(String key) {
+		return mapSet.containsKey(key);
+	}
+
+	@Override
+	public boolean contains(String key, String value) {
+		ISetStore set = mapSet.get(key);
+		return set != null && set.contains(value);
+	}
+
+	@Override
+	public ISetStore get(String key) {
+		return mapSet.get(key);
+	}
+
+	@Override
+	public void clear() {
+		for (ISetStore set : mapSet.values()) {
+			set.release();
+		}
+		mapSet.clear();
+		size = 0;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return mapSet.isEmpty();
+	}
+
+	@Override
+	public long size() {
+		return size;
+	}
+
+	@Override
+	public Iterator<Entry<String, ISetStore>> iterator() {
+		return mapSet.entrySet().iterator();
+	}
+}
@@ -0,0 +1,27 @@
+package nimbus.storage;
+
+import nimbus.nativestructs.CMap;
+import nimbus.nativestructs.CSet;
+
+/**
+ * Stores data in the JNI structures of the NativeNimbus library. Every store
+ * this engine creates is its own native structure. The native triple set
+ * cannot be iterated, so triples are stored on the heap.
+ */
+public class NativeStorageEngine extends IStorageEngine {
+
+	@Override
+	public StorageEngineType getType() {
+		return StorageEngineType.NATIVE;
+	}
+
+	@Override
+	public ISetStore newSetStore() {
+		return new CSet();
+	}
+
+	@Override
+	public IMapStore newMapStore() {
+		return new CMap();
+	}
+}
@@ -0,0 +1,243 @@
+package nimbus.storage;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import nimbus.storage.OffHeapTable.SlotIterator;
+import nimbus.utils.BytesUtil;
+
+/**
+ * A map of Strings stored as UTF-8 bytes in an {@link OffHeapTable}, for
+ * Cachelets that cannot, or would rather not, load the NativeNimbus library.
+ * Unlike the {@link nimbus.nativestructs.CMap}, every method is supported
+ * other than removing through an iterator or a view.<br>
+ * <br>
+ * Iterators and views walk the table itself, so the map must not be updated
+ * while one is in use.
+ */
+public class OffHeapMap extends IMapStore {
+
+	private OffHeapTable table = new OffHeapTable(true);
+
+	@Override
+	public void clear() {
+		table.clear();
+	}
+
+	@Override
+	public boolean containsKey(Object key) {
+		return containsKey(BytesUtil.toBytes(key.toString()));
+	}
+
+	@Override
+	public boolean containsKey(byte[] key) {
+		return table.contains(key, 0, key.length);
+	}
+
+	@Override
+	public boolean containsValue(Object value) {
+		for (Entry<String, String> entry : this) {
+			if (entry.getValue().equals(value)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public String get(Object key) {
+		byte[] value = get(BytesUtil.toBytes(key.toString()));
+		return value == null ? null : BytesUtil.toString(value);
+	}
+
+	@Override
+	public byte[] get(byte[] key) {
+		return table.get(key, 0, key.length);
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return table.size() == 0;
+	}
+
+	@Override
+	public String put(String key, String value) {
+		byte[] old = put(BytesUtil.toBytes(key), BytesUtil.toBytes(value));
+		return old == null ? null : BytesUtil.toString(old);
+	}
+
+	@Override
+	public byte[] put(byte[] key, byte[] value) {
+		return table.put(key, value);
+	}
+
+	@Override
+	public void putAll(Map<? extends String, ? extends String> m) {
+		for (Entry<? extends String, ? extends String> entry : m.entrySet()) {
+			put(entry.getKey(), entry.getValue());
+		}
+	}
+
+	@Override
+	public String remove(Object key) {
+		byte[] old = remove(BytesUtil.toBytes(key.toString()));
+		return old == null ? null : BytesUtil.toString(old);
+	}
+
+	@Override
+	public byte[] remove(byte[] key) {
+		return table.remove(key, 0, key.length);
+	}
+
+	@Override
+	public int size() {
+		return table.size();
+	}
+
+	/**
+	 * Gets the number of bytes allocated outside the heap for this map.
+	 */
+	@Override
+	public long memoryUsed() {
+		return table.memoryUsed();
+	}
+
+	@Override
+	public Set<Entry<String, String>> entrySet() {
+		return new AbstractSet<Entry<String, String>>() {
+			@Override
+			public Iterator<Entry<String, String>> iterator() {
+				return OffHeapMap.this.iterator();
+			}
+
+			@Override
+			public int size() {
+				return table.size();
+			}
+		};
+	}
+
+	@Override
+	public Set<String> keySet() {
+		return new AbstractSet<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				final SlotIterator slots = new SlotIterator(table);
+				return new Iterator<String>() {
+					@Override
+					public boolean hasNext() {
+						return slots.hasNext();
+					}
+
+					@Override
+					public String next() {
+						return BytesUtil.toString(table.keyAt(slots.next()));
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public boolean contains(Object o) {
+				return containsKey(o);
+			}
+
+			@Override
+			public int size() {
+				return table.size();
+			}
+		};
+	}
+
+	@Override
+	public Collection<String> values() {
+		return new AbstractCollection<String>() {
+			@Override
+			public Iterator<String> iterator() {
+				final SlotIterator slots = new SlotIterator(table);
+				return new Iterator<String>() {
+					@Override
+					public boolean hasNext() {
+						return slots.hasNext();
+					}
+
+					@Override
+					public String next() {
+						return BytesUtil.toString(table.valueAt(slots.next()));
+					}
+
+					@Override
+					public void remove() {
+						throw new UnsupportedOperationException();
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return table.size();
+			}
+		};
+	}
+
+	@Override
+	public Iterator<Entry<String, String>> iterator() {
+		final SlotIterator slots = new SlotIterator(table);
+		return new Iterator<Entry<String, String>>() {
+			@Override
+			public boolean hasNext() {
+				return slots.hasNext();
+			}
+
+			@Override
+			public Entry<String, String> next() {
+				int slot = slots.next();
+				return new SimpleImmutableEntry<String, String>(
+						BytesUtil.toString(table.keyAt(slot)),
+						BytesUtil.toString(table.valueAt(slot)));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public Iterator<Entry<byte[], byte[]>> bytesIterator() {
+		final SlotIterator slots = new SlotIterator(table);
+		return new Iterator<Entry<byte[], byte[]>>() {
+			@Override
+			public boolean hasNext() {
+				return slots.hasNext();
+			}
+
+			@Override
+			public Entry<byte[], byte[]> next() {
+				int slot = slots.next();
+				return new SimpleImmutableEntry<byte[], byte[]>(
+						table.keyAt(slot), table.valueAt(slot));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public void release() {
+		table.release();
+	}
+}
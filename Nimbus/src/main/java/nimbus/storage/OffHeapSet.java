@@ -0,0 +1,181 @@
+package nimbus.storage;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import nimbus.utils.BytesUtil;
+
+/**
+ * A set of Strings stored as UTF-8 bytes in an {@link OffHeapTable}, for
+ * Cachelets that cannot, or would rather not, load the NativeNimbus library.
+ * Unlike the {@link nimbus.nativestructs.CSet}, every method is supported
+ * other than removing through an iterator.<br>
+ * <br>
+ * Iterators walk the table itself, so the set must not be updated while one is
+ * in use.
+ */
+public class OffHeapSet extends ISetStore {
+
+	private OffHeapTable table = new OffHeapTable(false);
+
+	@Override
+	public boolean add(String e) {
+		return add(BytesUtil.toBytes(e));
+	}
+
+	@Override
+	public boolean add(byte[] e, int offset, int length) {
+		return table.insert(e, offset, length);
+	}
+
+	@Override
+	public boolean addAll(Collection<? extends String> c) {
+		boolean retval = false;
+		for (String s : c) {
+			retval = add(s) ? true : retval;
+		}
+		return retval;
+	}
+
+	@Override
+	public void clear() {
+		table.clear();
+	}
+
+	@Override
+	public boolean contains(Object o) {
+		return contains(BytesUtil.toBytes(o.toString()));
+	}
+
+	@Override
+	public boolean contains(byte[] o, int offset, int length) {
+		return table.contains(o, offset, length);
+	}
+
+	@Override
+	public boolean containsAll(Collection<?> c) {
+		for (Object o : c) {
+			if (!contains(o)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public boolean isEmpty() {
+		return table.size() == 0;
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return remove(BytesUtil.toBytes(o.toString()));
+	}
+
+	@Override
+	public boolean remove(byte[] o, int offset, int length) {
+		return table.remove(o, offset, length) != null;
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		boolean retval = false;
+		for (Object s : c) {
+			retval = remove(s) ? true : retval;
+		}
+		return retval;
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		List<String> removed = new ArrayList<String>();
+		for (String s : this) {
+			if (!c.contains(s)) {
+				removed.add(s);
+			}
+		}
+		return removeAll(removed);
+	}
+
+	@Override
+	public int size() {
+		return table.size();
+	}
+
+	/**
+	 * Gets the number of bytes allocated outside the heap for this set.
+	 */
+	@Override
+	public long memoryUsed() {
+		return table.memoryUsed();
+	}
+
+	@Override
+	public Object[] toArray() {
+		return toList().toArray();
+	}
+
+	@Override
+	public <T> T[] toArray(T[] a) {
+		return toList().toArray(a);
+	}
+
+	private List<String> toList() {
+		List<String> list = new ArrayList<String>(size());
+		for (String s : this) {
+			list.add(s);
+		}
+		return list;
+	}
+
+	@Override
+	public Iterator<String> iterator() {
+		return new Iterator<String>() {
+			private OffHeapTable.SlotIterator slots = new OffHeapTable.SlotIterator(table);
+
+			@Override
+			public boolean hasNext() {
+				return slots.hasNext();
+			}
+
+			@Override
+			public String next() {
+				return BytesUtil.toString(table.keyAt(slots.next()));
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public Iterator<byte[]> bytesIterator() {
+		return new Iterator<byte[]>() {
+			private OffHeapTable.SlotIterator slots = new OffHeapTable.SlotIterator(table);
+
+			@Override
+			public boolean hasNext() {
+				return slots.hasNext();
+			}
+
+			@Override
+			public byte[] next() {
+				return table.keyAt(slots.next());
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	@Override
+	public void release() {
+		table.release();
+	}
+}
@@ -0,0 +1,23 @@
+package nimbus.storage;
+
+/**
+ * Stores data in {@link OffHeapTable}s, in direct memory outside the Java
+ * heap. Triples are stored on the heap.
+ */
+public class OffHeapStorageEngine extends IStorageEngine {
+
+	@Override
+	public StorageEngineType getType() {
+		return StorageEngineType.OFF_HEAP;
+	}
+
+	@Override
+	public ISetStore newSetStore() {
+		return new OffHeapSet();
+	}
+
+	@Override
+	public IMapStore newMapStore() {
+		return new OffHeapMap();
+	}
+}
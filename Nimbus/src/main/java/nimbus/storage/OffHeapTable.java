@@ -0,0 +1,426 @@
+package nimbus.storage;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An open addressing hash table whose keys and values live in direct
+ * ByteBuffers, outside the Java heap, so a large Cachelet adds nothing for the
+ * garbage collector to trace.<br>
+ * <br>
+ * The index is an array of twelve byte slots, each an int hash and the long
+ * address of a record. A hash of zero marks an empty slot. Collisions are
+ * resolved by linear probing, and removals shift the following slots back
+ * rather than leaving tombstones. The index doubles once it is three quarters
+ * full.<br>
+ * <br>
+ * Records are appended to slabs of {@link #SLAB_SIZE} bytes, as an int key
+ * length, the key, and for tables with values an int value length and the
+ * value. An address is the slab number in the high int and the offset in the
+ * low int. Replaced and removed records are left in place as garbage, and the
+ * live records are copied into new slabs once garbage is more than half of
+ * what is used.<br>
+ * <br>
+ * Tables are not thread safe. Lookups only read the buffers, so they may run
+ * at once, but updates must not run alongside anything else.
+ */
+class OffHeapTable {
+
+	static final int SLAB_SIZE = 1024 * 1024;
+
+	private static final int SLOT_SIZE = 12;
+	private static final int MIN_SLOTS = 16;
+	private static final int MAX_SLOTS = Integer.MAX_VALUE / SLOT_SIZE;
+	private static final byte[] EMPTY = new byte[0];
+
+	private final boolean hasValues;
+	private ByteBuffer index;
+	private int mask;
+	private int size = 0;
+	private List<ByteBuffer> slabs = new ArrayList<ByteBuffer>();
+	private long used = 0;
+	private long garbage = 0;
+
+	/**
+	 * @param hasValues
+	 *            True to store a value with each key, false for a set.
+	 */
+	OffHeapTable(boolean hasValues) {
+		this.hasValues = hasValues;
+		allocateIndex(MIN_SLOTS);
+	}
+
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes allocated for the index and slabs.
+	 */
+	long memoryUsed() {
+		long total = index.capacity();
+		for (ByteBuffer slab : slabs) {
+			total += slab.capacity();
+		}
+		return total;
+	}
+
+	boolean contains(byte[] key, int offset, int length) {
+		return find(key, offset, length, hash(key, offset, length)) >= 0;
+	}
+
+	/**
+	 * @return The value of the key, or null if it is not in the table.
+	 */
+	byte[] get(byte[] key, int offset, int length) {
+		int slot = find(key, offset, length, hash(key, offset, length));
+		return slot < 0 ? null : valueAt(slot);
+	}
+
+	/**
+	 * Adds the key if it is not already in the table.
+	 * 
+	 * @return True if the key was added.
+	 */
+	boolean insert(byte[] key, int offset, int length) {
+		int hash = hash(key, offset, length);
+		int slot = find(key, offset, length, hash);
+		if (slot >= 0) {
+			return false;
+		}
+
+		addSlot(hash, append(key, offset, length, null));
+		return true;
+	}
+
+	/**
+	 * Puts the key and value, replacing any value already in the table.
+	 * 
+	 * @return The old value, or null if the key was not in the table.
+	 */
+	byte[] put(byte[] key, byte[] value) {
+		int hash = hash(key, 0, key.length);
+		int slot = find(key, 0, key.length, hash);
+		if (slot < 0) {
+			addSlot(hash, append(key, 0, key.length, value));
+			return null;
+		}
+
+		byte[] old = valueAt(slot);
+		long address = addressAt(slot);
+		if (old.length == value.length) {
+			// the new value fits over the old one
+			ByteBuffer slab = slabs.get(slabOf(address)).duplicate();
+			slab.position(offsetOf(address) + 8 + key.length);
+			slab.put(value);
+		} else {
+			index.putLong(slot * SLOT_SIZE + 4, append(key, 0, key.length,
+					value));
+			garbage += recordSize(key.length, old.length);
+			compactIfNeeded();
+		}
+		return old;
+	}
+
+	/**
+	 * Removes the key.
+	 * 
+	 * @return The old value, an empty array for tables without values, or
+	 *         null if the key was not in the table.
+	 */
+	byte[] remove(byte[] key, int offset, int length) {
+		int slot = find(key, offset, length, hash(key, offset, length));
+		if (slot < 0) {
+			return null;
+		}
+
+		byte[] old = valueAt(slot);
+		garbage += recordSize(length, old.length);
+		removeSlot(slot);
+		compactIfNeeded();
+		return old;
+	}
+
+	/**
+	 * Removes every key, keeping the index and first slab.
+	 */
+	void clear() {
+		for (int i = 0; i <= mask; ++i) {
+			index.putInt(i * SLOT_SIZE, 0);
+		}
+
+		if (!slabs.isEmpty()) {
+			ByteBuffer first = slabs.get(0);
+			first.clear();
+			slabs.clear();
+			slabs.add(first);
+		}
+
+		size = 0;
+		used = 0;
+		garbage = 0;
+	}
+
+	/**
+	 * Drops the index and slabs. Their memory is returned once they are
+	 * garbage collected, and the table must not be used afterwards.
+	 */
+	void release() {
+		index = null;
+		slabs = null;
+		size = 0;
+	}
+
+	int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Gets the first filled slot at or after the given one.
+	 * 
+	 * @return The slot, or -1 if there are none.
+	 */
+	int nextSlot(int slot) {
+		for (; slot <= mask; ++slot) {
+			if (index.getInt(slot * SLOT_SIZE) != 0) {
+				return slot;
+			}
+		}
+		return -1;
+	}
+
+	byte[] keyAt(int slot) {
+		long address = addressAt(slot);
+		ByteBuffer slab = slabs.get(slabOf(address));
+		int pos = offsetOf(address);
+		return read(slab, pos + 4, slab.getInt(pos));
+	}
+
+	byte[] valueAt(int slot) {
+		if (!hasValues) {
+			return EMPTY;
+		}
+
+		long address = addressAt(slot);
+		ByteBuffer slab = slabs.get(slabOf(address));
+		int pos = offsetOf(address);
+		pos += 4 + slab.getInt(pos);
+		return read(slab, pos + 4, slab.getInt(pos));
+	}
+
+	private static byte[] read(ByteBuffer slab, int pos, int length) {
+		byte[] bytes = new byte[length];
+		for (int i = 0; i < length; ++i) {
+			bytes[i] = slab.get(pos + i);
+		}
+		return bytes;
+	}
+
+	private long addressAt(int slot) {
+		return index.getLong(slot * SLOT_SIZE + 4);
+	}
+
+	private static int slabOf(long address) {
+		return (int) (address >>> 32);
+	}
+
+	private static int offsetOf(long address) {
+		return (int) address;
+	}
+
+	private int recordSize(int keyLength, int valueLength) {
+		return 4 + keyLength + (hasValues ? 4 + valueLength : 0);
+	}
+
+	/**
+	 * Hashes the key, never returning zero, which marks an empty slot.
+	 */
+	private static int hash(byte[] key, int offset, int length) {
+		int h = 0;
+		for (int i = offset; i < offset + length; ++i) {
+			h = 31 * h + key[i];
+		}
+
+		// spread the bits, so the low ones used to pick a slot vary
+		h ^= h >>> 16;
+		h *= 0x85EBCA6B;
+		h ^= h >>> 13;
+		h *= 0xC2B2AE35;
+		h ^= h >>> 16;
+		return h == 0 ? 1 : h;
+	}
+
+	private int find(byte[] key, int offset, int length, int hash) {
+		int slot = hash & mask;
+		int h;
+		while ((h = index.getInt(slot * SLOT_SIZE)) != 0) {
+			if (h == hash && keyEquals(addressAt(slot), key, offset, length)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return -1;
+	}
+
+	private boolean keyEquals(long address, byte[] key, int offset, int length) {
+		ByteBuffer slab = slabs.get(slabOf(address));
+		int pos = offsetOf(address);
+		if (slab.getInt(pos) != length) {
+			return false;
+		}
+
+		pos += 4;
+		for (int i = 0; i < length; ++i) {
+			if (slab.get(pos + i) != key[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void addSlot(int hash, long address) {
+		if (size + 1 > (mask + 1) / 4 * 3) {
+			if (mask + 1 >= MAX_SLOTS / 2) {
+				throw new IllegalStateException("Table is full at " + size
+						+ " keys");
+			}
+			resize((mask + 1) * 2);
+		}
+
+		int slot = hash & mask;
+		while (index.getInt(slot * SLOT_SIZE) != 0) {
+			slot = (slot + 1) & mask;
+		}
+
+		index.putInt(slot * SLOT_SIZE, hash);
+		index.putLong(slot * SLOT_SIZE + 4, address);
+		++size;
+	}
+
+	/**
+	 * Empties the slot, then moves back any following slots that can no
+	 * longer be reached from their home slot.
+	 */
+	private void removeSlot(int slot) {
+		int hole = slot;
+		int next = (slot + 1) & mask;
+		int h;
+		while ((h = index.getInt(next * SLOT_SIZE)) != 0) {
+			int home = h & mask;
+			// move the slot back unless its home is after the hole
+			if (((next - home) & mask) >= ((next - hole) & mask)) {
+				index.putInt(hole * SLOT_SIZE, h);
+				index.putLong(hole * SLOT_SIZE + 4, addressAt(next));
+				hole = next;
+			}
+			next = (next + 1) & mask;
+		}
+
+		index.putInt(hole * SLOT_SIZE, 0);
+		--size;
+	}
+
+	private void allocateIndex(int slots) {
+		index = ByteBuffer.allocateDirect(slots * SLOT_SIZE);
+		mask = slots - 1;
+	}
+
+	private void resize(int slots) {
+		ByteBuffer old = index;
+		int oldSlots = mask + 1;
+		allocateIndex(slots);
+		size = 0;
+
+		for (int i = 0; i < oldSlots; ++i) {
+			int h = old.getInt(i * SLOT_SIZE);
+			if (h != 0) {
+				addSlot(h, old.getLong(i * SLOT_SIZE + 4));
+			}
+		}
+	}
+
+	/**
+	 * Appends a record to the last slab, starting a new one if it is full.
+	 * 
+	 * @return The address of the record.
+	 */
+	private long append(byte[] key, int offset, int length, byte[] value) {
+		int recordSize = recordSize(length, value == null ? 0 : value.length);
+		ByteBuffer slab = slabs.isEmpty() ? null : slabs.get(slabs.size() - 1);
+		if (slab == null || slab.remaining() < recordSize) {
+			slab = ByteBuffer.allocateDirect(Math.max(SLAB_SIZE, recordSize));
+			slabs.add(slab);
+		}
+
+		long address = ((long) (slabs.size() - 1) << 32) | slab.position();
+		slab.putInt(length);
+		slab.put(key, offset, length);
+		if (hasValues) {
+			slab.putInt(value.length);
+			slab.put(value);
+		}
+
+		used += recordSize;
+		return address;
+	}
+
+	/**
+	 * Copies the live records into new slabs if more than half of what is
+	 * used is garbage.
+	 */
+	private void compactIfNeeded() {
+		if (used < SLAB_SIZE || garbage * 2 < used) {
+			return;
+		}
+
+		List<ByteBuffer> old = slabs;
+		slabs = new ArrayList<ByteBuffer>();
+		used = 0;
+		garbage = 0;
+
+		for (int slot = nextSlot(0); slot >= 0; slot = nextSlot(slot + 1)) {
+			long address = addressAt(slot);
+			ByteBuffer slab = old.get(slabOf(address));
+			int pos = offsetOf(address);
+			int keyLength = slab.getInt(pos);
+			byte[] key = read(slab, pos + 4, keyLength);
+			byte[] value = null;
+			if (hasValues) {
+				pos += 4 + keyLength;
+				value = read(slab, pos + 4, slab.getInt(pos));
+			}
+			index.putLong(slot * SLOT_SIZE + 4, append(key, 0, keyLength,
+					value));
+		}
+	}
+
+	/**
+	 * Walks the filled slots of a table.
+	 */
+	static class SlotIterator {
+
+		private OffHeapTable table;
+		private int next;
+
+		SlotIterator(OffHeapTable table) {
+			this.table = table;
+			this.next = table.nextSlot(0);
+		}
+
+		boolean hasNext() {
+			return next >= 0;
+		}
+
+		int next() {
+			if (next < 0) {
+				throw new NoSuchElementException();
+			}
+
+			int slot = next;
+			next = table.nextSlot(slot + 1);
+			return slot;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+package nimbus.storage;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+import nimbus.main.NimbusConf;
+import nimbus.master.CacheInfo;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Holds the {@link IStorageEngine} of each {@link StorageEngineType} and picks
+ * the one a Cache uses. An engine set in the Cache's {@link CacheInfo} when it
+ * was created takes precedence over
+ * {@link NimbusConf#getStorageEngineType(String)}.<br>
+ * <br>
+ * Each type starts with its built-in engine. Registering another engine under
+ * a type replaces it for every Cache created afterwards.
+ */
+public class StorageEngineRegistry {
+
+	private static final Logger LOG = Logger
+			.getLogger(StorageEngineRegistry.class);
+
+	private static final Map<StorageEngineType, IStorageEngine> s_engines = new EnumMap<StorageEngineType, IStorageEngine>(
+			StorageEngineType.class);
+
+	static {
+		register(new NativeStorageEngine());
+		register(new OffHeapStorageEngine());
+		register(new HeapStorageEngine());
+	}
+
+	private StorageEngineRegistry() {
+	}
+
+	/**
+	 * Registers the given engine under its type, replacing the engine already
+	 * registered there.
+	 * 
+	 * @param engine
+	 *            The engine.
+	 */
+	public static synchronized void register(IStorageEngine engine) {
+		s_engines.put(engine.getType(), engine);
+	}
+
+	/**
+	 * Gets the engine registered under the given type.
+	 * 
+	 * @param type
+	 *            The type.
+	 * @return The engine.
+	 */
+	public static synchronized IStorageEngine getEngine(StorageEngineType type) {
+		return s_engines.get(type);
+	}
+
+	/**
+	 * Gets the engine of the given Cache.
+	 * 
+	 * @param info
+	 *            The Cache information.
+	 * @return The engine set in the information, or else the configured one.
+	 */
+	public static IStorageEngine getEngine(CacheInfo info) {
+		StorageEngineType type = info.getStorageEngine();
+		if (type == null) {
+			type = NimbusConf.getConf().getStorageEngineType(info.getName());
+		}
+
+		LOG.info("Cache " + info.getName() + " is stored in the " + type
+				+ " storage engine");
+		return getEngine(type);
+	}
+}
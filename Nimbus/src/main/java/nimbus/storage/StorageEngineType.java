@@ -0,0 +1,26 @@
+package nimbus.storage;
+
+/**
+ * Where a Cachelet keeps its data. Chosen per Cache by
+ * {@link StorageEngineRegistry#getEngine(nimbus.master.CacheInfo)}.
+ */
+public enum StorageEngineType {
+	/**
+	 * C++ std::set and std::map structures behind JNI. Requires the
+	 * NativeNimbus library. See {@link nimbus.nativestructs.CSet} and
+	 * {@link nimbus.nativestructs.CMap}
+	 */
+	NATIVE,
+
+	/**
+	 * Pure Java hash tables in direct ByteBuffers outside the Java heap. See
+	 * {@link OffHeapSet} and {@link OffHeapMap}
+	 */
+	OFF_HEAP,
+
+	/**
+	 * java.util collections on the Java heap. See {@link HeapSet} and
+	 * {@link HeapMap}
+	 */
+	ON_HEAP
+}
@@ -1,21 +1,26 @@
 package nimbus.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
 import java.security.InvalidParameterException;
 
 /**
- * A big bit array is internally represented as a byte array, but has functions
- * to flip bits inside the byte array. The BigBitArray must be initializes to a
- * multiple of eight, as there are eight bits in a byte array.
+ * A big bit array is internally represented as a {@link PagedLongArray}, but
+ * has functions to flip bits inside the array and is converted to and from a
+ * byte array with bit i at bit i % 8 of byte i / 8. Bits are indexed by a long,
+ * so the array is not limited to the 2^31 bytes of a single Java array. The
+ * BigBitArray must be initializes to a multiple of eight, as there are eight
+ * bits in a byte.
  */
 public class BigBitArray {
 
 	private static final long NUM_BITS = 8;
-	private static final byte[] mask = { 0x01, 0x02, 0x04, 0x08, 0x10, 0x20,
-			0x40, (byte) 0x80 };
 
 	private long arrayLength = -1;
 	private long trueSize = -1;
-	private byte[] bytes = null;
+	private PagedLongArray words = null;
 
 	/**
 	 * Initializes a new instance of a BigBitArray based on the given size.
@@ -28,20 +33,18 @@ public class BigBitArray {
 	 */
 	public BigBitArray(long size) {
 		setSize(size);
-		bytes = new byte[(int) arrayLength];
+		words = new PagedLongArray(PagedLongArray.wordsForBytes(arrayLength));
 	}
 
 	/**
-	 * Initializes a Bloom filter based on the given array. The given array is
-	 * NOT cloned to cut down on memory usage.
+	 * Initializes a bit array with the bits of the given array, which is
+	 * copied.
 	 * 
 	 * @param array
-	 *            An array to use for this Bloom filter.
+	 *            An array to use for this bit array.
 	 */
 	public BigBitArray(byte[] array) {
-		bytes = array;
-		arrayLength = bytes.length;
-		trueSize = bytes.length * NUM_BITS;
+		setBytes(array);
 	}
 
 	/**
@@ -58,16 +61,14 @@ public class BigBitArray {
 	 * Sets all the bits in the byte array to zero.
 	 */
 	public void reset() {
-		for (int i = 0; i < bytes.length; ++i) {
-			bytes[i] = 0;
-		}
+		words.reset();
 	}
 
 	/**
-	 * Sets the filter's internal byte array to null.
+	 * Sets the filter's internal array to null.
 	 */
 	public void clear() {
-		bytes = null;
+		words = null;
 	}
 
 	/**
@@ -80,9 +81,9 @@ public class BigBitArray {
 	 * @param desiredFalsePosRate
 	 *            The desired false positive rate.
 	 */
-	public void reset(int size) {
+	public void reset(long size) {
 		setSize(size);
-		bytes = new byte[(int) arrayLength];
+		words = new PagedLongArray(PagedLongArray.wordsForBytes(arrayLength));
 	}
 
 	/**
@@ -121,9 +122,7 @@ public class BigBitArray {
 			throw new ArrayIndexOutOfBoundsException();
 		}
 
-		int TBOarrayIndex = (int) (trueIndex / NUM_BITS);
-		int TBObitIndex = (int) (trueIndex % NUM_BITS);
-		bytes[TBOarrayIndex] = (byte) (bytes[TBOarrayIndex] | mask[TBObitIndex]);
+		words.or(trueIndex >>> 6, 1L << trueIndex);
 	}
 
 	/**
@@ -139,11 +138,7 @@ public class BigBitArray {
 		if (trueIndex >= trueSize || trueIndex < 0) {
 			throw new ArrayIndexOutOfBoundsException();
 		}
-		if (isBitOn(trueIndex)) {
-			int TBOarrayIndex = (int) (trueIndex / NUM_BITS);
-			int TBObitIndex = (int) (trueIndex % NUM_BITS);
-			bytes[TBOarrayIndex] = (byte) (bytes[TBOarrayIndex] ^ mask[TBObitIndex]);
-		}
+		words.andNot(trueIndex >>> 6, 1L << trueIndex);
 	}
 
 	/**
@@ -161,29 +156,49 @@ public class BigBitArray {
 			throw new ArrayIndexOutOfBoundsException();
 		}
 
-		return (bytes[(int) (i / NUM_BITS)] & (1 << (i % NUM_BITS))) != 0;
+		return (words.get(i >>> 6) & (1L << i)) != 0;
 	}
 
 	/**
-	 * Clones the given array and sets it to the internal byte array. Sizes
-	 * itself appropriately off of the given array.
+	 * Copies the given array into the internal array. Sizes itself
+	 * appropriately off of the given array.
 	 * 
 	 * @param bytes
-	 *            The array to clone.
+	 *            The array to copy.
 	 */
 	public void setBytes(byte[] bytes) {
-		this.bytes = bytes.clone();
 		arrayLength = bytes.length;
 		trueSize = bytes.length * NUM_BITS;
+		words = new PagedLongArray(PagedLongArray.wordsForBytes(arrayLength));
+		try {
+			words.readFully(new ByteArrayInputStream(bytes), arrayLength,
+					ByteOrder.LITTLE_ENDIAN);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
-	 * Gets a clone of the internal byte array.
+	 * Gets a copy of the bits as a byte array.
 	 * 
 	 * @return The bytes.
+	 * @throws IllegalStateException
+	 *             If there are too many bits for a single byte array.
 	 */
 	public byte[] getBytes() {
-		return bytes.clone();
+		if (arrayLength > Integer.MAX_VALUE) {
+			throw new IllegalStateException(arrayLength
+					+ " bytes do not fit in a byte array");
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(
+				(int) arrayLength);
+		try {
+			words.writeTo(out, arrayLength, ByteOrder.LITTLE_ENDIAN);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return out.toByteArray();
 	}
 
 	/**
@@ -212,10 +227,9 @@ public class BigBitArray {
 
 		arrayLength = size / NUM_BITS;
 		trueSize = size;
-		;
 	}
 
-	public void set(int i, boolean on) {
+	public void set(long i, boolean on) {
 		if (on) {
 			this.turnBitOn(i);
 		} else {
@@ -0,0 +1,250 @@
+package nimbus.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import nimbus.main.NimbusConf;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * A Bloom filter split into 512 bit blocks, the size of a cache line. Each key
+ * is hashed once with the 128-bit {@link Murmur3Hash}. The first half of the
+ * hash picks the key's block, and every bit the key sets is picked from the
+ * second half by double hashing, so all of its bits are in that one block.
+ * Training or testing a key costs one hash and touches one cache line, where a
+ * {@link BloomFilter} runs 11 hash functions over the key and touches a line
+ * for each of them.<br>
+ * <br>
+ * Keeping the bits together makes the false positive rate a little higher than
+ * a {@link BloomFilter} of the same size, as some blocks get more keys than
+ * others. The filter is sized with the same formula, so the difference is
+ * small at the usual rates.<br>
+ * <br>
+ * The blocks are stored in a {@link PagedLongArray}, eight words to a block,
+ * so a block never spans two pages, or read in place from a
+ * {@link MappedLongArray}. The largest filter has 2^31 - 1 blocks, or
+ * 128 GB of bits.<br>
+ * <br>
+ * Serialized, the filter is the {@link IBloomFilter#MAGIC} int, the
+ * {@link IBloomFilter#BLOCKED_CRC_VERSION} byte, the number of hashes per key
+ * and the number of blocks as ints, every word as a big-endian long, and the
+ * CRC32 of all the bytes before it as an int. Files with the
+ * {@link IBloomFilter#BLOCKED_VERSION} byte have no CRC32 and are still read.
+ */
+public class BlockedBloomFilter extends IBloomFilter {
+
+	private static final Logger LOG = Logger
+			.getLogger(BlockedBloomFilter.class);
+	private static final int BLOCK_BITS = 512;
+	private static final int BLOCK_WORDS = BLOCK_BITS / 64;
+	private static final int MAX_BLOCKS = Integer.MAX_VALUE;
+	private static final int MAX_HASHES = 16;
+	private static final long SEED = 0x124feac3L;
+	static final int HEADER_BYTES = 13;
+
+	private int numHashes = 0;
+	private int numBlocks = 0;
+	private ILongArray words = null;
+
+	/**
+	 * Initializes a new instance of a Bloom filter based on the given size and
+	 * desired false positive rate.
+	 * 
+	 * @param approxNumRecords
+	 *            The number of records that are most likely going to be used to
+	 *            train this filter.
+	 * @param desiredFalsePosRate
+	 *            The desired false positive rate.
+	 */
+	public BlockedBloomFilter(int approxNumRecords, float desiredFalsePosRate) {
+		setSize(approxNumRecords, desiredFalsePosRate);
+		words = new PagedLongArray((long) numBlocks * BLOCK_WORDS);
+	}
+
+	/**
+	 * Reads a filter from the given stream, positioned just past the version
+	 * byte. The stream must end with the filter.
+	 * 
+	 * @param crc
+	 *            The checksum of every byte read from the stream, checked
+	 *            against the end of the file for
+	 *            {@link IBloomFilter#BLOCKED_CRC_VERSION}.
+	 */
+	BlockedBloomFilter(DataInputStream in, Path p, int version, CRC32 crc)
+			throws IOException {
+		readHeader(in, p);
+
+		PagedLongArray paged = new PagedLongArray((long) numBlocks
+				* BLOCK_WORDS);
+		paged.readFully(in, paged.length() * 8, ByteOrder.BIG_ENDIAN);
+		words = paged;
+
+		if (version == BLOCKED_CRC_VERSION) {
+			checkCrc(in, crc, p.toString());
+		}
+		if (in.read() != -1) {
+			throw new IOException("Bloom filter " + p
+					+ " is longer than its header says");
+		}
+
+		LOG.info("Deserialized " + numBlocks + " blocks with " + numHashes
+				+ " hashes from " + p);
+	}
+
+	/**
+	 * Maps a filter file read-only, positioned just past the version byte.
+	 */
+	BlockedBloomFilter(DataInputStream in, File file) throws IOException {
+		readHeader(in, new Path(file.toURI()));
+		words = new MappedLongArray(file, HEADER_BYTES, (long) numBlocks
+				* BLOCK_WORDS * 8, ByteOrder.BIG_ENDIAN);
+	}
+
+	/**
+	 * Gets the length of a serialized filter with the given number of blocks.
+	 */
+	static long serializedLength(long numBlocks, int version)
+			throws IOException {
+		switch (version) {
+		case BLOCKED_VERSION:
+			return HEADER_BYTES + numBlocks * BLOCK_WORDS * 8;
+		case BLOCKED_CRC_VERSION:
+			return HEADER_BYTES + numBlocks * BLOCK_WORDS * 8 + 4;
+		default:
+			throw new IOException("Unknown Bloom filter version " + version);
+		}
+	}
+
+	/**
+	 * Reads the CRC32 at the end of a filter and checks it against the one
+	 * computed over every byte before it.
+	 */
+	static void checkCrc(DataInputStream in, CRC32 crc, String name)
+			throws IOException {
+		int actual = (int) crc.getValue();
+		int expected = in.readInt();
+		if (actual != expected) {
+			throw new IOException("Bloom filter " + name
+					+ " failed its checksum");
+		}
+	}
+
+	private void readHeader(DataInputStream in, Path p) throws IOException {
+		numHashes = in.readInt();
+		numBlocks = in.readInt();
+		if (numHashes < 1 || numHashes > MAX_HASHES || numBlocks < 1
+				|| numBlocks > MAX_BLOCKS) {
+			throw new IOException("Bad Bloom filter header in " + p + ": "
+					+ numHashes + " hashes, " + numBlocks + " blocks");
+		}
+	}
+
+	@Override
+	public long size() {
+		return (long) numBlocks * BLOCK_BITS;
+	}
+
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	@Override
+	public void train(String key) {
+		long[] hash = new long[2];
+		Murmur3Hash.hash128(key, SEED, hash);
+
+		long block = (long) block(hash[0]) * BLOCK_WORDS;
+		int bit = (int) hash[1];
+		int delta = (int) (hash[1] >>> 32) | 1;
+		for (int i = 0; i < numHashes; ++i) {
+			words.or(block + ((bit >>> 6) & (BLOCK_WORDS - 1)), 1L << bit);
+			bit += delta;
+		}
+	}
+
+	@Override
+	public boolean membershipTest(String key) {
+		long[] hash = new long[2];
+		Murmur3Hash.hash128(key, SEED, hash);
+
+		long block = (long) block(hash[0]) * BLOCK_WORDS;
+		int bit = (int) hash[1];
+		int delta = (int) (hash[1] >>> 32) | 1;
+		for (int i = 0; i < numHashes; ++i) {
+			long word = words.get(block + ((bit >>> 6) & (BLOCK_WORDS - 1)));
+			if ((word & (1L << bit)) == 0) {
+				return false;
+			}
+			bit += delta;
+		}
+		return true;
+	}
+
+	@Override
+	public void reset() {
+		words.reset();
+	}
+
+	@Override
+	public void clear() {
+		words = null;
+	}
+
+	@Override
+	public void serialize(Path p) throws IOException {
+		FSDataOutputStream fsOut = FileSystem.get(NimbusConf.getConf())
+				.create(p);
+		CRC32 crc = new CRC32();
+		DataOutputStream wrtr = new DataOutputStream(new CheckedOutputStream(
+				new BufferedOutputStream(fsOut), crc));
+		wrtr.writeInt(MAGIC);
+		wrtr.writeByte(BLOCKED_CRC_VERSION);
+		wrtr.writeInt(numHashes);
+		wrtr.writeInt(numBlocks);
+
+		words.writeTo(wrtr, words.length() * 8, ByteOrder.BIG_ENDIAN);
+		wrtr.writeInt((int) crc.getValue());
+		wrtr.flush();
+		wrtr.close();
+		LOG.info("Serialized " + numBlocks + " blocks with " + numHashes
+				+ " hashes to " + p);
+	}
+
+	/**
+	 * Maps the high 32 bits of the given hash onto a block, with a multiply
+	 * rather than a division.
+	 */
+	private int block(long hash) {
+		return (int) (((hash >>> 32) * numBlocks) >>> 32);
+	}
+
+	/**
+	 * Helper function to set member variables based on the given parameters.
+	 * 
+	 * @param approxNumRecords
+	 * @param desiredFalsePosRate
+	 */
+	private void setSize(int approxNumRecords, float desiredFalsePosRate) {
+		approxNumRecords = Math.max(approxNumRecords, 1);
+		double bits = -approxNumRecords * Math.log(desiredFalsePosRate)
+				/ Math.pow(Math.log(2), 2);
+		numBlocks = (int) Math.min(MAX_BLOCKS,
+				Math.max(1, Math.ceil(bits / BLOCK_BITS)));
+		numHashes = (int) Math.round((double) numBlocks * BLOCK_BITS
+				/ approxNumRecords * Math.log(2));
+		numHashes = Math.min(MAX_HASHES, Math.max(1, numHashes));
+		LOG.info("Setting blocked Bloom filter size for " + approxNumRecords
+				+ " records w/ " + desiredFalsePosRate + " false pos rate to "
+				+ numBlocks + " blocks and " + numHashes + " hashes");
+	}
+}
@@ -1,6 +1,11 @@
 package nimbus.utils;
 
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteOrder;
 
 import nimbus.main.NimbusConf;
 
@@ -23,28 +28,32 @@ import org.apache.log4j.Logger;
  * <br>
  * 
  * This implementation of a Bloom filter uses 11 different hash functions to
- * turn bits of a byte array on when training. It requires the approximate
+ * turn bits of a {@link PagedLongArray} on when training. It requires the approximate
  * number of records and the desired false positive rate during initialization.
  * The Bloom filter can also be given a {@link Path} to a serialized Bloom
  * filter in HDFS, or a byte array to clone.<br>
  * <br>
  * 
- * The theoretical largest size of a Bloom filter is about 17.18 billion bits,
- * which uses about 2 GB of raw memory. A Bloom filter of this size is optimal
- * for a set that contains about 1.196 billion members.
+ * Bits are indexed by a long and stored in pages, so the filter is not limited
+ * to the 2 GB of a single Java array and keeps its false positive rate for sets
+ * of several billion members. It is serialized as its length in bytes followed
+ * by the bytes, with bit i at bit i % 8 of byte i / 8, which is how filters
+ * backed by a byte array were written.<br>
+ * <br>
+ * 
+ * See {@link BlockedBloomFilter} for a faster filter. This one is kept so
+ * filters serialized before it existed can still be read.
  */
-public class BloomFilter {
+public class BloomFilter extends IBloomFilter {
 
 	private static final Logger LOG = Logger.getLogger(BloomFilter.class);
 	private static final long NUM_BITS = 8;
-	private static final byte[] mask = { 0x01, 0x02, 0x04, 0x08, 0x10, 0x20,
-			0x40, (byte) 0x80 };
 	private static final int NUM_HASHES = 11;
 	private static HashFunctionLibrary LIBRARY = null;
 
 	private long arrayLength = -1;
 	private long trueSize = -1;
-	private byte[] bytes = null;
+	private ILongArray words = null;
 
 	/**
 	 * Initializes a new instance of a Bloom filter based on the given size and
@@ -59,21 +68,28 @@ public class BloomFilter {
 	public BloomFilter(int approxNumRecords, float desiredFalsePosRate) {
 		LIBRARY = new HashFunctionLibrary();
 		setSize(approxNumRecords, desiredFalsePosRate);
-		bytes = new byte[(int) arrayLength];
+		words = new PagedLongArray(PagedLongArray.wordsForBytes(arrayLength));
 	}
 
 	/**
-	 * Initializes a Bloom filter based on the given array. The given array is
-	 * NOT cloned to cut down on memory usage.
+	 * Initializes a Bloom filter based on the given array, which is copied.
 	 * 
 	 * @param array
 	 *            An array to use for this Bloom filter.
 	 */
 	public BloomFilter(byte[] array) {
 		LIBRARY = new HashFunctionLibrary();
-		bytes = array;
-		arrayLength = bytes.length;
-		trueSize = bytes.length * NUM_BITS;
+		arrayLength = array.length;
+		trueSize = array.length * NUM_BITS;
+		PagedLongArray paged = new PagedLongArray(
+				PagedLongArray.wordsForBytes(arrayLength));
+		words = paged;
+		try {
+			paged.readFully(new ByteArrayInputStream(array), arrayLength,
+					ByteOrder.LITTLE_ENDIAN);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
 	}
 
 	/**
@@ -92,22 +108,45 @@ public class BloomFilter {
 	}
 
 	/**
-	 * Returns the "true" size of this Bloom filter, i.e. the length of the
-	 * internal byte array times 8.
+	 * Maps a filter file read-only. The filter cannot be trained or reset.
+	 * 
+	 * @param file
+	 *            A local file that contains a serialized Bloom filter.
+	 * @throws IOException
+	 *             If the file cannot be read.
+	 */
+	BloomFilter(File file) throws IOException {
+		LIBRARY = new HashFunctionLibrary();
+		DataInputStream in = new DataInputStream(new FileInputStream(file));
+		try {
+			arrayLength = in.readLong();
+		} finally {
+			in.close();
+		}
+		trueSize = arrayLength * NUM_BITS;
+		words = new MappedLongArray(file, 8, arrayLength,
+				ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Returns the "true" size of this Bloom filter, i.e. its length in bytes
+	 * times 8.
 	 * 
 	 * @return "True" size of the filter.
 	 */
+	@Override
 	public long size() {
 		return trueSize;
 	}
 
 	/**
 	 * Trains the given key for the filter. Iterates over all the hash
-	 * algorithms and turns the appropriate bit on in the byte array.
+	 * algorithms and turns the appropriate bit on.
 	 * 
 	 * @param key
 	 *            The key to train.
 	 */
+	@Override
 	public void train(String key) {
 		for (int i = 0; i < NUM_HASHES; ++i) {
 			turnBitOn(hash(key, i));
@@ -124,6 +163,7 @@ public class BloomFilter {
 	 *            The key to test
 	 * @return Whether or not the key is a possible member of the set.
 	 */
+	@Override
 	public boolean membershipTest(String key) {
 		long hash;
 		for (int i = 0; i < NUM_HASHES; ++i) {
@@ -142,19 +182,19 @@ public class BloomFilter {
 	}
 
 	/**
-	 * Sets all the bits in the byte array to zero.
+	 * Sets all the bits to zero.
 	 */
+	@Override
 	public void reset() {
-		for (int i = 0; i < bytes.length; ++i) {
-			bytes[i] = 0;
-		}
+		words.reset();
 	}
 
 	/**
-	 * Sets the filter's internal byte array to null.
+	 * Sets the filter's internal array to null.
 	 */
+	@Override
 	public void clear() {
-		bytes = null;
+		words = null;
 	}
 
 	/**
@@ -169,8 +209,8 @@ public class BloomFilter {
 	 */
 	public void reset(int approxNumRecords, float desiredFalsePosRate) {
 		setSize(approxNumRecords, desiredFalsePosRate);
-		bytes = null;
-		bytes = new byte[(int) arrayLength];
+		words = null;
+		words = new PagedLongArray(PagedLongArray.wordsForBytes(arrayLength));
 	}
 
 	/**
@@ -180,11 +220,12 @@ public class BloomFilter {
 	 * @param p
 	 * @throws IOException
 	 */
+	@Override
 	public void serialize(Path p) throws IOException {
 		FSDataOutputStream wrtr = FileSystem.get(NimbusConf.getConf())
 				.create(p);
 		wrtr.writeLong(arrayLength);
-		wrtr.write(bytes);
+		words.writeTo(wrtr, arrayLength, ByteOrder.LITTLE_ENDIAN);
 		wrtr.flush();
 		wrtr.close();
 		LOG.info("Serialized " + arrayLength + " to " + p);
@@ -197,28 +238,30 @@ public class BloomFilter {
 	 * @param p
 	 *            A Path to a filter that contains a serializes filter.
 	 * @throws IOException
-	 *             If an error occurs, most likely the file is not found.
+	 *             If an error occurs, most likely the file is not found, or
+	 *             the file is not as long as its header says.
 	 */
 	public void deserialize(Path p) throws IOException {
 		FSDataInputStream rdr = FileSystem.get(NimbusConf.getConf()).open(p);
 		arrayLength = rdr.readLong();
 		trueSize = arrayLength * NUM_BITS;
-		bytes = null;
-		bytes = new byte[(int) arrayLength];
-		int c = 0;
-		int numrecords = 0;
-		for (int i = 0; i < arrayLength; ++i) {
-			c = rdr.read();
-			if (c == -1) {
-				break;
+		words = null;
+		PagedLongArray paged = new PagedLongArray(
+				PagedLongArray.wordsForBytes(arrayLength));
+		long numrecords;
+		try {
+			numrecords = paged.readFrom(rdr, arrayLength,
+					ByteOrder.LITTLE_ENDIAN);
+			if (numrecords != arrayLength || rdr.read() != -1) {
+				throw new IOException("Bloom filter " + p + " is not "
+						+ arrayLength + " bytes long as its header says");
 			}
-
-			bytes[i] = (byte) c;
-			++numrecords;
+		} finally {
+			rdr.close();
 		}
-		rdr.close();
+		words = paged;
 		LOG.info("Deserialized " + numrecords + " bytes from " + p
-				+ " into an array of size " + bytes.length);
+				+ " into an array of size " + arrayLength);
 	}
 
 	/**
@@ -303,8 +346,7 @@ public class BloomFilter {
 	private void setSize(int approxNumRecords, float desiredFalsePosRate) {
 		long size = (long) (-approxNumRecords * Math.log(desiredFalsePosRate) / (Math
 				.pow(Math.log(2), 2)));
-		size = (size + size % NUM_BITS) / NUM_BITS;
-		arrayLength = size > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) size;
+		arrayLength = (size + size % NUM_BITS) / NUM_BITS;
 		trueSize = arrayLength * NUM_BITS;
 		LOG.info("Setting Bloom filter size for " + approxNumRecords
 				+ " records w/ " + desiredFalsePosRate + " false pos rate to "
@@ -321,19 +363,13 @@ public class BloomFilter {
 	 *             If the bit is not between 0 and {@link BloomFilter#size()} -
 	 *             1.
 	 */
-	// These variables are here to prevent them from being declared inside the
-	// method, seeing as how this is going to be called many, many of times
-	private int TBOarrayIndex, TBObitIndex;
-
 	private void turnBitOn(long trueIndex)
 			throws ArrayIndexOutOfBoundsException {
 		if (trueIndex >= trueSize || trueIndex < 0) {
 			throw new ArrayIndexOutOfBoundsException();
 		}
 
-		TBOarrayIndex = (int) (trueIndex / NUM_BITS);
-		TBObitIndex = (int) (trueIndex % NUM_BITS);
-		bytes[TBOarrayIndex] = (byte) (bytes[TBOarrayIndex] | mask[TBObitIndex]);
+		words.or(trueIndex >>> 6, 1L << trueIndex);
 	}
 
 	/**
@@ -351,7 +387,7 @@ public class BloomFilter {
 			throw new ArrayIndexOutOfBoundsException();
 		}
 
-		return (bytes[(int) (i / NUM_BITS)] & (1 << (i % NUM_BITS))) != 0;
+		return (words.get(i >>> 6) & (1L << i)) != 0;
 	}
 
 	/*
@@ -0,0 +1,157 @@
+package nimbus.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteOrder;
+
+/**
+ * A client's copy of a Cachelet's {@link CountingBloomFilter}, one bit per
+ * counter, brought up to date by the updates the filter writes. A replica
+ * that has never been updated may contain every key.<br>
+ * <br>
+ * The replica is only as recent as its last update, so it can answer that a
+ * key is not in the set when the key was added since. Keys added through the
+ * client that owns the replica can be trained into it straight away, so the
+ * client always finds its own additions.
+ */
+public class BloomFilterReplica {
+
+	private int numHashes = 0;
+	private int numBlocks = 0;
+	private long epoch = 0;
+	private long version = -1;
+	private PagedLongArray bits = null;
+	private long[] hash = new long[2];
+
+	public long getEpoch() {
+		return epoch;
+	}
+
+	/**
+	 * Gets the version of the filter at the last update, or -1 if the replica
+	 * has never been updated.
+	 */
+	public long getVersion() {
+		return version;
+	}
+
+	/**
+	 * Applies an update written by
+	 * {@link CountingBloomFilter#writeUpdate(long, long)}.
+	 *
+	 * @param update
+	 *            The update.
+	 * @throws IOException
+	 *             If the update is corrupt, or is a delta against a different
+	 *             filter.
+	 */
+	public void apply(byte[] update) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				update));
+		int type = in.readUnsignedByte();
+		long newEpoch = in.readLong();
+		long newVersion = in.readLong();
+		int newNumHashes = in.readInt();
+		int newNumBlocks = in.readInt();
+		if (newNumHashes < 1 || newNumHashes > CountingBloomFilter.MAX_HASHES
+				|| newNumBlocks < 1
+				|| newNumBlocks > CountingBloomFilter.MAX_BLOCKS) {
+			throw new IOException("Bad filter update header: " + newNumHashes
+					+ " hashes, " + newNumBlocks + " blocks");
+		}
+
+		long numBits = (long) newNumBlocks * CountingBloomFilter.BLOCK_COUNTERS;
+		switch (type) {
+		case CountingBloomFilter.FULL_UPDATE:
+			PagedLongArray newBits = new PagedLongArray(numBits / 64);
+			newBits.readFully(in, numBits / 8, ByteOrder.BIG_ENDIAN);
+			bits = newBits;
+			break;
+		case CountingBloomFilter.DELTA_UPDATE:
+			if (bits == null || newEpoch != epoch
+					|| newNumBlocks != numBlocks) {
+				throw new IOException("Filter update is not for this replica");
+			}
+
+			long count = VarInt.readUnsignedVarLong(in);
+			long bit = 0;
+			for (long i = 0; i < count; ++i) {
+				long change = VarInt.readUnsignedVarLong(in);
+				bit += change >>> 1;
+				if (bit >= numBits) {
+					throw new IOException("Filter update changes bit " + bit
+							+ " of " + numBits);
+				}
+
+				if ((change & 1) != 0) {
+					bits.or(bit >>> 6, 1L << bit);
+				} else {
+					bits.andNot(bit >>> 6, 1L << bit);
+				}
+			}
+			break;
+		default:
+			throw new IOException("Unknown filter update type " + type);
+		}
+
+		if (in.read() != -1) {
+			throw new IOException(
+					"Filter update is longer than its header says");
+		}
+
+		numHashes = newNumHashes;
+		numBlocks = newNumBlocks;
+		epoch = newEpoch;
+		version = newVersion;
+	}
+
+	/**
+	 * Turns on the bits of a key, given as UTF-8 bytes, ahead of the next
+	 * update. Does nothing if the replica has never been updated.
+	 */
+	public void train(byte[] key) {
+		if (bits == null) {
+			return;
+		}
+
+		Murmur3Hash.hash128(key, 0, key.length, CountingBloomFilter.SEED, hash);
+
+		long first = (long) CountingBloomFilter.block(hash[0], numBlocks)
+				* CountingBloomFilter.BLOCK_COUNTERS;
+		int bit = (int) hash[1];
+		int delta = (int) (hash[1] >>> 32) | 1;
+		for (int i = 0; i < numHashes; ++i) {
+			long b = first + (bit & (CountingBloomFilter.BLOCK_COUNTERS - 1));
+			bits.or(b >>> 6, 1L << b);
+			bit += delta;
+		}
+	}
+
+	/**
+	 * Tests for a key, given as UTF-8 bytes.
+	 *
+	 * @return False if the key was not in the set at the last update and has
+	 *         not been trained since.
+	 */
+	public boolean membershipTest(byte[] key) {
+		if (bits == null) {
+			return true;
+		}
+
+		Murmur3Hash.hash128(key, 0, key.length, CountingBloomFilter.SEED, hash);
+
+		long first = (long) CountingBloomFilter.block(hash[0], numBlocks)
+				* CountingBloomFilter.BLOCK_COUNTERS;
+		int bit = (int) hash[1];
+		int delta = (int) (hash[1] >>> 32) | 1;
+		for (int i = 0; i < numHashes; ++i) {
+			long b = first + (bit & (CountingBloomFilter.BLOCK_COUNTERS - 1));
+			if ((bits.get(b >>> 6) & (1L << b)) == 0) {
+				return false;
+			}
+			bit += delta;
+		}
+		return true;
+	}
+}
@@ -0,0 +1,15 @@
+package nimbus.utils;
+
+public enum BloomFilterType {
+	/**
+	 * Represents the original Bloom filter, which sets bits anywhere in a byte
+	 * array with 11 string hash functions. See {@link BloomFilter}
+	 */
+	CLASSIC,
+
+	/**
+	 * Represents a Bloom filter that keeps each key's bits in a single cache
+	 * line, derived from one Murmur3 hash. See {@link BlockedBloomFilter}
+	 */
+	BLOCKED
+}
@@ -14,6 +14,10 @@ public class BytesUtil {
 		return new String(bytes, charSet);
 	}
 
+	public static String toString(byte[] bytes, int offset, int length) {
+		return new String(bytes, offset, length, charSet);
+	}
+
 	public static byte[] toBytes(String str) {
 		return str.getBytes(charSet);
 	}
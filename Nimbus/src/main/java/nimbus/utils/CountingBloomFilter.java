@@ -0,0 +1,388 @@
+package nimbus.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.log4j.Logger;
+
+/**
+ * A Bloom filter that supports removal, kept by a Cachelet for its dynamic
+ * set. Each bit of a {@link BlockedBloomFilter} is replaced by a four bit
+ * counter, and a block holds 128 counters so it still fills one cache line.
+ * Keys are hashed and probed the same way, over the key's UTF-8 bytes. A
+ * counter that reaches 15 stays there, as its true count is no longer known,
+ * so a removal can leave a few bits on but never turns off a bit that another
+ * key still needs.<br>
+ * <br>
+ * Clients keep a {@link BloomFilterReplica} of the filter, one bit per
+ * counter, and bring it up to date with {@link #writeUpdate(long, long)}. The
+ * filter remembers which counters turned on or off since each version, so an
+ * update only carries the counters that changed, unless so many changed that
+ * the whole filter is smaller. Clearing the filter starts a new epoch, which
+ * replicas of the old one cannot be updated from.<br>
+ * <br>
+ * An update is the {@link #FULL_UPDATE} or {@link #DELTA_UPDATE} byte, the
+ * epoch and version as longs, the number of hashes per key and the number of
+ * blocks as ints, and then either every bit of the replica as big-endian
+ * longs, or a variable length count of changed counters followed by each one
+ * as a variable length gap from the previous counter, shifted left by one,
+ * with the low bit set if the counter is now on.<br>
+ * <br>
+ * The filter is thread safe. A key's counters all lie in one block, so each
+ * update locks only the stripe of blocks it falls in, and updates to different
+ * stripes run at once. The record of changes has a lock of its own, taken only
+ * when a counter turns on or off. An update for a replica is built one stripe
+ * at a time rather than under one lock, so it may include changes made while
+ * it is built, which the next update repeats.
+ */
+public class CountingBloomFilter {
+
+	private static final Logger LOG = Logger
+			.getLogger(CountingBloomFilter.class);
+
+	public static final int FULL_UPDATE = 1;
+	public static final int DELTA_UPDATE = 2;
+
+	static final int BLOCK_COUNTERS = 128;
+	static final int MAX_BLOCKS = Integer.MAX_VALUE / BLOCK_COUNTERS;
+	static final int MAX_HASHES = 16;
+	static final long SEED = 0x5bd1e995L;
+
+	private static final int BLOCK_WORDS = BLOCK_COUNTERS / 16;
+	private static final long MAX_COUNT = 15;
+	private static final int MIN_CHANGES = 1024;
+	private static final int MAX_LOCKS = 1024;
+
+	private int numHashes = 0;
+	private int numBlocks = 0;
+	private PagedLongArray counters = null;
+	private ReentrantLock[] locks = null;
+
+	// guards the epoch, version and changes
+	private final Object changeLock = new Object();
+	private Random random = new Random();
+	private long epoch = 0;
+	private long version = 0;
+	private int[] changes = null;
+
+	/**
+	 * Initializes a new instance of a counting Bloom filter based on the given
+	 * size and desired false positive rate.
+	 *
+	 * @param approxNumRecords
+	 *            The number of records that are most likely going to be in the
+	 *            filter at once. The false positive rate climbs past it.
+	 * @param desiredFalsePosRate
+	 *            The desired false positive rate.
+	 */
+	public CountingBloomFilter(int approxNumRecords, float desiredFalsePosRate) {
+		approxNumRecords = Math.max(approxNumRecords, 1);
+		double bits = -approxNumRecords * Math.log(desiredFalsePosRate)
+				/ Math.pow(Math.log(2), 2);
+		numBlocks = (int) Math.min(MAX_BLOCKS,
+				Math.max(1, Math.ceil(bits / BLOCK_COUNTERS)));
+		numHashes = (int) Math.round((double) numBlocks * BLOCK_COUNTERS
+				/ approxNumRecords * Math.log(2));
+		numHashes = Math.min(MAX_HASHES, Math.max(1, numHashes));
+
+		counters = new PagedLongArray((long) numBlocks * BLOCK_WORDS);
+		locks = new ReentrantLock[Math.min(numBlocks, MAX_LOCKS)];
+		for (int i = 0; i < locks.length; ++i) {
+			locks[i] = new ReentrantLock();
+		}
+
+		// an update of more changes than this is larger than a full one
+		changes = new int[Math.max(MIN_CHANGES, numBlocks * BLOCK_COUNTERS
+				/ 16)];
+		epoch = random.nextLong();
+
+		LOG.info("Setting counting Bloom filter size for " + approxNumRecords
+				+ " records w/ " + desiredFalsePosRate + " false pos rate to "
+				+ numBlocks + " blocks and " + numHashes + " hashes");
+	}
+
+	public int getNumHashes() {
+		return numHashes;
+	}
+
+	public int getNumBlocks() {
+		return numBlocks;
+	}
+
+	public long getEpoch() {
+		synchronized (changeLock) {
+			return epoch;
+		}
+	}
+
+	/**
+	 * Gets the number of times a counter has turned on or off this epoch.
+	 */
+	public long getVersion() {
+		synchronized (changeLock) {
+			return version;
+		}
+	}
+
+	public void add(byte[] key) {
+		add(key, 0, key.length);
+	}
+
+	/**
+	 * Adds a key, given as UTF-8 bytes, to the filter.
+	 */
+	public void add(byte[] key, int offset, int length) {
+		long[] hash = new long[2];
+		Murmur3Hash.hash128(key, offset, length, SEED, hash);
+
+		int block = block(hash[0], numBlocks);
+		long first = (long) block * BLOCK_COUNTERS;
+		int bit = (int) hash[1];
+		int delta = (int) (hash[1] >>> 32) | 1;
+		ReentrantLock lock = getLock(block);
+		lock.lock();
+		try {
+			for (int i = 0; i < numHashes; ++i) {
+				long counter = first + (bit & (BLOCK_COUNTERS - 1));
+				long count = getCount(counter);
+				if (count < MAX_COUNT) {
+					setCount(counter, count + 1);
+					if (count == 0) {
+						changed(counter);
+					}
+				}
+				bit += delta;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes a key, given as UTF-8 bytes, from the filter. The key must have
+	 * been added and not removed since, or the filter may turn off bits that
+	 * other keys need.
+	 */
+	public void remove(byte[] key) {
+		long[] hash = new long[2];
+		Murmur3Hash.hash128(key, 0, key.length, SEED, hash);
+
+		int block = block(hash[0], numBlocks);
+		long first = (long) block * BLOCK_COUNTERS;
+		int bit = (int) hash[1];
+		int delta = (int) (hash[1] >>> 32) | 1;
+		ReentrantLock lock = getLock(block);
+		lock.lock();
+		try {
+			for (int i = 0; i < numHashes; ++i) {
+				long counter = first + (bit & (BLOCK_COUNTERS - 1));
+				long count = getCount(counter);
+				if (count > 0 && count < MAX_COUNT) {
+					setCount(counter, count - 1);
+					if (count == 1) {
+						changed(counter);
+					}
+				}
+				bit += delta;
+			}
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public boolean membershipTest(byte[] key) {
+		long[] hash = new long[2];
+		Murmur3Hash.hash128(key, 0, key.length, SEED, hash);
+
+		int block = block(hash[0], numBlocks);
+		long first = (long) block * BLOCK_COUNTERS;
+		int bit = (int) hash[1];
+		int delta = (int) (hash[1] >>> 32) | 1;
+		ReentrantLock lock = getLock(block);
+		lock.lock();
+		try {
+			for (int i = 0; i < numHashes; ++i) {
+				if (getCount(first + (bit & (BLOCK_COUNTERS - 1))) == 0) {
+					return false;
+				}
+				bit += delta;
+			}
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes every key and starts a new epoch. Takes every lock, so it waits
+	 * for updates in progress and holds off new ones until it is done.
+	 */
+	public void clear() {
+		for (ReentrantLock lock : locks) {
+			lock.lock();
+		}
+
+		try {
+			counters.reset();
+			synchronized (changeLock) {
+				epoch = random.nextLong();
+				version = 0;
+			}
+		} finally {
+			for (ReentrantLock lock : locks) {
+				lock.unlock();
+			}
+		}
+	}
+
+	/**
+	 * Builds the update that brings a replica at the given epoch and version
+	 * up to date with this filter.
+	 *
+	 * @param epoch
+	 *            The replica's epoch.
+	 * @param version
+	 *            The replica's version, or -1 for a replica that has never
+	 *            been updated.
+	 * @return The update.
+	 */
+	public byte[] writeUpdate(long epoch, long version) {
+		long currentEpoch;
+		long currentVersion;
+		int[] changed = null;
+		synchronized (changeLock) {
+			currentEpoch = this.epoch;
+			currentVersion = this.version;
+			if (epoch == currentEpoch && version >= 0
+					&& version <= currentVersion
+					&& currentVersion - version <= changes.length) {
+				changed = new int[(int) (currentVersion - version)];
+				for (int i = 0; i < changed.length; ++i) {
+					int slot = (int) ((version + i) % changes.length);
+					changed[i] = changes[slot];
+				}
+			}
+		}
+
+		// counters are read after the version, so any change they show that
+		// the version does not is sent again by the next update
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		try {
+			out.writeByte(changed != null ? DELTA_UPDATE : FULL_UPDATE);
+			out.writeLong(currentEpoch);
+			out.writeLong(currentVersion);
+			out.writeInt(numHashes);
+			out.writeInt(numBlocks);
+
+			if (changed != null) {
+				writeChanges(out, changed);
+			} else {
+				writeBits(out);
+			}
+		} catch (IOException e) {
+			// never thrown writing to memory
+			throw new RuntimeException(e);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Writes each of the given counters once, in order, with whether it is on
+	 * now.
+	 */
+	private void writeChanges(DataOutputStream out, int[] changed)
+			throws IOException {
+		Arrays.sort(changed);
+
+		int numChanged = 0;
+		for (int i = 0; i < changed.length; ++i) {
+			if (i == 0 || changed[i] != changed[i - 1]) {
+				changed[numChanged++] = changed[i];
+			}
+		}
+
+		VarInt.writeUnsignedVarLong(out, numChanged);
+		long previous = 0;
+		for (int i = 0; i < numChanged; ++i) {
+			ReentrantLock lock = getLock(changed[i] / BLOCK_COUNTERS);
+			long on;
+			lock.lock();
+			try {
+				on = getCount(changed[i]) > 0 ? 1 : 0;
+			} finally {
+				lock.unlock();
+			}
+			VarInt.writeUnsignedVarLong(out, ((changed[i] - previous) << 1)
+					| on);
+			previous = changed[i];
+		}
+	}
+
+	/**
+	 * Writes one bit per counter, on if the counter is not zero. Each block is
+	 * copied under its own lock, so writers only wait on one block at a time.
+	 */
+	private void writeBits(DataOutputStream out) throws IOException {
+		long[] words = new long[BLOCK_WORDS];
+		for (int b = 0; b < numBlocks; ++b) {
+			ReentrantLock lock = getLock(b);
+			lock.lock();
+			try {
+				for (int i = 0; i < BLOCK_WORDS; ++i) {
+					words[i] = counters.get((long) b * BLOCK_WORDS + i);
+				}
+			} finally {
+				lock.unlock();
+			}
+
+			// four words of counters make one word of bits
+			for (int w = 0; w < BLOCK_WORDS; w += 4) {
+				long bits = 0;
+				for (int j = 0; j < 4; ++j) {
+					long word = words[w + j];
+					for (int k = 0; k < 16; ++k) {
+						if (((word >>> (k << 2)) & 0xF) != 0) {
+							bits |= 1L << (j * 16 + k);
+						}
+					}
+				}
+				out.writeLong(bits);
+			}
+		}
+	}
+
+	private ReentrantLock getLock(int block) {
+		return locks[block % locks.length];
+	}
+
+	private long getCount(long counter) {
+		return (counters.get(counter >>> 4) >>> ((counter & 15) << 2)) & 0xF;
+	}
+
+	private void setCount(long counter, long count) {
+		long index = counter >>> 4;
+		int shift = (int) (counter & 15) << 2;
+		counters.set(index, (counters.get(index) & ~(0xFL << shift))
+				| (count << shift));
+	}
+
+	private void changed(long counter) {
+		synchronized (changeLock) {
+			changes[(int) (version % changes.length)] = (int) counter;
+			++version;
+		}
+	}
+
+	/**
+	 * Maps the high 32 bits of the given hash onto a block, with a multiply
+	 * rather than a division.
+	 */
+	static int block(long hash, int numBlocks) {
+		return (int) (((hash >>> 32) * numBlocks) >>> 32);
+	}
+}
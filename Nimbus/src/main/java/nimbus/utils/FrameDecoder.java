@@ -0,0 +1,257 @@
+package nimbus.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Incrementally scans bytes read off of a non-blocking channel to find the
+ * boundaries of messages written by a {@link NimbusOutputStream}. The decoder
+ * does not copy or interpret any arguments, it only tracks how far into the
+ * current message it has gotten so that it never re-scans bytes it has already
+ * seen when more data arrives.<br>
+ * <br>
+ * Once {@link FrameDecoder#decode(ByteBuffer)} returns a length, the bytes
+ * from the buffer's position up to that length are a complete message that can
+ * be handed to a {@link NimbusInputStream}. Both version 1 and version 2
+ * framing are recognized, see {@link NimbusOutputStream}.
+ */
+public class FrameDecoder {
+
+	private static final int CMD_TOKEN = 0;
+	private static final int CMD = 1;
+	private static final int ARGS_TOKEN = 2;
+	private static final int NUM_ARGS = 3;
+	private static final int BYTES_TOKEN = 4;
+	private static final int NUM_BYTES = 5;
+	private static final int BYTES = 6;
+	private static final int END_CMD_TOKEN = 7;
+	private static final int REQUEST_ID = 8;
+	private static final int V2_FLAGS = 9;
+	private static final int V2_REQUEST_ID = 10;
+	private static final int V2_CMD = 11;
+	private static final int V2_NUM_ARGS = 12;
+	private static final int V2_ARG_HEADER = 13;
+
+	private int state = CMD_TOKEN;
+	private int offset = 0;
+	private long argsRemaining = 0;
+	private int bytesRemaining = 0;
+	private boolean hasRequestId = false;
+	private boolean v2 = false;
+
+	/**
+	 * Scans the given buffer for a complete message, starting at the buffer's
+	 * position. The buffer's position and limit are not modified. Bytes that
+	 * were scanned by a previous call that returned -1 are not looked at again,
+	 * so the same message must start at the same position on each call.
+	 *
+	 * @param buf
+	 *            The buffer, with the start of a message at its position and
+	 *            the last byte read at its limit.
+	 * @return The length of the complete message, or -1 if more bytes are
+	 *         needed.
+	 * @throws IOException
+	 *             If the bytes are not a valid message.
+	 */
+	public int decode(ByteBuffer buf) throws IOException {
+		int start = buf.position();
+		int available = buf.remaining();
+
+		while (true) {
+			switch (state) {
+			case CMD_TOKEN:
+				if (offset == 0 && available >= 1
+						&& (buf.get(start) & 0xFF) == NimbusOutputStream.V2_MAGIC) {
+					v2 = true;
+					offset = 1;
+					state = V2_FLAGS;
+					break;
+				}
+
+				if (available - offset < 2) {
+					return -1;
+				}
+
+				char token = buf.getChar(start + offset);
+				if (token == NimbusOutputStream.REQUEST_ID_TOKEN
+						&& !hasRequestId) {
+					offset += 2;
+					state = REQUEST_ID;
+					break;
+				}
+
+				if (token != NimbusOutputStream.CMD_TOKEN) {
+					throw new IOException("Token is not the cmd token: "
+							+ token);
+				}
+				offset += 2;
+				state = CMD;
+				break;
+			case REQUEST_ID:
+				if (available - offset < 8) {
+					return -1;
+				}
+				offset += 8;
+				hasRequestId = true;
+				state = CMD_TOKEN;
+				break;
+			case CMD:
+				if (available - offset < 4) {
+					return -1;
+				}
+				offset += 4;
+				state = ARGS_TOKEN;
+				break;
+			case ARGS_TOKEN:
+				if (available - offset < 2) {
+					return -1;
+				}
+
+				token = buf.getChar(start + offset);
+				if (token != NimbusOutputStream.ARGS_TOKEN) {
+					throw new IOException("Token is not the args token: "
+							+ token);
+				}
+				offset += 2;
+				state = NUM_ARGS;
+				break;
+			case NUM_ARGS:
+				if (available - offset < 8) {
+					return -1;
+				}
+				argsRemaining = buf.getLong(start + offset);
+				offset += 8;
+				state = argsRemaining == 0 ? END_CMD_TOKEN : BYTES_TOKEN;
+				break;
+			case BYTES_TOKEN:
+				if (available - offset < 2) {
+					return -1;
+				}
+
+				token = buf.getChar(start + offset);
+				if (token == NimbusOutputStream.NULL_TOKEN) {
+					// a null argument has no length or bytes
+					offset += 2;
+					state = BYTES;
+					break;
+				}
+
+				if (token != NimbusOutputStream.BYTES_TOKEN) {
+					throw new IOException("Token is not the bytes token: "
+							+ token);
+				}
+				offset += 2;
+				state = NUM_BYTES;
+				break;
+			case NUM_BYTES:
+				if (available - offset < 4) {
+					return -1;
+				}
+				bytesRemaining = buf.getInt(start + offset);
+				if (bytesRemaining < 0) {
+					throw new IOException("Negative argument length: "
+							+ bytesRemaining);
+				}
+				offset += 4;
+				state = BYTES;
+				break;
+			case BYTES:
+				if (available - offset < bytesRemaining) {
+					return -1;
+				}
+				offset += bytesRemaining;
+				bytesRemaining = 0;
+				if (--argsRemaining != 0) {
+					state = v2 ? V2_ARG_HEADER : BYTES_TOKEN;
+				} else if (v2) {
+					return complete(offset);
+				} else {
+					state = END_CMD_TOKEN;
+				}
+				break;
+			case V2_FLAGS:
+				if (available - offset < 1) {
+					return -1;
+				}
+
+				int flags = buf.get(start + offset) & 0xFF;
+				offset += 1;
+				state = (flags & NimbusOutputStream.V2_FLAG_REQUEST_ID) != 0 ? V2_REQUEST_ID
+						: V2_CMD;
+				break;
+			case V2_REQUEST_ID:
+				int size = VarInt.sizeOf(buf, start + offset, start + available);
+				if (size == -1) {
+					return -1;
+				}
+				offset += size;
+				state = V2_CMD;
+				break;
+			case V2_CMD:
+				if (available - offset < 1) {
+					return -1;
+				}
+				offset += 1;
+				state = V2_NUM_ARGS;
+				break;
+			case V2_NUM_ARGS:
+				size = VarInt.sizeOf(buf, start + offset, start + available);
+				if (size == -1) {
+					return -1;
+				}
+				argsRemaining = VarInt.getUnsignedVarLong(buf, start + offset);
+				offset += size;
+				if (argsRemaining == 0) {
+					return complete(offset);
+				}
+				state = V2_ARG_HEADER;
+				break;
+			case V2_ARG_HEADER:
+				size = VarInt.sizeOf(buf, start + offset, start + available);
+				if (size == -1) {
+					return -1;
+				}
+
+				// the low bit of the header marks typed values
+				long length = VarInt.getUnsignedVarLong(buf, start + offset) >>> 1;
+				if (length > Integer.MAX_VALUE) {
+					throw new IOException("Argument length is too large: "
+							+ length);
+				}
+				bytesRemaining = (int) length;
+				offset += size;
+				state = BYTES;
+				break;
+			case END_CMD_TOKEN:
+				if (available - offset < 2) {
+					return -1;
+				}
+
+				token = buf.getChar(start + offset);
+				if (token != NimbusOutputStream.END_CMD_TOKEN) {
+					throw new IOException(
+							"Token is not the end command token: " + token);
+				}
+
+				return complete(offset + 2);
+			}
+		}
+	}
+
+	private int complete(int length) {
+		reset();
+		return length;
+	}
+
+	/**
+	 * Forgets about any partially scanned message.
+	 */
+	public void reset() {
+		state = CMD_TOKEN;
+		offset = 0;
+		argsRemaining = 0;
+		bytesRemaining = 0;
+		hasRequestId = false;
+		v2 = false;
+	}
+}
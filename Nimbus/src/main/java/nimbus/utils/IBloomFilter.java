@@ -0,0 +1,260 @@
+package nimbus.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import nimbus.main.NimbusConf;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+/**
+ * This abstract class is implemented by the Bloom filters a Static Set Cachelet
+ * builds while it ingests its data and serializes to HDFS for clients to
+ * download.<br>
+ * <br>
+ * A {@link BloomFilter} file is its bytes behind their length, a long that
+ * would have to be over 2^62 to start with the {@link #MAGIC} int. Every other
+ * filter starts with the magic int and a format version byte, so
+ * {@link #load(Path)} can tell the formats apart and clients can read filters
+ * written by either kind of Cachelet.<br>
+ * <br>
+ * Loading a filter checks that the file is exactly as long as its header
+ * says, and that the CRC32 at the end of the file matches for formats that
+ * have one. A {@link BloomFilter} file has no checksum.
+ */
+public abstract class IBloomFilter {
+
+	/**
+	 * The first int of every filter file except a {@link BloomFilter}'s.
+	 */
+	public static final int MAGIC = 0x4E424C46;
+
+	/**
+	 * The format version of a {@link BlockedBloomFilter} without a checksum.
+	 */
+	public static final int BLOCKED_VERSION = 1;
+
+	/**
+	 * The format version of a {@link BlockedBloomFilter} followed by the CRC32
+	 * of every byte before it.
+	 */
+	public static final int BLOCKED_CRC_VERSION = 2;
+
+	/**
+	 * Creates an empty filter of the type given by
+	 * {@link NimbusConf#getBloomFilterType()}.
+	 * 
+	 * @param approxNumRecords
+	 *            The number of records that are most likely going to be used to
+	 *            train this filter.
+	 * @param desiredFalsePosRate
+	 *            The desired false positive rate.
+	 * @return The new filter.
+	 */
+	public static IBloomFilter newInstance(int approxNumRecords,
+			float desiredFalsePosRate) {
+		return newInstance(NimbusConf.getConf().getBloomFilterType(),
+				approxNumRecords, desiredFalsePosRate);
+	}
+
+	/**
+	 * Creates an empty filter of the given type.
+	 * 
+	 * @param type
+	 *            The type of filter.
+	 * @param approxNumRecords
+	 *            The number of records that are most likely going to be used to
+	 *            train this filter.
+	 * @param desiredFalsePosRate
+	 *            The desired false positive rate.
+	 * @return The new filter.
+	 * @throws RuntimeException
+	 *             If an invalid {@link BloomFilterType} is given.
+	 */
+	public static IBloomFilter newInstance(BloomFilterType type,
+			int approxNumRecords, float desiredFalsePosRate) {
+		switch (type) {
+		case CLASSIC:
+			return new BloomFilter(approxNumRecords, desiredFalsePosRate);
+		case BLOCKED:
+			return new BlockedBloomFilter(approxNumRecords,
+					desiredFalsePosRate);
+		default:
+			throw new RuntimeException("Invalid BloomFilterType: " + type);
+		}
+	}
+
+	/**
+	 * Deserializes a filter of any type from the given file.
+	 * 
+	 * @param p
+	 *            A path to a file that contains a serialized filter.
+	 * @return The filter.
+	 * @throws IOException
+	 *             If the file cannot be read or is in an unknown format.
+	 */
+	public static IBloomFilter load(Path p) throws IOException {
+		CRC32 crc = new CRC32();
+		DataInputStream in = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(FileSystem.get(NimbusConf.getConf())
+						.open(p)), crc));
+		try {
+			if (in.readInt() != MAGIC) {
+				return new BloomFilter(p);
+			}
+
+			int version = in.readByte();
+			switch (version) {
+			case BLOCKED_VERSION:
+			case BLOCKED_CRC_VERSION:
+				return new BlockedBloomFilter(in, p, version, crc);
+			default:
+				throw new IOException("Unknown Bloom filter version "
+						+ version + " in " + p);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Memory maps a filter of any type from the given local file, read-only.
+	 * Every process that maps the same file shares one copy of the filter in
+	 * the page cache, and the filter is ready as soon as the header is read.
+	 * The filter cannot be trained or reset, and the file must not be changed
+	 * while it is in use.
+	 * 
+	 * @param file
+	 *            A local file that contains a serialized filter.
+	 * @return The filter.
+	 * @throws IOException
+	 *             If the file cannot be mapped or is in an unknown format.
+	 */
+	public static IBloomFilter map(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(file)));
+		try {
+			if (in.readInt() != MAGIC) {
+				return new BloomFilter(file);
+			}
+
+			int version = in.readByte();
+			switch (version) {
+			case BLOCKED_VERSION:
+			case BLOCKED_CRC_VERSION:
+				return new BlockedBloomFilter(in, file);
+			default:
+				throw new IOException("Unknown Bloom filter version "
+						+ version + " in " + file);
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks a local filter file of any type, as {@link #load(Path)} does, but
+	 * without keeping the filter. Used before a file is mapped, since a mapped
+	 * filter is never read in full.
+	 * 
+	 * @param file
+	 *            A local file that contains a serialized filter.
+	 * @throws IOException
+	 *             If the file is the wrong length, fails its checksum, or is in
+	 *             an unknown format.
+	 */
+	public static void verify(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		DataInputStream in = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(file)), crc));
+		try {
+			long expected;
+			boolean hasCrc = false;
+			int magic = in.readInt();
+			if (magic != MAGIC) {
+				// a BloomFilter's length, whose high int has been read
+				long low = in.readInt() & 0xFFFFFFFFL;
+				expected = 8 + (((long) magic << 32) | low);
+			} else {
+				int version = in.readByte();
+				in.readInt();
+				long numBlocks = in.readInt() & 0xFFFFFFFFL;
+				expected = BlockedBloomFilter.serializedLength(numBlocks,
+						version);
+				hasCrc = version == BLOCKED_CRC_VERSION;
+			}
+
+			if (file.length() != expected) {
+				throw new IOException("Bloom filter " + file + " is "
+						+ file.length() + " bytes, expected " + expected);
+			}
+
+			if (hasCrc) {
+				byte[] buffer = new byte[64 * 1024];
+				long remaining = expected - BlockedBloomFilter.HEADER_BYTES - 4;
+				while (remaining > 0) {
+					int n = (int) Math.min(buffer.length, remaining);
+					in.readFully(buffer, 0, n);
+					remaining -= n;
+				}
+				BlockedBloomFilter.checkCrc(in, crc, file.toString());
+			}
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Returns the number of bits in this filter.
+	 * 
+	 * @return The number of bits.
+	 */
+	public abstract long size();
+
+	/**
+	 * Trains the given key for the filter.
+	 * 
+	 * @param key
+	 *            The key to train.
+	 */
+	public abstract void train(String key);
+
+	/**
+	 * Returns a boolean value as to whether or not the key is a possible member
+	 * of the set. A value of false means this member is definitely not in the
+	 * set, whereas a value of true means this member may possibly be in the
+	 * set.
+	 * 
+	 * @param key
+	 *            The key to test
+	 * @return Whether or not the key is a possible member of the set.
+	 */
+	public abstract boolean membershipTest(String key);
+
+	/**
+	 * Sets all the bits in the filter to zero.
+	 */
+	public abstract void reset();
+
+	/**
+	 * Releases the filter's memory. The filter cannot be used afterwards.
+	 */
+	public abstract void clear();
+
+	/**
+	 * Serializes this filter to the given file in HDFS. The file will be
+	 * overwritten.
+	 * 
+	 * @param p
+	 *            The file to write to.
+	 * @throws IOException
+	 *             If an error occurs writing the file.
+	 */
+	public abstract void serialize(Path p) throws IOException;
+}
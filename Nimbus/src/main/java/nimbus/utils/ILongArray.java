@@ -0,0 +1,75 @@
+package nimbus.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * This abstract class is implemented by the arrays of longs, indexed by a long,
+ * that hold the bits of a Bloom filter. A {@link PagedLongArray} is on the
+ * heap and can be written to, while a {@link MappedLongArray} reads a filter
+ * file in place.
+ */
+public abstract class ILongArray {
+
+	private static final int IO_WORDS = 8192;
+
+	/**
+	 * Gets the number of words.
+	 * 
+	 * @return The number of words.
+	 */
+	public abstract long length();
+
+	public abstract long get(long i);
+
+	public abstract void set(long i, long value);
+
+	/**
+	 * Turns on the bits of the given mask in a word.
+	 */
+	public abstract void or(long i, long mask);
+
+	/**
+	 * Turns off the bits of the given mask in a word.
+	 */
+	public abstract void andNot(long i, long mask);
+
+	/**
+	 * Sets every word to zero.
+	 */
+	public abstract void reset();
+
+	/**
+	 * Writes words to the given stream, starting at the first word.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @param numBytes
+	 *            The number of bytes to write, at most eight times the length.
+	 *            If it is not a multiple of eight, only the first bytes of the
+	 *            last word are written.
+	 * @param order
+	 *            The order of the bytes in each word.
+	 * @throws IOException
+	 *             If an error occurs writing to the stream.
+	 */
+	public void writeTo(OutputStream out, long numBytes, ByteOrder order)
+			throws IOException {
+		byte[] bytes = new byte[IO_WORDS * 8];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+		long written = 0;
+		long word = 0;
+		while (written < numBytes) {
+			int count = (int) Math.min(bytes.length, numBytes - written);
+			buffer.clear();
+			for (int i = 0; i < count; i += 8) {
+				buffer.putLong(i, get(word++));
+			}
+
+			out.write(bytes, 0, count);
+			written += count;
+		}
+	}
+}
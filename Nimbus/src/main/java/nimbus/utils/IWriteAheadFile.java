@@ -0,0 +1,41 @@
+package nimbus.utils;
+
+import java.io.IOException;
+
+import org.apache.hadoop.fs.Path;
+
+/**
+ * A single file of a {@link WriteAheadLog}. Messages are written with the
+ * methods of {@link NimbusOutputStream} and are only guaranteed to be in the
+ * file once {@link #flush()} or {@link #sync()} returns. Files are named by
+ * the time they were created, so sorting them by name gives the order they
+ * were written in.
+ */
+public abstract class IWriteAheadFile extends NimbusOutputStream {
+
+	/**
+	 * Creates the file for writing.
+	 * 
+	 * @throws IOException
+	 *             If the file cannot be created.
+	 */
+	public abstract void open() throws IOException;
+
+	/**
+	 * Flushes all buffered messages and makes them durable.
+	 * 
+	 * @throws IOException
+	 *             If an error occurs when syncing.
+	 */
+	public abstract void sync() throws IOException;
+
+	/**
+	 * Flushes all buffered messages and closes the file.
+	 */
+	@Override
+	public abstract void close() throws IOException;
+
+	public abstract void delete() throws IOException;
+
+	public abstract Path getFile();
+}
@@ -0,0 +1,188 @@
+package nimbus.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Encodes and decodes groups of {@link LogRecord}s in the write ahead log
+ * format. Each group is a batch:<br>
+ * <br>
+ * {@link #MAGIC} byte, variable length record count, variable length payload
+ * length, int CRC32 of the payload, payload<br>
+ * <br>
+ * The payload holds each record as a variable length command, a variable
+ * length argument count, and each argument as a variable length header
+ * followed by its bytes. The header is zero for a null argument, otherwise
+ * the argument's length plus one.<br>
+ * <br>
+ * A batch that is cut short, or fails its CRC, at the end of a file was never
+ * acknowledged and is dropped by {@link #read(DataInputStream, List)}. The
+ * magic byte is never the first byte of a message, so files written one
+ * message per record are still readable.
+ */
+public class LogBatch {
+
+	public static final int MAGIC = 0xB7;
+
+	private PayloadBuffer payload = new PayloadBuffer();
+	private DataOutputStream payloadOut = new DataOutputStream(payload);
+	private CRC32 crc = new CRC32();
+	private int numRecords = 0;
+
+	/**
+	 * Adds a record to the end of this batch.
+	 *
+	 * @param record
+	 *            The record.
+	 * @throws IOException
+	 *             Never, as the batch is in memory.
+	 */
+	public void add(LogRecord record) throws IOException {
+		VarInt.writeUnsignedVarLong(payloadOut, record.getCmd());
+		byte[][] args = record.getArgBytes();
+		VarInt.writeUnsignedVarLong(payloadOut, args.length);
+		for (byte[] arg : args) {
+			if (arg == null) {
+				VarInt.writeUnsignedVarLong(payloadOut, 0L);
+			} else {
+				VarInt.writeUnsignedVarLong(payloadOut, arg.length + 1L);
+				payloadOut.write(arg);
+			}
+		}
+		++numRecords;
+	}
+
+	public int size() {
+		return numRecords;
+	}
+
+	/**
+	 * Removes all records, keeping the memory used for them.
+	 */
+	public void clear() {
+		payload.reset();
+		numRecords = 0;
+	}
+
+	/**
+	 * Writes this batch. Does nothing if the batch is empty.
+	 *
+	 * @param out
+	 *            The file to write to.
+	 * @throws IOException
+	 *             If an error occurs writing the batch.
+	 */
+	public void writeTo(IWriteAheadFile out) throws IOException {
+		if (numRecords == 0) {
+			return;
+		}
+
+		crc.reset();
+		crc.update(payload.getBuffer(), 0, payload.size());
+
+		ByteArrayOutputStream header = new ByteArrayOutputStream(
+				1 + VarInt.MAX_VARLONG_SIZE * 2 + 4);
+		DataOutputStream headerOut = new DataOutputStream(header);
+		headerOut.writeByte(MAGIC);
+		VarInt.writeUnsignedVarLong(headerOut, numRecords);
+		VarInt.writeUnsignedVarLong(headerOut, payload.size());
+		headerOut.writeInt((int) crc.getValue());
+
+		out.writeRaw(header.toByteArray(), 0, header.size());
+		out.writeRaw(payload.getBuffer(), 0, payload.size());
+	}
+
+	/**
+	 * Reads every batch from the given stream, which must be positioned at
+	 * the start of a batch.
+	 *
+	 * @param in
+	 *            The stream to read from.
+	 * @param records
+	 *            The list to add the records to.
+	 * @return False if the stream ended with a torn batch, which was dropped.
+	 * @throws IOException
+	 *             If a batch before the last one is corrupt.
+	 */
+	public static boolean read(DataInputStream in, List<LogRecord> records)
+			throws IOException {
+		CRC32 crc = new CRC32();
+		byte[] bytes = new byte[0];
+		int magic;
+		while ((magic = in.read()) != -1) {
+			if (magic != MAGIC) {
+				throw new IOException("Bad batch magic " + magic);
+			}
+
+			long count, length;
+			int expected;
+			try {
+				count = VarInt.readUnsignedVarLong(in);
+				length = VarInt.readUnsignedVarLong(in);
+				expected = in.readInt();
+				if (length > Integer.MAX_VALUE) {
+					throw new IOException("Batch of " + length
+							+ " bytes is too long");
+				}
+
+				if (bytes.length < length) {
+					bytes = new byte[(int) length];
+				}
+				in.readFully(bytes, 0, (int) length);
+			} catch (EOFException e) {
+				return false;
+			}
+
+			crc.reset();
+			crc.update(bytes, 0, (int) length);
+			if ((int) crc.getValue() != expected) {
+				if (in.read() == -1) {
+					return false;
+				}
+				throw new IOException("Batch failed its checksum");
+			}
+
+			decode(bytes, (int) length, count, records);
+		}
+
+		return true;
+	}
+
+	private static void decode(byte[] bytes, int length, long count,
+			List<LogRecord> records) throws IOException {
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				bytes, 0, length));
+		for (long i = 0; i < count; ++i) {
+			int cmd = (int) VarInt.readUnsignedVarLong(in);
+			byte[][] args = new byte[(int) VarInt.readUnsignedVarLong(in)][];
+			for (int j = 0; j < args.length; ++j) {
+				long header = VarInt.readUnsignedVarLong(in);
+				if (header != 0) {
+					args[j] = new byte[(int) (header - 1)];
+					in.readFully(args[j]);
+				}
+			}
+			records.add(new LogRecord(cmd, args));
+		}
+	}
+
+	/**
+	 * Gives access to the buffer so it can be written without a copy.
+	 */
+	private static class PayloadBuffer extends ByteArrayOutputStream {
+
+		public PayloadBuffer() {
+			super(4096);
+		}
+
+		public byte[] getBuffer() {
+			return buf;
+		}
+	}
+}
@@ -0,0 +1,101 @@
+package nimbus.utils;
+
+import java.io.IOException;
+
+/**
+ * A single command waiting to be written to a {@link WriteAheadLog}. The
+ * arguments are kept in the form they were given, either as Strings or as
+ * UTF-8 bytes, and only converted if the other form is asked for.
+ */
+public class LogRecord {
+
+	private int cmd;
+	private String[] args;
+	private byte[][] argBytes;
+
+	/**
+	 * Initializes a new instance of the {@link LogRecord} class for a command
+	 * with no arguments.
+	 * 
+	 * @param cmd
+	 *            The command.
+	 */
+	public LogRecord(int cmd) {
+		this(cmd, new String[0]);
+	}
+
+	/**
+	 * Initializes a new instance of the {@link LogRecord} class.
+	 * 
+	 * @param cmd
+	 *            The command.
+	 * @param args
+	 *            The arguments of the command.
+	 */
+	public LogRecord(int cmd, String... args) {
+		this.cmd = cmd;
+		this.args = args;
+	}
+
+	/**
+	 * Initializes a new instance of the {@link LogRecord} class from
+	 * arguments that are already UTF-8 bytes, such as those read off the wire.
+	 * The arrays are kept, not copied, and must not be changed afterwards.
+	 * 
+	 * @param cmd
+	 *            The command.
+	 * @param args
+	 *            The UTF-8 bytes of the arguments of the command.
+	 */
+	public LogRecord(int cmd, byte[]... args) {
+		this.cmd = cmd;
+		this.argBytes = args;
+	}
+
+	public int getCmd() {
+		return cmd;
+	}
+
+	public String[] getArgs() {
+		if (args == null) {
+			args = new String[argBytes.length];
+			for (int i = 0; i < args.length; ++i) {
+				args[i] = argBytes[i] == null ? null : BytesUtil
+						.toString(argBytes[i]);
+			}
+		}
+		return args;
+	}
+
+	/**
+	 * Gets the UTF-8 bytes of the arguments. A null argument is a null array.
+	 * 
+	 * @return The arguments.
+	 */
+	public byte[][] getArgBytes() {
+		if (argBytes == null) {
+			argBytes = new byte[args.length][];
+			for (int i = 0; i < argBytes.length; ++i) {
+				argBytes[i] = args[i] == null ? null : BytesUtil
+						.toBytes(args[i]);
+			}
+		}
+		return argBytes;
+	}
+
+	/**
+	 * Writes this record to the given stream as a single message.
+	 * 
+	 * @param out
+	 *            The stream to write to.
+	 * @throws IOException
+	 *             If an error occurs writing the record.
+	 */
+	public void writeTo(NimbusOutputStream out) throws IOException {
+		if (argBytes != null) {
+			out.write(cmd, argBytes);
+		} else {
+			out.write(cmd, args);
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package nimbus.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+
+/**
+ * A read-only array of longs memory mapped from part of a file. Every process
+ * that maps the same file shares one copy of it in the page cache, and nothing
+ * is read until a word is used.<br>
+ * <br>
+ * A single mapping holds at most 2 GB, so the file is mapped in segments of
+ * {@link #SEGMENT_BYTES}. Each segment overlaps the next by eight bytes, so a
+ * word is always read from one segment even when the words are not aligned to
+ * the segments. Bytes past the end of the file read as zero.
+ */
+public class MappedLongArray extends ILongArray {
+
+	public static final int SEGMENT_SHIFT = 30;
+	public static final long SEGMENT_BYTES = 1L << SEGMENT_SHIFT;
+	private static final long SEGMENT_MASK = SEGMENT_BYTES - 1;
+
+	private long length = 0;
+	private long offset = 0;
+	private long end = 0;
+	private ByteOrder order = null;
+	private MappedByteBuffer[] segments = null;
+
+	/**
+	 * Maps the given part of a file.
+	 * 
+	 * @param file
+	 *            The file to map.
+	 * @param offset
+	 *            The position of the first word in the file.
+	 * @param numBytes
+	 *            The number of bytes of words. If it is not a multiple of
+	 *            eight, the last word is only its first bytes, the rest zero.
+	 * @param order
+	 *            The order of the bytes in each word.
+	 * @throws IOException
+	 *             If the file cannot be mapped.
+	 */
+	public MappedLongArray(File file, long offset, long numBytes,
+			ByteOrder order) throws IOException {
+		this.length = PagedLongArray.wordsForBytes(numBytes);
+		this.offset = offset;
+		this.order = order;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			end = Math.min(channel.size(), offset + numBytes);
+
+			long numSegments = (end + SEGMENT_MASK) >>> SEGMENT_SHIFT;
+			segments = new MappedByteBuffer[(int) numSegments];
+			for (int i = 0; i < segments.length; ++i) {
+				long start = (long) i << SEGMENT_SHIFT;
+				segments[i] = channel.map(MapMode.READ_ONLY, start,
+						Math.min(end - start, SEGMENT_BYTES + 8));
+				segments[i].order(order);
+			}
+		} finally {
+			// the mappings stay valid after the file is closed
+			raf.close();
+		}
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public long get(long i) {
+		long pos = offset + (i << 3);
+		if (pos + 8 <= end) {
+			return segments[(int) (pos >>> SEGMENT_SHIFT)]
+					.getLong((int) (pos & SEGMENT_MASK));
+		}
+		return getPartial(pos);
+	}
+
+	/**
+	 * Reads a word cut short by the end of the file.
+	 */
+	private long getPartial(long pos) {
+		long word = 0;
+		for (int j = 0; j < 8; ++j) {
+			long b = 0;
+			if (pos + j < end) {
+				b = segments[(int) ((pos + j) >>> SEGMENT_SHIFT)]
+						.get((int) ((pos + j) & SEGMENT_MASK)) & 0xFFL;
+			}
+
+			if (order == ByteOrder.LITTLE_ENDIAN) {
+				word |= b << (j * 8);
+			} else {
+				word |= b << ((7 - j) * 8);
+			}
+		}
+		return word;
+	}
+
+	@Override
+	public void set(long i, long value) {
+		throw new UnsupportedOperationException("Mapped arrays are read-only");
+	}
+
+	@Override
+	public void or(long i, long mask) {
+		throw new UnsupportedOperationException("Mapped arrays are read-only");
+	}
+
+	@Override
+	public void andNot(long i, long mask) {
+		throw new UnsupportedOperationException("Mapped arrays are read-only");
+	}
+
+	@Override
+	public void reset() {
+		throw new UnsupportedOperationException("Mapped arrays are read-only");
+	}
+}
@@ -0,0 +1,173 @@
+package nimbus.utils;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * A {@link IWriteAheadFile} on the local disk. The file is preallocated to a
+ * fixed size and memory mapped, so writing a message is a memory copy and a
+ * flush only updates the header.<br>
+ * <br>
+ * The file starts with {@link #MAGIC} and the number of committed bytes,
+ * which is updated on every flush. Only the committed bytes following the
+ * header are read back; anything after them was never acknowledged. A message
+ * that does not fit in the space left throws a {@link SegmentFullException},
+ * after which the file must be closed and the message written to a new one.
+ */
+public class MappedWriteAheadFile extends IWriteAheadFile {
+
+	private static final Logger LOG = Logger
+			.getLogger(MappedWriteAheadFile.class);
+
+	/**
+	 * The first four bytes of every memory mapped file. Never the first bytes
+	 * of a message, so readers can tell the two kinds of files apart.
+	 */
+	public static final int MAGIC = 0x4e574c31;
+	public static final int HEADER_SIZE = 8;
+
+	private File file = null;
+	private int size = 0;
+	private RandomAccessFile raf = null;
+	private MappedByteBuffer buffer = null;
+	private int committed = 0;
+	private boolean full = false;
+
+	/**
+	 * Initializes a new instance of the {@link MappedWriteAheadFile} class.
+	 * The file is not created until {@link #open()} is called.
+	 *
+	 * @param file
+	 *            The local file.
+	 * @param size
+	 *            The size to preallocate, including the header.
+	 */
+	public MappedWriteAheadFile(File file, int size) {
+		this.file = file;
+		this.size = Math.max(HEADER_SIZE + 1, size);
+		LOG.info("Creating " + file + " for write");
+	}
+
+	@Override
+	public void open() throws IOException {
+		File dir = file.getParentFile();
+		if (dir != null && !dir.exists() && !dir.mkdirs()) {
+			throw new IOException("Failed to create " + dir);
+		}
+
+		raf = new RandomAccessFile(file, "rw");
+		raf.setLength(size);
+		buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, 0);
+		buffer.position(HEADER_SIZE);
+
+		super.setOutputStream(new MappedOutputStream());
+	}
+
+	/**
+	 * Writes all buffered messages to the mapping and commits them. They are
+	 * safe if the process dies, but not if the machine does.
+	 */
+	@Override
+	public void flush() throws IOException {
+		super.flush();
+		committed = buffer.position() - HEADER_SIZE;
+		buffer.putInt(4, committed);
+	}
+
+	/**
+	 * Commits all buffered messages and forces the mapping to disk.
+	 */
+	@Override
+	public void sync() throws IOException {
+		flush();
+		buffer.force();
+	}
+
+	/**
+	 * Commits all buffered messages and closes the file. If the file filled
+	 * up, nothing more is committed, as the messages that did not fit are
+	 * rewritten to the next file. The file keeps its preallocated size.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (raf == null) {
+			return;
+		}
+
+		if (!full) {
+			flush();
+		}
+
+		buffer.force();
+		raf.close();
+		raf = null;
+	}
+
+	@Override
+	public void delete() throws IOException {
+		if (file.exists() && !file.delete()) {
+			throw new IOException("Failed to delete " + file);
+		}
+	}
+
+	@Override
+	public Path getFile() {
+		return new Path(file.toURI());
+	}
+
+	/**
+	 * Gets the number of bytes of messages that have been committed.
+	 *
+	 * @return The committed length, not including the header.
+	 */
+	public int getCommittedLength() {
+		return committed;
+	}
+
+	/**
+	 * Reads the committed bytes of a memory mapped file, given a stream that
+	 * has already read the {@link #MAGIC}.
+	 *
+	 * @param in
+	 *            The stream, positioned after the magic.
+	 * @return The committed bytes.
+	 * @throws IOException
+	 *             If the file is shorter than its header says.
+	 */
+	public static byte[] readCommitted(DataInputStream in) throws IOException {
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	private class MappedOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) throws IOException {
+			if (!buffer.hasRemaining()) {
+				full = true;
+				throw new SegmentFullException(file + " is full");
+			}
+			buffer.put((byte) b);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			if (buffer.remaining() < len) {
+				full = true;
+				throw new SegmentFullException(file + " is full");
+			}
+			buffer.put(b, off, len);
+		}
+	}
+}
@@ -0,0 +1,163 @@
+package nimbus.utils;
+
+/**
+ * The 128-bit x64 variant of Austin Appleby's MurmurHash3. Unlike
+ * {@link MurmurCacheletHash}, which only needs enough bits to pick a Cachelet,
+ * this gives two independent 64-bit halves, enough to derive every probe of a
+ * Bloom filter from a single pass over the key.<br>
+ * <br>
+ * Strings are hashed as their UTF-16LE bytes, read straight from the chars, so
+ * no byte array is created for the key.
+ */
+public class Murmur3Hash {
+
+	private static final long C1 = 0x87c37b91114253d5L;
+	private static final long C2 = 0x4cf5ad432745937fL;
+
+	private Murmur3Hash() {
+	}
+
+	/**
+	 * Hashes the given bytes.
+	 * 
+	 * @param data
+	 *            The bytes to hash.
+	 * @param offset
+	 *            The first byte to hash.
+	 * @param length
+	 *            The number of bytes to hash.
+	 * @param seed
+	 *            The seed.
+	 * @param out
+	 *            An array of at least two longs, set to the two halves of the
+	 *            hash.
+	 */
+	public static void hash128(byte[] data, int offset, int length,
+			long seed, long[] out) {
+		long h1 = seed, h2 = seed;
+		int end = offset + (length & ~15);
+		int i = offset;
+		for (; i < end; i += 16) {
+			long k1 = getLong(data, i);
+			long k2 = getLong(data, i + 8);
+
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		long k1 = 0, k2 = 0;
+		int tail = length & 15;
+		for (int j = tail - 1; j >= 8; --j) {
+			k2 ^= (data[i + j] & 0xFFL) << ((j - 8) * 8);
+		}
+		for (int j = Math.min(tail, 8) - 1; j >= 0; --j) {
+			k1 ^= (data[i + j] & 0xFFL) << (j * 8);
+		}
+		if (tail > 8) {
+			h2 ^= mixK2(k2);
+		}
+		if (tail > 0) {
+			h1 ^= mixK1(k1);
+		}
+
+		finish(h1, h2, length, out);
+	}
+
+	/**
+	 * Hashes the given string as its UTF-16LE bytes, without encoding it.
+	 * 
+	 * @param key
+	 *            The string to hash.
+	 * @param seed
+	 *            The seed.
+	 * @param out
+	 *            An array of at least two longs, set to the two halves of the
+	 *            hash.
+	 */
+	public static void hash128(String key, long seed, long[] out) {
+		long h1 = seed, h2 = seed;
+		int length = key.length();
+		int end = length & ~7;
+		int i = 0;
+		for (; i < end; i += 8) {
+			long k1 = getChars(key, i, 4);
+			long k2 = getChars(key, i + 4, 4);
+
+			h1 ^= mixK1(k1);
+			h1 = Long.rotateLeft(h1, 27) + h2;
+			h1 = h1 * 5 + 0x52dce729;
+
+			h2 ^= mixK2(k2);
+			h2 = Long.rotateLeft(h2, 31) + h1;
+			h2 = h2 * 5 + 0x38495ab5;
+		}
+
+		int tail = length & 7;
+		if (tail > 4) {
+			h2 ^= mixK2(getChars(key, i + 4, tail - 4));
+		}
+		if (tail > 0) {
+			h1 ^= mixK1(getChars(key, i, Math.min(tail, 4)));
+		}
+
+		finish(h1, h2, length * 2, out);
+	}
+
+	private static long getLong(byte[] data, int i) {
+		return (data[i] & 0xFFL) | (data[i + 1] & 0xFFL) << 8
+				| (data[i + 2] & 0xFFL) << 16 | (data[i + 3] & 0xFFL) << 24
+				| (data[i + 4] & 0xFFL) << 32 | (data[i + 5] & 0xFFL) << 40
+				| (data[i + 6] & 0xFFL) << 48 | (data[i + 7] & 0xFFL) << 56;
+	}
+
+	private static long getChars(String key, int i, int count) {
+		long k = 0;
+		for (int j = count - 1; j >= 0; --j) {
+			k = (k << 16) | key.charAt(i + j);
+		}
+		return k;
+	}
+
+	private static long mixK1(long k1) {
+		k1 *= C1;
+		k1 = Long.rotateLeft(k1, 31);
+		return k1 * C2;
+	}
+
+	private static long mixK2(long k2) {
+		k2 *= C2;
+		k2 = Long.rotateLeft(k2, 33);
+		return k2 * C1;
+	}
+
+	private static void finish(long h1, long h2, int length, long[] out) {
+		h1 ^= length;
+		h2 ^= length;
+
+		h1 += h2;
+		h2 += h1;
+
+		h1 = fmix(h1);
+		h2 = fmix(h2);
+
+		h1 += h2;
+		h2 += h1;
+
+		out[0] = h1;
+		out[1] = h2;
+	}
+
+	private static long fmix(long k) {
+		k ^= k >>> 33;
+		k *= 0xff51afd7ed558ccdL;
+		k ^= k >>> 33;
+		k *= 0xc4ceb9fe1a85ec53L;
+		k ^= k >>> 33;
+		return k;
+	}
+}
@@ -1,19 +1,63 @@
 package nimbus.utils;
 
 import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 
 public class NimbusInputStream extends InputStream {
 
 	public static final int EOF = -1;
+
+	/**
+	 * Arguments larger than this are read into a buffer of their own rather
+	 * than growing the buffer kept by the stream.
+	 */
+	public static final int MAX_POOLED_ARG_SIZE = 1024 * 1024;
+	private static final int INITIAL_ARG_BUFFER_SIZE = 256;
+
 	private DataInputStream strm = null;
+	private byte[] argBuffer = new byte[INITIAL_ARG_BUFFER_SIZE];
+
+	// set by readArgLength when the argument is a typed value
+	private static final int TYPED = -1;
+	private int argType = NimbusOutputStream.TYPE_NULL;
+	private long argValue = 0L;
+	private long requestId = NimbusOutputStream.NO_REQUEST_ID;
+	private int version = NimbusOutputStream.PROTOCOL_V1;
+	private long numArgsRead = 0;
 
 	public NimbusInputStream(InputStream in) {
 		strm = new DataInputStream(new BufferedInputStream(in));
 	}
 
+	/**
+	 * Reads from a single message that has already been read into memory,
+	 * such as one found by a {@link FrameDecoder}. No additional buffering is
+	 * done.
+	 * 
+	 * @param frame
+	 *            The bytes of the message.
+	 */
+	public NimbusInputStream(byte[] frame) {
+		setFrame(frame);
+	}
+
+	/**
+	 * Starts reading from the given message, dropping anything left of the
+	 * previous one. The argument buffer is kept, so one stream can be reused
+	 * for every message of a connection.
+	 * 
+	 * @param frame
+	 *            The bytes of the message.
+	 */
+	public void setFrame(byte[] frame) {
+		strm = new DataInputStream(new ByteArrayInputStream(frame));
+	}
+
 	public int skipToEOF() throws IOException {
 		int bytesRead = 0;
 		while (strm.read() != EOF) {
@@ -22,8 +66,40 @@ public class NimbusInputStream extends InputStream {
 		return bytesRead;
 	}
 
+	/**
+	 * Reads the start of the next message and returns its command. The framing
+	 * of the message is detected from its first byte and is available from
+	 * {@link NimbusInputStream#getProtocolVersion()} afterwards, as is the
+	 * request ID from {@link NimbusInputStream#getRequestId()} if the message
+	 * carries one.
+	 * 
+	 * @return The command.
+	 * @throws IOException
+	 *             If the message does not start with the expected tokens.
+	 */
 	public int readCmd() throws IOException {
-		char cmdToken = strm.readChar();
+		int first = strm.readUnsignedByte();
+
+		if (first == NimbusOutputStream.V2_MAGIC) {
+			version = NimbusOutputStream.PROTOCOL_V2;
+			int flags = strm.readUnsignedByte();
+			if ((flags & NimbusOutputStream.V2_FLAG_REQUEST_ID) != 0) {
+				requestId = VarInt.readUnsignedVarLong(strm);
+			} else {
+				requestId = NimbusOutputStream.NO_REQUEST_ID;
+			}
+			return strm.readUnsignedByte();
+		}
+
+		version = NimbusOutputStream.PROTOCOL_V1;
+		char cmdToken = (char) ((first << 8) | strm.readUnsignedByte());
+
+		if (cmdToken == NimbusOutputStream.REQUEST_ID_TOKEN) {
+			requestId = strm.readLong();
+			cmdToken = strm.readChar();
+		} else {
+			requestId = NimbusOutputStream.NO_REQUEST_ID;
+		}
 
 		if (cmdToken != NimbusOutputStream.CMD_TOKEN) {
 			throw new IOException("Token is not the cmd token");
@@ -32,7 +108,45 @@ public class NimbusInputStream extends InputStream {
 		return strm.readInt();
 	}
 
+	/**
+	 * Gets the request ID of the message last started by
+	 * {@link NimbusInputStream#readCmd()}.
+	 * 
+	 * @return The request ID, or {@link NimbusOutputStream#NO_REQUEST_ID} if
+	 *         the message did not carry one.
+	 */
+	public long getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * Gets the framing of the message last started by
+	 * {@link NimbusInputStream#readCmd()}.
+	 * 
+	 * @return {@link NimbusOutputStream#PROTOCOL_V1} or
+	 *         {@link NimbusOutputStream#PROTOCOL_V2}.
+	 */
+	public int getProtocolVersion() {
+		return version;
+	}
+
+	/**
+	 * Gets the number of arguments read or skipped since the last call to
+	 * {@link NimbusInputStream#readNumArgs()}, so a reader that stopped early
+	 * can skip the rest of the message.
+	 * 
+	 * @return The number of arguments.
+	 */
+	public long getNumArgsRead() {
+		return numArgsRead;
+	}
+
 	public long readNumArgs() throws IOException {
+		numArgsRead = 0;
+		if (version == NimbusOutputStream.PROTOCOL_V2) {
+			return VarInt.readUnsignedVarLong(strm);
+		}
+
 		char argsToken = strm.readChar();
 
 		if (argsToken != NimbusOutputStream.ARGS_TOKEN) {
@@ -42,23 +156,264 @@ public class NimbusInputStream extends InputStream {
 		return strm.readLong();
 	}
 
+	/**
+	 * Reads the next argument into a new array.
+	 * 
+	 * @return The argument.
+	 * @throws IOException
+	 *             If the next bytes are not an argument.
+	 */
 	public byte[] readArg() throws IOException {
-		char bytesToken = strm.readChar();
-
-		if (bytesToken != NimbusOutputStream.BYTES_TOKEN) {
-			throw new IOException("Token is not the bytes token: " + bytesToken);
+		int numBytes = readArgLength();
+		if (numBytes == TYPED) {
+			String value = typedToString();
+			return value == null ? null : BytesUtil.toBytes(value);
 		}
 
-		int numBytes = strm.readInt();
 		byte[] bytes = new byte[numBytes];
-		for (int i = 0; i < numBytes; ++i) {
-			bytes[i] = strm.readByte();
+		strm.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * Reads the next argument as a UTF-8 string. The bytes are read into a
+	 * buffer owned by this stream, so the string is the only allocation.
+	 * 
+	 * @return The argument, or null if it is a null value.
+	 * @throws IOException
+	 *             If the next bytes are not an argument.
+	 */
+	public String readArgString() throws IOException {
+		int numBytes = readArgLength();
+		if (numBytes == TYPED) {
+			return typedToString();
+		}
+
+		byte[] bytes = fill(numBytes);
+		return BytesUtil.toString(bytes, 0, numBytes);
+	}
+
+	/**
+	 * Reads the next argument into a buffer owned by this stream. The returned
+	 * buffer wraps the argument's bytes from its position to its limit and is
+	 * only valid until the next argument is read.
+	 * 
+	 * @return A view of the argument, or null if it is a null value.
+	 * @throws IOException
+	 *             If the next bytes are not an argument.
+	 */
+	public ByteBuffer readArgBuffer() throws IOException {
+		int numBytes = readArgLength();
+		if (numBytes == TYPED) {
+			String value = typedToString();
+			return value == null ? null : ByteBuffer.wrap(BytesUtil
+					.toBytes(value));
+		}
+
+		return ByteBuffer.wrap(fill(numBytes), 0, numBytes);
+	}
+
+	/**
+	 * Reads the next argument as a boolean, either a typed value or the string
+	 * "true" or "false".
+	 * 
+	 * @return The argument.
+	 * @throws IOException
+	 *             If the next argument is not a boolean.
+	 */
+	public boolean readArgBoolean() throws IOException {
+		int numBytes = readArgLength();
+		if (numBytes == TYPED) {
+			if (argType == NimbusOutputStream.TYPE_TRUE) {
+				return true;
+			} else if (argType == NimbusOutputStream.TYPE_FALSE) {
+				return false;
+			}
+		} else {
+			byte[] bytes = fill(numBytes);
+			if (matches(bytes, numBytes, BytesUtil.TRUE_BYTES)) {
+				return true;
+			} else if (matches(bytes, numBytes, BytesUtil.FALSE_BYTES)) {
+				return false;
+			}
+		}
+
+		throw new IOException("Did not receive a true or false response.");
+	}
+
+	/**
+	 * Reads the next argument as an int, either a typed value or a decimal
+	 * string.
+	 * 
+	 * @return The argument.
+	 * @throws IOException
+	 *             If the next argument is not an int.
+	 */
+	public int readArgInt() throws IOException {
+		long value = readArgLong();
+		if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+			throw new IOException("Value does not fit in an int: " + value);
+		}
+		return (int) value;
+	}
+
+	/**
+	 * Reads the next argument as a long, either a typed int or long or a
+	 * decimal string.
+	 * 
+	 * @return The argument.
+	 * @throws IOException
+	 *             If the next argument is not a number.
+	 */
+	public long readArgLong() throws IOException {
+		int numBytes = readArgLength();
+		if (numBytes == TYPED) {
+			if (argType == NimbusOutputStream.TYPE_INT
+					|| argType == NimbusOutputStream.TYPE_LONG) {
+				return argValue;
+			}
+			throw new IOException("Did not receive a number, type " + argType);
 		}
 
+		String value = BytesUtil.toString(fill(numBytes), 0, numBytes);
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new IOException("Did not receive a number: " + value);
+		}
+	}
+
+	/**
+	 * Skips over the next argument without reading it into memory.
+	 * 
+	 * @throws IOException
+	 *             If the next bytes are not an argument.
+	 */
+	public void skipArg() throws IOException {
+		int numBytes = readArgLength();
+		while (numBytes > 0) {
+			int skipped = strm.skipBytes(numBytes);
+			if (skipped <= 0) {
+				throw new EOFException();
+			}
+			numBytes -= skipped;
+		}
+	}
+
+	private byte[] fill(int numBytes) throws IOException {
+		byte[] bytes = argBuffer;
+		if (numBytes > bytes.length) {
+			if (numBytes > MAX_POOLED_ARG_SIZE) {
+				bytes = new byte[numBytes];
+			} else {
+				argBuffer = new byte[Math.max(numBytes, argBuffer.length * 2)];
+				bytes = argBuffer;
+			}
+		}
+
+		strm.readFully(bytes, 0, numBytes);
 		return bytes;
 	}
 
+	private static boolean matches(byte[] bytes, int numBytes, byte[] expected) {
+		if (numBytes != expected.length) {
+			return false;
+		}
+
+		for (int i = 0; i < numBytes; ++i) {
+			if (bytes[i] != expected[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String typedToString() {
+		switch (argType) {
+		case NimbusOutputStream.TYPE_TRUE:
+			return "true";
+		case NimbusOutputStream.TYPE_FALSE:
+			return "false";
+		case NimbusOutputStream.TYPE_INT:
+		case NimbusOutputStream.TYPE_LONG:
+			return Long.toString(argValue);
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the header of the next argument.
+	 * 
+	 * @return The number of bytes of the argument, or {@link #TYPED} if it was
+	 *         a typed value, in which case the value has already been read into
+	 *         argType and argValue.
+	 */
+	private int readArgLength() throws IOException {
+		++numArgsRead;
+		int numBytes;
+		if (version == NimbusOutputStream.PROTOCOL_V2) {
+			long header = VarInt.readUnsignedVarLong(strm);
+			if ((header & 1L) != 0) {
+				readTypedValue((int) (header >>> 1));
+				return TYPED;
+			}
+			numBytes = (int) (header >>> 1);
+		} else {
+			char bytesToken = strm.readChar();
+
+			if (bytesToken == NimbusOutputStream.NULL_TOKEN) {
+				argType = NimbusOutputStream.TYPE_NULL;
+				return TYPED;
+			}
+
+			if (bytesToken != NimbusOutputStream.BYTES_TOKEN) {
+				throw new IOException("Token is not the bytes token: "
+						+ bytesToken);
+			}
+
+			numBytes = strm.readInt();
+		}
+
+		if (numBytes < 0) {
+			throw new IOException("Negative argument length: " + numBytes);
+		}
+
+		return numBytes;
+	}
+
+	private void readTypedValue(int length) throws IOException {
+		if (length < 1) {
+			throw new IOException("Typed value has no type");
+		}
+
+		argType = strm.readUnsignedByte();
+		switch (argType) {
+		case NimbusOutputStream.TYPE_INT:
+			argValue = strm.readInt();
+			length -= 5;
+			break;
+		case NimbusOutputStream.TYPE_LONG:
+			argValue = strm.readLong();
+			length -= 9;
+			break;
+		default:
+			length -= 1;
+			break;
+		}
+
+		if (length != 0) {
+			throw new IOException("Typed value of type " + argType
+					+ " has the wrong length");
+		}
+	}
+
 	public void verifyEndOfMessage() throws IOException {
+		if (version == NimbusOutputStream.PROTOCOL_V2) {
+			// version 2 messages end after their last argument
+			return;
+		}
+
 		char token = strm.readChar();
 
 		if (token != NimbusOutputStream.END_CMD_TOKEN) {
@@ -67,6 +422,16 @@ public class NimbusInputStream extends InputStream {
 		}
 	}
 
+	/**
+	 * Closes the underlying stream.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (strm != null) {
+			strm.close();
+		}
+	}
+
 	@Override
 	@Deprecated
 	public int read() throws IOException {
@@ -8,14 +8,58 @@ import java.util.Collection;
 import java.util.Map;
 import java.util.Map.Entry;
 
+/**
+ * Writes Nimbus messages. A message is a command, a number of arguments, and
+ * the arguments themselves as byte strings. Two framings are supported:<br>
+ * <br>
+ * Version 1 is made of char tokens, an int command, a long argument count, and
+ * an int length before each argument, ending with {@link #END_CMD_TOKEN}.<br>
+ * <br>
+ * Version 2 starts with the {@link #V2_MAGIC} byte and a flags byte, followed
+ * by a variable length request ID if {@link #V2_FLAG_REQUEST_ID} is set, a
+ * single byte command, a variable length argument count, and a variable length
+ * header before each argument. The header is the argument's length shifted
+ * left by one, with the low bit set for typed values. There is no end token.<br>
+ * <br>
+ * A typed value starts with a type byte, {@link #TYPE_NULL} and the others,
+ * followed by a big-endian int or long for {@link #TYPE_INT} and
+ * {@link #TYPE_LONG}. Version 1 has no typed values, so booleans and numbers
+ * are written as strings and null as a {@link #NULL_TOKEN} in place of the
+ * bytes token and length.<br>
+ * <br>
+ * A version 1 message always starts with a zero byte, so readers can tell the
+ * two apart from the first byte. Version 1 is the default.
+ */
 public class NimbusOutputStream extends OutputStream {
 
 	public static final char CMD_TOKEN = '*';
 	public static final char END_CMD_TOKEN = '%';
 	public static final char ARGS_TOKEN = '&';
 	public static final char BYTES_TOKEN = '$';
+	public static final char REQUEST_ID_TOKEN = '#';
+	public static final char NULL_TOKEN = '!';
+
+	public static final int PROTOCOL_V1 = 1;
+	public static final int PROTOCOL_V2 = 2;
+	public static final int V2_MAGIC = 0xB2;
+	public static final int V2_FLAG_REQUEST_ID = 0x01;
+	public static final int V2_MAX_CMD = 0xFF;
+
+	public static final int TYPE_NULL = 0;
+	public static final int TYPE_FALSE = 1;
+	public static final int TYPE_TRUE = 2;
+	public static final int TYPE_INT = 3;
+	public static final int TYPE_LONG = 4;
+
+	/**
+	 * The request ID used for frames that do not carry one.
+	 */
+	public static final long NO_REQUEST_ID = -1L;
 
 	private DataOutputStream strm = null;
+	private long requestId = NO_REQUEST_ID;
+	private int version = PROTOCOL_V1;
+	private boolean autoFlush = true;
 
 	public NimbusOutputStream() {
 	}
@@ -23,12 +67,99 @@ public class NimbusOutputStream extends OutputStream {
 	public NimbusOutputStream(OutputStream out) {
 		strm = new DataOutputStream(new BufferedOutputStream(out));
 	}
-	
+
 	public void setOutputStream(OutputStream out) {
-		strm = new DataOutputStream(new BufferedOutputStream(out));		
+		strm = new DataOutputStream(new BufferedOutputStream(out));
 	}
 
-	public void prepStreamingWrite(int cmd, long numArgs) throws IOException {
+	/**
+	 * Sets the request ID written at the start of every following frame, until
+	 * it is set back to {@link NimbusOutputStream#NO_REQUEST_ID}. Frames that
+	 * carry an ID can be matched to their reply by the client, which lets it
+	 * keep many requests outstanding on one connection.
+	 *
+	 * @param requestId
+	 *            The request ID, or {@link NimbusOutputStream#NO_REQUEST_ID}.
+	 */
+	public void setRequestId(long requestId) {
+		this.requestId = requestId;
+	}
+
+	public long getRequestId() {
+		return requestId;
+	}
+
+	/**
+	 * Sets the framing used for every following message.
+	 *
+	 * @param version
+	 *            {@link #PROTOCOL_V1} or {@link #PROTOCOL_V2}.
+	 */
+	public void setProtocolVersion(int version) {
+		if (version != PROTOCOL_V1 && version != PROTOCOL_V2) {
+			throw new IllegalArgumentException("Unknown protocol version "
+					+ version);
+		}
+		this.version = version;
+	}
+
+	public int getProtocolVersion() {
+		return version;
+	}
+
+	/**
+	 * Sets whether the stream is flushed at the end of every message. Turning
+	 * this off lets many messages be written before a single call to
+	 * {@link #flush()}.
+	 * 
+	 * @param autoFlush
+	 *            True to flush after every message, the default.
+	 */
+	public void setAutoFlush(boolean autoFlush) {
+		this.autoFlush = autoFlush;
+	}
+
+	/**
+	 * Writes bytes that are already framed, such as a {@link LogBatch}, as-is.
+	 * Never flushes, regardless of {@link #setAutoFlush(boolean)}.
+	 *
+	 * @param bytes
+	 *            The bytes to write.
+	 * @param off
+	 *            The offset of the first byte.
+	 * @param len
+	 *            The number of bytes to write.
+	 * @throws IOException
+	 *             If an error occurs writing to the stream.
+	 */
+	public void writeRaw(byte[] bytes, int off, int len) throws IOException {
+		strm.write(bytes, off, len);
+	}
+
+	private void writeHeader(int cmd, long numArgs) throws IOException {
+		if (version == PROTOCOL_V2) {
+			if (cmd < 0 || cmd > V2_MAX_CMD) {
+				throw new IOException("Command " + cmd
+						+ " does not fit in a version 2 opcode");
+			}
+
+			strm.writeByte(V2_MAGIC);
+			if (requestId != NO_REQUEST_ID) {
+				strm.writeByte(V2_FLAG_REQUEST_ID);
+				VarInt.writeUnsignedVarLong(strm, requestId);
+			} else {
+				strm.writeByte(0);
+			}
+			strm.writeByte(cmd);
+			VarInt.writeUnsignedVarLong(strm, numArgs);
+			return;
+		}
+
+		if (requestId != NO_REQUEST_ID) {
+			strm.writeChar(REQUEST_ID_TOKEN);
+			strm.writeLong(requestId);
+		}
+
 		strm.writeChar(CMD_TOKEN);
 		strm.writeInt(cmd);
 
@@ -36,130 +167,198 @@ public class NimbusOutputStream extends OutputStream {
 		strm.writeLong(numArgs);
 	}
 
-	public void streamingWrite(byte[] arg) throws IOException {
-		strm.writeChar(BYTES_TOKEN);
-		strm.writeInt(arg.length);
+	private void writeArg(byte[] arg) throws IOException {
+		if (version == PROTOCOL_V2) {
+			VarInt.writeUnsignedVarLong(strm, (long) arg.length << 1);
+		} else {
+			strm.writeChar(BYTES_TOKEN);
+			strm.writeInt(arg.length);
+		}
 		strm.write(arg);
 	}
 
-	public void streamingWrite(String arg) throws IOException {
+	private void writeTypedHeader(int length) throws IOException {
+		VarInt.writeUnsignedVarLong(strm, ((long) length << 1) | 1L);
+	}
 
-		byte[] bytes = BytesUtil.toBytes(arg);
-		strm.writeChar(BYTES_TOKEN);
-		strm.writeInt(bytes.length);
-		strm.write(bytes);
+	private void writeNullArg() throws IOException {
+		if (version == PROTOCOL_V2) {
+			writeTypedHeader(1);
+			strm.writeByte(TYPE_NULL);
+		} else {
+			strm.writeChar(NULL_TOKEN);
+		}
 	}
 
-	public void streamingWrite(String... args) throws IOException {
+	private void writeBooleanArg(boolean value) throws IOException {
+		if (version == PROTOCOL_V2) {
+			writeTypedHeader(1);
+			strm.writeByte(value ? TYPE_TRUE : TYPE_FALSE);
+		} else {
+			writeArg(value ? BytesUtil.TRUE_BYTES : BytesUtil.FALSE_BYTES);
+		}
+	}
+
+	private void writeLongArg(long value, boolean isInt) throws IOException {
+		if (version == PROTOCOL_V2) {
+			if (isInt) {
+				writeTypedHeader(5);
+				strm.writeByte(TYPE_INT);
+				strm.writeInt((int) value);
+			} else {
+				writeTypedHeader(9);
+				strm.writeByte(TYPE_LONG);
+				strm.writeLong(value);
+			}
+		} else {
+			writeArg(BytesUtil.toBytes(Long.toString(value)));
+		}
+	}
 
-		byte[] bytes = null;
+	private void writeEnd() throws IOException {
+		if (version == PROTOCOL_V1) {
+			strm.writeChar(END_CMD_TOKEN);
+		}
+
+		if (autoFlush) {
+			strm.flush();
+		}
+	}
+
+	public void prepStreamingWrite(int cmd, long numArgs) throws IOException {
+		writeHeader(cmd, numArgs);
+	}
+
+	public void streamingWrite(byte[] arg) throws IOException {
+		writeArg(arg);
+	}
+
+	public void streamingWrite(String arg) throws IOException {
+		writeArg(BytesUtil.toBytes(arg));
+	}
+
+	public void streamingWrite(String... args) throws IOException {
 		for (String arg : args) {
-			bytes = BytesUtil.toBytes(arg);
-			strm.writeChar(BYTES_TOKEN);
-			strm.writeInt(bytes.length);
-			strm.write(bytes);
+			writeArg(BytesUtil.toBytes(arg));
 		}
 	}
 
 	public void endStreamingWrite() throws IOException {
-		strm.writeChar(END_CMD_TOKEN);
-		strm.flush();
+		writeEnd();
 	}
 
 	public void write(int cmd, byte[]... args) throws IOException {
-
-		strm.writeChar(CMD_TOKEN);
-		strm.writeInt(cmd);
-
-		strm.writeChar(ARGS_TOKEN);
-		strm.writeLong(args.length);
+		writeHeader(cmd, args.length);
 
 		for (byte[] arg : args) {
-			strm.writeChar(BYTES_TOKEN);
-			strm.writeInt(arg.length);
-			strm.write(arg);
+			writeArg(arg);
 		}
 
-		strm.writeChar(END_CMD_TOKEN);
-		strm.flush();
+		writeEnd();
 	}
 
 	public void write(int cmd, Collection<? extends String> args)
 			throws IOException {
-		strm.writeChar(CMD_TOKEN);
-		strm.writeInt(cmd);
-
-		strm.writeChar(ARGS_TOKEN);
-		strm.writeLong(args.size());
+		writeHeader(cmd, args.size());
 
-		byte[] bytes = null;
 		for (String arg : args) {
-			bytes = BytesUtil.toBytes(arg);
-			strm.writeChar(BYTES_TOKEN);
-			strm.writeInt(bytes.length);
-
-			strm.write(bytes);
+			writeArg(BytesUtil.toBytes(arg));
 		}
 
-		strm.writeChar(END_CMD_TOKEN);
-		strm.flush();
+		writeEnd();
 	}
 
 	public void write(int cmd, Map<? extends String, ? extends String> values)
 			throws IOException {
-		strm.writeChar(CMD_TOKEN);
-		strm.writeInt(cmd);
+		// each entry is sent as a key argument followed by a value argument
+		writeHeader(cmd, values.size() * 2L);
 
-		strm.writeChar(ARGS_TOKEN);
-		strm.writeLong(values.size());
-
-		byte[] bytes = null;
 		for (Entry<? extends String, ? extends String> entry : values
 				.entrySet()) {
-			bytes = BytesUtil.toBytes(entry.getKey());
-			strm.writeChar(BYTES_TOKEN);
-			strm.writeInt(bytes.length);
-			strm.write(bytes);
-
-			bytes = BytesUtil.toBytes(entry.getValue());
-			strm.writeChar(BYTES_TOKEN);
-			strm.writeInt(bytes.length);
-			strm.write(bytes);
+			writeArg(BytesUtil.toBytes(entry.getKey()));
+			writeArg(BytesUtil.toBytes(entry.getValue()));
 		}
 
-		strm.writeChar(END_CMD_TOKEN);
-		strm.flush();
+		writeEnd();
 	}
 
 	@Override
 	public void write(int cmd) throws IOException {
-		strm.writeChar(CMD_TOKEN);
-		strm.writeInt(cmd);
+		writeHeader(cmd, 0L);
+		writeEnd();
+	}
 
-		strm.writeChar(ARGS_TOKEN);
-		strm.writeLong(0L);
+	public void write(int cmd, String... args) throws IOException {
+		writeHeader(cmd, args.length);
 
-		strm.writeChar(END_CMD_TOKEN);
-		strm.flush();
+		for (String arg : args) {
+			writeArg(BytesUtil.toBytes(arg));
+		}
+
+		writeEnd();
 	}
 
-	public void write(int cmd, String... args) throws IOException {
-		strm.writeChar(CMD_TOKEN);
-		strm.writeInt(cmd);
+	/**
+	 * Writes a message with a single boolean argument.
+	 */
+	public void writeBoolean(int cmd, boolean value) throws IOException {
+		writeHeader(cmd, 1L);
+		writeBooleanArg(value);
+		writeEnd();
+	}
 
-		strm.writeChar(ARGS_TOKEN);
-		strm.writeLong(args.length);
+	/**
+	 * Writes a message with a single int argument.
+	 */
+	public void writeInt(int cmd, int value) throws IOException {
+		writeHeader(cmd, 1L);
+		writeLongArg(value, true);
+		writeEnd();
+	}
 
-		byte[] bytes = null;
-		for (String arg : args) {
-			bytes = BytesUtil.toBytes(arg);
-			strm.writeChar(BYTES_TOKEN);
-			strm.writeInt(bytes.length);
-			strm.write(bytes);
+	/**
+	 * Writes a message with a single long argument.
+	 */
+	public void writeLong(int cmd, long value) throws IOException {
+		writeHeader(cmd, 1L);
+		writeLongArg(value, false);
+		writeEnd();
+	}
+
+	/**
+	 * Writes a message with a single null argument.
+	 */
+	public void writeNull(int cmd) throws IOException {
+		writeHeader(cmd, 1L);
+		writeNullArg();
+		writeEnd();
+	}
+
+	/**
+	 * Writes a message with a single string argument, which may be null.
+	 */
+	public void writeString(int cmd, String value) throws IOException {
+		if (value == null) {
+			writeNull(cmd);
+		} else {
+			write(cmd, value);
 		}
+	}
 
-		strm.writeChar(END_CMD_TOKEN);
-		strm.flush();
+	public void streamingWriteNull() throws IOException {
+		writeNullArg();
+	}
+
+	public void streamingWrite(boolean value) throws IOException {
+		writeBooleanArg(value);
+	}
+
+	public void streamingWrite(int value) throws IOException {
+		writeLongArg(value, true);
+	}
+
+	public void streamingWrite(long value) throws IOException {
+		writeLongArg(value, false);
 	}
 
 	@Override
@@ -0,0 +1,164 @@
+package nimbus.utils;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An array of longs indexed by a long, stored as pages of at most
+ * {@link #PAGE_WORDS} words. A single Java array holds at most 2^31 elements,
+ * so this is how bit arrays and Bloom filters grow past 2 GB, and a large array
+ * does not need one contiguous block of the heap. Only the last page is
+ * shorter than the others, so small arrays cost no more than a long[].<br>
+ * <br>
+ * The array can be read from and written to a stream of bytes in either byte
+ * order. In {@link ByteOrder#LITTLE_ENDIAN} order, bit i of the array is bit
+ * i % 8 of byte i / 8, the layout of the byte arrays the bit arrays were
+ * stored in before, so their serialized forms are unchanged.
+ */
+public class PagedLongArray extends ILongArray {
+
+	public static final int PAGE_SHIFT = 20;
+	public static final int PAGE_WORDS = 1 << PAGE_SHIFT;
+	private static final long PAGE_MASK = PAGE_WORDS - 1;
+	private static final int IO_WORDS = 8192;
+
+	private long length = 0;
+	private long[][] pages = null;
+
+	/**
+	 * Creates an array of the given number of words, all zero.
+	 * 
+	 * @param length
+	 *            The number of words.
+	 */
+	public PagedLongArray(long length) {
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length " + length);
+		}
+
+		long numPages = (length + PAGE_MASK) >>> PAGE_SHIFT;
+		if (numPages > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Too many words " + length);
+		}
+
+		this.length = length;
+		pages = new long[(int) numPages][];
+		for (int i = 0; i < pages.length; ++i) {
+			pages[i] = new long[(int) Math.min(PAGE_WORDS, length
+					- ((long) i << PAGE_SHIFT))];
+		}
+	}
+
+	/**
+	 * Gets the number of words needed to hold the given number of bytes.
+	 */
+	public static long wordsForBytes(long numBytes) {
+		return (numBytes + 7) >>> 3;
+	}
+
+	@Override
+	public long length() {
+		return length;
+	}
+
+	@Override
+	public long get(long i) {
+		return pages[(int) (i >>> PAGE_SHIFT)][(int) (i & PAGE_MASK)];
+	}
+
+	@Override
+	public void set(long i, long value) {
+		pages[(int) (i >>> PAGE_SHIFT)][(int) (i & PAGE_MASK)] = value;
+	}
+
+	@Override
+	public void or(long i, long mask) {
+		pages[(int) (i >>> PAGE_SHIFT)][(int) (i & PAGE_MASK)] |= mask;
+	}
+
+	@Override
+	public void andNot(long i, long mask) {
+		pages[(int) (i >>> PAGE_SHIFT)][(int) (i & PAGE_MASK)] &= ~mask;
+	}
+
+	@Override
+	public void reset() {
+		for (long[] page : pages) {
+			for (int i = 0; i < page.length; ++i) {
+				page[i] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Reads words from the given stream, starting at the first word, until
+	 * the given number of bytes are read or the stream ends. A last word that
+	 * is cut short is filled with zeros.
+	 * 
+	 * @param in
+	 *            The stream to read from.
+	 * @param numBytes
+	 *            The most bytes to read, at most eight times the length.
+	 * @param order
+	 *            The order of the bytes in each word.
+	 * @return The number of bytes read.
+	 * @throws IOException
+	 *             If an error occurs reading the stream.
+	 */
+	public long readFrom(InputStream in, long numBytes, ByteOrder order)
+			throws IOException {
+		byte[] bytes = new byte[IO_WORDS * 8];
+		ByteBuffer buffer = ByteBuffer.wrap(bytes).order(order);
+		long read = 0;
+		long word = 0;
+		while (read < numBytes) {
+			int count = (int) Math.min(bytes.length, numBytes - read);
+			int n = readChunk(in, bytes, count);
+			for (int i = n; i < ((n + 7) & ~7); ++i) {
+				bytes[i] = 0;
+			}
+
+			buffer.clear();
+			for (int i = 0; i < n; i += 8) {
+				set(word++, buffer.getLong(i));
+			}
+
+			read += n;
+			if (n < count) {
+				break;
+			}
+		}
+		return read;
+	}
+
+	/**
+	 * Reads exactly the given number of bytes into the array.
+	 * 
+	 * @throws EOFException
+	 *             If the stream ends first.
+	 */
+	public void readFully(InputStream in, long numBytes, ByteOrder order)
+			throws IOException {
+		long read = readFrom(in, numBytes, order);
+		if (read != numBytes) {
+			throw new EOFException("Read " + read + " of " + numBytes
+					+ " bytes");
+		}
+	}
+
+	private static int readChunk(InputStream in, byte[] bytes, int count)
+			throws IOException {
+		int n = 0;
+		while (n < count) {
+			int r = in.read(bytes, n, count - n);
+			if (r == -1) {
+				break;
+			}
+			n += r;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,16 @@
+package nimbus.utils;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a message does not fit in the space left in a preallocated
+ * {@link MappedWriteAheadFile}.
+ */
+public class SegmentFullException extends IOException {
+
+	private static final long serialVersionUID = 4385113720921850146L;
+
+	public SegmentFullException(String msg) {
+		super(msg);
+	}
+}
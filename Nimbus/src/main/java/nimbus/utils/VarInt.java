@@ -0,0 +1,117 @@
+package nimbus.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Encodes and decodes unsigned variable length integers. Each byte holds seven
+ * bits of the value, least significant group first, and the high bit of each
+ * byte is set if more bytes follow. Values under 128 take a single byte.
+ */
+public class VarInt {
+
+	/**
+	 * The most bytes a long can take once encoded.
+	 */
+	public static final int MAX_VARLONG_SIZE = 10;
+
+	private VarInt() {
+	}
+
+	public static void writeUnsignedVarLong(DataOutput out, long value)
+			throws IOException {
+		while ((value & ~0x7FL) != 0L) {
+			out.writeByte(((int) value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	public static long readUnsignedVarLong(DataInput in) throws IOException {
+		long value = 0L;
+		int shift = 0;
+		int b;
+		do {
+			if (shift >= 64) {
+				throw new IOException("Variable length integer is too long");
+			}
+
+			b = in.readUnsignedByte();
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+
+	/**
+	 * Gets the number of bytes taken by the given value once encoded.
+	 *
+	 * @param value
+	 *            The value.
+	 * @return The encoded size.
+	 */
+	public static int sizeOf(long value) {
+		int size = 1;
+		while ((value & ~0x7FL) != 0L) {
+			value >>>= 7;
+			++size;
+		}
+		return size;
+	}
+
+	/**
+	 * Gets the number of bytes of the encoded value starting at the given
+	 * index of the buffer, without moving its position.
+	 *
+	 * @param buf
+	 *            The buffer.
+	 * @param index
+	 *            The index of the first byte of the value.
+	 * @param limit
+	 *            The index after the last byte that can be looked at.
+	 * @return The encoded size, or -1 if the value does not end before the
+	 *         limit.
+	 * @throws IOException
+	 *             If the value is longer than any encoded long.
+	 */
+	public static int sizeOf(ByteBuffer buf, int index, int limit)
+			throws IOException {
+		for (int i = index; i < limit; ++i) {
+			if (i - index >= MAX_VARLONG_SIZE) {
+				throw new IOException("Variable length integer is too long");
+			}
+
+			if ((buf.get(i) & 0x80) == 0) {
+				return i - index + 1;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Decodes the value starting at the given index of the buffer, without
+	 * moving its position. The caller must know that the whole value is in the
+	 * buffer, see {@link VarInt#sizeOf(ByteBuffer, int, int)}.
+	 *
+	 * @param buf
+	 *            The buffer.
+	 * @param index
+	 *            The index of the first byte of the value.
+	 * @return The value.
+	 */
+	public static long getUnsignedVarLong(ByteBuffer buf, int index) {
+		long value = 0L;
+		int shift = 0;
+		int b;
+		do {
+			b = buf.get(index++);
+			value |= (long) (b & 0x7F) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+
+		return value;
+	}
+}
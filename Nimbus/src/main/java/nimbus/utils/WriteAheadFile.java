@@ -4,15 +4,20 @@ import java.io.IOException;
 
 import nimbus.main.NimbusConf;
 
+import org.apache.hadoop.fs.FSDataOutputStream;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.log4j.Logger;
 
-public class WriteAheadFile extends NimbusOutputStream {
+/**
+ * A {@link IWriteAheadFile} written directly to HDFS.
+ */
+public class WriteAheadFile extends IWriteAheadFile {
 
 	private static final Logger LOG = Logger.getLogger(WriteAheadFile.class);
 	private Path file = null;
 	private FileSystem fs = null;
+	private FSDataOutputStream fsOut = null;
 
 	public WriteAheadFile(Path p) throws IOException {
 		fs = FileSystem.get(NimbusConf.getConf());
@@ -20,16 +25,43 @@ public class WriteAheadFile extends NimbusOutputStream {
 		LOG.info("Creating " + file + " for write");
 	}
 
+	@Override
 	public void open() throws IOException {
-		super.setOutputStream(fs.create(file));
+		fsOut = fs.create(file);
+		super.setOutputStream(fsOut);
 	}
 
+	/**
+	 * Flushes all buffered messages and syncs them to the datanodes.
+	 */
+	@Override
+	public void sync() throws IOException {
+		flush();
+		if (fsOut != null) {
+			fsOut.sync();
+		}
+	}
+
+	/**
+	 * Flushes all buffered messages and closes the file.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (fsOut != null) {
+			flush();
+			fsOut.close();
+			fsOut = null;
+		}
+	}
+
+	@Override
 	public void delete() throws IOException {
 		if (fs.exists(file)) {
 			fs.delete(file, false);
 		}
 	}
 
+	@Override
 	public Path getFile() {
 		return file;
 	}
@@ -0,0 +1,647 @@
+package nimbus.utils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import nimbus.main.NimbusConf;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * A group commit write ahead log. Writers add {@link LogRecord}s to a bounded
+ * queue and a single flusher thread writes them to the current
+ * {@link IWriteAheadFile} in groups, with one flush (or sync) per group instead
+ * of one per record. A group is written once it reaches the batch size or the
+ * flush interval has passed since its first record arrived, and is written as
+ * a single checksummed {@link LogBatch}.<br>
+ * <br>
+ * The queue bounds how far writers can get ahead of the disk. A writer can
+ * {@link #reserve()} room before taking its own locks, so that only the
+ * reservation ever blocks on the flusher.<br>
+ * <br>
+ * Every record is given a sequence number when it is queued. Writers wait for
+ * their record based on the {@link WriteAheadLogAckMode}. Records are written
+ * in the order they were queued. If a write fails, the flusher opens a new
+ * file and rewrites the whole group, retrying every second until it succeeds.
+ * A group too large for an empty local file is split across files, and a
+ * single record too large for the largest file is dropped with an error.<br>
+ * <br>
+ * Files are written to HDFS or, with {@link WriteAheadLogBackend#LOCAL_MMAP},
+ * to preallocated memory mapped files on the local disk that are copied to
+ * HDFS in the background once they are closed.
+ */
+public class WriteAheadLog implements Runnable {
+
+	private static final Logger LOG = Logger.getLogger(WriteAheadLog.class);
+
+	private String cacheName = null;
+	private String cacheletName = null;
+	private WriteAheadLogAckMode ackMode = null;
+	private int batchSize = 0;
+	private long flushInterval = 0;
+	private WriteAheadLogBackend backend = null;
+	private int segmentSize = 0;
+
+	private static final int MAX_SHIP_ATTEMPTS = 5;
+	private static final int MAX_SEGMENT_SIZE = Integer.MAX_VALUE / 2 + 1;
+
+	private IWriteAheadFile waffle = null;
+	private LogBatch encoder = new LogBatch();
+	private ExecutorService shipper = null;
+	private ArrayBlockingQueue<LogRecord> queue = null;
+	// one permit per free slot in the queue
+	private Semaphore slots = null;
+	private Thread flusher = null;
+	private volatile boolean closed = false;
+	// set by the flusher when the current file cannot take more writes
+	private boolean needsNewFile = false;
+	// guarded by itself, the local files that failed to ship
+	private final List<MappedWriteAheadFile> unshipped =
+			new ArrayList<MappedWriteAheadFile>();
+
+	// guarded by queue, so sequence numbers follow queue order
+	private long lastQueued = 0;
+
+	// guarded by ackLock
+	private final Object ackLock = new Object();
+	private long lastWritten = 0;
+
+	/**
+	 * Initializes a new instance of the {@link WriteAheadLog} class using the
+	 * settings from {@link NimbusConf}. The log is not opened until
+	 * {@link WriteAheadLog#open()} is called.
+	 *
+	 * @param cacheName
+	 *            The Cache this log belongs to.
+	 * @param cacheletName
+	 *            The Cachelet this log belongs to.
+	 */
+	public WriteAheadLog(String cacheName, String cacheletName) {
+		this(cacheName, cacheletName, NimbusConf.getConf()
+				.getWriteAheadLogAckMode(), NimbusConf.getConf()
+				.getWriteAheadLogQueueSize(), NimbusConf.getConf()
+				.getWriteAheadLogBatchSize(), NimbusConf.getConf()
+				.getWriteAheadLogFlushInterval(), NimbusConf.getConf()
+				.getWriteAheadLogBackend(), NimbusConf.getConf()
+				.getWriteAheadLogSegmentSize());
+	}
+
+	/**
+	 * Initializes a new instance of the {@link WriteAheadLog} class. The log
+	 * is not opened until {@link WriteAheadLog#open()} is called.
+	 *
+	 * @param cacheName
+	 *            The Cache this log belongs to.
+	 * @param cacheletName
+	 *            The Cachelet this log belongs to.
+	 * @param ackMode
+	 *            When writes are acknowledged.
+	 * @param queueSize
+	 *            The number of records that can be queued before writers
+	 *            block.
+	 * @param batchSize
+	 *            The most records written in one group.
+	 * @param flushInterval
+	 *            How long, in milliseconds, to wait to fill a group.
+	 * @param backend
+	 *            Where the files are written.
+	 * @param segmentSize
+	 *            The size local files are preallocated to, if the backend is
+	 *            {@link WriteAheadLogBackend#LOCAL_MMAP}.
+	 */
+	public WriteAheadLog(String cacheName, String cacheletName,
+			WriteAheadLogAckMode ackMode, int queueSize, int batchSize,
+			long flushInterval, WriteAheadLogBackend backend, int segmentSize) {
+		this.cacheName = cacheName;
+		this.backend = backend;
+		this.segmentSize = segmentSize;
+		this.cacheletName = cacheletName;
+		this.ackMode = ackMode;
+		this.batchSize = Math.max(1, batchSize);
+		this.flushInterval = Math.max(0, flushInterval);
+		this.queue = new ArrayBlockingQueue<LogRecord>(Math.max(1, queueSize));
+		this.slots = new Semaphore(Math.max(1, queueSize));
+	}
+
+	/**
+	 * Creates a new log file and starts the flusher thread.
+	 *
+	 * @throws IOException
+	 *             If the file cannot be created.
+	 */
+	public void open() throws IOException {
+		if (backend == WriteAheadLogBackend.LOCAL_MMAP) {
+			shipper = Executors.newSingleThreadExecutor();
+		}
+
+		newWriteAheadFile();
+
+		flusher = new Thread(this, "WriteAheadLog-" + cacheName);
+		flusher.setDaemon(true);
+		flusher.start();
+	}
+
+	/**
+	 * Queues a record, blocking while the queue is full.
+	 *
+	 * @param cmd
+	 *            The command to log.
+	 * @param args
+	 *            The arguments of the command.
+	 * @return The sequence number of the record, to pass to
+	 *         {@link WriteAheadLog#await(long)}.
+	 */
+	public long append(int cmd, String... args) {
+		reserve();
+		return appendReserved(cmd, args);
+	}
+
+	/**
+	 * Blocks until there is room in the queue for one more record and holds
+	 * it for the next call to
+	 * {@link WriteAheadLog#appendReserved(int, String...)}. Lets a writer wait
+	 * for the flusher to catch up before it takes any locks of its own.
+	 */
+	public void reserve() {
+		slots.acquireUninterruptibly();
+	}
+
+	/**
+	 * Queues a record in the room held by an earlier call to
+	 * {@link WriteAheadLog#reserve()}. Never blocks on the flusher.
+	 *
+	 * @param cmd
+	 *            The command to log.
+	 * @param args
+	 *            The arguments of the command.
+	 * @return The sequence number of the record, to pass to
+	 *         {@link WriteAheadLog#await(long)}.
+	 */
+	public long appendReserved(int cmd, String... args) {
+		return enqueue(new LogRecord(cmd, args));
+	}
+
+	/**
+	 * Same as {@link WriteAheadLog#appendReserved(int, String...)}, for
+	 * arguments that are already UTF-8 bytes. The bytes are written as they
+	 * are, and must not be changed until the record is acknowledged.
+	 *
+	 * @param cmd
+	 *            The command to log.
+	 * @param args
+	 *            The UTF-8 bytes of the arguments of the command.
+	 * @return The sequence number of the record, to pass to
+	 *         {@link WriteAheadLog#await(long)}.
+	 */
+	public long appendReserved(int cmd, byte[]... args) {
+		return enqueue(new LogRecord(cmd, args));
+	}
+
+	private long enqueue(LogRecord record) {
+		synchronized (queue) {
+			// a slot was reserved, so there is always room
+			if (!queue.offer(record)) {
+				throw new IllegalStateException(
+						"Write ahead log queue is full without a reservation");
+			}
+			return ++lastQueued;
+		}
+	}
+
+	/**
+	 * Closes the current file and starts a new one. Every record queued before
+	 * this call is in an older file, and every record queued after it is in
+	 * the returned file or a newer one.
+	 *
+	 * @return The file that was started.
+	 */
+	public Path roll() {
+		RollRecord roll = new RollRecord();
+		reserve();
+		awaitWritten(enqueue(roll));
+		return roll.file;
+	}
+
+	/**
+	 * Waits until the record with the given sequence number is acknowledged,
+	 * based on the ack mode. Returns immediately in
+	 * {@link WriteAheadLogAckMode#ASYNC} mode.
+	 *
+	 * @param seq
+	 *            The sequence number returned by
+	 *            {@link WriteAheadLog#append(int, String...)}.
+	 */
+	public void await(long seq) {
+		if (ackMode != WriteAheadLogAckMode.ASYNC) {
+			awaitWritten(seq);
+		}
+	}
+
+	private void awaitWritten(long seq) {
+		synchronized (ackLock) {
+			boolean interrupted = false;
+			while (lastWritten < seq) {
+				try {
+					ackLock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Queues a record and waits for it to be acknowledged.
+	 *
+	 * @param cmd
+	 *            The command to log.
+	 * @param args
+	 *            The arguments of the command.
+	 */
+	public void write(int cmd, String... args) {
+		await(append(cmd, args));
+	}
+
+	/**
+	 * Writes every queued record, stops the flusher thread, and closes the
+	 * current file.
+	 */
+	public void close() {
+		closed = true;
+		if (flusher != null) {
+			try {
+				flusher.join();
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+		}
+
+		try {
+			if (waffle != null) {
+				LOG.info("Closing write ahead file");
+				waffle.close();
+
+				if (waffle instanceof MappedWriteAheadFile) {
+					ship((MappedWriteAheadFile) waffle);
+				}
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+
+		if (shipper != null) {
+			shipper.shutdown();
+			try {
+				if (!shipper.awaitTermination(60, TimeUnit.SECONDS)) {
+					LOG.warn("Gave up waiting for write ahead logs to ship");
+				}
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+
+			synchronized (unshipped) {
+				for (MappedWriteAheadFile local : unshipped) {
+					LOG.fatal("Closed without shipping " + local.getFile()
+							+ ", which is the only copy of its writes");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gets the number of closed local files that failed to ship to HDFS and
+	 * are waiting to be tried again. Until they ship, the local files are the
+	 * only copy of their writes.
+	 *
+	 * @return The number of files.
+	 */
+	public int getNumUnshippedFiles() {
+		synchronized (unshipped) {
+			return unshipped.size();
+		}
+	}
+
+	public IWriteAheadFile getWriteAheadFile() {
+		return waffle;
+	}
+
+	public WriteAheadLogAckMode getAckMode() {
+		return ackMode;
+	}
+
+	@Override
+	public void run() {
+		List<LogRecord> batch = new ArrayList<LogRecord>(batchSize);
+		while (!closed || !queue.isEmpty()) {
+			try {
+				LogRecord first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+
+				long deadline = System.currentTimeMillis() + flushInterval;
+				while (batch.size() < batchSize) {
+					if (queue.drainTo(batch, batchSize - batch.size()) == 0) {
+						long wait = deadline - System.currentTimeMillis();
+						if (wait <= 0) {
+							break;
+						}
+
+						LogRecord next = queue.poll(wait,
+								TimeUnit.MILLISECONDS);
+						if (next == null) {
+							break;
+						}
+						batch.add(next);
+					}
+				}
+			} catch (InterruptedException e) {
+				LOG.warn("Write ahead log flusher interrupted");
+			}
+
+			if (!batch.isEmpty()) {
+				// the records are out of the queue, so let writers refill it
+				// while this group is written
+				slots.release(batch.size());
+				writeBatch(batch);
+
+				synchronized (ackLock) {
+					lastWritten += batch.size();
+					ackLock.notifyAll();
+				}
+
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Writes a group, rolling to a new file at each {@link RollRecord}.
+	 */
+	private void writeBatch(List<LogRecord> batch) {
+		int start = 0;
+		for (int i = 0; i < batch.size(); ++i) {
+			if (batch.get(i) instanceof RollRecord) {
+				writeRecords(batch.subList(start, i));
+				roll((RollRecord) batch.get(i));
+				start = i + 1;
+			}
+		}
+		writeRecords(batch.subList(start, batch.size()));
+	}
+
+	/**
+	 * Writes records as one batch, retrying until they are written. Records
+	 * that do not fit in an empty file are split into smaller batches, and
+	 * files only grow to fit a single record.
+	 */
+	private void writeRecords(List<LogRecord> records) {
+		if (records.isEmpty()) {
+			return;
+		}
+
+		while (true) {
+			try {
+				if (needsNewFile) {
+					newWriteAheadFile();
+					needsNewFile = false;
+				}
+
+				encoder.clear();
+				for (LogRecord record : records) {
+					encoder.add(record);
+				}
+				encoder.writeTo(waffle);
+				flush();
+				return;
+			} catch (SegmentFullException e) {
+				// the file holds part of a batch that was never committed
+				needsNewFile = true;
+				if (((MappedWriteAheadFile) waffle).getCommittedLength() != 0) {
+					// try again in an empty file
+					continue;
+				}
+
+				if (records.size() > 1) {
+					LOG.warn("Group of " + records.size()
+							+ " records does not fit in a file.  Splitting it");
+					int half = records.size() / 2;
+					writeRecords(records.subList(0, half));
+					writeRecords(records.subList(half, records.size()));
+					return;
+				}
+
+				if (segmentSize >= MAX_SEGMENT_SIZE) {
+					LOG.error("Record of command " + records.get(0).getCmd()
+							+ " does not fit in a file of " + segmentSize
+							+ " bytes.  Dropping it from the write ahead log");
+					return;
+				}
+
+				segmentSize = (int) Math.min(MAX_SEGMENT_SIZE,
+						(long) segmentSize * 2);
+				LOG.warn("Record does not fit in a file.  Growing files to "
+						+ segmentSize + " bytes");
+			} catch (IOException e) {
+				LOG.error("Failed to write " + records.size()
+						+ " records to the write ahead log: " + e.getMessage());
+				needsNewFile = true;
+
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e2) {
+					e2.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void roll(RollRecord roll) {
+		while (true) {
+			try {
+				newWriteAheadFile();
+				needsNewFile = false;
+				roll.file = waffle.getFile();
+				return;
+			} catch (IOException e) {
+				LOG.error("Failed to roll the write ahead log: "
+						+ e.getMessage());
+
+				try {
+					Thread.sleep(1000);
+				} catch (InterruptedException e2) {
+					e2.printStackTrace();
+				}
+			}
+		}
+	}
+
+	private void flush() throws IOException {
+		if (ackMode == WriteAheadLogAckMode.SYNC) {
+			waffle.sync();
+		} else {
+			waffle.flush();
+		}
+	}
+
+	private void newWriteAheadFile() throws IOException {
+		String lastName = null;
+		if (waffle != null) {
+			lastName = waffle.getFile().getName();
+			try {
+				LOG.info("Closing write ahead file");
+				waffle.close();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+
+			if (waffle instanceof MappedWriteAheadFile) {
+				ship((MappedWriteAheadFile) waffle);
+			}
+		}
+
+		// files are named by time, so never reuse the current file's name
+		IWriteAheadFile next = createWriteAheadFile();
+		while (next.getFile().getName().equals(lastName)) {
+			try {
+				Thread.sleep(1);
+			} catch (InterruptedException e) {
+				e.printStackTrace();
+			}
+			next = createWriteAheadFile();
+		}
+
+		waffle = next;
+		waffle.open();
+		waffle.setAutoFlush(false);
+	}
+
+	private IWriteAheadFile createWriteAheadFile() throws IOException {
+		switch (backend) {
+		case LOCAL_MMAP:
+			return new MappedWriteAheadFile(NimbusConf.getConf()
+					.getLocalWriteAheadLog(cacheName, cacheletName),
+					segmentSize);
+		case HDFS:
+		default:
+			return new WriteAheadFile(NimbusConf.getConf().getWriteAheadLog(
+					cacheName, cacheletName));
+		}
+	}
+
+	/**
+	 * Copies the committed messages of a closed local file to HDFS in the
+	 * background. The local file is kept, and is preferred by recovery. Any
+	 * earlier files that failed to ship are tried again first.
+	 */
+	private void ship(MappedWriteAheadFile local) {
+		List<MappedWriteAheadFile> files =
+				new ArrayList<MappedWriteAheadFile>();
+		synchronized (unshipped) {
+			files.addAll(unshipped);
+			unshipped.clear();
+		}
+		files.add(local);
+
+		for (MappedWriteAheadFile file : files) {
+			submitShip(file);
+		}
+	}
+
+	private void submitShip(final MappedWriteAheadFile local) {
+		shipper.submit(new Runnable() {
+			@Override
+			public void run() {
+				Path remote = new Path(NimbusConf.getConf()
+						.getWriteAheadLogDir()
+						+ "/"
+						+ cacheName
+						+ "/"
+						+ cacheletName + "/" + local.getFile().getName());
+
+				for (int attempt = 1;; ++attempt) {
+					try {
+						DataInputStream in = new DataInputStream(
+								new BufferedInputStream(new FileInputStream(
+										new File(local.getFile().toUri()))));
+						byte[] bytes;
+						try {
+							if (in.readInt() != MappedWriteAheadFile.MAGIC) {
+								throw new IOException(local.getFile()
+										+ " is not a memory mapped log");
+							}
+							bytes = MappedWriteAheadFile.readCommitted(in);
+						} finally {
+							in.close();
+						}
+
+						FSDataOutputStream out = FileSystem.get(
+								NimbusConf.getConf()).create(remote);
+						try {
+							out.write(bytes);
+						} finally {
+							out.close();
+						}
+
+						LOG.info("Shipped " + local.getFile() + " to " + remote);
+						return;
+					} catch (IOException e) {
+						LOG.error("Failed to ship " + local.getFile() + " to "
+								+ remote + ", attempt " + attempt + ": "
+								+ e.getMessage());
+						if (attempt == MAX_SHIP_ATTEMPTS) {
+							giveUp(remote);
+							return;
+						}
+					}
+
+					try {
+						Thread.sleep(1000);
+					} catch (InterruptedException e) {
+						giveUp(remote);
+						return;
+					}
+				}
+			}
+
+			private void giveUp(Path remote) {
+				LOG.fatal("Gave up shipping " + local.getFile() + " to "
+						+ remote + ".  The local file is the only copy of its "
+						+ "acknowledged writes until the next file ships");
+				synchronized (unshipped) {
+					unshipped.add(local);
+				}
+			}
+		});
+	}
+
+	/**
+	 * A marker in the queue telling the flusher to start a new file.
+	 */
+	private static class RollRecord extends LogRecord {
+
+		private volatile Path file = null;
+
+		public RollRecord() {
+			super(-1);
+		}
+	}
+}
@@ -0,0 +1,25 @@
+package nimbus.utils;
+
+/**
+ * An enumeration for when a write to the {@link WriteAheadLog} is
+ * acknowledged to the writer.
+ */
+public enum WriteAheadLogAckMode {
+	/**
+	 * The write is acknowledged as soon as it is queued. Writes still in the
+	 * queue are lost if the Cachelet fails.
+	 */
+	ASYNC,
+
+	/**
+	 * The write is acknowledged once the group containing it has been flushed
+	 * to the file system.
+	 */
+	BATCHED,
+
+	/**
+	 * The write is acknowledged once the group containing it has been flushed
+	 * and synced to the file system.
+	 */
+	SYNC
+}
@@ -0,0 +1,18 @@
+package nimbus.utils;
+
+/**
+ * An enumeration for where a {@link WriteAheadLog} writes its files.
+ */
+public enum WriteAheadLogBackend {
+	/**
+	 * Files are written directly to HDFS. See {@link WriteAheadFile}
+	 */
+	HDFS,
+
+	/**
+	 * Files are preallocated and memory mapped on the Cachelet's local disk,
+	 * then copied to HDFS once they are closed. See
+	 * {@link MappedWriteAheadFile}
+	 */
+	LOCAL_MMAP
+}
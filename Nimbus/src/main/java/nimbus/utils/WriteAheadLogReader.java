@@ -0,0 +1,107 @@
+package nimbus.utils;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import nimbus.main.NimbusConf;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/**
+ * Decodes the {@link LogRecord}s of a single write ahead log file. Decoding
+ * does not depend on the state of the Cachelet, so many files can be decoded
+ * at once and their records applied in order afterwards.
+ */
+public class WriteAheadLogReader {
+
+	private static final Logger LOG = Logger
+			.getLogger(WriteAheadLogReader.class);
+
+	private WriteAheadLogReader() {
+	}
+
+	/**
+	 * Reads every record in the given file, which holds either
+	 * {@link LogBatch}es or, if written before batches were introduced, one
+	 * message per record. A batch or message cut off by the end of the file is
+	 * dropped, as it was never acknowledged, and so is a last batch that fails
+	 * its checksum.
+	 *
+	 * @param file
+	 *            The file to read.
+	 * @return The records, in the order they were written.
+	 * @throws IOException
+	 *             If the file cannot be read or is corrupt before its tail.
+	 */
+	public static List<LogRecord> read(Path file) throws IOException {
+		List<LogRecord> records = new ArrayList<LogRecord>();
+		BufferedInputStream in = open(file);
+		try {
+			in.mark(1);
+			int first = in.read();
+			in.reset();
+
+			if (first == LogBatch.MAGIC) {
+				if (!LogBatch.read(new DataInputStream(in), records)) {
+					LOG.warn("Dropped torn batch at the end of " + file);
+				}
+			} else if (first != -1) {
+				readMessages(new NimbusInputStream(in), records);
+			}
+		} finally {
+			in.close();
+		}
+
+		LOG.info("Read " + records.size() + " records from " + file);
+		return records;
+	}
+
+	private static void readMessages(NimbusInputStream in,
+			List<LogRecord> records) throws IOException {
+		try {
+			while (true) {
+				int cmd = in.readCmd();
+				long numArgs = in.readNumArgs();
+
+				String[] args = new String[(int) numArgs];
+				for (int i = 0; i < args.length; ++i) {
+					args[i] = in.readArgString();
+				}
+
+				in.verifyEndOfMessage();
+				records.add(new LogRecord(cmd, args));
+			}
+		} catch (EOFException e) {
+			// end of the file, or a torn message at its end
+		}
+	}
+
+	/**
+	 * Opens a file written to HDFS, or the committed part of a local
+	 * {@link MappedWriteAheadFile}.
+	 */
+	private static BufferedInputStream open(Path file) throws IOException {
+		FileSystem fs = file.getFileSystem(NimbusConf.getConf());
+
+		DataInputStream in = new DataInputStream(fs.open(file));
+		try {
+			if (in.readInt() == MappedWriteAheadFile.MAGIC) {
+				return new BufferedInputStream(new ByteArrayInputStream(
+						MappedWriteAheadFile.readCommitted(in)));
+			}
+		} catch (EOFException e) {
+			// too short to be a memory mapped file
+		} finally {
+			in.close();
+		}
+
+		return new BufferedInputStream(fs.open(file));
+	}
+}
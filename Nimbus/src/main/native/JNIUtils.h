@@ -1,26 +1,231 @@
-#include <jni.h>
-#include "SetFactory.h"
-
-#ifndef _Included_JNIUtils
-#define _Included_JNIUtils
-
-
-class JNIUtils
-{  
-public:
-    static const char* strFromJString(JNIEnv* env, jstring element)
-    {    
-	    int length = env->GetStringUTFLength(element);
-	    char* chars = new char[length+1];
-	    env->GetStringUTFRegion(element, 0, length, chars);
-	    chars[length] = '\0';
-	    return chars;
-    }
-
-    static jstring strToJString(JNIEnv* env, const char* element)
-    {
-	    return env->NewStringUTF(element);
-    }
-};
-
+#include <jni.h>
+#include <vector>
+#include <cstring>
+
+#ifndef _Included_JNIUtils
+#define _Included_JNIUtils
+
+
+class JNIUtils
+{  
+public:
+    static const char* strFromJString(JNIEnv* env, jstring element)
+    {    
+	    int length = env->GetStringUTFLength(element);
+	    char* chars = new char[length+1];
+	    // the region is in chars, the length in bytes
+	    env->GetStringUTFRegion(element, 0, env->GetStringLength(element), chars);
+	    chars[length] = '\0';
+	    return chars;
+    }
+
+    /*
+     * As above, but into the given scratch space, for lookups that do not keep
+     * the string.
+     */
+    static const char* strFromJString(JNIEnv* env, jstring element, std::vector<char>& scratch)
+    {
+	    int length = env->GetStringUTFLength(element);
+	    scratch.resize(length+1);
+	    env->GetStringUTFRegion(element, 0, env->GetStringLength(element), &scratch[0]);
+	    scratch[length] = '\0';
+	    return &scratch[0];
+    }
+
+    static jstring strToJString(JNIEnv* env, const char* element)
+    {
+	    return env->NewStringUTF(element);
+    }
+
+    /*
+     * Copies UTF-8 bytes from a Java array to a new string in the modified
+     * UTF-8 that strFromJString produces, so an element stores the same
+     * whether it was passed as bytes or as a String. Only NUL and characters
+     * outside the Basic Multilingual Plane are encoded differently.
+     */
+    static const char* strFromUTF8(JNIEnv* env, jbyteArray bytes, jint offset, jint length)
+    {
+	    std::vector<char> scratch;
+	    strFromUTF8(env, bytes, offset, length, scratch);
+	    char* chars = new char[scratch.size()];
+	    memcpy(chars, &scratch[0], scratch.size());
+	    return chars;
+    }
+
+    /*
+     * As above, but into the given scratch space, for lookups that do not keep
+     * the string.
+     */
+    static const char* strFromUTF8(JNIEnv* env, jbyteArray bytes, jint offset, jint length, std::vector<char>& scratch)
+    {
+	    scratch.resize(length+1);
+	    env->GetByteArrayRegion(bytes, offset, length, (jbyte*)&scratch[0]);
+
+	    bool plain = true;
+	    for (int i = 0; i < length && plain; ++i)
+	    {
+		    unsigned char c = scratch[i];
+		    plain = c != 0 && c < 0xF0;
+	    }
+
+	    if (plain)
+	    {
+		    scratch[length] = '\0';
+		    return &scratch[0];
+	    }
+
+	    std::vector<char> in(scratch.begin(), scratch.begin() + length);
+	    scratch.clear();
+	    for (int i = 0; i < length; ++i)
+	    {
+		    unsigned char c = in[i];
+		    if (c == 0)
+		    {
+			    scratch.push_back((char)0xC0);
+			    scratch.push_back((char)0x80);
+		    }
+		    else if (c >= 0xF0 && i + 3 < length)
+		    {
+			    // a four byte character becomes a surrogate pair
+			    int cp = ((c & 0x07) << 18) | ((in[i+1] & 0x3F) << 12)
+				    | ((in[i+2] & 0x3F) << 6) | (in[i+3] & 0x3F);
+			    cp -= 0x10000;
+			    putSurrogate(scratch, 0xD800 + (cp >> 10));
+			    putSurrogate(scratch, 0xDC00 + (cp & 0x3FF));
+			    i += 3;
+		    }
+		    else
+		    {
+			    scratch.push_back(in[i]);
+		    }
+	    }
+
+	    scratch.push_back('\0');
+	    return &scratch[0];
+    }
+
+    /*
+     * Copies a string to a new Java array in standard UTF-8, undoing
+     * strFromUTF8.
+     */
+    static jbyteArray strToUTF8(JNIEnv* env, const char* element)
+    {
+	    int length = strlen(element);
+	    bool plain = true;
+	    for (int i = 0; i < length && plain; ++i)
+	    {
+		    unsigned char c = element[i];
+		    plain = c != 0xC0 && c != 0xED;
+	    }
+
+	    std::vector<char> out;
+	    if (!plain)
+	    {
+		    for (int i = 0; i < length; ++i)
+		    {
+			    unsigned char c = element[i];
+			    if (c == 0xC0 && i + 1 < length && (unsigned char)element[i+1] == 0x80)
+			    {
+				    out.push_back(0);
+				    i += 1;
+			    }
+			    else if (c == 0xED && i + 5 < length
+					    && ((unsigned char)element[i+1] & 0xF0) == 0xA0
+					    && (unsigned char)element[i+3] == 0xED
+					    && ((unsigned char)element[i+4] & 0xF0) == 0xB0)
+			    {
+				    int hi = ((element[i+1] & 0x0F) << 6) | (element[i+2] & 0x3F);
+				    int lo = ((element[i+4] & 0x0F) << 6) | (element[i+5] & 0x3F);
+				    int cp = 0x10000 + (hi << 10) + lo;
+				    out.push_back((char)(0xF0 | (cp >> 18)));
+				    out.push_back((char)(0x80 | ((cp >> 12) & 0x3F)));
+				    out.push_back((char)(0x80 | ((cp >> 6) & 0x3F)));
+				    out.push_back((char)(0x80 | (cp & 0x3F)));
+				    i += 5;
+			    }
+			    else
+			    {
+				    out.push_back(element[i]);
+			    }
+		    }
+
+		    element = out.empty() ? "" : &out[0];
+		    length = out.size();
+	    }
+
+	    jbyteArray retval = env->NewByteArray(length);
+	    env->SetByteArrayRegion(retval, 0, length, (const jbyte*)element);
+	    return retval;
+    }
+
+    /*
+     * Appends a UTF-16 surrogate as three bytes of modified UTF-8.
+     */
+    static void putSurrogate(std::vector<char>& out, int c)
+    {
+	    out.push_back((char)(0xE0 | (c >> 12)));
+	    out.push_back((char)(0x80 | ((c >> 6) & 0x3F)));
+	    out.push_back((char)(0x80 | (c & 0x3F)));
+    }
+
+    /*
+     * Reads the length of the next element of a packed buffer, a four byte
+     * big endian int, and moves past it. The element's bytes follow.
+     */
+    static int packedLength(const unsigned char*& pos)
+    {
+	    int length = (pos[0] << 24) | (pos[1] << 16) | (pos[2] << 8) | pos[3];
+	    pos += 4;
+	    return length;
+    }
+
+    /*
+     * Copies the next element of a packed buffer to a new string, as
+     * strFromJString does, and moves past it.
+     */
+    static const char* strFromPacked(const unsigned char*& pos)
+    {
+	    int length = packedLength(pos);
+	    char* chars = new char[length+1];
+	    memcpy(chars, pos, length);
+	    chars[length] = '\0';
+	    pos += length;
+	    return chars;
+    }
+
+    /*
+     * Copies the next element of a packed buffer to the given scratch space,
+     * growing it if needed, and moves past it. For lookups that do not keep
+     * the string.
+     */
+    static const char* strFromPacked(const unsigned char*& pos, std::vector<char>& scratch)
+    {
+	    int length = packedLength(pos);
+	    scratch.resize(length+1);
+	    memcpy(&scratch[0], pos, length);
+	    scratch[length] = '\0';
+	    pos += length;
+	    return &scratch[0];
+    }
+
+    /*
+     * Turns on bit i of a bitmap laid out like a BigBitArray.
+     */
+    static void setBit(std::vector<jbyte>& bits, int i)
+    {
+	    bits[i / 8] |= (jbyte)(1 << (i % 8));
+    }
+
+    /*
+     * Copies a bitmap to the given Java array, starting at the given byte.
+     */
+    static void copyBits(JNIEnv* env, std::vector<jbyte>& bits, jbyteArray array, jint offset)
+    {
+	    if (!bits.empty())
+	    {
+		    env->SetByteArrayRegion(array, offset, bits.size(), &bits[0]);
+	    }
+    }
+};
+
 #endif
\ No newline at end of file
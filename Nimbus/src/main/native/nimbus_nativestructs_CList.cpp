@@ -7,20 +7,31 @@
 #include <sstream>
 #include <iostream>
 
-struct ltstr
-{
-  bool operator()(const char* s1, const char* s2) const
-  {
-    return strcmp(s1, s2) < 0;
-  }
-};
-
-std::list<const char*> list;
+typedef std::list<const char*> listtype;
 typedef std::list<const char*>::const_iterator listconstiter;
 typedef std::list<const char*>::reverse_iterator listreverseiter;
 typedef std::list<const char*>::iterator listiter;
 
-listiter str_find(listiter start, listiter end, const char* value)
+/*
+ * The Java CList holds the address of its std::list as a long handle.
+ */
+static listtype* getList(jlong li)
+{
+    return reinterpret_cast<listtype*>(li);
+}
+
+static listiter iterAt(listtype* list, jint index)
+{
+    listiter iter = list->begin();
+    for (int i = 0; i < index; ++i)
+    {
+        ++iter;
+    }
+
+    return iter;
+}
+
+static listiter str_find(listiter start, listiter end, const char* value)
 {
     while (start != end)
     {
@@ -34,91 +45,146 @@ listiter str_find(listiter start, listiter end, const char* value)
     return end;
 }
 
+static void clearList(listtype* list)
+{
+    listiter iter = list->begin();
+    listiter end = list->end();
+    while (iter != end)
+    {
+        delete [] *iter;
+        ++iter;
+    }
+
+    list->clear();
+}
+
+/*
+ * Class:     nimbus_nativestructs_CList
+ * Method:    newList
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CList_newList(JNIEnv *env, jobject obj)
+{
+    return reinterpret_cast<jlong>(new listtype());
+}
+
+/*
+ * Class:     nimbus_nativestructs_CList
+ * Method:    delete
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_delete(JNIEnv *env, jobject obj, jlong li)
+{
+    listtype* list = getList(li);
+    clearList(list);
+    delete list;
+}
+
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_add
- * Signature: (Ljava/lang/String;)V
+ * Signature: (JLjava/lang/String;)V
  */
-JNIEXPORT void JNICALL Java_nimbus_utils_CList_c_1add__Ljava_lang_String_2(JNIEnv *env, jobject obj, jstring value)
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1add__JLjava_lang_String_2(JNIEnv *env, jobject obj, jlong li, jstring value)
 {
-    list.push_back(JNIUtils::strFromJString(env, value));
+    getList(li)->push_back(JNIUtils::strFromJString(env, value));
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_add
- * Signature: (ILjava/lang/String;)V
+ * Signature: (JILjava/lang/String;)V
  */
-JNIEXPORT void JNICALL Java_nimbus_utils_CList_c_1add__ILjava_lang_String_2(JNIEnv *env, jobject obj, jint index, jstring value)
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1add__JILjava_lang_String_2(JNIEnv *env, jobject obj, jlong li, jint index, jstring value)
 {
-    listiter iter = list.begin();
-    for (int i = 0; i < index; ++i)
+    listtype* list = getList(li);
+    list->insert(iterAt(list, index), JNIUtils::strFromJString(env, value));
+}
+
+/*
+ * Class:     nimbus_nativestructs_CList
+ * Method:    c_addAll
+ * Signature: (JLjava/nio/ByteBuffer;I)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1addAll(JNIEnv *env, jobject obj, jlong li, jobject packed, jint count)
+{
+    listtype* list = getList(li);
+    const unsigned char* pos = (const unsigned char*)env->GetDirectBufferAddress(packed);
+
+    for (int i = 0; i < count; ++i)
     {
-        ++iter;
+        list->push_back(JNIUtils::strFromPacked(pos));
     }
-
-    list.insert(iter, JNIUtils::strFromJString(env, value));
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_clear
- * Signature: ()V
+ * Signature: (J)V
  */
-JNIEXPORT void JNICALL Java_nimbus_utils_CList_c_1clear(JNIEnv *env, jobject obj)
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1clear(JNIEnv *env, jobject obj, jlong li)
 {
-    listiter iter = list.begin();
-	listiter end = list.end();
-	const char* value = 0;
-	while (iter != end)
-	{
-		value = *iter;
-		delete [] value;
-		value = 0;
-		++iter;
-	}
-
-    list.clear();
+    clearList(getList(li));
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_contains
- * Signature: (Ljava/lang/Object;)Z
+ * Signature: (JLjava/lang/Object;)Z
  */
-JNIEXPORT jboolean JNICALL Java_nimbus_utils_CList_c_1contains(JNIEnv *env, jobject obj, jobject value)
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CList_c_1contains(JNIEnv *env, jobject obj, jlong li, jobject value)
 {
-    const char* cValue = JNIUtils::strFromJString(env, (jstring)value);
-    listconstiter findIter = str_find(list.begin(), list.end(), cValue);
-    return findIter != list.end();
+    listtype* list = getList(li);
+    std::vector<char> scratch;
+    const char* cValue = JNIUtils::strFromJString(env, (jstring)value, scratch);
+    return str_find(list->begin(), list->end(), cValue) != list->end();
 }
 
 /*
- * Class:     nimbus_utils_CList
- * Method:    c_get
- * Signature: (I)Ljava/lang/String;
+ * Class:     nimbus_nativestructs_CList
+ * Method:    c_containsAll
+ * Signature: (JLjava/nio/ByteBuffer;I[BI)V
  */
-JNIEXPORT jstring JNICALL Java_nimbus_utils_CList_c_1get(JNIEnv *env, jobject obj, jint index)
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1containsAll(JNIEnv *env, jobject obj, jlong li, jobject packed, jint count, jbyteArray bits, jint offset)
 {
-    listconstiter iter = list.begin();
-    for (int i = 0; i < index; ++i)
+    listtype* list = getList(li);
+    const unsigned char* pos = (const unsigned char*)env->GetDirectBufferAddress(packed);
+    std::vector<jbyte> found((count + 7) / 8, 0);
+    std::vector<char> scratch;
+
+    for (int i = 0; i < count; ++i)
     {
-        ++iter;
+        if (str_find(list->begin(), list->end(), JNIUtils::strFromPacked(pos, scratch)) != list->end())
+        {
+            JNIUtils::setBit(found, i);
+        }
     }
 
-    return JNIUtils::strToJString(env, *iter);
+    JNIUtils::copyBits(env, found, bits, offset);
+}
+
+/*
+ * Class:     nimbus_nativestructs_CList
+ * Method:    c_get
+ * Signature: (JI)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CList_c_1get(JNIEnv *env, jobject obj, jlong li, jint index)
+{
+    return JNIUtils::strToJString(env, *iterAt(getList(li), index));
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_indexOf
- * Signature: (Ljava/lang/Object;)I
+ * Signature: (JLjava/lang/Object;)I
  */
-JNIEXPORT jint JNICALL Java_nimbus_utils_CList_c_1indexOf(JNIEnv *env, jobject obj, jobject value)
+JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CList_c_1indexOf(JNIEnv *env, jobject obj, jlong li, jobject value)
 {
-    const char* cValue = JNIUtils::strFromJString(env, (jstring)value);
-    listconstiter iter = list.begin();
-    listconstiter end = list.end();
+    listtype* list = getList(li);
+    std::vector<char> scratch;
+    const char* cValue = JNIUtils::strFromJString(env, (jstring)value, scratch);
+    listconstiter iter = list->begin();
+    listconstiter end = list->end();
 
     int index = 0;
     while (iter != end)
@@ -136,27 +202,29 @@ JNIEXPORT jint JNICALL Java_nimbus_utils_CList_c_1indexOf(JNIEnv *env, jobject o
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_isEmpty
- * Signature: ()Z
+ * Signature: (J)Z
  */
-JNIEXPORT jboolean JNICALL Java_nimbus_utils_CList_c_1isEmpty(JNIEnv *env, jobject obj)
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CList_c_1isEmpty(JNIEnv *env, jobject obj, jlong li)
 {
-    return list.empty();
+    return getList(li)->empty();
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_lastIndexOf
- * Signature: (Ljava/lang/Object;)I
+ * Signature: (JLjava/lang/Object;)I
  */
-JNIEXPORT jint JNICALL Java_nimbus_utils_CList_c_1lastIndexOf(JNIEnv *env, jobject obj, jobject value)
+JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CList_c_1lastIndexOf(JNIEnv *env, jobject obj, jlong li, jobject value)
 {
-    const char* cValue = JNIUtils::strFromJString(env, (jstring)value);
-    listreverseiter iter = list.rbegin();
-    listreverseiter end = list.rend();
+    listtype* list = getList(li);
+    std::vector<char> scratch;
+    const char* cValue = JNIUtils::strFromJString(env, (jstring)value, scratch);
+    listreverseiter iter = list->rbegin();
+    listreverseiter end = list->rend();
 
-    int index = list.size() - 1;
+    int index = list->size() - 1;
     while (iter != end)
     {
         if (strcmp(*iter, cValue) == 0)
@@ -172,60 +240,50 @@ JNIEXPORT jint JNICALL Java_nimbus_utils_CList_c_1lastIndexOf(JNIEnv *env, jobje
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_remove
- * Signature: (Ljava/lang/Object;)Z
+ * Signature: (JLjava/lang/Object;)Z
  */
-JNIEXPORT jboolean JNICALL Java_nimbus_utils_CList_c_1remove__Ljava_lang_Object_2(JNIEnv *env, jobject obj, jobject value)
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CList_c_1remove__JLjava_lang_Object_2(JNIEnv *env, jobject obj, jlong li, jobject value)
 {
-    bool retval = false;
-    listiter iter = str_find(list.begin(), list.end(), JNIUtils::strFromJString(env, (jstring)value));
-    if (iter != list.end())
+    listtype* list = getList(li);
+    std::vector<char> scratch;
+    listiter iter = str_find(list->begin(), list->end(), JNIUtils::strFromJString(env, (jstring)value, scratch));
+    if (iter != list->end())
     {
         delete [] *iter;
-        *iter = 0;
-
-        list.erase(iter);
-        retval = true;
+        list->erase(iter);
+        return true;
     }
 
-    return retval;
+    return false;
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_remove
- * Signature: (I)Ljava/lang/String;
+ * Signature: (JI)Ljava/lang/String;
  */
-JNIEXPORT jstring JNICALL Java_nimbus_utils_CList_c_1remove__I(JNIEnv *env, jobject obj, jint index)
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CList_c_1remove__JI(JNIEnv *env, jobject obj, jlong li, jint index)
 {
-    listiter iter = list.begin();
-    for (int i = 0; i < index; ++i)
-    {
-        ++iter;
-    }
+    listtype* list = getList(li);
+    listiter iter = iterAt(list, index);
 
     jstring retval = JNIUtils::strToJString(env, *iter);
 
     delete [] *iter;
-    *iter = 0;
-
-    list.erase(iter);
+    list->erase(iter);
     return retval;
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_set
- * Signature: (ILjava/lang/String;)Ljava/lang/String;
+ * Signature: (JILjava/lang/String;)Ljava/lang/String;
  */
-JNIEXPORT jstring JNICALL Java_nimbus_utils_CList_c_1set(JNIEnv *env, jobject obj, jint index, jstring value)
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CList_c_1set(JNIEnv *env, jobject obj, jlong li, jint index, jstring value)
 {
-   listiter iter = list.begin();
-    for (int i = 0; i < index; ++i)
-    {
-        ++iter;
-    }
+    listiter iter = iterAt(getList(li), index);
 
     jstring retval = JNIUtils::strToJString(env, *iter);
 
@@ -236,11 +294,11 @@ JNIEXPORT jstring JNICALL Java_nimbus_utils_CList_c_1set(JNIEnv *env, jobject ob
 }
 
 /*
- * Class:     nimbus_utils_CList
+ * Class:     nimbus_nativestructs_CList
  * Method:    c_size
- * Signature: ()I
+ * Signature: (J)I
  */
-JNIEXPORT jint JNICALL Java_nimbus_utils_CList_c_1size(JNIEnv *env, jobject obj)
+JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CList_c_1size(JNIEnv *env, jobject obj, jlong li)
 {
-    return list.size();
-}
\ No newline at end of file
+    return getList(li)->size();
+}
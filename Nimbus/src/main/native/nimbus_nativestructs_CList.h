@@ -7,101 +7,133 @@
 #ifdef __cplusplus
 extern "C" {
 #endif
+/*
+ * Class:     nimbus_nativestructs_CList
+ * Method:    newList
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CList_newList
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     nimbus_nativestructs_CList
+ * Method:    delete
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_delete
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_add
- * Signature: (Ljava/lang/String;)V
+ * Signature: (JLjava/lang/String;)V
  */
-JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1add__Ljava_lang_String_2
-  (JNIEnv *, jobject, jstring);
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1add__JLjava_lang_String_2
+  (JNIEnv *, jobject, jlong, jstring);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_add
- * Signature: (ILjava/lang/String;)V
+ * Signature: (JILjava/lang/String;)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1add__JILjava_lang_String_2
+  (JNIEnv *, jobject, jlong, jint, jstring);
+
+/*
+ * Class:     nimbus_nativestructs_CList
+ * Method:    c_addAll
+ * Signature: (JLjava/nio/ByteBuffer;I)V
  */
-JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1add__ILjava_lang_String_2
-  (JNIEnv *, jobject, jint, jstring);
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1addAll
+  (JNIEnv *, jobject, jlong, jobject, jint);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_clear
- * Signature: ()V
+ * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1clear
-  (JNIEnv *, jobject);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_contains
- * Signature: (Ljava/lang/Object;)Z
+ * Signature: (JLjava/lang/Object;)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CList_c_1contains
-  (JNIEnv *, jobject, jobject);
+  (JNIEnv *, jobject, jlong, jobject);
+
+/*
+ * Class:     nimbus_nativestructs_CList
+ * Method:    c_containsAll
+ * Signature: (JLjava/nio/ByteBuffer;I[BI)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CList_c_1containsAll
+  (JNIEnv *, jobject, jlong, jobject, jint, jbyteArray, jint);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_get
- * Signature: (I)Ljava/lang/String;
+ * Signature: (JI)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CList_c_1get
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jobject, jlong, jint);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_indexOf
- * Signature: (Ljava/lang/Object;)I
+ * Signature: (JLjava/lang/Object;)I
  */
 JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CList_c_1indexOf
-  (JNIEnv *, jobject, jobject);
+  (JNIEnv *, jobject, jlong, jobject);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_isEmpty
- * Signature: ()Z
+ * Signature: (J)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CList_c_1isEmpty
-  (JNIEnv *, jobject);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_lastIndexOf
- * Signature: (Ljava/lang/Object;)I
+ * Signature: (JLjava/lang/Object;)I
  */
 JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CList_c_1lastIndexOf
-  (JNIEnv *, jobject, jobject);
+  (JNIEnv *, jobject, jlong, jobject);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_remove
- * Signature: (Ljava/lang/Object;)Z
+ * Signature: (JLjava/lang/Object;)Z
  */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CList_c_1remove__Ljava_lang_Object_2
-  (JNIEnv *, jobject, jobject);
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CList_c_1remove__JLjava_lang_Object_2
+  (JNIEnv *, jobject, jlong, jobject);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_remove
- * Signature: (I)Ljava/lang/String;
+ * Signature: (JI)Ljava/lang/String;
  */
-JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CList_c_1remove__I
-  (JNIEnv *, jobject, jint);
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CList_c_1remove__JI
+  (JNIEnv *, jobject, jlong, jint);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_set
- * Signature: (ILjava/lang/String;)Ljava/lang/String;
+ * Signature: (JILjava/lang/String;)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CList_c_1set
-  (JNIEnv *, jobject, jint, jstring);
+  (JNIEnv *, jobject, jlong, jint, jstring);
 
 /*
  * Class:     nimbus_nativestructs_CList
  * Method:    c_size
- * Signature: ()I
+ * Signature: (J)I
  */
 JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CList_c_1size
-  (JNIEnv *, jobject);
+  (JNIEnv *, jobject, jlong);
 
 #ifdef __cplusplus
 }
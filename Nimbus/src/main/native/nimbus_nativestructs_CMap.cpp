@@ -1,258 +1,453 @@
-#include <jni.h>
-#include <stdio.h>
-#include "JNIUtils.h"
-#include "nimbus_nativestructs_CMap.h"
-#include <map>
-#include <cstring>
-#include <functional>
-#include <sstream>
-#include <iostream>
-
-struct ltstr
-{
-  bool operator()(const char* s1, const char* s2) const
-  {
-    return strcmp(s1, s2) < 0;
-  }
-};
-
-std::map<const char*, const char*, ltstr> map;
-typedef std::map<const char*, const char*, ltstr>::iterator mapiter;
-typedef std::map<const char*, const char*, ltstr>::const_iterator mapconstiter;
-
-std::map<int, mapconstiter*> mapIters;
-typedef std::map<int, mapconstiter*>::iterator mapItersiter;
-typedef std::map<int, mapconstiter*>::const_iterator mapItersconstiter;
-
-std::map<int, const char*> currentIterValues;
-typedef std::map<int, const char*>::iterator currentIterValuesIter;
-
-/*
- * Class:     nimbus_nativestructs_CMap
- * Method:    c_clear
- * Signature: ()V
- */
-JNIEXPORT void JNICALL Java_nimbus_nativestructs_CMap_c_1clear(JNIEnv *env, jobject obj)
-{
-    mapiter iter = map.begin();
-	mapiter end = map.end();
-	const char* value = 0;
-	while (iter != end)
-	{	
-		delete [] iter->first;
-        delete [] iter->second;
-
-		++iter;
-	}
-
-    map.clear();
-}
-
-/*
- * Class:     nimbus_nativestructs_CMap
- * Method:    c_containsKey
- * Signature: (Ljava/lang/Object;)Z
- */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1containsKey(JNIEnv *env, jobject obj, jobject key)
-{
-    return map.find(JNIUtils::strFromJString(env, (jstring)key)) != map.end();
-}
-
-/*
- * Class:     nimbus_nativestructs_CMap
- * Method:    c_containsValue
- * Signature: (Ljava/lang/Object;)Z
- */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1containsValue(JNIEnv *env, jobject obj, jobject value)
-{
-    mapconstiter iter = map.begin();
-    mapconstiter end = map.end();
-
-    const char* cValue = JNIUtils::strFromJString(env, (jstring)value);
-    bool retval = false;
-
-    while (iter != end)
-    {
-        if (strcmp(iter->second, cValue) == 0)
-        {
-            retval = true;
-            break;
-        }
-
-        ++iter;
-    }
-
-    return retval;
-}
-
-/*
- * Class:     nimbus_nativestructs_CMap
- * Method:    c_get
- * Signature: (Ljava/lang/Object;)Ljava/lang/String;
- */
-JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1get(JNIEnv *env, jobject obj, jobject key)
-{
-    const char* cKey = JNIUtils::strFromJString(env, (jstring)key);
-
-    mapconstiter iter = map.find(cKey);
-    if (iter != map.end())
-    {
-        return JNIUtils::strToJString(env, iter->second);
-    } 
-    else
-    {
-        return 0;
-    }
-}
-
-/*
- * Class:     nimbus_nativestructs_CMap
- * Method:    c_isEmpty
- * Signature: ()Z
- */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1isEmpty(JNIEnv *env, jobject obj)
-{
-    return map.size() == 0;
-}
-
-/*
- * Class:     nimbus_nativestructs_CMap
- * Method:    c_put
- * Signature: (Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;
- */
-
-JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1put(JNIEnv *env, jobject obj, jstring key, jstring value)
-{
-    const char* cKey = JNIUtils::strFromJString(env, key);
-    const char* cValue = JNIUtils::strFromJString(env, value);
-
-    mapiter iter = map.find(cKey);
-    if (iter == map.end())
-    {
-        map.insert(std::pair<const char*, const char*>(cKey, cValue));
-        return 0;
-    }
-    else
-    {
-        jstring retval = JNIUtils::strToJString(env, iter->second);
-
-        delete [] iter->first;
-        delete [] iter->second;
-
-        map.erase(iter);
-
-        map.insert(std::pair<const char*, const char*>(cKey, cValue));
-        return retval;
-    }
-}
-
-/*
- * Class:     nimbus_nativestructs_CMap
- * Method:    c_remove
- * Signature: (Ljava/lang/Object;)Ljava/lang/String;
- */
-JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1remove(JNIEnv *env, jobject obj, jobject key)
-{
-    const char* cKey = JNIUtils::strFromJString(env, (jstring)key);
-    mapiter iter = map.find(cKey);
-    if (iter != map.end())
-    {
-        jstring retval = JNIUtils::strToJString(env, iter->second);
-
-		delete [] iter->first;
-        delete [] iter->second;
-
-        map.erase(iter);
-        return retval;
-    }
-    else
-    {
-        return 0;
-    }
-}
-
-/*
- * Class:     nimbus_nativestructs_CMap
- * Method:    c_size
- * Signature: ()I
- */
-JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CMap_c_1size(JNIEnv *env, jobject obj)
-{
-    return map.size();
-}
-
+#include <jni.h>
+#include <stdio.h>
+#include "JNIUtils.h"
+#include "nimbus_nativestructs_CMap.h"
+#include <map>
+#include <cstring>
+#include <functional>
+#include <sstream>
+#include <iostream>
+
+struct ltstr
+{
+  bool operator()(const char* s1, const char* s2) const
+  {
+    return strcmp(s1, s2) < 0;
+  }
+};
+
+typedef std::map<const char*, const char*, ltstr> maptype;
+typedef std::map<const char*, const char*, ltstr>::iterator mapiter;
+typedef std::map<const char*, const char*, ltstr>::const_iterator mapconstiter;
+
+/*
+ * An iterator over one map, and the value of the last key it returned.
+ */
+struct MapIterator
+{
+    maptype* map;
+    mapconstiter iter;
+    const char* value;
+};
+
+/*
+ * The Java CMap holds the address of its std::map as a long handle, and each
+ * Java iterator the address of its MapIterator.
+ */
+static maptype* getMap(jlong mi)
+{
+    return reinterpret_cast<maptype*>(mi);
+}
+
+static MapIterator* getIter(jlong it)
+{
+    return reinterpret_cast<MapIterator*>(it);
+}
+
+static void clearMap(maptype* map)
+{
+    mapiter iter = map->begin();
+    mapiter end = map->end();
+    while (iter != end)
+    {
+        delete [] iter->first;
+        delete [] iter->second;
+
+        ++iter;
+    }
+
+    map->clear();
+}
+
+/*
+ * Puts the key and value, which the map takes ownership of, deleting any
+ * entry already there.
+ */
+static void putEntry(maptype* map, const char* cKey, const char* cValue)
+{
+    mapiter iter = map->find(cKey);
+    if (iter != map->end())
+    {
+        delete [] iter->first;
+        delete [] iter->second;
+
+        map->erase(iter);
+    }
+
+    map->insert(std::pair<const char*, const char*>(cKey, cValue));
+}
+
+/*
+ * Removes the entry with the given key.
+ *
+ * Returns the removed value, which the caller must delete, or 0 if the key is
+ * not in the map.
+ */
+static const char* removeEntry(maptype* map, const char* cKey)
+{
+    mapiter iter = map->find(cKey);
+    if (iter == map->end())
+    {
+        return 0;
+    }
+
+    const char* value = iter->second;
+    delete [] iter->first;
+    map->erase(iter);
+    return value;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    newMap
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CMap_newMap(JNIEnv *env, jobject obj)
+{
+    return reinterpret_cast<jlong>(new maptype());
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    delete
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CMap_delete(JNIEnv *env, jobject obj, jlong mi)
+{
+    maptype* map = getMap(mi);
+    clearMap(map);
+    delete map;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_clear
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CMap_c_1clear(JNIEnv *env, jobject obj, jlong mi)
+{
+    clearMap(getMap(mi));
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_containsKey
+ * Signature: (JLjava/lang/Object;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1containsKey(JNIEnv *env, jobject obj, jlong mi, jobject key)
+{
+    maptype* map = getMap(mi);
+    std::vector<char> scratch;
+    return map->find(JNIUtils::strFromJString(env, (jstring)key, scratch)) != map->end();
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_containsValue
+ * Signature: (JLjava/lang/Object;)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1containsValue(JNIEnv *env, jobject obj, jlong mi, jobject value)
+{
+    maptype* map = getMap(mi);
+    mapconstiter iter = map->begin();
+    mapconstiter end = map->end();
+
+    std::vector<char> scratch;
+    const char* cValue = JNIUtils::strFromJString(env, (jstring)value, scratch);
+    bool retval = false;
+
+    while (iter != end)
+    {
+        if (strcmp(iter->second, cValue) == 0)
+        {
+            retval = true;
+            break;
+        }
+
+        ++iter;
+    }
+
+    return retval;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_get
+ * Signature: (JLjava/lang/Object;)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1get(JNIEnv *env, jobject obj, jlong mi, jobject key)
+{
+    maptype* map = getMap(mi);
+    std::vector<char> scratch;
+
+    mapconstiter iter = map->find(JNIUtils::strFromJString(env, (jstring)key, scratch));
+    if (iter != map->end())
+    {
+        return JNIUtils::strToJString(env, iter->second);
+    } 
+    else
+    {
+        return 0;
+    }
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_isEmpty
+ * Signature: (J)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1isEmpty(JNIEnv *env, jobject obj, jlong mi)
+{
+    return getMap(mi)->size() == 0;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_put
+ * Signature: (JLjava/lang/String;Ljava/lang/String;)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1put(JNIEnv *env, jobject obj, jlong mi, jstring key, jstring value)
+{
+    maptype* map = getMap(mi);
+    const char* cKey = JNIUtils::strFromJString(env, key);
+    const char* cValue = JNIUtils::strFromJString(env, value);
+
+    jstring retval = 0;
+    mapconstiter iter = map->find(cKey);
+    if (iter != map->end())
+    {
+        retval = JNIUtils::strToJString(env, iter->second);
+    }
+
+    putEntry(map, cKey, cValue);
+    return retval;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_putAll
+ * Signature: (JLjava/nio/ByteBuffer;I)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CMap_c_1putAll(JNIEnv *env, jobject obj, jlong mi, jobject packed, jint count)
+{
+    maptype* map = getMap(mi);
+    const unsigned char* pos = (const unsigned char*)env->GetDirectBufferAddress(packed);
+
+    for (int i = 0; i < count; ++i)
+    {
+        const char* cKey = JNIUtils::strFromPacked(pos);
+        const char* cValue = JNIUtils::strFromPacked(pos);
+        putEntry(map, cKey, cValue);
+    }
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_remove
+ * Signature: (JLjava/lang/Object;)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1remove(JNIEnv *env, jobject obj, jlong mi, jobject key)
+{
+    std::vector<char> scratch;
+    const char* value = removeEntry(getMap(mi), JNIUtils::strFromJString(env, (jstring)key, scratch));
+    if (value == 0)
+    {
+        return 0;
+    }
+
+    jstring retval = JNIUtils::strToJString(env, value);
+    delete [] value;
+    return retval;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_size
+ * Signature: (J)I
+ */
+JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CMap_c_1size(JNIEnv *env, jobject obj, jlong mi)
+{
+    return getMap(mi)->size();
+}
+
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_iterInit
- * Signature: ()I
+ * Signature: (J)J
  */
-JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CMap_c_1iterInit(JNIEnv *, jobject)
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CMap_c_1iterInit(JNIEnv *env, jobject obj, jlong mi)
 {
-	// create a new iterator for this map
-	mapconstiter* pIter = new mapconstiter(map.begin());	
-	mapIters.insert(std::pair<int, mapconstiter*>(mapIters.size(), pIter));
-	return mapIters.size() - 1;
+    MapIterator* pIter = new MapIterator();
+    pIter->map = getMap(mi);
+    pIter->iter = pIter->map->begin();
+    pIter->value = 0;
+    return reinterpret_cast<jlong>(pIter);
 }
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_iterHasNext
- * Signature: (I)Z
+ * Signature: (J)Z
  */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1iterHasNext(JNIEnv *, jobject, jint index)
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1iterHasNext(JNIEnv *env, jobject obj, jlong it)
 {
-	
-	mapItersconstiter iter = mapIters.find(index);
-	if (iter != mapIters.end())
-	{
-		return *(iter->second) != map.end();
-	}
-	else
-	{
-		return false;
-	}
+    MapIterator* pIter = getIter(it);
+    return pIter->iter != pIter->map->end();
 }
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_iterNext
- * Signature: (I)Ljava/lang/String;
+ * Signature: (J)Ljava/lang/String;
  */
-JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1iterNext(JNIEnv *env, jobject, jint index)
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1iterNext(JNIEnv *env, jobject obj, jlong it)
 {
-	mapItersconstiter iter = mapIters.find(index);
-
-	if (iter != mapIters.end() && *(iter->second) != map.end())
-	{	
-		jstring retval = JNIUtils::strToJString(env, (*iter->second)->first);
-		currentIterValuesIter valueIter = currentIterValues.find(index);
-		if (valueIter != currentIterValues.end())
-		{
-			currentIterValues.erase(valueIter);
-		}
-
-		currentIterValues.insert(std::pair<int, const char*>(index, (*iter->second)->second));
-		++(*(iter->second));
-		return retval;
-	}
-
-	return 0;	
+    MapIterator* pIter = getIter(it);
+    if (pIter->iter == pIter->map->end())
+    {
+        return 0;
+    }
+
+    jstring retval = JNIUtils::strToJString(env, pIter->iter->first);
+    pIter->value = pIter->iter->second;
+    ++(pIter->iter);
+    return retval;
 }
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_getIterValue
- * Signature: (I)Ljava/lang/String;
+ * Signature: (J)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1getIterValue(JNIEnv *env, jobject obj, jlong it)
+{
+    const char* val = getIter(it)->value;
+    if (val != 0)
+    {
+        return JNIUtils::strToJString(env, val);
+    }
+    else
+    {
+        return 0;
+    }
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_iterFree
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CMap_c_1iterFree(JNIEnv *env, jobject obj, jlong it)
+{
+    delete getIter(it);
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_containsKeyBytes
+ * Signature: (J[BII)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1containsKeyBytes(JNIEnv *env, jobject obj, jlong mi, jbyteArray key, jint offset, jint length)
+{
+    maptype* map = getMap(mi);
+    std::vector<char> scratch;
+    return map->find(JNIUtils::strFromUTF8(env, key, offset, length, scratch)) != map->end();
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_getBytes
+ * Signature: (J[BII)[B
  */
-JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1getIterValue(JNIEnv *env, jobject, jint index)
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1getBytes(JNIEnv *env, jobject obj, jlong mi, jbyteArray key, jint offset, jint length)
 {
-	const char* val = currentIterValues.at(index);
-	if (val != 0)
-	{
-		return JNIUtils::strToJString(env, val);
-	}
-	else
-	{
-		return 0;
-	}
-}
\ No newline at end of file
+    maptype* map = getMap(mi);
+    std::vector<char> scratch;
+    mapconstiter iter = map->find(JNIUtils::strFromUTF8(env, key, offset, length, scratch));
+    if (iter != map->end())
+    {
+        return JNIUtils::strToUTF8(env, iter->second);
+    }
+    else
+    {
+        return 0;
+    }
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_putBytes
+ * Signature: (J[BII[BII)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1putBytes(JNIEnv *env, jobject obj, jlong mi, jbyteArray key, jint keyOffset, jint keyLength, jbyteArray value, jint valueOffset, jint valueLength)
+{
+    maptype* map = getMap(mi);
+    const char* cKey = JNIUtils::strFromUTF8(env, key, keyOffset, keyLength);
+    const char* cValue = JNIUtils::strFromUTF8(env, value, valueOffset, valueLength);
+
+    jbyteArray retval = 0;
+    mapconstiter iter = map->find(cKey);
+    if (iter != map->end())
+    {
+        retval = JNIUtils::strToUTF8(env, iter->second);
+    }
+
+    putEntry(map, cKey, cValue);
+    return retval;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_removeBytes
+ * Signature: (J[BII)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1removeBytes(JNIEnv *env, jobject obj, jlong mi, jbyteArray key, jint offset, jint length)
+{
+    std::vector<char> scratch;
+    const char* value = removeEntry(getMap(mi), JNIUtils::strFromUTF8(env, key, offset, length, scratch));
+    if (value == 0)
+    {
+        return 0;
+    }
+
+    jbyteArray retval = JNIUtils::strToUTF8(env, value);
+    delete [] value;
+    return retval;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_iterNextBytes
+ * Signature: (J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1iterNextBytes(JNIEnv *env, jobject obj, jlong it)
+{
+    MapIterator* pIter = getIter(it);
+    if (pIter->iter == pIter->map->end())
+    {
+        return 0;
+    }
+
+    jbyteArray retval = JNIUtils::strToUTF8(env, pIter->iter->first);
+    pIter->value = pIter->iter->second;
+    ++(pIter->iter);
+    return retval;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_getIterValueBytes
+ * Signature: (J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1getIterValueBytes(JNIEnv *env, jobject obj, jlong it)
+{
+    const char* val = getIter(it)->value;
+    if (val != 0)
+    {
+        return JNIUtils::strToUTF8(env, val);
+    }
+    else
+    {
+        return 0;
+    }
+}
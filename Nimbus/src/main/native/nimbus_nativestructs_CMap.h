@@ -7,101 +7,181 @@
 #ifdef __cplusplus
 extern "C" {
 #endif
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    newMap
+ * Signature: ()J
+ */
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CMap_newMap
+  (JNIEnv *, jobject);
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    delete
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CMap_delete
+  (JNIEnv *, jobject, jlong);
+
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_clear
- * Signature: ()V
+ * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_nimbus_nativestructs_CMap_c_1clear
-  (JNIEnv *, jobject);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_containsKey
- * Signature: (Ljava/lang/Object;)Z
+ * Signature: (JLjava/lang/Object;)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1containsKey
-  (JNIEnv *, jobject, jobject);
+  (JNIEnv *, jobject, jlong, jobject);
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_containsKeyBytes
+ * Signature: (J[BII)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1containsKeyBytes
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_containsValue
- * Signature: (Ljava/lang/Object;)Z
+ * Signature: (JLjava/lang/Object;)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1containsValue
-  (JNIEnv *, jobject, jobject);
+  (JNIEnv *, jobject, jlong, jobject);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_get
- * Signature: (Ljava/lang/Object;)Ljava/lang/String;
+ * Signature: (JLjava/lang/Object;)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1get
-  (JNIEnv *, jobject, jobject);
+  (JNIEnv *, jobject, jlong, jobject);
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_getBytes
+ * Signature: (J[BII)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1getBytes
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_isEmpty
- * Signature: ()Z
+ * Signature: (J)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1isEmpty
-  (JNIEnv *, jobject);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_put
- * Signature: (Ljava/lang/String;Ljava/lang/String;)Ljava/lang/String;
+ * Signature: (JLjava/lang/String;Ljava/lang/String;)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1put
-  (JNIEnv *, jobject, jstring, jstring);
+  (JNIEnv *, jobject, jlong, jstring, jstring);
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_putBytes
+ * Signature: (J[BII[BII)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1putBytes
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint, jbyteArray, jint, jint);
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_putAll
+ * Signature: (JLjava/nio/ByteBuffer;I)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CMap_c_1putAll
+  (JNIEnv *, jobject, jlong, jobject, jint);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_remove
- * Signature: (Ljava/lang/Object;)Ljava/lang/String;
+ * Signature: (JLjava/lang/Object;)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1remove
-  (JNIEnv *, jobject, jobject);
+  (JNIEnv *, jobject, jlong, jobject);
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_removeBytes
+ * Signature: (J[BII)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1removeBytes
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_size
- * Signature: ()I
+ * Signature: (J)I
  */
 JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CMap_c_1size
-  (JNIEnv *, jobject);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_iterInit
- * Signature: ()I
+ * Signature: (J)J
  */
-JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CMap_c_1iterInit
-  (JNIEnv *, jobject);
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CMap_c_1iterInit
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_iterHasNext
- * Signature: (I)Z
+ * Signature: (J)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CMap_c_1iterHasNext
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_iterNext
- * Signature: (I)Ljava/lang/String;
+ * Signature: (J)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1iterNext
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CMap
  * Method:    c_getIterValue
- * Signature: (I)Ljava/lang/String;
+ * Signature: (J)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CMap_c_1getIterValue
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_iterNextBytes
+ * Signature: (J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1iterNextBytes
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_getIterValueBytes
+ * Signature: (J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CMap_c_1getIterValueBytes
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     nimbus_nativestructs_CMap
+ * Method:    c_iterFree
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CMap_c_1iterFree
+  (JNIEnv *, jobject, jlong);
 
 #ifdef __cplusplus
 }
@@ -2,66 +2,70 @@
 #include <stdio.h>
 #include "JNIUtils.h"
 #include "nimbus_nativestructs_CSet.h"
-#include "SetFactory.h"
-#include <map>
 #include <set>
 #include <cstring>
 #include <sstream>
 #include <iostream>
 
-SetFactory csetSetFactory;
+struct ltstr
+{
+	bool operator()(const char* s1, const char* s2) const
+	{
+		return strcmp(s1, s2) < 0;
+	}
+};
 
-typedef std::set<const char*, SetFactory::ltstr> settype;
-typedef std::set<const char*, SetFactory::ltstr>::const_iterator setconstiter;
-typedef std::set<const char*, SetFactory::ltstr>::iterator setiter;
+typedef std::set<const char*, ltstr> settype;
+typedef std::set<const char*, ltstr>::const_iterator setconstiter;
+typedef std::set<const char*, ltstr>::iterator setiter;
 
-typedef std::map<int, setconstiter*> IndexedIterMapType;
-typedef IndexedIterMapType::const_iterator IndexedToIterMapConstIter;
-typedef IndexedIterMapType::iterator IndexedToIterMapIter;
+/*
+ * An iterator over one set.
+ */
+struct SetIterator
+{
+	settype* set;
+	setconstiter iter;
+};
 
-typedef std::map<int, IndexedIterMapType*> SetToIndexedIterMapType;
-typedef SetToIndexedIterMapType::const_iterator SetToItersMapConstIter;
-typedef SetToIndexedIterMapType::iterator SetToItersMapIter;
+/*
+ * The Java CSet holds the address of its std::set as a long handle, and each
+ * Java iterator the address of its SetIterator. There is no table shared by
+ * every set, so sets in different Caches never touch the same native state.
+ */
+static settype* getSet(jlong si)
+{
+	return reinterpret_cast<settype*>(si);
+}
+
+static SetIterator* getIter(jlong it)
+{
+	return reinterpret_cast<SetIterator*>(it);
+}
 
-SetToIndexedIterMapType setToIterMap;
+static void clearSet(settype* set);
+static bool removeValue(settype* set, const char* element);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    delete
- * Signature: (I)V
+ * Signature: (J)V
  */
-JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_delete(JNIEnv *, jobject, jint si)
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_delete(JNIEnv *, jobject, jlong si)
 {
-	// delete the actual set
-	csetSetFactory.DeleteSet(si);
-
-	SetToItersMapIter iter = setToIterMap.find(si);
-	if (iter != setToIterMap.end())
-	{
-		// delete the setconstiter*
-		IndexedIterMapType* indexedMap = iter->second;
-		IndexedToIterMapIter indexedIter = indexedMap->begin();
-		while (indexedIter != indexedMap->end())
-		{
-			delete indexedIter->second;
-			indexedIter->second = 0;
-			++indexedIter;
-		}
-
-		delete iter->second;
-		iter->second = 0;
-		setToIterMap.erase(iter);
-	}	
+	settype* set = getSet(si);
+	clearSet(set);
+	delete set;
 }
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    newSet
- * Signature: ()I
+ * Signature: ()J
  */
-JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CSet_newSet(JNIEnv *, jobject)
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CSet_newSet(JNIEnv *, jobject)
 {
-	return csetSetFactory.CreateNewSet();
+	return reinterpret_cast<jlong>(new settype());
 }
 
 /*
@@ -69,28 +73,77 @@ JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CSet_newSet(JNIEnv *, jobject)
  * Method:    c_add
  * Signature: (Ljava/lang/String;)Z
  */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1add(JNIEnv *env, jobject obj, jint si, jstring element)
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1add(JNIEnv *env, jobject obj, jlong si, jstring element)
 {
-	settype* set = csetSetFactory.Get(si);
+	settype* set = getSet(si);
 	return set->insert(JNIUtils::strFromJString(env, element)).second;
 }
 
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_addBytes
+ * Signature: (J[BII)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1addBytes(JNIEnv *env, jobject obj, jlong si, jbyteArray element, jint offset, jint length)
+{
+	settype* set = getSet(si);
+	const char* value = JNIUtils::strFromUTF8(env, element, offset, length);
+	if (set->insert(value).second)
+	{
+		return true;
+	}
+
+	delete [] value;
+	return false;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_addAll
+ * Signature: (JLjava/nio/ByteBuffer;I[BI)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1addAll(JNIEnv *env, jobject obj, jlong si, jobject packed, jint count, jbyteArray bits, jint offset)
+{
+	settype* set = getSet(si);
+	const unsigned char* pos = (const unsigned char*)env->GetDirectBufferAddress(packed);
+	std::vector<jbyte> added((count + 7) / 8, 0);
+
+	for (int i = 0; i < count; ++i)
+	{
+		const char* value = JNIUtils::strFromPacked(pos);
+		if (set->insert(value).second)
+		{
+			JNIUtils::setBit(added, i);
+		}
+		else
+		{
+			delete [] value;
+		}
+	}
+
+	JNIUtils::copyBits(env, added, bits, offset);
+}
+
 /*
  * Class:     CSet
  * Method:    c_clear
  * Signature: ()V
  */
-JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1clear(JNIEnv *env, jobject obj, jint si)
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1clear(JNIEnv *env, jobject obj, jlong si)
+{
+	clearSet(getSet(si));
+}
+
+/*
+ * Deletes every stored copy and empties the set.
+ */
+static void clearSet(settype* set)
 {
-	settype* set = csetSetFactory.Get(si);
 	setiter iter = set->begin();
 	setiter end = set->end();
-	const char* value = 0;
 	while (iter != end)
 	{
-		value = *iter;
-		delete [] value;
-		value = 0;
+		delete [] *iter;
 		++iter;
 	}
 
@@ -102,20 +155,55 @@ JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1clear(JNIEnv *env, jobj
  * Method:    c_contains
  * Signature: (Ljava/lang/Object;)Z
  */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1contains(JNIEnv *env, jobject obj, jint si, jstring element)
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1contains(JNIEnv *env, jobject obj, jlong si, jstring element)
 {
-	settype* set = csetSetFactory.Get(si);
+	settype* set = getSet(si);
 	return set->find(JNIUtils::strFromJString(env, element)) != set->end();
 }
 
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_containsBytes
+ * Signature: (J[BII)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1containsBytes(JNIEnv *env, jobject obj, jlong si, jbyteArray element, jint offset, jint length)
+{
+	settype* set = getSet(si);
+	std::vector<char> scratch;
+	return set->find(JNIUtils::strFromUTF8(env, element, offset, length, scratch)) != set->end();
+}
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_containsAll
+ * Signature: (JLjava/nio/ByteBuffer;I[BI)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1containsAll(JNIEnv *env, jobject obj, jlong si, jobject packed, jint count, jbyteArray bits, jint offset)
+{
+	settype* set = getSet(si);
+	const unsigned char* pos = (const unsigned char*)env->GetDirectBufferAddress(packed);
+	std::vector<jbyte> found((count + 7) / 8, 0);
+	std::vector<char> scratch;
+
+	for (int i = 0; i < count; ++i)
+	{
+		if (set->find(JNIUtils::strFromPacked(pos, scratch)) != set->end())
+		{
+			JNIUtils::setBit(found, i);
+		}
+	}
+
+	JNIUtils::copyBits(env, found, bits, offset);
+}
+
 /*
  * Class:     CSet
  * Method:    c_isEmpty
  * Signature: ()Z
  */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1isEmpty(JNIEnv *, jobject, jint si)
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1isEmpty(JNIEnv *, jobject, jlong si)
 {
-	settype* set = csetSetFactory.Get(si);
+	settype* set = getSet(si);
 	return set->empty();
 }
 
@@ -124,10 +212,28 @@ JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1isEmpty(JNIEnv *, j
  * Method:    c_remove
  * Signature: (Ljava/lang/Object;)Z
  */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1remove(JNIEnv *env, jobject obj, jint si, jstring element)
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1remove(JNIEnv *env, jobject obj, jlong si, jstring element)
+{
+	return removeValue(getSet(si), JNIUtils::strFromJString(env, element));
+}
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_removeBytes
+ * Signature: (J[BII)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1removeBytes(JNIEnv *env, jobject obj, jlong si, jbyteArray element, jint offset, jint length)
+{
+	std::vector<char> scratch;
+	return removeValue(getSet(si), JNIUtils::strFromUTF8(env, element, offset, length, scratch));
+}
+
+/*
+ * Removes the given value from the set, freeing the stored copy.
+ */
+static bool removeValue(settype* set, const char* element)
 {
-	settype* set = csetSetFactory.Get(si);
-	setiter iter = set->find(JNIUtils::strFromJString(env, element));
+	setiter iter = set->find(element);
 	if (iter != set->end())
 	{
 		const char* value = *iter;
@@ -150,9 +256,9 @@ JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1remove(JNIEnv *env,
  * Method:    c_size
  * Signature: ()I
  */
-JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CSet_c_1size(JNIEnv *, jobject, jint si)
+JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CSet_c_1size(JNIEnv *, jobject, jlong si)
 {
-	settype* set = csetSetFactory.Get(si);
+	settype* set = getSet(si);
 	return set->size();
 }
 
@@ -160,76 +266,69 @@ JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CSet_c_1size(JNIEnv *, jobject,
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_iterInit
- * Signature: (I)I
- */
-JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CSet_c_1iterInit(JNIEnv *, jobject, jint si)
-{	
-	settype* set = csetSetFactory.Get(si);
-
-	// create a new iterator for this set
-	setconstiter* pIter = new setconstiter(set->begin());
-	
-	// check whether or not we have created an iterator for this map before
-	IndexedIterMapType* indexedIters = 0;
-	SetToItersMapConstIter iter = setToIterMap.find(si);
-	if (iter != setToIterMap.end())
-	{
-		// if we have, then we will want to add a new set const iter with a new index
-		indexedIters = iter->second;
-	}
-	else
-	{
-		// if we haven't yet, we will need to make a new map for the indexed iterators and add it to the map
-		indexedIters = new IndexedIterMapType();
-		setToIterMap.insert(std::pair<int, IndexedIterMapType*>(si, indexedIters));
-	}
-	
-	int newIndex = indexedIters->size();
-	indexedIters->insert(std::pair<int, setconstiter*>(newIndex, pIter));
-	return newIndex;
+ * Signature: (J)J
+ */
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CSet_c_1iterInit(JNIEnv *, jobject, jlong si)
+{
+	SetIterator* pIter = new SetIterator();
+	pIter->set = getSet(si);
+	pIter->iter = pIter->set->begin();
+	return reinterpret_cast<jlong>(pIter);
 }
+
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_iterHasNext
- * Signature: (II)Z
- */
-JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1iterHasNext(JNIEnv *, jobject, jint si, jint index)
-{	
-	settype* set = csetSetFactory.Get(si);		
-	// check whether or not we have created an iterator for this map before
-	SetToItersMapConstIter iter = setToIterMap.find(si);
-	if (iter != setToIterMap.end())
+ * Signature: (J)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1iterHasNext(JNIEnv *, jobject, jlong it)
+{
+	SetIterator* pIter = getIter(it);
+	return pIter->iter != pIter->set->end();
+}
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_iterNext
+ * Signature: (J)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CSet_c_1iterNext(JNIEnv* env, jobject, jlong it)
+{
+	SetIterator* pIter = getIter(it);
+	if (pIter->iter == pIter->set->end())
 	{
-		// if we have, then we will want to add a new set const iter with a new index
-		IndexedToIterMapConstIter indexIter = iter->second->find(index);
-		return (*(*indexIter).second) != set->end();
+		return 0;
 	}
 
-	return false;	
+	jstring retval = JNIUtils::strToJString(env, *(pIter->iter));
+	++(pIter->iter);
+	return retval;
 }
 
 /*
  * Class:     nimbus_nativestructs_CSet
- * Method:    c_iterNext
- * Signature: (II)Ljava/lang/String;
+ * Method:    c_iterNextBytes
+ * Signature: (J)[B
  */
-JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CSet_c_1iterNext(JNIEnv* env, jobject, jint si, jint index)
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CSet_c_1iterNextBytes(JNIEnv* env, jobject, jlong it)
 {
-	settype* set = csetSetFactory.Get(si);
-	// check whether or not we have created an iterator for this map before
-	SetToItersMapConstIter iter = setToIterMap.find(si);
-	if (iter != setToIterMap.end())
+	SetIterator* pIter = getIter(it);
+	if (pIter->iter == pIter->set->end())
 	{
-		// if we have, then we will want to add a new set const iter with a new index
-		IndexedToIterMapConstIter indexIter = iter->second->find(index);
-
-		setconstiter* setIter = indexIter->second;
-		if (*setIter != set->end()) {
-			jstring retval = JNIUtils::strToJString(env, *(*setIter));
-			(*setIter)++;
-			return retval;
-		}
+		return 0;
 	}
 
-	return 0;
+	jbyteArray retval = JNIUtils::strToUTF8(env, *(pIter->iter));
+	++(pIter->iter);
+	return retval;
+}
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_iterFree
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1iterFree(JNIEnv *, jobject, jlong it)
+{
+	delete getIter(it);
 }
@@ -10,90 +10,146 @@ extern "C" {
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    delete
- * Signature: (I)V
+ * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_delete
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    newSet
- * Signature: ()I
+ * Signature: ()J
  */
-JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CSet_newSet
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CSet_newSet
   (JNIEnv *, jobject);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_add
- * Signature: (ILjava/lang/String;)Z
+ * Signature: (JLjava/lang/String;)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1add
-  (JNIEnv *, jobject, jint, jstring);
+  (JNIEnv *, jobject, jlong, jstring);
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_addBytes
+ * Signature: (J[BII)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1addBytes
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint);
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_addAll
+ * Signature: (JLjava/nio/ByteBuffer;I[BI)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1addAll
+  (JNIEnv *, jobject, jlong, jobject, jint, jbyteArray, jint);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_clear
- * Signature: (I)V
+ * Signature: (J)V
  */
 JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1clear
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_contains
- * Signature: (ILjava/lang/String;)Z
+ * Signature: (JLjava/lang/String;)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1contains
-  (JNIEnv *, jobject, jint, jstring);
+  (JNIEnv *, jobject, jlong, jstring);
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_containsBytes
+ * Signature: (J[BII)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1containsBytes
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint);
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_containsAll
+ * Signature: (JLjava/nio/ByteBuffer;I[BI)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1containsAll
+  (JNIEnv *, jobject, jlong, jobject, jint, jbyteArray, jint);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_isEmpty
- * Signature: (I)Z
+ * Signature: (J)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1isEmpty
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_remove
- * Signature: (ILjava/lang/String;)Z
+ * Signature: (JLjava/lang/String;)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1remove
-  (JNIEnv *, jobject, jint, jstring);
+  (JNIEnv *, jobject, jlong, jstring);
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_removeBytes
+ * Signature: (J[BII)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1removeBytes
+  (JNIEnv *, jobject, jlong, jbyteArray, jint, jint);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_size
- * Signature: (I)I
+ * Signature: (J)I
  */
 JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CSet_c_1size
-  (JNIEnv *, jobject, jint);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_iterInit
- * Signature: (I)I
+ * Signature: (J)J
  */
-JNIEXPORT jint JNICALL Java_nimbus_nativestructs_CSet_c_1iterInit
-  (JNIEnv *, jobject, jint);
+JNIEXPORT jlong JNICALL Java_nimbus_nativestructs_CSet_c_1iterInit
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_iterHasNext
- * Signature: (II)Z
+ * Signature: (J)Z
  */
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CSet_c_1iterHasNext
-  (JNIEnv *, jobject, jint, jint);
+  (JNIEnv *, jobject, jlong);
 
 /*
  * Class:     nimbus_nativestructs_CSet
  * Method:    c_iterNext
- * Signature: (II)Ljava/lang/String;
+ * Signature: (J)Ljava/lang/String;
  */
 JNIEXPORT jstring JNICALL Java_nimbus_nativestructs_CSet_c_1iterNext
-  (JNIEnv *, jobject, jint, jint);
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_iterNextBytes
+ * Signature: (J)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_nimbus_nativestructs_CSet_c_1iterNextBytes
+  (JNIEnv *, jobject, jlong);
+
+/*
+ * Class:     nimbus_nativestructs_CSet
+ * Method:    c_iterFree
+ * Signature: (J)V
+ */
+JNIEXPORT void JNICALL Java_nimbus_nativestructs_CSet_c_1iterFree
+  (JNIEnv *, jobject, jlong);
 
 #ifdef __cplusplus
 }
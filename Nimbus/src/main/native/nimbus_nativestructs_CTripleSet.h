@@ -71,6 +71,14 @@ JNIEXPORT void JNICALL Java_nimbus_nativestructs_CTripleSet_c_1freeiter
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CTripleSet_c_1add
   (JNIEnv *, jobject, jstring, jstring, jstring);
 
+/*
+ * Class:     nimbus_nativestructs_CTripleSet
+ * Method:    c_addBytes
+ * Signature: ([B[B[B)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CTripleSet_c_1addBytes
+  (JNIEnv *, jobject, jbyteArray, jbyteArray, jbyteArray);
+
 /*
  * Class:     nimbus_nativestructs_CTripleSet
  * Method:    c_clear
@@ -95,6 +103,14 @@ JNIEXPORT void JNICALL Java_nimbus_nativestructs_CTripleSet_c_1print
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CTripleSet_c_1contains
   (JNIEnv *, jobject, jstring, jstring, jstring);
 
+/*
+ * Class:     nimbus_nativestructs_CTripleSet
+ * Method:    c_containsBytes
+ * Signature: ([B[B[B)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CTripleSet_c_1containsBytes
+  (JNIEnv *, jobject, jbyteArray, jbyteArray, jbyteArray);
+
 /*
  * Class:     nimbus_nativestructs_CTripleSet
  * Method:    c_isEmpty
@@ -111,6 +127,14 @@ JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CTripleSet_c_1isEmpty
 JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CTripleSet_c_1remove
   (JNIEnv *, jobject, jstring, jstring, jstring);
 
+/*
+ * Class:     nimbus_nativestructs_CTripleSet
+ * Method:    c_removeBytes
+ * Signature: ([B[B[B)Z
+ */
+JNIEXPORT jboolean JNICALL Java_nimbus_nativestructs_CTripleSet_c_1removeBytes
+  (JNIEnv *, jobject, jbyteArray, jbyteArray, jbyteArray);
+
 /*
  * Class:     nimbus_nativestructs_CTripleSet
  * Method:    c_size
@@ -0,0 +1,97 @@
+package nimbus.client;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import nimbus.main.NimbusConf;
+import nimbus.utils.BloomFilterType;
+import nimbus.utils.IBloomFilter;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BloomFilterCacheTest {
+
+	private static final String CACHE_NAME = "bloomcachetest";
+	private static final String CACHELET_NAME = "localhost";
+
+	private File dir = null;
+	private String oldDir = null;
+
+	@Before
+	public void setup() throws IOException {
+		dir = File.createTempFile("nimbus-bloomcache", "");
+		dir.delete();
+		dir.mkdirs();
+
+		oldDir = NimbusConf.getConf().get(NimbusConf.BLOOM_FILTER_CACHE_DIR);
+		NimbusConf.getConf().set(NimbusConf.BLOOM_FILTER_CACHE_DIR,
+				dir.getAbsolutePath() + "/local");
+	}
+
+	@After
+	public void teardown() throws IOException {
+		NimbusConf.getConf().set(NimbusConf.BLOOM_FILTER_CACHE_DIR, oldDir);
+		FileSystem.getLocal(NimbusConf.getConf()).delete(
+				new Path(dir.getAbsolutePath()), true);
+	}
+
+	private Path write(int numRecords) throws IOException {
+		IBloomFilter filter = IBloomFilter.newInstance(
+				BloomFilterType.BLOCKED, numRecords, .01f);
+		for (int i = 0; i < numRecords; ++i) {
+			filter.train(Integer.toString(i));
+		}
+
+		Path p = new Path(dir.getAbsolutePath() + "/hdfs/" + CACHELET_NAME);
+		filter.serialize(p);
+		return p;
+	}
+
+	private File[] localCopies() {
+		return NimbusConf.getConf()
+				.getBloomFilterCacheDir(CACHE_NAME, CACHELET_NAME).listFiles();
+	}
+
+	@Test
+	public void testDownloadOnce() throws IOException {
+		Path p = write(1000);
+		IBloomFilter filter = BloomFilterCache.get(CACHE_NAME, CACHELET_NAME,
+				p);
+		for (int i = 0; i < 1000; ++i) {
+			assertTrue(filter.membershipTest(Integer.toString(i)));
+		}
+
+		File[] copies = localCopies();
+		assertEquals(1, copies.length);
+		long modified = copies[0].lastModified();
+
+		BloomFilterCache.get(CACHE_NAME, CACHELET_NAME, p);
+		copies = localCopies();
+		assertEquals(1, copies.length);
+		assertEquals(modified, copies[0].lastModified());
+	}
+
+	@Test
+	public void testNewVersionReplacesOld() throws IOException {
+		Path p = write(1000);
+		BloomFilterCache.get(CACHE_NAME, CACHELET_NAME, p);
+		File old = localCopies()[0];
+
+		p = write(5000);
+		IBloomFilter filter = BloomFilterCache.get(CACHE_NAME, CACHELET_NAME,
+				p);
+		for (int i = 0; i < 5000; ++i) {
+			assertTrue(filter.membershipTest(Integer.toString(i)));
+		}
+
+		File[] copies = localCopies();
+		assertEquals(1, copies.length);
+		assertFalse(old.equals(copies[0]));
+	}
+}
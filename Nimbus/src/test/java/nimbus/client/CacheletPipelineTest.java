@@ -0,0 +1,184 @@
+package nimbus.client;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+
+import nimbus.utils.NimbusInputStream;
+import nimbus.utils.NimbusOutputStream;
+
+import org.junit.Test;
+
+public class CacheletPipelineTest {
+
+	private static final int ACK_CMD = 1;
+
+	private static class StringResponse extends
+			CacheletPipeline.Response<String> {
+		@Override
+		protected String parse(int cmd, long numArgs, NimbusInputStream in)
+				throws IOException {
+			return in.readArgString();
+		}
+	}
+
+	private static class FailingResponse extends
+			CacheletPipeline.Response<String> {
+		@Override
+		protected String parse(int cmd, long numArgs, NimbusInputStream in)
+				throws IOException {
+			throw new IOException("Did not expect " + numArgs + " arguments");
+		}
+	}
+
+	private byte[] reply(long requestId, String... values) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		NimbusOutputStream out = new NimbusOutputStream(bytes);
+		out.setRequestId(requestId);
+		out.write(ACK_CMD, values);
+		return bytes.toByteArray();
+	}
+
+	private static CacheletPipeline pipeline(ByteArrayOutputStream replies) {
+		return new CacheletPipeline(new NimbusOutputStream(
+				new ByteArrayOutputStream()), new NimbusInputStream(
+				new ByteArrayInputStream(replies.toByteArray())), 16);
+	}
+
+	@Test
+	public void testRepliesOutOfOrder() throws Exception {
+		ByteArrayOutputStream replies = new ByteArrayOutputStream();
+		replies.write(reply(2, "c"));
+		replies.write(reply(0, "a"));
+		replies.write(reply(1, "b"));
+
+		ByteArrayOutputStream requests = new ByteArrayOutputStream();
+		CacheletPipeline pipeline = new CacheletPipeline(
+				new NimbusOutputStream(requests), new NimbusInputStream(
+						new ByteArrayInputStream(replies.toByteArray())), 16);
+
+		CacheletPipeline.Response<String> a = pipeline.send(
+				new StringResponse(), 7, "a");
+		CacheletPipeline.Response<String> b = pipeline.send(
+				new StringResponse(), 7, "b");
+		CacheletPipeline.Response<String> c = pipeline.send(
+				new StringResponse(), 7, "c");
+		assertEquals(3, pipeline.getNumPending());
+
+		assertEquals("a", a.get());
+		assertTrue(c.isDone());
+		assertFalse(b.isDone());
+		assertEquals("c", c.get());
+		assertEquals("b", b.get());
+		assertEquals(0, pipeline.getNumPending());
+
+		NimbusInputStream in = new NimbusInputStream(requests.toByteArray());
+		for (int i = 0; i < 3; ++i) {
+			assertEquals(7, in.readCmd());
+			assertEquals(i, in.getRequestId());
+			assertEquals(1L, in.readNumArgs());
+			in.readArg();
+			in.verifyEndOfMessage();
+		}
+	}
+
+	@Test
+	public void testWindow() throws Exception {
+		ByteArrayOutputStream replies = new ByteArrayOutputStream();
+		replies.write(reply(0, "a"));
+		replies.write(reply(1, "b"));
+
+		CacheletPipeline pipeline = new CacheletPipeline(
+				new NimbusOutputStream(new ByteArrayOutputStream()),
+				new NimbusInputStream(new ByteArrayInputStream(replies
+						.toByteArray())), 1);
+
+		CacheletPipeline.Response<String> a = pipeline.send(
+				new StringResponse(), 7, "a");
+		CacheletPipeline.Response<String> b = pipeline.send(
+				new StringResponse(), 7, "b");
+
+		// the second send had to read the first reply to make room
+		assertTrue(a.isDone());
+		assertEquals(1, pipeline.getNumPending());
+
+		pipeline.drain();
+		assertEquals("b", b.get());
+	}
+
+	@Test(expected = ExecutionException.class)
+	public void testUnknownRequest() throws Exception {
+		CacheletPipeline pipeline = new CacheletPipeline(
+				new NimbusOutputStream(new ByteArrayOutputStream()),
+				new NimbusInputStream(new ByteArrayInputStream(reply(5, "x"))),
+				16);
+
+		pipeline.send(new StringResponse(), 7, "a").get();
+	}
+
+	@Test
+	public void testParseErrorSkipsReply() throws Exception {
+		ByteArrayOutputStream replies = new ByteArrayOutputStream();
+		replies.write(reply(0, "a", "b", "c"));
+		replies.write(reply(1, "d"));
+		CacheletPipeline pipeline = pipeline(replies);
+
+		CacheletPipeline.Response<String> a = pipeline.send(
+				new FailingResponse(), 7, "a");
+		CacheletPipeline.Response<String> d = pipeline.send(
+				new StringResponse(), 7, "d");
+
+		// the first reply fails, but the second is still read from its start
+		assertEquals("d", d.get());
+		assertTrue(a.isDone());
+		try {
+			a.get();
+			fail("Parse error was not reported");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+		assertFalse(pipeline.isBroken());
+	}
+
+	@Test
+	public void testStreamErrorFailsPending() throws Exception {
+		ByteArrayOutputStream replies = new ByteArrayOutputStream();
+		replies.write(reply(5, "x"));
+		replies.write(reply(0, "a"));
+		CacheletPipeline pipeline = pipeline(replies);
+
+		CacheletPipeline.Response<String> a = pipeline.send(
+				new StringResponse(), 7, "a");
+		CacheletPipeline.Response<String> b = pipeline.send(
+				new StringResponse(), 7, "b");
+
+		try {
+			pipeline.drain();
+			fail("Unknown request was not reported");
+		} catch (IOException e) {
+			// expected
+		}
+
+		// every outstanding response fails, not just the one being read
+		assertTrue(pipeline.isBroken());
+		assertEquals(0, pipeline.getNumPending());
+		assertTrue(a.isDone());
+		assertTrue(b.isDone());
+		try {
+			b.get();
+			fail("Pending response was not failed");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof IOException);
+		}
+
+		try {
+			pipeline.send(new StringResponse(), 7, "c");
+			fail("Sent on a broken pipeline");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+}
@@ -17,7 +17,7 @@ public class CListTest {
 
 	@Before
 	public void setup() {
-		list = CList.getInstance();
+		list = new CList();
 	}
 
 	@Test
@@ -522,8 +522,27 @@ public class CListTest {
 		list.toArray(new String[0]);
 	}
 
+	@Test
+	public void testSeparateLists() {
+		CList list2 = new CList();
+		try {
+			list.add("TEST");
+			list2.add("TEST2");
+			list2.add("TEST3");
+
+			Assert.assertEquals(1, list.size());
+			Assert.assertEquals(2, list2.size());
+			Assert.assertFalse(list.contains("TEST2"));
+			Assert.assertEquals("TEST3", list2.get(1));
+		} finally {
+			list2.release();
+		}
+
+		Assert.assertEquals("TEST", list.get(0));
+	}
+
 	@After
 	public void cleanup() {
-		list.clear();
+		list.release();
 	}
 }
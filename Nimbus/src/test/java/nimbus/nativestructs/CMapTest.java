@@ -16,7 +16,7 @@ public class CMapTest {
 
 	@Before
 	public void mapup() {
-		map = CMap.getInstance();
+		map = new CMap();
 	}
 
 	@Test
@@ -56,6 +56,51 @@ public class CMapTest {
 		Assert.assertEquals("VALUE2", map.get("TEST2"));
 	}
 
+	@Test
+	public void testPutAllManyCalls() {
+		map.put("KEY0", "OLD");
+
+		Map<String, String> values = new HashMap<String, String>();
+		for (int i = 0; i < 10000; ++i) {
+			values.put("KEY" + i, "VALUE" + i);
+		}
+		map.putAll(values);
+
+		Assert.assertEquals(values.size(), map.size());
+		Assert.assertEquals("VALUE0", map.get("KEY0"));
+		Assert.assertEquals("VALUE9999", map.get("KEY9999"));
+	}
+
+	@Test
+	public void testBytes() throws Exception {
+		String key = "KEY\ud83d\ude00";
+		byte[] keyBytes = key.getBytes("UTF-8");
+
+		Assert.assertNull(map.put(keyBytes, "VALUE\u00e9".getBytes("UTF-8")));
+		Assert.assertTrue(map.containsKey(key));
+		Assert.assertTrue(map.containsKey(keyBytes));
+		Assert.assertEquals("VALUE\u00e9", map.get(key));
+
+		map.put("KEY2", "VALUE2");
+		Assert.assertEquals("VALUE2", new String(map.get("KEY2".getBytes("UTF-8")),
+				"UTF-8"));
+
+		int num = 0;
+		Iterator<Entry<byte[], byte[]>> iter = map.bytesIterator();
+		while (iter.hasNext()) {
+			Entry<byte[], byte[]> entry = iter.next();
+			Assert.assertEquals(map.get(new String(entry.getKey(), "UTF-8")),
+					new String(entry.getValue(), "UTF-8"));
+			++num;
+		}
+		Assert.assertEquals(2, num);
+
+		Assert.assertEquals("VALUE\u00e9",
+				new String(map.remove(keyBytes), "UTF-8"));
+		Assert.assertNull(map.remove(keyBytes));
+		Assert.assertEquals(1, map.size());
+	}
+
 	@Test
 	public void testRemove() {
 		Assert.assertFalse(map.containsKey("TEST"));
@@ -150,54 +195,50 @@ public class CMapTest {
 		Assert.assertNull(iter2.next());
 	}
 
-	/*
-	 * @Test public void testMultipleIteratorsSeparateSets() {
-	 * Assert.assertFalse(map.containsKey("TEST"));
-	 * Assert.assertFalse(map.containsKey("TEST2"));
-	 * Assert.assertFalse(map.containsKey("TEST3"));
-	 * Assert.assertFalse(map.containsKey("TEST4"));
-	 * 
-	 * map.put("TEST", "VALUE"); map.put("TEST2", "VALUE2"); map.put("TEST3",
-	 * "VALUE3"); map.put("TEST4", "VALUE4");
-	 * 
-	 * CMap map2 = new CMap(); map2.put("TEST5", "VALUE5"); map2.put("TEST6",
-	 * "VALUE6"); map2.put("TEST7", "VALUE7"); map2.put("TEST8", "VALUE8");
-	 * 
-	 * Iterator<Entry<String, String>> iter1 = map.iterator();
-	 * 
-	 * Assert.assertEquals("TEST1", iter1.next()); Assert.assertEquals("TEST2",
-	 * iter1.next());
-	 * 
-	 * Iterator<Entry<String, String>> iter2 = map.iterator();
-	 * 
-	 * Assert.assertEquals("TEST1", iter2.next()); Assert.assertEquals("TEST2",
-	 * iter2.next());
-	 * 
-	 * Iterator<Entry<String, String>> iter3 = map2.iterator();
-	 * 
-	 * Assert.assertEquals("TEST5", iter3.next()); Assert.assertEquals("TEST6",
-	 * iter3.next());
-	 * 
-	 * Assert.assertEquals("TEST3", iter1.next()); Assert.assertEquals("TEST4",
-	 * iter1.next());
-	 * 
-	 * Iterator<Entry<String, String>> iter4 = map2.iterator();
-	 * 
-	 * Assert.assertEquals("TEST5", iter4.next()); Assert.assertEquals("TEST6",
-	 * iter4.next());
-	 * 
-	 * Assert.assertEquals("TEST3", iter2.next()); Assert.assertEquals("TEST4",
-	 * iter2.next());
-	 * 
-	 * Assert.assertEquals("TEST7", iter3.next()); Assert.assertEquals("TEST7",
-	 * iter4.next()); Assert.assertEquals("TEST8", iter3.next());
-	 * Assert.assertEquals("TEST8", iter4.next());
-	 * 
-	 * Assert.assertNull(iter1.next()); Assert.assertNull(iter2.next());
-	 * Assert.assertNull(iter3.next()); Assert.assertNull(iter4.next()); }
-	 */
+	@Test
+	public void testMultipleIteratorsSeparateMaps() {
+		map.put("TEST", "VALUE");
+		map.put("TEST2", "VALUE2");
+		map.put("TEST3", "VALUE3");
+		map.put("TEST4", "VALUE4");
+
+		CMap map2 = new CMap();
+		try {
+			map2.put("TEST5", "VALUE5");
+			map2.put("TEST6", "VALUE6");
+			map2.put("TEST7", "VALUE7");
+			map2.put("TEST8", "VALUE8");
+
+			Assert.assertEquals(4, map.size());
+			Assert.assertEquals(4, map2.size());
+			Assert.assertFalse(map.containsKey("TEST5"));
+			Assert.assertFalse(map2.containsKey("TEST"));
+
+			Iterator<Entry<String, String>> iter1 = map.iterator();
+			Assert.assertEquals("TEST", iter1.next().getKey());
+			Assert.assertEquals("TEST2", iter1.next().getKey());
+
+			Iterator<Entry<String, String>> iter2 = map2.iterator();
+			Assert.assertEquals("TEST5", iter2.next().getKey());
+			Assert.assertEquals("TEST6", iter2.next().getKey());
+
+			Assert.assertEquals("VALUE3", iter1.next().getValue());
+			Assert.assertEquals("VALUE7", iter2.next().getValue());
+			Assert.assertEquals("TEST4", iter1.next().getKey());
+			Assert.assertEquals("TEST8", iter2.next().getKey());
+
+			Assert.assertNull(iter1.next());
+			Assert.assertNull(iter2.next());
+		} finally {
+			map2.release();
+		}
+
+		// releasing one map leaves the other alone
+		Assert.assertEquals("VALUE", map.get("TEST"));
+	}
+
 	@After
 	public void cleanup() {
-		map.clear();
+		map.release();
 	}
 }
@@ -1,10 +1,14 @@
 package nimbus.nativestructs;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import nimbus.nativestructs.CSet;
+import nimbus.utils.BigBitArray;
 
 import org.junit.After;
 import org.junit.Assert;
@@ -66,6 +70,76 @@ public class CSetTest {
 		Assert.assertTrue(set.containsAll(values));
 	}
 
+	@Test
+	public void testAddEach() {
+		set.add("TEST2");
+
+		List<String> values = new ArrayList<String>();
+		values.add("TEST");
+		values.add("TEST2");
+		values.add("TEST3");
+		values.add("TEST");
+
+		BigBitArray added = set.addEach(values);
+		Assert.assertTrue(added.isBitOn(0));
+		Assert.assertFalse(added.isBitOn(1));
+		Assert.assertTrue(added.isBitOn(2));
+		Assert.assertFalse(added.isBitOn(3));
+		Assert.assertEquals(3, set.size());
+	}
+
+	@Test
+	public void testContainsEachManyCalls() {
+		// more than one native call's worth, including non-ASCII elements,
+		// which must match elements added one at a time
+		List<String> values = new ArrayList<String>();
+		for (int i = 0; i < 20000; ++i) {
+			values.add("TEST\u00e9\u4e2d" + i);
+			if (i % 3 == 0) {
+				set.add("TEST\u00e9\u4e2d" + i);
+			}
+		}
+
+		BigBitArray found = set.containsEach(values);
+		for (int i = 0; i < values.size(); ++i) {
+			Assert.assertEquals(i % 3 == 0, found.isBitOn(i));
+		}
+		Assert.assertFalse(set.containsAll(values));
+
+		Assert.assertTrue(set.addAll(values));
+		Assert.assertTrue(set.containsAll(values));
+		Assert.assertEquals(values.size(), set.size());
+		Assert.assertTrue(set.contains(values.get(19999)));
+	}
+
+	@Test
+	public void testBytes() throws Exception {
+		// includes a NUL and a character outside the Basic Multilingual
+		// Plane, the two that JNI encodes differently from UTF-8
+		String[] values = { "TEST", "TEST\u00e9\u4e2d", "TEST\ud83d\ude00",
+				"TEST\u0000" };
+		for (String value : values) {
+			byte[] bytes = value.getBytes("UTF-8");
+			Assert.assertTrue(set.add(bytes));
+			Assert.assertTrue(set.contains(value));
+			Assert.assertTrue(set.contains(bytes));
+			Assert.assertFalse(set.add(value));
+		}
+
+		Set<String> found = new HashSet<String>();
+		Iterator<byte[]> iter = set.bytesIterator();
+		while (iter.hasNext()) {
+			found.add(new String(iter.next(), "UTF-8"));
+		}
+		Assert.assertEquals(new HashSet<String>(Arrays.asList(values)), found);
+
+		byte[] padded = "xTESTx".getBytes("UTF-8");
+		Assert.assertTrue(set.contains(padded, 1, 4));
+		Assert.assertTrue(set.remove(padded, 1, 4));
+		Assert.assertFalse(set.contains("TEST"));
+		Assert.assertEquals(values.length - 1, set.size());
+	}
+
 	@Test
 	public void testRemove() {
 		Assert.assertFalse(set.contains("TEST"));
@@ -204,6 +278,55 @@ public class CSetTest {
 		Assert.assertNull(iter4.next());
 	}
 
+	@Test
+	public void testReleasedSetNotShared() {
+		CSet first = new CSet();
+		CSet second = new CSet();
+		first.add("FIRST");
+		second.add("SECOND");
+
+		// a set created after one is released must not share its storage
+		first.release();
+		CSet third = new CSet();
+		Assert.assertTrue(third.isEmpty());
+		third.add("THIRD");
+
+		Assert.assertEquals(1, second.size());
+		Assert.assertTrue(second.contains("SECOND"));
+		Assert.assertFalse(second.contains("THIRD"));
+
+		second.release();
+		third.release();
+	}
+
+	@Test
+	public void testConcurrentSets() throws InterruptedException {
+		// sets in different Caches are used from different threads at once
+		Thread[] threads = new Thread[4];
+		final boolean[] failed = new boolean[1];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 200; ++i) {
+						CSet s = new CSet();
+						s.add("A" + i);
+						if (!s.contains("A" + i) || s.size() != 1) {
+							failed[0] = true;
+						}
+						s.release();
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		Assert.assertFalse(failed[0]);
+	}
+
 	@After
 	public void cleanup() {
 		if (set != null) {
@@ -0,0 +1,186 @@
+package nimbus.server;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.channels.ServerSocketChannel;
+
+import nimbus.utils.NimbusInputStream;
+import nimbus.utils.NimbusOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class SelectorServerTest {
+
+	private static final int NAME_CMD = 1;
+	private static final int FAIL_CMD = 2;
+
+	/**
+	 * Answers every command with the name of its Cache.
+	 */
+	private static class NameCacheletServer extends ICacheletServer {
+
+		public NameCacheletServer(String cacheName) {
+			super(cacheName, "localhost", 0, CacheType.DYNAMIC_SET);
+		}
+
+		@Override
+		protected ICacheletWorker getNewWorker() {
+			return new ICacheletWorker() {
+				@Override
+				protected void processMessage(int cmd, long numArgs,
+						NimbusInputStream in) throws IOException {
+					if (cmd == FAIL_CMD) {
+						throw new IOException("Failing as asked");
+					}
+					out.write(NAME_CMD, server.getCacheName());
+				}
+			};
+		}
+
+		@Override
+		protected void startStatusThread() {
+		}
+	}
+
+	private SelectorServer selector = null;
+
+	@Before
+	public void setup() throws IOException {
+		selector = new SelectorServer(2);
+		Thread thread = new Thread(selector);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private int addServer(ICacheletServer server) throws IOException {
+		ServerSocketChannel channel = ServerSocketChannel.open();
+		channel.socket().bind(new InetSocketAddress(0));
+		selector.addServer(server, channel);
+		return channel.socket().getLocalPort();
+	}
+
+	private String askName(Socket socket) throws IOException {
+		new NimbusOutputStream(socket.getOutputStream()).write(NAME_CMD);
+		NimbusInputStream in = new NimbusInputStream(socket.getInputStream());
+		assertEquals(NAME_CMD, in.readCmd());
+		assertEquals(1L, in.readNumArgs());
+		String name = in.readArgString();
+		in.verifyEndOfMessage();
+		return name;
+	}
+
+	@Test
+	public void testConnectionsRoutedByPort() throws Exception {
+		int portA = addServer(new NameCacheletServer("a"));
+		int portB = addServer(new NameCacheletServer("b"));
+		assertEquals(2, selector.getNumServers());
+
+		Socket a = new Socket("localhost", portA);
+		Socket b = new Socket("localhost", portB);
+		try {
+			assertEquals("a", askName(a));
+			assertEquals("b", askName(b));
+			assertEquals("a", askName(a));
+		} finally {
+			a.close();
+			b.close();
+		}
+	}
+
+	@Test
+	public void testRemoveServer() throws Exception {
+		ICacheletServer serverA = new NameCacheletServer("a");
+		int portA = addServer(serverA);
+		int portB = addServer(new NameCacheletServer("b"));
+
+		Socket a = new Socket("localhost", portA);
+		Socket b = new Socket("localhost", portB);
+		try {
+			assertEquals("a", askName(a));
+
+			selector.removeServer(serverA);
+			assertEquals(1, selector.getNumServers());
+
+			// the connection to the removed Cachelet is closed
+			a.setSoTimeout(5000);
+			InputStream in = a.getInputStream();
+			assertEquals(-1, in.read());
+
+			assertEquals("b", askName(b));
+		} finally {
+			a.close();
+			b.close();
+		}
+	}
+
+	@Test
+	public void testWorkerCloseKeepsSelectorRunning() throws Exception {
+		int portA = addServer(new NameCacheletServer("a"));
+		int portB = addServer(new NameCacheletServer("b"));
+
+		Socket b = new Socket("localhost", portB);
+		try {
+			// each failed command closes its connection from a pool thread
+			for (int i = 0; i < 50; ++i) {
+				Socket a = new Socket("localhost", portA);
+				try {
+					new NimbusOutputStream(a.getOutputStream())
+							.write(FAIL_CMD);
+					a.setSoTimeout(5000);
+					assertEquals(-1, a.getInputStream().read());
+				} finally {
+					a.close();
+				}
+				assertEquals("b", askName(b));
+			}
+		} finally {
+			b.close();
+		}
+	}
+
+	@Test
+	public void testManyQueuedCommandsAllAnswered() throws Exception {
+		int port = addServer(new NameCacheletServer("a"));
+		final int numCmds = 20000;
+
+		final Socket socket = new Socket("localhost", port);
+		try {
+			socket.setSoTimeout(10000);
+
+			// far more commands than a connection queues before it stops
+			// reading, so reading pauses and resumes many times
+			Thread writer = new Thread() {
+				@Override
+				public void run() {
+					try {
+						NimbusOutputStream out = new NimbusOutputStream(
+								socket.getOutputStream());
+						for (int i = 0; i < numCmds; ++i) {
+							out.write(NAME_CMD);
+						}
+					} catch (IOException e) {
+						e.printStackTrace();
+					}
+				}
+			};
+			writer.start();
+
+			NimbusInputStream in = new NimbusInputStream(
+					socket.getInputStream());
+			for (int i = 0; i < numCmds; ++i) {
+				assertEquals(NAME_CMD, in.readCmd());
+				assertEquals(1L, in.readNumArgs());
+				assertEquals("a", in.readArgString());
+				in.verifyEndOfMessage();
+			}
+			writer.join();
+		} finally {
+			socket.close();
+		}
+	}
+}
@@ -0,0 +1,92 @@
+package nimbus.storage;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+import nimbus.utils.BytesUtil;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapMapTest {
+
+	private OffHeapMap map = null;
+
+	@Before
+	public void setup() {
+		map = new OffHeapMap();
+	}
+
+	@After
+	public void teardown() {
+		map.release();
+	}
+
+	@Test
+	public void testPutGetRemove() {
+		Assert.assertNull(map.get("KEY"));
+		Assert.assertNull(map.put("KEY", "VALUE"));
+		Assert.assertEquals("VALUE", map.get("KEY"));
+		Assert.assertTrue(map.containsKey("KEY"));
+		Assert.assertTrue(map.containsValue("VALUE"));
+
+		// the same length replaces in place, a different one is appended
+		Assert.assertEquals("VALUE", map.put("KEY", "OTHER"));
+		Assert.assertEquals("OTHER", map.put("KEY", "LONGER VALUE"));
+		Assert.assertEquals("LONGER VALUE", map.get("KEY"));
+		Assert.assertEquals(1, map.size());
+
+		Assert.assertEquals("LONGER VALUE", map.remove("KEY"));
+		Assert.assertNull(map.remove("KEY"));
+		Assert.assertTrue(map.isEmpty());
+	}
+
+	@Test
+	public void testBytes() {
+		byte[] key = BytesUtil.toBytes("KEY");
+		Assert.assertNull(map.put(key, BytesUtil.toBytes("VALUE")));
+		Assert.assertEquals("VALUE", map.get("KEY"));
+		Assert.assertArrayEquals(BytesUtil.toBytes("VALUE"), map.get(key));
+		Assert.assertTrue(map.containsKey(key));
+
+		Iterator<Entry<byte[], byte[]>> iter = map.bytesIterator();
+		Entry<byte[], byte[]> entry = iter.next();
+		Assert.assertArrayEquals(key, entry.getKey());
+		Assert.assertArrayEquals(BytesUtil.toBytes("VALUE"), entry.getValue());
+		Assert.assertFalse(iter.hasNext());
+
+		Assert.assertArrayEquals(BytesUtil.toBytes("VALUE"), map.remove(key));
+		Assert.assertFalse(map.containsKey(key));
+	}
+
+	@Test
+	public void testAgainstHashMap() {
+		// enough churn to grow the index and compact the slabs
+		Random random = new Random(0);
+		Map<String, String> expected = new HashMap<String, String>();
+		for (int i = 0; i < 200000; ++i) {
+			String key = "key-" + random.nextInt(20000);
+			if (random.nextInt(3) == 0) {
+				Assert.assertEquals(expected.remove(key), map.remove(key));
+			} else {
+				String value = "value-" + random.nextInt(1000000);
+				Assert.assertEquals(expected.put(key, value),
+						map.put(key, value));
+			}
+		}
+
+		Assert.assertEquals(expected.size(), map.size());
+		Assert.assertEquals(expected, new HashMap<String, String>(map));
+		Assert.assertEquals(expected.keySet(), map.keySet());
+		Assert.assertEquals(expected.size(), map.values().size());
+		for (int i = 0; i < 20000; ++i) {
+			String key = "key-" + i;
+			Assert.assertEquals(expected.get(key), map.get(key));
+		}
+	}
+}
@@ -0,0 +1,96 @@
+package nimbus.storage;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.Set;
+
+import nimbus.utils.BytesUtil;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OffHeapSetTest {
+
+	private OffHeapSet set = null;
+
+	@Before
+	public void setup() {
+		set = new OffHeapSet();
+	}
+
+	@After
+	public void teardown() {
+		set.release();
+	}
+
+	@Test
+	public void testAddContainsRemove() {
+		Assert.assertFalse(set.contains("TEST"));
+		Assert.assertTrue(set.add("TEST"));
+		Assert.assertFalse(set.add("TEST"));
+		Assert.assertTrue(set.contains("TEST"));
+		Assert.assertEquals(1, set.size());
+
+		Assert.assertTrue(set.remove("TEST"));
+		Assert.assertFalse(set.remove("TEST"));
+		Assert.assertFalse(set.contains("TEST"));
+		Assert.assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void testBytes() {
+		byte[] padded = BytesUtil.toBytes("xxTESTxx");
+		Assert.assertTrue(set.add(padded, 2, 4));
+		Assert.assertTrue(set.contains("TEST"));
+		Assert.assertTrue(set.contains(BytesUtil.toBytes("TEST")));
+		Assert.assertFalse(set.contains(padded));
+
+		Iterator<byte[]> iter = set.bytesIterator();
+		Assert.assertArrayEquals(BytesUtil.toBytes("TEST"), iter.next());
+		Assert.assertFalse(iter.hasNext());
+
+		Assert.assertTrue(set.remove(padded, 2, 4));
+		Assert.assertTrue(set.isEmpty());
+	}
+
+	@Test
+	public void testRetainAll() {
+		set.addAll(Arrays.asList("A", "B", "C"));
+		Assert.assertTrue(set.retainAll(Arrays.asList("B", "D")));
+		Assert.assertEquals(new HashSet<String>(Arrays.asList("B")),
+				new HashSet<String>(set));
+	}
+
+	@Test
+	public void testAgainstHashSet() {
+		// enough churn to grow the index and compact the slabs
+		Random random = new Random(0);
+		Set<String> expected = new HashSet<String>();
+		for (int i = 0; i < 200000; ++i) {
+			String element = "element-" + random.nextInt(20000);
+			if (random.nextInt(3) == 0) {
+				Assert.assertEquals(expected.remove(element),
+						set.remove(element));
+			} else {
+				Assert.assertEquals(expected.add(element), set.add(element));
+			}
+		}
+
+		Assert.assertEquals(expected.size(), set.size());
+		Assert.assertEquals(expected, new HashSet<String>(set));
+		for (int i = 0; i < 20000; ++i) {
+			String element = "element-" + i;
+			Assert.assertEquals(expected.contains(element),
+					set.contains(element));
+		}
+
+		set.clear();
+		Assert.assertTrue(set.isEmpty());
+		Assert.assertFalse(set.iterator().hasNext());
+		Assert.assertTrue(set.add("element-0"));
+	}
+}
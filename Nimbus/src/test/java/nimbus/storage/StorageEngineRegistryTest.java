@@ -0,0 +1,102 @@
+package nimbus.storage;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import nimbus.main.NimbusConf;
+import nimbus.master.CacheInfo;
+import nimbus.server.CacheType;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StorageEngineRegistryTest {
+
+	private CacheInfo newInfo(String name) {
+		CacheInfo info = new CacheInfo();
+		info.setName(name);
+		info.setPort(6000);
+		info.setType(CacheType.DYNAMIC_SET);
+		info.setAvailabilityArray(new byte[1]);
+		return info;
+	}
+
+	@Test
+	public void testCacheInfoStorageEngine() throws IOException {
+		CacheInfo info = newInfo("enginetest");
+		Assert.assertNull(new CacheInfo(info.getByteRepresentation())
+				.getStorageEngine());
+
+		info.setStorageEngine(StorageEngineType.OFF_HEAP);
+		CacheInfo read = new CacheInfo(info.getByteRepresentation());
+		Assert.assertEquals(StorageEngineType.OFF_HEAP, read.getStorageEngine());
+		Assert.assertEquals(6000, read.getPort());
+	}
+
+	@Test
+	public void testReadsInfoWithoutStorageEngine() throws IOException {
+		// as written before the storage engine was added
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeUTF("enginetest");
+		out.writeInt(6000);
+		out.writeUTF(CacheType.DYNAMIC_SET.name());
+		out.writeUTF("null");
+		out.writeInt(0);
+		out.writeFloat(0f);
+		out.writeInt(1);
+		out.write(0);
+		out.close();
+
+		CacheInfo info = new CacheInfo(bytes.toByteArray());
+		Assert.assertEquals("enginetest", info.getName());
+		Assert.assertNull(info.getStorageEngine());
+	}
+
+	@Test
+	public void testGetEngine() {
+		for (StorageEngineType type : StorageEngineType.values()) {
+			Assert.assertEquals(type, StorageEngineRegistry.getEngine(type)
+					.getType());
+		}
+
+		CacheInfo info = newInfo("enginetest");
+		info.setStorageEngine(StorageEngineType.ON_HEAP);
+		Assert.assertEquals(StorageEngineType.ON_HEAP, StorageEngineRegistry
+				.getEngine(info).getType());
+
+		// a per Cache setting is used when the information has none
+		NimbusConf.getConf().set(NimbusConf.STORAGE_ENGINE + ".enginetest",
+				"off_heap");
+		try {
+			Assert.assertEquals(StorageEngineType.OFF_HEAP,
+					StorageEngineRegistry.getEngine(newInfo("enginetest"))
+							.getType());
+		} finally {
+			NimbusConf.getConf().set(
+					NimbusConf.STORAGE_ENGINE + ".enginetest",
+					NimbusConf.getConf().get(NimbusConf.STORAGE_ENGINE));
+		}
+	}
+
+	@Test
+	public void testMapSetStore() {
+		IMapSetStore mapSet = StorageEngineRegistry.getEngine(
+				StorageEngineType.ON_HEAP).newMapSetStore();
+		Assert.assertTrue(mapSet.add("KEY", "A"));
+		Assert.assertFalse(mapSet.add("KEY", "A"));
+		Assert.assertTrue(mapSet.add("KEY", "B"));
+		Assert.assertTrue(mapSet.add("OTHER", "A"));
+		Assert.assertEquals(3, mapSet.size());
+
+		Assert.assertTrue(mapSet.contains("KEY", "B"));
+		Assert.assertTrue(mapSet.get("KEY") instanceof HeapSet);
+		Assert.assertEquals(2, mapSet.remove("KEY"));
+		Assert.assertFalse(mapSet.contains("KEY"));
+		Assert.assertEquals(1, mapSet.size());
+
+		mapSet.clear();
+		Assert.assertTrue(mapSet.isEmpty());
+	}
+}
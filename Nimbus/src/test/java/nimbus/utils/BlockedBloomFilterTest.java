@@ -0,0 +1,205 @@
+package nimbus.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+import nimbus.main.NimbusConf;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlockedBloomFilterTest {
+
+	private static final int NUM_RECORDS = 10000;
+	private static final float FALSE_POSITIVE_RATE = .01f;
+
+	private File dir = null;
+	private Set<String> set = new HashSet<String>();
+
+	@Before
+	public void setup() throws IOException {
+		dir = File.createTempFile("nimbus-bloom", "");
+		dir.delete();
+		dir.mkdirs();
+
+		while (set.size() < NUM_RECORDS) {
+			set.add(UUID.randomUUID().toString());
+		}
+	}
+
+	@After
+	public void teardown() throws IOException {
+		FileSystem.getLocal(NimbusConf.getConf()).delete(
+				new Path(dir.getAbsolutePath()), true);
+	}
+
+	private IBloomFilter train(BloomFilterType type) {
+		IBloomFilter filter = IBloomFilter.newInstance(type, NUM_RECORDS,
+				FALSE_POSITIVE_RATE);
+		for (String s : set) {
+			filter.train(s);
+		}
+		return filter;
+	}
+
+	private float falsePositiveRate(IBloomFilter filter) {
+		int falsePositives = 0, tests = NUM_RECORDS * 10;
+		for (int i = 0; i < tests; ++i) {
+			String s = UUID.randomUUID().toString();
+			if (filter.membershipTest(s) && !set.contains(s)) {
+				++falsePositives;
+			}
+		}
+		return (float) falsePositives / tests;
+	}
+
+	@Test
+	public void testMurmur3() {
+		long[] hash = new long[2];
+		Murmur3Hash.hash128(new byte[0], 0, 0, 0, hash);
+		assertEquals(0L, hash[0]);
+		assertEquals(0L, hash[1]);
+
+		byte[] hello = BytesUtil.toBytes("hello");
+		Murmur3Hash.hash128(hello, 0, hello.length, 0, hash);
+		assertEquals(0xcbd8a7b341bd9b02L, hash[0]);
+		assertEquals(0x5b1e906a48ae1d19L, hash[1]);
+	}
+
+	@Test
+	public void testMurmur3Chars() throws Exception {
+		long[] fromChars = new long[2], fromBytes = new long[2];
+		String key = "";
+		for (int i = 0; i < 40; ++i) {
+			byte[] bytes = key.getBytes("UTF-16LE");
+			Murmur3Hash.hash128(bytes, 0, bytes.length, 42, fromBytes);
+			Murmur3Hash.hash128(key, 42, fromChars);
+			assertArrayEquals(fromBytes, fromChars);
+			key += (char) ('a' + i + (i % 3 == 0 ? 0x400 : 0));
+		}
+	}
+
+	@Test
+	public void testNoFalseNegatives() {
+		IBloomFilter filter = train(BloomFilterType.BLOCKED);
+		for (String s : set) {
+			assertTrue(filter.membershipTest(s));
+		}
+
+		float rate = falsePositiveRate(filter);
+		System.out.println("Blocked False Positive Rate: " + rate);
+		assertTrue(rate < FALSE_POSITIVE_RATE * 2);
+	}
+
+	@Test
+	public void testLoadEitherFormat() throws IOException {
+		for (BloomFilterType type : BloomFilterType.values()) {
+			IBloomFilter filter = train(type);
+			Path p = new Path(dir.getAbsolutePath() + "/" + type);
+			filter.serialize(p);
+
+			IBloomFilter loaded = IBloomFilter.load(p);
+			assertEquals(filter.getClass(), loaded.getClass());
+			assertEquals(filter.size(), loaded.size());
+			for (String s : set) {
+				assertTrue(loaded.membershipTest(s));
+			}
+		}
+	}
+
+	@Test
+	public void testMapEitherFormat() throws IOException {
+		for (BloomFilterType type : BloomFilterType.values()) {
+			IBloomFilter filter = train(type);
+			Path p = new Path(dir.getAbsolutePath() + "/" + type);
+			filter.serialize(p);
+
+			IBloomFilter mapped = IBloomFilter.map(new File(p.toUri()
+					.getPath()));
+			assertEquals(filter.getClass(), mapped.getClass());
+			assertEquals(filter.size(), mapped.size());
+			for (String s : set) {
+				assertTrue(mapped.membershipTest(s));
+			}
+			for (int i = 0; i < 1000; ++i) {
+				String s = UUID.randomUUID().toString();
+				assertEquals(filter.membershipTest(s), mapped.membershipTest(s));
+			}
+		}
+	}
+
+	private File serialize(BloomFilterType type) throws IOException {
+		Path p = new Path(dir.getAbsolutePath() + "/" + type);
+		train(type).serialize(p);
+
+		File file = new File(p.toUri().getPath());
+		new File(file.getParentFile(), "." + file.getName() + ".crc").delete();
+		return file;
+	}
+
+	private void assertRejected(File file) {
+		try {
+			IBloomFilter.load(new Path(file.toURI()));
+			fail("Loaded " + file);
+		} catch (IOException e) {
+			// expected
+		}
+
+		try {
+			IBloomFilter.verify(file);
+			fail("Verified " + file);
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testCorruptFilterRejected() throws IOException {
+		File file = serialize(BloomFilterType.BLOCKED);
+		IBloomFilter.verify(file);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length() / 2);
+		int b = raf.read();
+		raf.seek(raf.length() / 2);
+		raf.write(b ^ 0xFF);
+		raf.close();
+
+		assertRejected(file);
+	}
+
+	@Test
+	public void testTruncatedFilterRejected() throws IOException {
+		for (BloomFilterType type : BloomFilterType.values()) {
+			File file = serialize(type);
+			IBloomFilter.verify(file);
+
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			raf.setLength(raf.length() - 5);
+			raf.close();
+
+			assertRejected(file);
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testUnknownVersion() throws IOException {
+		Path p = new Path(dir.getAbsolutePath() + "/unknown");
+		FSDataOutputStream out = FileSystem.getLocal(
+				NimbusConf.getConf()).create(p);
+		out.writeInt(IBloomFilter.MAGIC);
+		out.writeByte(99);
+		out.close();
+		IBloomFilter.load(p);
+	}
+}
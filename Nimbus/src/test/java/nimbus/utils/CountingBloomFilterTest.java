@@ -0,0 +1,198 @@
+package nimbus.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+
+import org.junit.Test;
+
+public class CountingBloomFilterTest {
+
+	private static byte[] key(int i) {
+		return BytesUtil.toBytes("key" + i);
+	}
+
+	private static void assertReplicaMatches(CountingBloomFilter filter,
+			BloomFilterReplica replica, int numKeys) {
+		for (int i = 0; i < numKeys; ++i) {
+			assertEquals(filter.membershipTest(key(i)),
+					replica.membershipTest(key(i)));
+		}
+	}
+
+	@Test
+	public void testAddAndRemove() {
+		CountingBloomFilter filter = new CountingBloomFilter(10000, 0.01f);
+		for (int i = 0; i < 10000; ++i) {
+			filter.add(key(i));
+		}
+		for (int i = 0; i < 10000; ++i) {
+			assertTrue(filter.membershipTest(key(i)));
+		}
+
+		for (int i = 0; i < 5000; ++i) {
+			filter.remove(key(i));
+		}
+		for (int i = 5000; i < 10000; ++i) {
+			assertTrue(filter.membershipTest(key(i)));
+		}
+
+		int falsePositives = 0;
+		for (int i = 0; i < 5000; ++i) {
+			if (filter.membershipTest(key(i))) {
+				++falsePositives;
+			}
+		}
+		assertTrue("false positives: " + falsePositives, falsePositives < 150);
+	}
+
+	@Test
+	public void testSnapshotOffset() {
+		CountingBloomFilter filter = new CountingBloomFilter(100, 0.01f);
+		byte[] buffer = BytesUtil.toBytes("xxkey7yy");
+		filter.add(buffer, 2, 4);
+		assertTrue(filter.membershipTest(key(7)));
+	}
+
+	@Test
+	public void testReplicaUpdates() throws IOException {
+		CountingBloomFilter filter = new CountingBloomFilter(100000, 0.01f);
+		BloomFilterReplica replica = new BloomFilterReplica();
+		assertTrue(replica.membershipTest(key(0)));
+
+		for (int i = 0; i < 1000; ++i) {
+			filter.add(key(i));
+		}
+		byte[] full = filter.writeUpdate(replica.getEpoch(),
+				replica.getVersion());
+		assertEquals(CountingBloomFilter.FULL_UPDATE, full[0]);
+		replica.apply(full);
+		assertEquals(filter.getVersion(), replica.getVersion());
+		assertReplicaMatches(filter, replica, 2000);
+
+		for (int i = 1000; i < 1200; ++i) {
+			filter.add(key(i));
+		}
+		for (int i = 0; i < 100; ++i) {
+			filter.remove(key(i));
+		}
+		byte[] delta = filter.writeUpdate(replica.getEpoch(),
+				replica.getVersion());
+		assertEquals(CountingBloomFilter.DELTA_UPDATE, delta[0]);
+		assertTrue(delta.length < full.length / 10);
+		replica.apply(delta);
+		assertReplicaMatches(filter, replica, 2000);
+		assertFalse(replica.membershipTest(key(50)));
+		assertTrue(replica.membershipTest(key(1100)));
+	}
+
+	@Test
+	public void testTooManyChangesSendsFullUpdate() throws IOException {
+		CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01f);
+		BloomFilterReplica replica = new BloomFilterReplica();
+		replica.apply(filter.writeUpdate(0, -1));
+
+		for (int i = 0; i < 1000; ++i) {
+			filter.add(key(i));
+		}
+		byte[] update = filter.writeUpdate(replica.getEpoch(),
+				replica.getVersion());
+		assertEquals(CountingBloomFilter.FULL_UPDATE, update[0]);
+		replica.apply(update);
+		assertReplicaMatches(filter, replica, 2000);
+	}
+
+	@Test
+	public void testClearStartsNewEpoch() throws IOException {
+		CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01f);
+		BloomFilterReplica replica = new BloomFilterReplica();
+		filter.add(key(1));
+		replica.apply(filter.writeUpdate(0, -1));
+		byte[] stale = filter.writeUpdate(replica.getEpoch(),
+				replica.getVersion());
+
+		filter.clear();
+		assertFalse(filter.membershipTest(key(1)));
+		byte[] update = filter.writeUpdate(replica.getEpoch(),
+				replica.getVersion());
+		assertEquals(CountingBloomFilter.FULL_UPDATE, update[0]);
+		replica.apply(update);
+		assertFalse(replica.membershipTest(key(1)));
+
+		// a delta from the old epoch does not apply
+		try {
+			replica.apply(stale);
+			fail("Applied a delta from another epoch");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testTrainedKeysFound() throws IOException {
+		CountingBloomFilter filter = new CountingBloomFilter(1000, 0.01f);
+		BloomFilterReplica replica = new BloomFilterReplica();
+		replica.apply(filter.writeUpdate(0, -1));
+		assertFalse(replica.membershipTest(key(3)));
+
+		replica.train(key(3));
+		assertTrue(replica.membershipTest(key(3)));
+
+		// the next update leaves the bits on once the Cachelet has the key
+		filter.add(key(3));
+		replica.apply(filter.writeUpdate(replica.getEpoch(),
+				replica.getVersion()));
+		assertTrue(replica.membershipTest(key(3)));
+	}
+
+	@Test
+	public void testConcurrentUpdates() throws Exception {
+		final CountingBloomFilter filter = new CountingBloomFilter(40000,
+				0.01f);
+		final int numThreads = 4;
+		final int keysPerThread = 10000;
+		BloomFilterReplica replica = new BloomFilterReplica();
+
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; ++t) {
+			final int start = t * keysPerThread;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = start; i < start + keysPerThread; ++i) {
+						filter.add(key(i));
+					}
+					for (int i = start; i < start + keysPerThread / 2; ++i) {
+						filter.remove(key(i));
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		// updates built while writers run still converge once they stop
+		boolean running = true;
+		while (running) {
+			replica.apply(filter.writeUpdate(replica.getEpoch(),
+					replica.getVersion()));
+			running = false;
+			for (Thread t : threads) {
+				running |= t.isAlive();
+			}
+		}
+		for (Thread t : threads) {
+			t.join();
+		}
+
+		for (int t = 0; t < numThreads; ++t) {
+			int end = (t + 1) * keysPerThread;
+			for (int i = end - keysPerThread / 2; i < end; ++i) {
+				assertTrue(filter.membershipTest(key(i)));
+			}
+		}
+
+		replica.apply(filter.writeUpdate(replica.getEpoch(),
+				replica.getVersion()));
+		assertReplicaMatches(filter, replica, numThreads * keysPerThread);
+	}
+}
@@ -0,0 +1,191 @@
+package nimbus.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FrameDecoderTest {
+
+	private NimbusOutputStream out = null;
+	private ByteArrayOutputStream bytesOut = null;
+	private FrameDecoder decoder = null;
+
+	@Before
+	public void setup() throws IOException {
+		bytesOut = new ByteArrayOutputStream();
+		out = new NimbusOutputStream(bytesOut);
+		decoder = new FrameDecoder();
+	}
+
+	@Test
+	public void testNoArgs() throws IOException {
+		out.write(3);
+
+		byte[] bytes = bytesOut.toByteArray();
+		assertEquals(bytes.length, decoder.decode(ByteBuffer.wrap(bytes)));
+
+		NimbusInputStream in = new NimbusInputStream(bytes);
+		assertEquals(3, in.readCmd());
+		assertEquals(0L, in.readNumArgs());
+		in.verifyEndOfMessage();
+	}
+
+	@Test
+	public void testOneByteAtATime() throws IOException {
+		out.write(1, "key", "", "value");
+		byte[] bytes = bytesOut.toByteArray();
+
+		ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+		for (int i = 0; i < bytes.length - 1; ++i) {
+			buf.put(bytes[i]);
+			buf.flip();
+			assertEquals(-1, decoder.decode(buf));
+			buf.position(buf.limit());
+			buf.limit(buf.capacity());
+		}
+
+		buf.put(bytes[bytes.length - 1]);
+		buf.flip();
+		assertEquals(bytes.length, decoder.decode(buf));
+
+		NimbusInputStream in = new NimbusInputStream(bytes);
+		assertEquals(1, in.readCmd());
+		assertEquals(3L, in.readNumArgs());
+		assertEquals("key", new String(in.readArg()));
+		assertEquals("", new String(in.readArg()));
+		assertEquals("value", new String(in.readArg()));
+		in.verifyEndOfMessage();
+	}
+
+	@Test
+	public void testMultipleFrames() throws IOException {
+		out.write(1, "a");
+		int first = bytesOut.size();
+		out.write(2, "b", "c");
+		int second = bytesOut.size() - first;
+		out.write(3);
+		int third = bytesOut.size() - first - second;
+
+		ByteBuffer buf = ByteBuffer.wrap(bytesOut.toByteArray());
+		assertEquals(first, decoder.decode(buf));
+		buf.position(buf.position() + first);
+		assertEquals(second, decoder.decode(buf));
+		buf.position(buf.position() + second);
+		assertEquals(third, decoder.decode(buf));
+		buf.position(buf.position() + third);
+		assertEquals(-1, decoder.decode(buf));
+	}
+
+	@Test
+	public void testRequestId() throws IOException {
+		out.setRequestId(42L);
+		out.write(5, "key");
+		int first = bytesOut.size();
+		out.setRequestId(NimbusOutputStream.NO_REQUEST_ID);
+		out.write(6, "key");
+
+		byte[] bytes = bytesOut.toByteArray();
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		assertEquals(first, decoder.decode(buf));
+		buf.position(first);
+		assertEquals(bytes.length - first, decoder.decode(buf));
+
+		NimbusInputStream in = new NimbusInputStream(bytes);
+		assertEquals(5, in.readCmd());
+		assertEquals(42L, in.getRequestId());
+		assertEquals(1L, in.readNumArgs());
+		assertEquals("key", new String(in.readArg()));
+		in.verifyEndOfMessage();
+
+		assertEquals(6, in.readCmd());
+		assertEquals(NimbusOutputStream.NO_REQUEST_ID, in.getRequestId());
+	}
+
+	@Test
+	public void testV2OneByteAtATime() throws IOException {
+		StringBuilder longArg = new StringBuilder();
+		for (int i = 0; i < 300; ++i) {
+			longArg.append('x');
+		}
+
+		out.setProtocolVersion(NimbusOutputStream.PROTOCOL_V2);
+		out.setRequestId(1000L);
+		out.write(9, "key", "", longArg.toString());
+		byte[] bytes = bytesOut.toByteArray();
+
+		// magic, flags, 2 byte id, cmd and count, then each header and argument
+		assertEquals(6 + (1 + 3) + 1 + (2 + 300), bytes.length);
+
+		ByteBuffer buf = ByteBuffer.allocate(bytes.length);
+		for (int i = 0; i < bytes.length - 1; ++i) {
+			buf.put(bytes[i]);
+			buf.flip();
+			assertEquals(-1, decoder.decode(buf));
+			buf.position(buf.limit());
+			buf.limit(buf.capacity());
+		}
+
+		buf.put(bytes[bytes.length - 1]);
+		buf.flip();
+		assertEquals(bytes.length, decoder.decode(buf));
+
+		NimbusInputStream in = new NimbusInputStream(bytes);
+		assertEquals(9, in.readCmd());
+		assertEquals(NimbusOutputStream.PROTOCOL_V2, in.getProtocolVersion());
+		assertEquals(1000L, in.getRequestId());
+		assertEquals(3L, in.readNumArgs());
+		assertEquals("key", new String(in.readArg()));
+		assertEquals("", new String(in.readArg()));
+		assertEquals(longArg.toString(), new String(in.readArg()));
+		in.verifyEndOfMessage();
+	}
+
+	@Test
+	public void testMixedVersions() throws IOException {
+		out.setProtocolVersion(NimbusOutputStream.PROTOCOL_V2);
+		out.write(1);
+		int first = bytesOut.size();
+		out.setProtocolVersion(NimbusOutputStream.PROTOCOL_V1);
+		out.write(2, "a");
+
+		byte[] bytes = bytesOut.toByteArray();
+		ByteBuffer buf = ByteBuffer.wrap(bytes);
+		assertEquals(first, decoder.decode(buf));
+		buf.position(first);
+		assertEquals(bytes.length - first, decoder.decode(buf));
+
+		NimbusInputStream in = new NimbusInputStream(bytes);
+		assertEquals(1, in.readCmd());
+		assertEquals(0L, in.readNumArgs());
+		in.verifyEndOfMessage();
+		assertEquals(2, in.readCmd());
+		assertEquals(NimbusOutputStream.PROTOCOL_V1, in.getProtocolVersion());
+		assertEquals(1L, in.readNumArgs());
+		assertEquals("a", new String(in.readArg()));
+		in.verifyEndOfMessage();
+	}
+
+	@Test
+	public void testTypedValues() throws IOException {
+		out.writeNull(1);
+		int first = bytesOut.size();
+		out.setProtocolVersion(NimbusOutputStream.PROTOCOL_V2);
+		out.writeLong(2, 7L);
+		int second = bytesOut.size() - first;
+
+		ByteBuffer buf = ByteBuffer.wrap(bytesOut.toByteArray());
+		assertEquals(first, decoder.decode(buf));
+		buf.position(first);
+		assertEquals(second, decoder.decode(buf));
+	}
+
+	@Test(expected = IOException.class)
+	public void testBadToken() throws IOException {
+		decoder.decode(ByteBuffer.wrap(new byte[] { 0, 'x' }));
+	}
+}
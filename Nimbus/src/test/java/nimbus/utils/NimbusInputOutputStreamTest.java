@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 
 import org.junit.Before;
@@ -227,4 +228,79 @@ public class NimbusInputOutputStreamTest {
 
 		in.verifyEndOfMessage();
 	}
+
+	@Test
+	public void testPooledArgs() throws IOException {
+
+		StringBuilder longString = new StringBuilder();
+		for (int i = 0; i < 600; ++i) {
+			longString.append((char) ('a' + i % 26));
+		}
+
+		out.write(0, "short", longString.toString(), "", "skipped", "\u00e9t\u00e9");
+
+		assertEquals(0, in.readCmd());
+		assertEquals(5L, in.readNumArgs());
+		assertEquals("short", in.readArgString());
+
+		ByteBuffer buf = in.readArgBuffer();
+		assertEquals(600, buf.remaining());
+		assertEquals(longString.toString(), BytesUtil.toString(buf.array(),
+				buf.position(), buf.remaining()));
+
+		assertEquals("", in.readArgString());
+		in.skipArg();
+		assertEquals("\u00e9t\u00e9", in.readArgString());
+		in.verifyEndOfMessage();
+	}
+
+	@Test
+	public void testTypedValues() throws IOException {
+
+		for (int version : new int[] { NimbusOutputStream.PROTOCOL_V1,
+				NimbusOutputStream.PROTOCOL_V2 }) {
+			out.setProtocolVersion(version);
+
+			out.writeBoolean(1, true);
+			assertEquals(1, in.readCmd());
+			assertEquals(1L, in.readNumArgs());
+			assertTrue(in.readArgBoolean());
+			in.verifyEndOfMessage();
+
+			out.writeInt(2, -42);
+			assertEquals(2, in.readCmd());
+			assertEquals(1L, in.readNumArgs());
+			assertEquals(-42, in.readArgInt());
+			in.verifyEndOfMessage();
+
+			out.writeLong(3, Long.MAX_VALUE);
+			assertEquals(3, in.readCmd());
+			assertEquals(1L, in.readNumArgs());
+			assertEquals(Long.MAX_VALUE, in.readArgLong());
+			in.verifyEndOfMessage();
+
+			out.writeNull(4);
+			assertEquals(4, in.readCmd());
+			assertEquals(1L, in.readNumArgs());
+			assertNull(in.readArgString());
+			in.verifyEndOfMessage();
+
+			// typed values can still be read as strings
+			out.writeBoolean(5, false);
+			assertEquals(5, in.readCmd());
+			assertEquals(1L, in.readNumArgs());
+			assertEquals("false", in.readArgString());
+			in.verifyEndOfMessage();
+		}
+	}
+
+	@Test(expected = IOException.class)
+	public void testNotABoolean() throws IOException {
+
+		out.write(0, "yes");
+
+		assertEquals(0, in.readCmd());
+		assertEquals(1L, in.readNumArgs());
+		in.readArgBoolean();
+	}
 }
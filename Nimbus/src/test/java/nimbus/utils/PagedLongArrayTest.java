@@ -0,0 +1,91 @@
+package nimbus.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteOrder;
+
+import org.junit.Test;
+
+public class PagedLongArrayTest {
+
+	@Test
+	public void testAcrossPages() {
+		long length = PagedLongArray.PAGE_WORDS * 2L + 3;
+		PagedLongArray array = new PagedLongArray(length);
+		assertEquals(length, array.length());
+
+		long[] indexes = { 0, PagedLongArray.PAGE_WORDS - 1,
+				PagedLongArray.PAGE_WORDS, PagedLongArray.PAGE_WORDS * 2L,
+				length - 1 };
+		for (long i : indexes) {
+			array.set(i, i + 1);
+		}
+		for (long i : indexes) {
+			assertEquals(i + 1, array.get(i));
+		}
+
+		array.or(length - 1, 0x100L);
+		array.andNot(length - 1, length);
+		assertEquals(0x100L, array.get(length - 1));
+
+		array.reset();
+		for (long i : indexes) {
+			assertEquals(0L, array.get(i));
+		}
+	}
+
+	@Test
+	public void testBitArrayByteLayout() {
+		byte[] bytes = new byte[13];
+		bytes[0] = 0x01;
+		bytes[8] = (byte) 0x80;
+		bytes[12] = 0x10;
+
+		BigBitArray array = new BigBitArray(bytes);
+		assertEquals(104, array.size());
+		assertTrue(array.isBitOn(0));
+		assertTrue(array.isBitOn(71));
+		assertTrue(array.isBitOn(100));
+		assertFalse(array.isBitOn(1));
+
+		array.turnBitOn(103);
+		array.turnBitOff(0);
+		bytes[0] = 0;
+		bytes[12] |= (byte) 0x80;
+		assertArrayEquals(bytes, array.getBytes());
+	}
+
+	@Test
+	public void testStreamRoundTrip() throws Exception {
+		for (ByteOrder order : new ByteOrder[] { ByteOrder.LITTLE_ENDIAN,
+				ByteOrder.BIG_ENDIAN }) {
+			PagedLongArray array = new PagedLongArray(20000);
+			for (long i = 0; i < array.length(); ++i) {
+				array.set(i, i * 0x9E3779B97F4A7C15L);
+			}
+
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			array.writeTo(out, array.length() * 8, order);
+			assertEquals(array.length() * 8, out.size());
+
+			PagedLongArray copy = new PagedLongArray(array.length());
+			copy.readFully(new ByteArrayInputStream(out.toByteArray()),
+					array.length() * 8, order);
+			for (long i = 0; i < array.length(); ++i) {
+				assertEquals(array.get(i), copy.get(i));
+			}
+		}
+	}
+
+	@Test
+	public void testShortStream() throws Exception {
+		PagedLongArray array = new PagedLongArray(2);
+		byte[] bytes = { 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+		assertEquals(11L, array.readFrom(new ByteArrayInputStream(bytes), 16,
+				ByteOrder.LITTLE_ENDIAN));
+		assertEquals(0x0807060504030201L, array.get(0));
+		assertEquals(0x0B0A09L, array.get(1));
+	}
+}
@@ -0,0 +1,378 @@
+package nimbus.utils;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import nimbus.main.NimbusConf;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class WriteAheadLogTest {
+
+	private static final String CACHE_NAME = "waltest";
+	private static final String CACHELET_NAME = "localhost";
+
+	private File dir = null;
+	private String oldDir = null;
+	private String oldLocalDir = null;
+
+	@Before
+	public void setup() throws IOException {
+		dir = File.createTempFile("nimbus-wal", "");
+		dir.delete();
+		dir.mkdirs();
+
+		oldDir = NimbusConf.getConf().get(NimbusConf.WRITE_AHEAD_LOG_DIR);
+		NimbusConf.getConf().set(NimbusConf.WRITE_AHEAD_LOG_DIR,
+				dir.getAbsolutePath() + "/hdfs");
+
+		oldLocalDir = NimbusConf.getConf().get(NimbusConf.WAL_LOCAL_DIR);
+		NimbusConf.getConf().set(NimbusConf.WAL_LOCAL_DIR,
+				dir.getAbsolutePath() + "/local");
+	}
+
+	@After
+	public void teardown() throws IOException {
+		NimbusConf.getConf().set(NimbusConf.WRITE_AHEAD_LOG_DIR, oldDir);
+		NimbusConf.getConf().set(NimbusConf.WAL_LOCAL_DIR, oldLocalDir);
+		FileSystem.getLocal(NimbusConf.getConf()).delete(
+				new Path(dir.getAbsolutePath()), true);
+	}
+
+	private List<String> readLog() throws IOException {
+		Path[] files = NimbusConf.getConf().getPastWriteAheadLogs(CACHE_NAME,
+				CACHELET_NAME);
+		assertEquals(1, files.length);
+		return readLog(files[0]);
+	}
+
+	private List<String> readLog(Path file) throws IOException {
+		List<String> elements = new ArrayList<String>();
+		for (LogRecord record : WriteAheadLogReader.read(file)) {
+			assertEquals(1, record.getCmd());
+			assertEquals(1, record.getArgs().length);
+			elements.add(record.getArgs()[0]);
+		}
+		return elements;
+	}
+
+	@Test
+	public void testRecordsWrittenInOrder() throws Exception {
+		final WriteAheadLog wal = new WriteAheadLog(CACHE_NAME, CACHELET_NAME,
+				WriteAheadLogAckMode.BATCHED, 16, 8, 1,
+				WriteAheadLogBackend.HDFS, 0);
+		wal.open();
+
+		final int numThreads = 4, numRecords = 500;
+		Thread[] threads = new Thread[numThreads];
+		for (int t = 0; t < numThreads; ++t) {
+			final int id = t;
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < numRecords; ++i) {
+						wal.write(1, id + ":" + i);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		wal.close();
+
+		List<String> elements = readLog();
+		assertEquals(numThreads * numRecords, elements.size());
+
+		// each writer's records appear in the order they were written
+		int[] next = new int[numThreads];
+		for (String element : elements) {
+			String[] tokens = element.split(":");
+			int id = Integer.parseInt(tokens[0]);
+			assertEquals(next[id]++, Integer.parseInt(tokens[1]));
+		}
+	}
+
+	@Test
+	public void testCloseWritesQueuedRecords() throws Exception {
+		WriteAheadLog wal = new WriteAheadLog(CACHE_NAME, CACHELET_NAME,
+				WriteAheadLogAckMode.ASYNC, 1024, 64, 50,
+				WriteAheadLogBackend.HDFS, 0);
+		wal.open();
+
+		long seq = 0;
+		for (int i = 0; i < 100; ++i) {
+			seq = wal.append(1, Integer.toString(i));
+		}
+		assertEquals(100L, seq);
+		wal.close();
+
+		List<String> elements = readLog();
+		assertEquals(100, elements.size());
+		assertEquals("99", elements.get(99));
+	}
+
+	@Test
+	public void testReservedAppends() throws Exception {
+		// room for one record, so every reservation waits for the flusher
+		final WriteAheadLog wal = new WriteAheadLog(CACHE_NAME, CACHELET_NAME,
+				WriteAheadLogAckMode.BATCHED, 1, 8, 0,
+				WriteAheadLogBackend.HDFS, 0);
+		wal.open();
+
+		final Object lock = new Object();
+		Thread[] threads = new Thread[4];
+		for (int t = 0; t < threads.length; ++t) {
+			threads[t] = new Thread() {
+				@Override
+				public void run() {
+					for (int i = 0; i < 100; ++i) {
+						wal.reserve();
+						long seq;
+						synchronized (lock) {
+							seq = wal.appendReserved(1, Integer.toString(i));
+						}
+						wal.await(seq);
+					}
+				}
+			};
+			threads[t].start();
+		}
+
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		wal.close();
+
+		assertEquals(400, readLog().size());
+	}
+
+	@Test
+	public void testRoll() throws Exception {
+		WriteAheadLog wal = new WriteAheadLog(CACHE_NAME, CACHELET_NAME,
+				WriteAheadLogAckMode.ASYNC, 1024, 64, 0,
+				WriteAheadLogBackend.HDFS, 0);
+		wal.open();
+
+		for (int i = 0; i < 10; ++i) {
+			wal.append(1, Integer.toString(i));
+		}
+		Path rolled = wal.roll();
+		for (int i = 10; i < 20; ++i) {
+			wal.append(1, Integer.toString(i));
+		}
+		wal.close();
+
+		Path[] files = NimbusConf.getConf().getPastWriteAheadLogs(CACHE_NAME,
+				CACHELET_NAME);
+		assertEquals(2, files.length);
+		assertEquals(rolled.getName(), files[1].getName());
+
+		List<String> before = readLog(files[0]);
+		List<String> after = readLog(files[1]);
+		assertEquals(10, before.size());
+		assertEquals("9", before.get(9));
+		assertEquals(10, after.size());
+		assertEquals("10", after.get(0));
+	}
+
+	@Test
+	public void testReaderDropsTornRecord() throws Exception {
+		WriteAheadLog wal = new WriteAheadLog(CACHE_NAME, CACHELET_NAME,
+				WriteAheadLogAckMode.BATCHED, 1024, 64, 0,
+				WriteAheadLogBackend.HDFS, 0);
+		wal.open();
+		for (int i = 0; i < 10; ++i) {
+			wal.write(1, Integer.toString(i));
+		}
+		wal.close();
+
+		Path[] files = NimbusConf.getConf().getPastWriteAheadLogs(CACHE_NAME,
+				CACHELET_NAME);
+		File file = new File(files[0].toUri().getPath());
+
+		// cut the last record short, as a crash in the middle of a write would
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+		new File(file.getParentFile(), "." + file.getName() + ".crc").delete();
+
+		List<LogRecord> records = WriteAheadLogReader.read(files[0]);
+		assertEquals(9, records.size());
+		assertEquals("8", records.get(8).getArgs()[0]);
+	}
+
+	@Test
+	public void testLocalMappedFiles() throws Exception {
+		// small files, so the log moves on to new ones as they fill up
+		WriteAheadLog wal = new WriteAheadLog(CACHE_NAME, CACHELET_NAME,
+				WriteAheadLogAckMode.BATCHED, 1024, 8, 0,
+				WriteAheadLogBackend.LOCAL_MMAP, 256);
+		wal.open();
+		for (int i = 0; i < 100; ++i) {
+			wal.write(1, Integer.toString(i));
+		}
+		wal.close();
+
+		Path[] local = NimbusConf.getConf().getPastLocalWriteAheadLogs(
+				CACHE_NAME, CACHELET_NAME);
+		Path[] shipped = NimbusConf.getConf().getPastWriteAheadLogs(
+				CACHE_NAME, CACHELET_NAME);
+		assertTrue(local.length > 1);
+		assertEquals(local.length, shipped.length);
+
+		List<String> fromLocal = new ArrayList<String>();
+		List<String> fromShipped = new ArrayList<String>();
+		for (int i = 0; i < local.length; ++i) {
+			assertEquals(local[i].getName(), shipped[i].getName());
+			for (LogRecord record : WriteAheadLogReader.read(local[i])) {
+				fromLocal.add(record.getArgs()[0]);
+			}
+			fromShipped.addAll(readLog(shipped[i]));
+		}
+
+		assertEquals(100, fromLocal.size());
+		for (int i = 0; i < 100; ++i) {
+			assertEquals(Integer.toString(i), fromLocal.get(i));
+		}
+		assertEquals(fromLocal, fromShipped);
+	}
+
+	@Test
+	public void testLargeGroupSplitAcrossFiles() throws Exception {
+		// one group of every record, far larger than a file
+		WriteAheadLog wal = new WriteAheadLog(CACHE_NAME, CACHELET_NAME,
+				WriteAheadLogAckMode.BATCHED, 1024, 1024, 500,
+				WriteAheadLogBackend.LOCAL_MMAP, 256);
+		wal.open();
+		long seq = 0;
+		for (int i = 0; i < 200; ++i) {
+			seq = wal.append(1, "record-" + i);
+		}
+		wal.await(seq);
+
+		// a single record larger than a file grows the files to fit it
+		StringBuilder big = new StringBuilder();
+		for (int i = 0; i < 400; ++i) {
+			big.append('x');
+		}
+		wal.write(1, big.toString());
+		wal.close();
+
+		Path[] local = NimbusConf.getConf().getPastLocalWriteAheadLogs(
+				CACHE_NAME, CACHELET_NAME);
+		assertTrue(local.length > 1);
+		assertEquals(0, wal.getNumUnshippedFiles());
+
+		List<String> fromLocal = new ArrayList<String>();
+		for (int i = 0; i < local.length; ++i) {
+			File file = new File(local[i].toUri().getPath());
+			if (i < local.length - 1) {
+				assertEquals(256, file.length());
+			}
+			for (LogRecord record : WriteAheadLogReader.read(local[i])) {
+				fromLocal.add(record.getArgs()[0]);
+			}
+		}
+
+		assertEquals(201, fromLocal.size());
+		for (int i = 0; i < 200; ++i) {
+			assertEquals("record-" + i, fromLocal.get(i));
+		}
+		assertEquals(big.toString(), fromLocal.get(200));
+	}
+
+	@Test
+	public void testByteArguments() throws Exception {
+		WriteAheadLog wal = new WriteAheadLog(CACHE_NAME, CACHELET_NAME,
+				WriteAheadLogAckMode.BATCHED, 1024, 64, 0,
+				WriteAheadLogBackend.HDFS, 0);
+		wal.open();
+		byte[] element = BytesUtil.toBytes("caf\u00e9");
+		wal.reserve();
+		wal.await(wal.appendReserved(1, element, null));
+		wal.close();
+
+		Path[] files = NimbusConf.getConf().getPastWriteAheadLogs(CACHE_NAME,
+				CACHELET_NAME);
+		List<LogRecord> records = WriteAheadLogReader.read(files[0]);
+		assertEquals(1, records.size());
+		assertArrayEquals(element, records.get(0).getArgBytes()[0]);
+		assertNull(records.get(0).getArgBytes()[1]);
+		assertEquals("caf\u00e9", records.get(0).getArgs()[0]);
+		assertNull(records.get(0).getArgs()[1]);
+	}
+
+	private File writeTenBatches() throws IOException {
+		WriteAheadLog wal = new WriteAheadLog(CACHE_NAME, CACHELET_NAME,
+				WriteAheadLogAckMode.BATCHED, 1024, 64, 0,
+				WriteAheadLogBackend.HDFS, 0);
+		wal.open();
+		for (int i = 0; i < 10; ++i) {
+			wal.write(1, Integer.toString(i));
+		}
+		wal.close();
+
+		Path[] files = NimbusConf.getConf().getPastWriteAheadLogs(CACHE_NAME,
+				CACHELET_NAME);
+		File file = new File(files[0].toUri().getPath());
+		new File(file.getParentFile(), "." + file.getName() + ".crc").delete();
+		return file;
+	}
+
+	private void flipByte(File file, long pos) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(pos);
+		int b = raf.read();
+		raf.seek(pos);
+		raf.write(b ^ 0xFF);
+		raf.close();
+	}
+
+	@Test
+	public void testReaderDropsCorruptTail() throws Exception {
+		File file = writeTenBatches();
+		flipByte(file, file.length() - 1);
+
+		List<LogRecord> records = WriteAheadLogReader.read(new Path(file
+				.toURI()));
+		assertEquals(9, records.size());
+		assertEquals("8", records.get(8).getArgs()[0]);
+	}
+
+	@Test(expected = IOException.class)
+	public void testReaderFailsOnCorruptBatch() throws Exception {
+		File file = writeTenBatches();
+
+		// in the payload of the first batch, which is followed by nine more
+		flipByte(file, 7);
+		WriteAheadLogReader.read(new Path(file.toURI()));
+	}
+
+	@Test
+	public void testReaderReadsMessageLogs() throws Exception {
+		Path file = new Path(dir.getAbsolutePath() + "/messages");
+		FSDataOutputStream fsOut = FileSystem.getLocal(NimbusConf.getConf())
+				.create(file);
+		NimbusOutputStream out = new NimbusOutputStream(fsOut);
+		for (int i = 0; i < 10; ++i) {
+			out.write(1, Integer.toString(i));
+		}
+		fsOut.close();
+
+		assertEquals(10, readLog(file).size());
+		assertEquals("9", readLog(file).get(9));
+	}
+}